@@ -27,10 +27,23 @@ package org.metagene.genestrip.io;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.metagene.genestrip.util.Metrics;
 
 /**
  * Reads newline-delimited lines from an input stream into caller-supplied byte buffers with minimal
  * allocation. Null (0) bytes are skipped and not counted, and lines are delimited by {@code '\n'}.
+ * <p>
+ * With read-ahead, a background thread fills a ring of large buffers from the stream, which the reader
+ * then parses directly. So reading (and decompressing) the stream overlaps with the processing of the
+ * lines.
  */
 public class BufferedLineReader implements Closeable {
 	/**
@@ -38,7 +51,22 @@ public class BufferedLineReader implements Closeable {
 	 */
 	public static final int DEFAULT_BUFFER_SIZE = 8 * 4096;
 
+	/**
+	 * Size (in bytes) of each buffer filled by the read-ahead thread.
+	 */
+	public static final int READ_AHEAD_SEGMENT_SIZE = 256 * 1024;
+
+	private static final AtomicInteger THREAD_NO = new AtomicInteger();
+
+	// For scanning eight bytes at a time.
+	private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class,
+			ByteOrder.LITTLE_ENDIAN);
+	private static final long ONES = 0x0101010101010101L;
+	private static final long HIGHS = 0x8080808080808080L;
+	private static final long NEWLINES = ONES * '\n';
+
 	private static int bufferSize = DEFAULT_BUFFER_SIZE;
+	private static int readAheadBuffers = 0;
 
 	/**
 	 * Sets the default internal buffer size (in bytes) used by newly created readers.
@@ -58,11 +86,34 @@ public class BufferedLineReader implements Closeable {
 		return bufferSize;
 	}
 
-	private final byte[] buffer;
+	/**
+	 * Sets the number of buffers read ahead for newly created readers that ask for read-ahead via
+	 * {@link #BufferedLineReader(boolean)}. With {@code 0}, no read-ahead takes place.
+	 *
+	 * @param readAheadBuffers the number of read-ahead buffers
+	 */
+	public static void setReadAheadBuffers(int readAheadBuffers) {
+		BufferedLineReader.readAheadBuffers = readAheadBuffers;
+	}
+
+	/**
+	 * Returns the number of buffers read ahead for newly created readers that ask for read-ahead.
+	 *
+	 * @return the number of read-ahead buffers
+	 */
+	public static int getReadAheadBuffers() {
+		return readAheadBuffers;
+	}
+
+	private byte[] buffer;
 
 	private int pos; // Position from which to start reading from the buffer.
 	private InputStream stream;
 	private int bufferFill;
+	private final int aheadBuffers;
+	private boolean useReadAhead;
+	private ReadAhead readAhead;
+	private Metrics.Counter bytesCounter;
 
 	/**
 	 * Creates a reader with no input stream set yet; use {@link #setInputStream(InputStream)} before
@@ -72,6 +123,16 @@ public class BufferedLineReader implements Closeable {
 		this(null);
 	}
 
+	/**
+	 * Creates a reader with no input stream set yet, which reads ahead as configured via
+	 * {@link #setReadAheadBuffers(int)} if {@code readAhead} is {@code true}.
+	 *
+	 * @param readAhead whether to read ahead on a background thread
+	 */
+	public BufferedLineReader(boolean readAhead) {
+		this(null, bufferSize, readAhead ? readAheadBuffers : 0);
+	}
+
 	/**
 	 * Creates a reader over the given stream using the current default buffer size.
 	 *
@@ -88,19 +149,73 @@ public class BufferedLineReader implements Closeable {
 	 * @param bufferSize the internal buffer size in bytes
 	 */
 	public BufferedLineReader(InputStream stream, int bufferSize) {
+		this(stream, bufferSize, 0);
+	}
+
+	/**
+	 * Creates a reader over the given stream using an internal buffer of the given size and the given
+	 * number of read-ahead buffers.
+	 *
+	 * @param stream       the input stream to read from
+	 * @param bufferSize   the internal buffer size in bytes (without read-ahead)
+	 * @param aheadBuffers the number of buffers of {@link #READ_AHEAD_SEGMENT_SIZE} bytes read ahead on a
+	 *                     background thread, {@code 0} for no read-ahead
+	 */
+	public BufferedLineReader(InputStream stream, int bufferSize, int aheadBuffers) {
 		this.buffer = new byte[bufferSize];
+		this.aheadBuffers = aheadBuffers;
 		setInputStream(stream);
 	}
 
 	/**
-	 * Sets (or replaces) the input stream to read from and resets the internal buffer state.
+	 * Sets (or replaces) the input stream to read from and resets the internal buffer state. Read-ahead
+	 * from a previous stream is stopped. Read-ahead for the new stream only starts with the first line
+	 * read, so the stream may still be used otherwise instead.
 	 *
 	 * @param stream the input stream to read from
 	 */
 	public void setInputStream(InputStream stream) {
+		stopReadAhead();
 		pos = buffer.length;
 		bufferFill = 0;
 		this.stream = stream;
+		// A parallel GZIP stream already inflates ahead on background threads.
+		useReadAhead = aheadBuffers > 0 && !(stream instanceof ParallelGZIPInputStream);
+	}
+
+	/**
+	 * Sets a counter to which the number of bytes read from the input stream is added, buffer by buffer.
+	 *
+	 * @param bytesCounter the counter or {@code null} for none
+	 */
+	public void setBytesCounter(Metrics.Counter bytesCounter) {
+		this.bytesCounter = bytesCounter;
+	}
+
+	private void stopReadAhead() {
+		if (readAhead != null) {
+			readAhead.cancel();
+			readAhead = null;
+		}
+	}
+
+	// Returns the number of bytes in 'buffer' (which may be replaced) or -1 at the end of the stream.
+	private int readBuffer() throws IOException {
+		int fill;
+		if (!useReadAhead) {
+			fill = stream.read(buffer);
+		} else {
+			if (readAhead == null) {
+				readAhead = new ReadAhead(stream, aheadBuffers);
+			}
+			Segment segment = readAhead.next();
+			buffer = segment.data;
+			fill = segment.fill;
+		}
+		if (bytesCounter != null && fill > 0) {
+			bytesCounter.add(fill);
+		}
+		return fill;
 	}
 
 	/**
@@ -114,19 +229,17 @@ public class BufferedLineReader implements Closeable {
 	public final int skipLine() throws IOException {
 		int size = 0;
 		while (bufferFill != -1) {
-			if (pos < bufferFill) {
-				byte c = -1;
-				for (; pos < bufferFill && c != '\n'; pos++) {
-					c = buffer[pos];
-					if (c != 0) {
-						size++;
+			while (pos < bufferFill) {
+				int end = indexOfLineEndOrNull(buffer, pos, bufferFill);
+				size += end - pos;
+				pos = end;
+				if (end < bufferFill) {
+					if (buffer[pos++] == '\n') {
+						return size + 1;
 					}
 				}
-				if (c == '\n') {
-					return size;
-				}
 			}
-			bufferFill = stream.read(buffer);
+			bufferFill = readBuffer();
 			pos = 0;
 		}
 		return size;
@@ -160,31 +273,130 @@ public class BufferedLineReader implements Closeable {
 	public final int nextLine(byte[] target, int startPos) throws IOException {
 		int size = startPos;
 		while (bufferFill != -1) {
-			if (pos < bufferFill) {
-				byte c = -1;
-				for (; size < target.length && pos < bufferFill && c != '\n'; pos++) {
-					target[size] = c = buffer[pos];
-					if (c != 0) {
-						size++;
+			while (pos < bufferFill) {
+				// The bytes up to the next newline or null byte are copied in bulk.
+				int limit = Math.min(bufferFill, pos + target.length - size);
+				int end = indexOfLineEndOrNull(buffer, pos, limit);
+				System.arraycopy(buffer, pos, target, size, end - pos);
+				size += end - pos;
+				pos = end;
+				if (end < limit) {
+					if (buffer[pos++] == '\n') {
+						target[size++] = '\n';
+						return size;
 					}
-				}
-				if (c == '\n') {
-					return size;
-				}
-				if (size == target.length) {
+				} else if (size == target.length) {
 					return size + 1; // Indicates that target buffer is full and more stuff in the line.
 				}
 			}
-			bufferFill = stream.read(buffer);
+			bufferFill = readBuffer();
 			pos = 0;
 		}
 		return size;
 	}
 
+	// Returns the index of the first newline or null byte in data[from, to), or 'to' if there is none.
+	// Checks eight bytes at a time (SWAR). Package private for testing purposes.
+	static int indexOfLineEndOrNull(byte[] data, int from, int to) {
+		int i = from;
+		for (; i <= to - 8; i += 8) {
+			long word = (long) LONGS.get(data, i);
+			long newlines = word ^ NEWLINES;
+			// The high bit is set for each zero byte and possibly for bytes above it (due to the borrow),
+			// so the lowest set bit (little endian) marks the first one.
+			long found = (((word - ONES) & ~word) | ((newlines - ONES) & ~newlines)) & HIGHS;
+			if (found != 0) {
+				return i + (Long.numberOfTrailingZeros(found) >>> 3);
+			}
+		}
+		for (; i < to; i++) {
+			byte c = data[i];
+			if (c == '\n' || c == 0) {
+				return i;
+			}
+		}
+		return to;
+	}
+
 	@Override
 	public void close() throws IOException {
+		stopReadAhead();
 		if (stream != null) {
 			stream.close();
 		}
 	}
+
+	private static final class Segment {
+		private final byte[] data;
+		private int fill;
+		private IOException error;
+
+		private Segment(int size) {
+			data = new byte[size];
+		}
+	}
+
+	// The ring of buffers between the read-ahead thread and the reader.
+	private static final class ReadAhead {
+		private final InputStream stream;
+		private final BlockingQueue<Segment> full;
+		private final BlockingQueue<Segment> free;
+		private final Thread thread;
+		private volatile boolean cancelled;
+		private Segment current;
+
+		private ReadAhead(InputStream stream, int buffers) {
+			this.stream = stream;
+			full = new ArrayBlockingQueue<>(buffers);
+			free = new ArrayBlockingQueue<>(buffers);
+			for (int i = 0; i < buffers; i++) {
+				free.add(new Segment(READ_AHEAD_SEGMENT_SIZE));
+			}
+			thread = new Thread(this::readAhead, "Read ahead " + THREAD_NO.incrementAndGet());
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		// Runs on the read-ahead thread.
+		private void readAhead() {
+			try {
+				while (!cancelled) {
+					Segment segment = free.take();
+					try {
+						int n = stream.readNBytes(segment.data, 0, segment.data.length);
+						segment.fill = n == 0 ? -1 : n;
+					} catch (IOException e) {
+						segment.fill = -1;
+						segment.error = e;
+					}
+					full.put(segment);
+					if (segment.fill == -1) {
+						break;
+					}
+				}
+			} catch (InterruptedException e) {
+				// Cancelled.
+			}
+		}
+
+		private Segment next() throws IOException {
+			if (current != null) {
+				free.add(current);
+			}
+			try {
+				current = full.take();
+			} catch (InterruptedException e) {
+				throw new InterruptedIOException();
+			}
+			if (current.error != null) {
+				throw new IOException("Reading ahead failed.", current.error);
+			}
+			return current;
+		}
+
+		private void cancel() {
+			cancelled = true;
+			thread.interrupt();
+		}
+	}
 }
@@ -0,0 +1,404 @@
+/*
+ * 
+ * “Commons Clause” License Condition v1.0
+ * 
+ * The Software is provided to you by the Licensor under the License, 
+ * as defined below, subject to the following condition.
+ * 
+ * Without limiting other conditions in the License, the grant of rights under the License 
+ * will not include, and the License does not grant to you, the right to Sell the Software.
+ * 
+ * For purposes of the foregoing, “Sell” means practicing any or all of the rights granted 
+ * to you under the License to provide to third parties, for a fee or other consideration 
+ * (including without limitation fees for hosting or consulting/ support services related to 
+ * the Software), a product or service whose value derives, entirely or substantially, from the 
+ * functionality of the Software. Any license notice or attribution required by the License 
+ * must also include this Commons Clause License Condition notice.
+ * 
+ * Software: genestrip
+ * 
+ * License: Apache 2.0
+ * 
+ * Licensor: Daniel Pfeifer (daniel.pfeifer@progotec.de)
+ * 
+ */
+package org.metagene.genestrip.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Collects records (such as output lines) from several threads and writes them to an output stream on a
+ * background thread. Every writing thread owns a {@link Slot}, which appends records to a large block of
+ * its own without any locking. Full blocks are handed over to the background thread via a queue, so the
+ * writing threads hardly ever wait for I/O. A record is never split across blocks, so the records of
+ * different slots do not get mixed up.
+ * <p>
+ * In ordered mode, each record carries a sequence number and the background thread writes the records
+ * in the order of these numbers. To do so incrementally, the numbers of the records between two calls of
+ * {@link #endSequence()} should be dense, start at 0 and increase within each slot. (So a slot must add
+ * an empty record for a number without output.) Numbers may leap ahead though, if the record before a leap
+ * is added via {@link Slot#endChunk(long, long)}, which tells the next number. Otherwise, the records are
+ * buffered until {@link #endSequence()} and only then written in order.
+ */
+public class ConcurrentBlockWriter implements Closeable {
+	private static final AtomicInteger THREAD_NO = new AtomicInteger();
+	// Average bytes per record used to size the per-block record arrays in ordered mode.
+	private static final int BYTES_PER_RECORD = 32;
+
+	private final OutputStream out;
+	private final int blockSize;
+	private final boolean ordered;
+	private final Slot[] slots;
+	private final BlockingQueue<Block> fullBlocks;
+	private final BlockingQueue<Block> freeBlocks;
+	private final Thread writerThread;
+	private volatile IOException error;
+	private boolean closed;
+
+	// The following are only accessed by the background thread in ordered mode.
+	private final ArrayDeque<Block>[] pending;
+	private long nextSeqNo;
+
+	/**
+	 * Creates the writer and starts its background thread.
+	 *
+	 * @param out       the stream to write to, which is flushed but not closed by this writer
+	 * @param slots     the number of slots, typically the number of writing threads
+	 * @param blockSize the number of bytes per slot after which a block is handed over
+	 * @param ordered   whether records are written in the order of their sequence numbers
+	 */
+	@SuppressWarnings("unchecked")
+	public ConcurrentBlockWriter(OutputStream out, int slots, int blockSize, boolean ordered) {
+		if (slots <= 0) {
+			throw new IllegalArgumentException("slots must be > 0");
+		}
+		if (blockSize <= 0) {
+			throw new IllegalArgumentException("blockSize must be > 0");
+		}
+		this.out = out;
+		this.blockSize = blockSize;
+		this.ordered = ordered;
+		// The queue bounds the memory in unordered mode, as the writing threads wait when it is full.
+		// In ordered mode, the background thread moves blocks on to 'pending' right away.
+		fullBlocks = new ArrayBlockingQueue<>(2 * slots + 2);
+		freeBlocks = new ArrayBlockingQueue<>(2 * slots + 2);
+		this.slots = new Slot[slots];
+		for (int i = 0; i < slots; i++) {
+			this.slots[i] = new Slot(i);
+		}
+		pending = ordered ? new ArrayDeque[slots] : null;
+		if (ordered) {
+			for (int i = 0; i < slots; i++) {
+				pending[i] = new ArrayDeque<>();
+			}
+		}
+		writerThread = new Thread(this::writeBlocks, "Block writer " + THREAD_NO.incrementAndGet());
+		writerThread.setDaemon(true);
+		writerThread.start();
+	}
+
+	/**
+	 * Returns the slot with the given index. A slot must only be used by one thread at a time.
+	 *
+	 * @param index the slot index
+	 * @return the slot
+	 */
+	public Slot getSlot(int index) {
+		return slots[index];
+	}
+
+	/**
+	 * Returns whether records are written in the order of their sequence numbers.
+	 *
+	 * @return whether this writer is in ordered mode
+	 */
+	public boolean isOrdered() {
+		return ordered;
+	}
+
+	/**
+	 * Hands over the blocks of all slots, waits until all records have been written and flushes the
+	 * underlying stream. In ordered mode, the sequence numbers start at 0 again afterwards. Must only be
+	 * called while no slot is in use.
+	 *
+	 * @throws IOException if writing to the underlying stream failed
+	 */
+	public void endSequence() throws IOException {
+		for (Slot slot : slots) {
+			slot.handOver(false);
+		}
+		Block sync = new Block(-1, 0);
+		sync.synced = new CountDownLatch(1);
+		put(sync);
+		try {
+			sync.synced.await();
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException();
+		}
+		checkError();
+	}
+
+	/**
+	 * Writes all remaining records (see {@link #endSequence()}) and stops the background thread. The
+	 * underlying stream is not closed.
+	 *
+	 * @throws IOException if writing to the underlying stream failed
+	 */
+	@Override
+	public void close() throws IOException {
+		if (!closed) {
+			closed = true;
+			try {
+				endSequence();
+			} finally {
+				writerThread.interrupt();
+			}
+		}
+	}
+
+	private void checkError() throws IOException {
+		IOException e = error;
+		if (e != null) {
+			throw new IOException("Writing failed.", e);
+		}
+	}
+
+	private void put(Block block) throws IOException {
+		try {
+			fullBlocks.put(block);
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException();
+		}
+	}
+
+	private Block nextFreeBlock(int slot) {
+		Block block = freeBlocks.poll();
+		if (block == null) {
+			return new Block(slot, blockSize);
+		}
+		block.slot = slot;
+		return block;
+	}
+
+	private void recycle(Block block) {
+		block.size = 0;
+		block.records = 0;
+		block.next = 0;
+		freeBlocks.offer(block);
+	}
+
+	private void writeBlocks() {
+		try {
+			while (true) {
+				Block block = fullBlocks.take();
+				try {
+					if (block.synced != null) {
+						if (error == null) {
+							if (ordered) {
+								writeRemaining();
+								nextSeqNo = 0;
+							}
+							out.flush();
+						}
+						block.synced.countDown();
+					} else if (error != null) {
+						// Just keep the writing threads going - the error is reported via endSequence().
+						recycle(block);
+					} else if (ordered) {
+						pending[block.slot].add(block);
+						writeInOrder();
+					} else {
+						out.write(block.data, 0, block.size);
+						recycle(block);
+					}
+				} catch (IOException e) {
+					error = e;
+					if (block.synced != null) {
+						block.synced.countDown();
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			// Closed.
+		}
+	}
+
+	// Writes all runs of records continuing the sequence, which start at the head of a slot's pending
+	// blocks. As the numbers increase within a slot, the next one can only be at such a head.
+	private void writeInOrder() throws IOException {
+		boolean progress = true;
+		while (progress) {
+			progress = false;
+			for (ArrayDeque<Block> queue : pending) {
+				Block block = queue.peek();
+				while (block != null && block.seqNos[block.next] == nextSeqNo) {
+					int i = block.next;
+					int start = i == 0 ? 0 : block.ends[i - 1];
+					do {
+						nextSeqNo = block.nextSeqNos[i];
+						i++;
+					} while (i < block.records && block.seqNos[i] == nextSeqNo);
+					out.write(block.data, start, block.ends[i - 1] - start);
+					block.next = i;
+					progress = true;
+					if (i == block.records) {
+						queue.poll();
+						recycle(block);
+						block = queue.peek();
+					}
+				}
+			}
+		}
+	}
+
+	// Writes the records left over due to gaps in the sequence by always picking the smallest number.
+	private void writeRemaining() throws IOException {
+		while (true) {
+			Block min = null;
+			for (ArrayDeque<Block> queue : pending) {
+				Block block = queue.peek();
+				if (block != null && (min == null || block.seqNos[block.next] < min.seqNos[min.next])) {
+					min = block;
+				}
+			}
+			if (min == null) {
+				return;
+			}
+			int i = min.next;
+			int start = i == 0 ? 0 : min.ends[i - 1];
+			out.write(min.data, start, min.ends[i] - start);
+			min.next = i + 1;
+			if (min.next == min.records) {
+				pending[min.slot].poll();
+				recycle(min);
+			}
+		}
+	}
+
+	/**
+	 * The output stream of a single writing thread. Bytes written between {@link #startRecord(long)} and
+	 * {@link #endRecord()} form a record. None of the methods are synchronized.
+	 */
+	public final class Slot extends OutputStream {
+		private final int index;
+		private Block block;
+		private long seqNo;
+
+		private Slot(int index) {
+			this.index = index;
+			block = new Block(index, blockSize);
+		}
+
+		/**
+		 * Starts a new record.
+		 *
+		 * @param seqNo the sequence number of the record (only relevant in ordered mode)
+		 */
+		public void startRecord(long seqNo) {
+			this.seqNo = seqNo;
+		}
+
+		@Override
+		public void write(int b) {
+			block.ensureCapacity(1);
+			block.data[block.size++] = (byte) b;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			block.ensureCapacity(len);
+			System.arraycopy(b, off, block.data, block.size, len);
+			block.size += len;
+		}
+
+		/**
+		 * Ends the current record and hands over the slot's block if it is full.
+		 *
+		 * @throws IOException if writing to the underlying stream failed before
+		 */
+		public void endRecord() throws IOException {
+			if (ordered) {
+				block.addRecord(seqNo, seqNo + 1);
+				if (block.records == block.seqNos.length) {
+					handOver(true);
+					return;
+				}
+			}
+			if (block.size >= blockSize) {
+				handOver(true);
+			}
+		}
+
+		/**
+		 * Adds an empty record which ends a chunk of dense sequence numbers. The sequence continues at
+		 * {@code nextSeqNo} instead of {@code seqNo + 1}. Has no effect in unordered mode.
+		 *
+		 * @param seqNo     the sequence number following the last record of the chunk
+		 * @param nextSeqNo the sequence number of the first record of the next chunk
+		 * @throws IOException if writing to the underlying stream failed before
+		 */
+		public void endChunk(long seqNo, long nextSeqNo) throws IOException {
+			if (ordered) {
+				block.addRecord(seqNo, nextSeqNo);
+				if (block.records == block.seqNos.length) {
+					handOver(true);
+				}
+			}
+		}
+
+		private void handOver(boolean full) throws IOException {
+			if (full || (ordered ? block.records > 0 : block.size > 0)) {
+				checkError();
+				put(block);
+				block = nextFreeBlock(index);
+			}
+		}
+	}
+
+	private final class Block {
+		private int slot;
+		private byte[] data;
+		private int size;
+		// Ordered mode only: the sequence number, the number of the following record and the end offset per
+		// record, the number of records and the index of the next record to write.
+		private final long[] seqNos;
+		private final long[] nextSeqNos;
+		private final int[] ends;
+		private int records;
+		private int next;
+		// Set for the marker block of endSequence().
+		private CountDownLatch synced;
+
+		private Block(int slot, int blockSize) {
+			this.slot = slot;
+			data = new byte[blockSize];
+			int maxRecords = ordered ? Math.max(16, blockSize / BYTES_PER_RECORD) : 0;
+			seqNos = new long[maxRecords];
+			nextSeqNos = new long[maxRecords];
+			ends = new int[maxRecords];
+		}
+
+		private void ensureCapacity(int len) {
+			if (size + len > data.length) {
+				byte[] newData = new byte[Math.max(size + len, 2 * data.length)];
+				System.arraycopy(data, 0, newData, 0, size);
+				data = newData;
+			}
+		}
+
+		private void addRecord(long seqNo, long nextSeqNo) {
+			seqNos[records] = seqNo;
+			nextSeqNos[records] = nextSeqNo;
+			ends[records] = size;
+			records++;
+		}
+	}
+}
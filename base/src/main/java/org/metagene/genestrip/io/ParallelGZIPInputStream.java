@@ -0,0 +1,312 @@
+/*
+ * 
+ * “Commons Clause” License Condition v1.0
+ * 
+ * The Software is provided to you by the Licensor under the License, 
+ * as defined below, subject to the following condition.
+ * 
+ * Without limiting other conditions in the License, the grant of rights under the License 
+ * will not include, and the License does not grant to you, the right to Sell the Software.
+ * 
+ * For purposes of the foregoing, “Sell” means practicing any or all of the rights granted 
+ * to you under the License to provide to third parties, for a fee or other consideration 
+ * (including without limitation fees for hosting or consulting/ support services related to 
+ * the Software), a product or service whose value derives, entirely or substantially, from the 
+ * functionality of the Software. Any license notice or attribution required by the License 
+ * must also include this Commons Clause License Condition notice.
+ * 
+ * Software: genestrip
+ * 
+ * License: Apache 2.0
+ * 
+ * Licensor: Daniel Pfeifer (daniel.pfeifer@progotec.de)
+ * 
+ */
+package org.metagene.genestrip.io;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+/**
+ * A GZIP input stream that decompresses ahead of the reader on background threads. Files in BGZF format
+ * (as written by {@code bgzip} and many sequencing tools) consist of independent GZIP members of at most
+ * 64KB, whose compressed size is stored in the header. They are inflated concurrently by the given number
+ * of threads and delivered in order. Any other GZIP file (single- or multi-member) is inflated by one
+ * background thread via {@link GZIPInputStream}, so inflating at least overlaps with the processing of
+ * the data by the reader. The same happens for the rest of a BGZF file from the first member on that is
+ * not a BGZF block, e.g. when a plain GZIP file was appended to it.
+ */
+public class ParallelGZIPInputStream extends InputStream {
+	// The size of the uncompressed segments handed over, which is also the maximum size of a BGZF block.
+	private static final int SEGMENT_SIZE = 64 * 1024;
+	private static final int BGZF_HEADER_SIZE = 18;
+	private static final int GZIP_TRAILER_SIZE = 8;
+	private static final AtomicInteger THREAD_NO = new AtomicInteger();
+	private static final Future<Segment> END = CompletableFuture.completedFuture(null);
+	private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(() -> new Inflater(true));
+
+	private final InputStream in;
+	private final BlockingQueue<Future<Segment>> segments;
+	// Segment arrays given back by the reading thread. There are at most as many as segments in flight.
+	private final ConcurrentLinkedQueue<byte[]> freeData = new ConcurrentLinkedQueue<>();
+	private final ExecutorService inflaters;
+	private final Thread reader;
+	private volatile boolean closed;
+
+	private Segment segment;
+	private int pos;
+	private boolean eof;
+
+	/**
+	 * Creates a stream decompressing the given GZIP stream.
+	 *
+	 * @param in         the GZIP compressed stream
+	 * @param bufferSize the buffer size for reading from {@code in}
+	 * @param threads    the number of threads inflating BGZF blocks concurrently; other GZIP files use
+	 *                   one background thread regardless
+	 * @throws IOException if the GZIP header cannot be read
+	 */
+	public ParallelGZIPInputStream(InputStream in, int bufferSize, int threads) throws IOException {
+		this.in = new BufferedInputStream(in, bufferSize);
+		boolean bgzf = threads > 1 && isBGZF(this.in);
+		segments = new ArrayBlockingQueue<>(bgzf ? 4 * threads : 16);
+		if (bgzf) {
+			inflaters = Executors.newFixedThreadPool(threads, r -> newThread(r, "BGZF Inflater"));
+			reader = newThread(this::readBlocks, "BGZF Reader");
+		} else {
+			inflaters = null;
+			GZIPInputStream gzip = new GZIPInputStream(this.in, bufferSize);
+			reader = newThread(() -> inflate(gzip), "GZIP Inflater");
+		}
+		reader.start();
+	}
+
+	private static Thread newThread(Runnable r, String name) {
+		Thread t = new Thread(r, name + " " + THREAD_NO.incrementAndGet());
+		t.setDaemon(true);
+		return t;
+	}
+
+	// Checks for the 'BC' extra subfield of BGZF in the first member's header without consuming it.
+	private static boolean isBGZF(InputStream in) throws IOException {
+		in.mark(BGZF_HEADER_SIZE);
+		byte[] header = new byte[BGZF_HEADER_SIZE];
+		int n = in.readNBytes(header, 0, header.length);
+		in.reset();
+		return n == BGZF_HEADER_SIZE && bgzfBlockSize(header) > 0;
+	}
+
+	// Returns the total size of a BGZF block as given by its (18 byte) header, or -1 if it is none.
+	private static int bgzfBlockSize(byte[] header) {
+		if ((header[0] & 0xff) != 31 || (header[1] & 0xff) != 139 || header[2] != 8 || (header[3] & 4) == 0) {
+			return -1;
+		}
+		if (ushort(header, 10) != 6 || header[12] != 'B' || header[13] != 'C' || ushort(header, 14) != 2) {
+			return -1;
+		}
+		return ushort(header, 16) + 1;
+	}
+
+	private static int ushort(byte[] data, int pos) {
+		return (data[pos] & 0xff) | ((data[pos + 1] & 0xff) << 8);
+	}
+
+	private static int uint(byte[] data, int pos) {
+		return ushort(data, pos) | (ushort(data, pos + 2) << 16);
+	}
+
+	// Runs on the reader thread in BGZF mode.
+	private void readBlocks() {
+		try {
+			byte[] header = new byte[BGZF_HEADER_SIZE];
+			int n;
+			while ((n = in.readNBytes(header, 0, BGZF_HEADER_SIZE)) > 0) {
+				int blockSize = n == BGZF_HEADER_SIZE ? bgzfBlockSize(header) : -1;
+				if (blockSize == -1) {
+					if (n < 2 || (header[0] & 0xff) != 31 || (header[1] & 0xff) != 139) {
+						// Trailing bytes that are no GZIP member are ignored, just like by GZIPInputStream.
+						break;
+					}
+					// An ordinary GZIP member: the rest is inflated serially, queued after the blocks so far.
+					inflate(new GZIPInputStream(new SequenceInputStream(new ByteArrayInputStream(header, 0, n), in),
+							SEGMENT_SIZE));
+					return;
+				}
+				if (blockSize < BGZF_HEADER_SIZE + GZIP_TRAILER_SIZE) {
+					throw new IOException("Invalid BGZF block header.");
+				}
+				byte[] block = new byte[blockSize - BGZF_HEADER_SIZE];
+				if (in.readNBytes(block, 0, block.length) != block.length) {
+					throw new EOFException("Unexpected end of BGZF block.");
+				}
+				if (closed) {
+					return;
+				}
+				segments.put(inflaters.submit(() -> inflateBlock(block)));
+			}
+			segments.put(END);
+		} catch (InterruptedException | RejectedExecutionException e) {
+			// Closed (the inflaters reject blocks after shutdown).
+		} catch (IOException e) {
+			fail(e);
+		}
+	}
+
+	// Runs on the inflater threads in BGZF mode.
+	private Segment inflateBlock(byte[] block) throws IOException {
+		int dataSize = block.length - GZIP_TRAILER_SIZE;
+		int crc = uint(block, dataSize);
+		int size = uint(block, dataSize + 4);
+		if (size < 0 || size > SEGMENT_SIZE) {
+			throw new IOException("Corrupt BGZF block: invalid uncompressed size.");
+		}
+		byte[] res = allocateData();
+		Inflater inflater = INFLATER.get();
+		inflater.reset();
+		inflater.setInput(block, 0, dataSize);
+		try {
+			int len = 0;
+			while (len < size && !inflater.finished()) {
+				int r = inflater.inflate(res, len, size - len);
+				if (r == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					break;
+				}
+				len += r;
+			}
+			if (len != size) {
+				throw new IOException("Corrupt BGZF block: wrong uncompressed size.");
+			}
+		} catch (DataFormatException e) {
+			throw new IOException("Corrupt BGZF block.", e);
+		}
+		CRC32 crc32 = new CRC32();
+		crc32.update(res, 0, size);
+		if ((int) crc32.getValue() != crc) {
+			throw new IOException("Corrupt BGZF block: CRC mismatch.");
+		}
+		return new Segment(res, size);
+	}
+
+	// Runs on the reader thread in pipelined mode, or in BGZF mode after the first non-BGZF member.
+	private void inflate(GZIPInputStream gzip) {
+		try {
+			while (true) {
+				byte[] data = allocateData();
+				int n = gzip.readNBytes(data, 0, SEGMENT_SIZE);
+				if (n == 0) {
+					break;
+				}
+				segments.put(CompletableFuture.completedFuture(new Segment(data, n)));
+			}
+			segments.put(END);
+		} catch (InterruptedException e) {
+			// Closed.
+		} catch (IOException e) {
+			fail(e);
+		}
+	}
+
+	private byte[] allocateData() {
+		byte[] data = freeData.poll();
+		return data != null ? data : new byte[SEGMENT_SIZE];
+	}
+
+	private void fail(IOException e) {
+		if (!closed) {
+			try {
+				segments.put(CompletableFuture.failedFuture(e));
+			} catch (InterruptedException e1) {
+				// Closed.
+			}
+		}
+	}
+
+	// Returns false at the end of the stream.
+	private boolean nextSegment() throws IOException {
+		if (closed) {
+			throw new IOException("Stream closed.");
+		}
+		while (!eof && (segment == null || pos == segment.size)) {
+			if (segment != null) {
+				freeData.offer(segment.data);
+				segment = null;
+			}
+			try {
+				segment = segments.take().get();
+			} catch (InterruptedException e) {
+				throw new IOException("Interrupted while waiting for GZIP data.", e);
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+			}
+			pos = 0;
+			eof = segment == null;
+		}
+		return !eof;
+	}
+
+	@Override
+	public int read() throws IOException {
+		return nextSegment() ? segment.data[pos++] & 0xff : -1;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		if (!nextSegment()) {
+			return -1;
+		}
+		int n = Math.min(len, segment.size - pos);
+		System.arraycopy(segment.data, pos, b, off, n);
+		pos += n;
+		return n;
+	}
+
+	@Override
+	public int available() throws IOException {
+		return segment == null ? 0 : segment.size - pos;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (!closed) {
+			closed = true;
+			reader.interrupt();
+			if (inflaters != null) {
+				inflaters.shutdownNow();
+			}
+			in.close();
+		}
+	}
+
+	// Uncompressed data and its size, as the data arrays are reused.
+	private static final class Segment {
+		private final byte[] data;
+		private final int size;
+
+		private Segment(byte[] data, int size) {
+			this.data = data;
+			this.size = size;
+		}
+	}
+}
@@ -0,0 +1,329 @@
+/*
+ * 
+ * “Commons Clause” License Condition v1.0
+ * 
+ * The Software is provided to you by the Licensor under the License, 
+ * as defined below, subject to the following condition.
+ * 
+ * Without limiting other conditions in the License, the grant of rights under the License 
+ * will not include, and the License does not grant to you, the right to Sell the Software.
+ * 
+ * For purposes of the foregoing, “Sell” means practicing any or all of the rights granted 
+ * to you under the License to provide to third parties, for a fee or other consideration 
+ * (including without limitation fees for hosting or consulting/ support services related to 
+ * the Software), a product or service whose value derives, entirely or substantially, from the 
+ * functionality of the Software. Any license notice or attribution required by the License 
+ * must also include this Commons Clause License Condition notice.
+ * 
+ * Software: genestrip
+ * 
+ * License: Apache 2.0
+ * 
+ * Licensor: Daniel Pfeifer (daniel.pfeifer@progotec.de)
+ * 
+ */
+package org.metagene.genestrip.io;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * A GZIP output stream that compresses on background threads. The data is cut into blocks of less than
+ * 64KB, which are deflated independently by the given number of threads and written in order as BGZF
+ * (as done by {@code bgzip}). The result is a regular multi-member GZIP file, which
+ * {@link ParallelGZIPInputStream} can also inflate concurrently.
+ */
+public class ParallelGZIPOutputStream extends OutputStream {
+	// The maximum input per block as used by bgzip, so that even incompressible data fits into a block.
+	private static final int BLOCK_INPUT_SIZE = 65280;
+	private static final int MAX_BLOCK_SIZE = 65536;
+	private static final int BGZF_HEADER_SIZE = 18;
+	private static final int GZIP_TRAILER_SIZE = 8;
+	private static final AtomicInteger THREAD_NO = new AtomicInteger();
+	private static final Block FLUSH = new Block(0);
+	private static final Future<Block> FLUSH_MARK = CompletableFuture.completedFuture(FLUSH);
+	private static final Future<Block> END = CompletableFuture.completedFuture(null);
+
+	private final OutputStream out;
+	private final int level;
+	private final BlockingQueue<Future<Block>> blocks;
+	private final ExecutorService deflaters;
+	// The deflater of each deflater thread, which ends it when the pool shuts down.
+	private final ThreadLocal<Deflater> deflater = new ThreadLocal<>();
+	// Blocks given back by the writer thread. There are at most as many as blocks in flight.
+	private final ConcurrentLinkedQueue<Block> freeBlocks = new ConcurrentLinkedQueue<>();
+	private final Thread writer;
+	private final Semaphore flushed = new Semaphore(0);
+	private volatile IOException error;
+	private boolean closed;
+
+	private Block block;
+
+	/**
+	 * Creates a stream compressing to the given stream.
+	 *
+	 * @param out     the stream to write the GZIP data to, which is closed along with this stream
+	 * @param threads the number of threads deflating blocks concurrently
+	 * @param level   the compression level from 0 to 9 or {@link Deflater#DEFAULT_COMPRESSION}
+	 */
+	public ParallelGZIPOutputStream(OutputStream out, int threads, int level) {
+		if (threads <= 0) {
+			throw new IllegalArgumentException("threads must be > 0");
+		}
+		if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+			throw new IllegalArgumentException("Invalid compression level: " + level);
+		}
+		this.out = out;
+		this.level = level;
+		blocks = new ArrayBlockingQueue<>(4 * threads);
+		deflaters = Executors.newFixedThreadPool(threads, r -> newThread(() -> {
+			try {
+				r.run();
+			} finally {
+				endDeflater();
+			}
+		}, "BGZF Deflater"));
+		writer = newThread(this::writeBlocks, "BGZF Writer");
+		writer.start();
+		block = new Block(BLOCK_INPUT_SIZE);
+	}
+
+	private static Thread newThread(Runnable r, String name) {
+		Thread t = new Thread(r, name + " " + THREAD_NO.incrementAndGet());
+		t.setDaemon(true);
+		return t;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		if (block.len == BLOCK_INPUT_SIZE) {
+			submitBlock();
+		}
+		block.input[block.len++] = (byte) b;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		while (len > 0) {
+			if (block.len == BLOCK_INPUT_SIZE) {
+				submitBlock();
+			}
+			int n = Math.min(len, BLOCK_INPUT_SIZE - block.len);
+			System.arraycopy(b, off, block.input, block.len, n);
+			block.len += n;
+			off += n;
+			len -= n;
+		}
+	}
+
+	/**
+	 * Compresses and writes all data so far (ending the current block early) and flushes the underlying
+	 * stream.
+	 */
+	@Override
+	public void flush() throws IOException {
+		ensureOpen();
+		if (block.len > 0) {
+			submitBlock();
+		}
+		put(FLUSH_MARK);
+		try {
+			flushed.acquire();
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException();
+		}
+		checkError();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (!closed) {
+			try {
+				if (block.len > 0) {
+					submitBlock();
+				}
+				put(END);
+				try {
+					writer.join();
+				} catch (InterruptedException e) {
+					throw new InterruptedIOException();
+				}
+				checkError();
+				// The empty block marking the end of a BGZF file.
+				Block eof = new Block(0);
+				Deflater eofDeflater = new Deflater(level, true);
+				try {
+					deflate(eof, eofDeflater, level);
+				} finally {
+					eofDeflater.end();
+				}
+				out.write(eof.output, 0, eof.size);
+			} finally {
+				closed = true;
+				// Only has an effect if closing failed before the writer was done.
+				writer.interrupt();
+				deflaters.shutdownNow();
+				out.close();
+			}
+		}
+	}
+
+	private void ensureOpen() throws IOException {
+		if (closed) {
+			throw new IOException("Stream closed.");
+		}
+	}
+
+	private void checkError() throws IOException {
+		IOException e = error;
+		if (e != null) {
+			throw new IOException("Compression failed.", e);
+		}
+	}
+
+	private void submitBlock() throws IOException {
+		ensureOpen();
+		checkError();
+		Block b = block;
+		put(deflaters.submit(() -> deflate(b, threadDeflater(), level)));
+		block = freeBlocks.poll();
+		if (block == null) {
+			block = new Block(BLOCK_INPUT_SIZE);
+		}
+		block.len = 0;
+	}
+
+	// Runs on the deflater threads.
+	private Deflater threadDeflater() {
+		Deflater d = deflater.get();
+		if (d == null) {
+			d = new Deflater(level, true);
+			deflater.set(d);
+		}
+		return d;
+	}
+
+	// Runs on a deflater thread when it terminates.
+	private void endDeflater() {
+		Deflater d = deflater.get();
+		if (d != null) {
+			d.end();
+			deflater.remove();
+		}
+	}
+
+	private void put(Future<Block> block) throws IOException {
+		try {
+			blocks.put(block);
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException();
+		}
+	}
+
+	// Runs on the writer thread.
+	private void writeBlocks() {
+		try {
+			Future<Block> future;
+			while ((future = blocks.take()) != END) {
+				try {
+					Block b = future.get();
+					if (b == FLUSH) {
+						if (error == null) {
+							out.flush();
+						}
+						flushed.release();
+					} else {
+						if (error == null) {
+							out.write(b.output, 0, b.size);
+						}
+						freeBlocks.offer(b);
+					}
+				} catch (ExecutionException e) {
+					if (error == null) {
+						error = e.getCause() instanceof IOException ? (IOException) e.getCause()
+								: new IOException(e.getCause());
+					}
+				} catch (IOException e) {
+					if (error == null) {
+						error = e;
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			// Closed.
+		}
+	}
+
+	// Runs on the deflater threads: creates a complete BGZF block (i.e. GZIP member) for the block's input.
+	private static Block deflate(Block b, Deflater deflater, int level) throws IOException {
+		byte[] data = b.input;
+		int len = b.len;
+		byte[] block = b.output;
+		deflater.reset();
+		deflater.setLevel(level);
+		deflater.setInput(data, 0, len);
+		deflater.finish();
+		int limit = block.length - GZIP_TRAILER_SIZE;
+		int end = BGZF_HEADER_SIZE;
+		// Takes more than one call if the level has changed.
+		while (!deflater.finished()) {
+			if (end == limit) {
+				throw new IOException("BGZF block too large.");
+			}
+			end += deflater.deflate(block, end, limit - end);
+		}
+		int clen = end - BGZF_HEADER_SIZE;
+		int blockSize = BGZF_HEADER_SIZE + clen + GZIP_TRAILER_SIZE;
+		// GZIP header with the 'BC' extra subfield holding the block size - 1.
+		block[0] = 31;
+		block[1] = (byte) 139;
+		block[2] = 8;
+		block[3] = 4;
+		block[9] = (byte) 255;
+		block[10] = 6;
+		block[12] = 'B';
+		block[13] = 'C';
+		block[14] = 2;
+		putShort(block, 16, blockSize - 1);
+		CRC32 crc = new CRC32();
+		crc.update(data, 0, len);
+		int trailer = BGZF_HEADER_SIZE + clen;
+		putShort(block, trailer, (int) crc.getValue());
+		putShort(block, trailer + 2, (int) (crc.getValue() >>> 16));
+		putShort(block, trailer + 4, len);
+		putShort(block, trailer + 6, len >>> 16);
+		b.size = blockSize;
+		return b;
+	}
+
+	private static void putShort(byte[] data, int pos, int v) {
+		data[pos] = (byte) v;
+		data[pos + 1] = (byte) (v >> 8);
+	}
+
+	// The input of a block and its BGZF output, as both arrays are reused. The other header bytes stay 0.
+	private static final class Block {
+		private final byte[] input;
+		private final byte[] output;
+		private int len;
+		private int size;
+
+		private Block(int inputSize) {
+			input = new byte[inputSize];
+			output = new byte[inputSize == 0 ? BGZF_HEADER_SIZE + GZIP_TRAILER_SIZE + 16 : MAX_BLOCK_SIZE];
+		}
+	}
+}
@@ -33,6 +33,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.Collection;
+import java.util.zip.Deflater;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
@@ -50,6 +51,26 @@ public class StreamProvider {
 	public static final int DEFAULT_BUFFER_SIZE = 8 * 4096;
 
 	private static int bufferSize = DEFAULT_BUFFER_SIZE;
+	private static int gzipThreads = 0;
+	private static int gzipOutputThreads = 0;
+	private static int gzipLevel = Deflater.DEFAULT_COMPRESSION;
+	private static GZIPInputStreamFactory gzipInputStreamFactory = null;
+
+	/**
+	 * Creates the decompressing streams for GZIP files, see
+	 * {@link StreamProvider#setGZIPInputStreamFactory(GZIPInputStreamFactory)}.
+	 */
+	public interface GZIPInputStreamFactory {
+		/**
+		 * Creates a stream decompressing the given GZIP stream.
+		 *
+		 * @param in         the GZIP compressed stream
+		 * @param bufferSize the buffer size to use
+		 * @return the decompressing stream
+		 * @throws IOException if the GZIP header cannot be read
+		 */
+		public InputStream createGZIPInputStream(InputStream in, int bufferSize) throws IOException;
+	}
 
 	/**
 	 * Sets the buffer size used for subsequently created streams.
@@ -69,6 +90,114 @@ public class StreamProvider {
 		return bufferSize;
 	}
 
+	/**
+	 * Sets the number of background threads for decompressing GZIP files. With {@code 0}, files are
+	 * decompressed on the reading thread. Otherwise a {@link ParallelGZIPInputStream} is used, which
+	 * decompresses BGZF files with the given number of threads and any other GZIP file with one
+	 * background thread.
+	 *
+	 * @param gzipThreads the number of decompression threads per GZIP stream
+	 */
+	public static void setGZIPThreads(int gzipThreads) {
+		StreamProvider.gzipThreads = gzipThreads;
+	}
+
+	/**
+	 * Returns the number of background threads for decompressing GZIP files.
+	 *
+	 * @return the number of decompression threads per GZIP stream
+	 */
+	public static int getGZIPThreads() {
+		return gzipThreads;
+	}
+
+	/**
+	 * Sets the number of background threads for compressing GZIP files. With {@code 0}, files are
+	 * compressed on the writing thread. Otherwise a {@link ParallelGZIPOutputStream} is used, which writes
+	 * BGZF files.
+	 *
+	 * @param gzipOutputThreads the number of compression threads per GZIP stream
+	 */
+	public static void setGZIPOutputThreads(int gzipOutputThreads) {
+		StreamProvider.gzipOutputThreads = gzipOutputThreads;
+	}
+
+	/**
+	 * Returns the number of background threads for compressing GZIP files.
+	 *
+	 * @return the number of compression threads per GZIP stream
+	 */
+	public static int getGZIPOutputThreads() {
+		return gzipOutputThreads;
+	}
+
+	/**
+	 * Sets the compression level for GZIP files.
+	 *
+	 * @param gzipLevel the level from 0 to 9 or {@link Deflater#DEFAULT_COMPRESSION}
+	 */
+	public static void setGZIPLevel(int gzipLevel) {
+		StreamProvider.gzipLevel = gzipLevel;
+	}
+
+	/**
+	 * Returns the compression level for GZIP files.
+	 *
+	 * @return the compression level
+	 */
+	public static int getGZIPLevel() {
+		return gzipLevel;
+	}
+
+	/**
+	 * Replaces the creation of decompressing streams for GZIP files, e.g. to plug in a native
+	 * implementation. With {@code null}, the streams depend on {@link #getGZIPThreads()}.
+	 *
+	 * @param factory the factory for decompressing streams or {@code null} for the default
+	 */
+	public static void setGZIPInputStreamFactory(GZIPInputStreamFactory factory) {
+		gzipInputStreamFactory = factory;
+	}
+
+	/**
+	 * Wraps the given stream in a decompressing stream as configured via
+	 * {@link #setGZIPInputStreamFactory(GZIPInputStreamFactory)} and {@link #setGZIPThreads(int)}.
+	 *
+	 * @param in the GZIP compressed stream
+	 * @return the decompressing stream
+	 * @throws IOException if the GZIP header cannot be read
+	 */
+	public static InputStream createGZIPInputStream(InputStream in) throws IOException {
+		GZIPInputStreamFactory factory = gzipInputStreamFactory;
+		if (factory != null) {
+			return factory.createGZIPInputStream(in, bufferSize);
+		}
+		if (gzipThreads > 0) {
+			return new ParallelGZIPInputStream(in, bufferSize, gzipThreads);
+		}
+		return new GZIPInputStream(in, bufferSize);
+	}
+
+	/**
+	 * Wraps the given stream in a compressing stream as configured via {@link #setGZIPOutputThreads(int)}
+	 * and {@link #setGZIPLevel(int)}.
+	 *
+	 * @param out the stream to write the GZIP data to
+	 * @return the compressing stream
+	 * @throws IOException if the GZIP header cannot be written
+	 */
+	public static OutputStream createGZIPOutputStream(OutputStream out) throws IOException {
+		int level = gzipLevel;
+		if (gzipOutputThreads > 0) {
+			return new ParallelGZIPOutputStream(out, gzipOutputThreads, level);
+		}
+		return new GZIPOutputStream(out, bufferSize) {
+			{
+				def.setLevel(level);
+			}
+		};
+	}
+
 	/**
 	 * Opens a buffered input stream for the file, transparently decompressing it if its name
 	 * indicates a GZIP file.
@@ -93,7 +222,7 @@ public class StreamProvider {
 	public static InputStream getInputStreamForFile(File file, boolean noGZ) throws IOException {
 		FileInputStream in = new FileInputStream(file);
 		if (!noGZ && isGZIPFile(file)) {
-			return new GZIPInputStream(in, bufferSize);
+			return createGZIPInputStream(in);
 		} else {
 			return new BufferedInputStream(in, bufferSize);
 		}
@@ -123,7 +252,7 @@ public class StreamProvider {
 	public static OutputStream getOutputStreamForFile(File file, boolean noGZ) throws IOException {
 		FileOutputStream in = new FileOutputStream(file);
 		if (!noGZ && isGZIPFile(file)) {
-			return new GZIPOutputStream(in, bufferSize);
+			return createGZIPOutputStream(in);
 		} else {
 			return new BufferedOutputStream(in, bufferSize);
 		}
@@ -31,7 +31,6 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Files;
-import java.util.zip.GZIPInputStream;
 
 /**
  * A {@link StreamingResource} backed by a file on disk. GZIP files are decompressed transparently
@@ -75,7 +74,7 @@ public class StreamingFileResource implements StreamingResource {
 		final ByteCountingFileInputStream in = new ByteCountingFileInputStream(file);
 		InputStream[] res = new InputStream[1];
 		if (!noGZ && StreamProvider.isGZIPFile(file)) {
-			res[0] = new GZIPInputStream(in, StreamProvider.getBufferSize());
+			res[0] = StreamProvider.createGZIPInputStream(in);
 		} else {
 			res[0] = new BufferedInputStream(in, StreamProvider.getBufferSize());
 		}
@@ -28,7 +28,6 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
 import java.net.URLConnection;
-import java.util.zip.GZIPInputStream;
 
 /**
  * A {@link StreamingResource} backed by a {@link URL}. The content is decompressed with GZIP unless
@@ -75,7 +74,7 @@ public class StreamingURLResource implements StreamingResource {
 		URLConnection connection = url.openConnection();
 		connection.connect();
 		ByteCountingInputStream is = createByteCountingInputStream(connection.getInputStream());
-		InputStream readFromIs = noGZ ? is : new GZIPInputStream(is, StreamProvider.getBufferSize());
+		InputStream readFromIs = noGZ ? is : StreamProvider.createGZIPInputStream(is);
 
 		return new StreamAccess() {
 			@Override
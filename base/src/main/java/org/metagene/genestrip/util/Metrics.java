@@ -0,0 +1,537 @@
+/*
+ * 
+ * “Commons Clause” License Condition v1.0
+ * 
+ * The Software is provided to you by the Licensor under the License, 
+ * as defined below, subject to the following condition.
+ * 
+ * Without limiting other conditions in the License, the grant of rights under the License 
+ * will not include, and the License does not grant to you, the right to Sell the Software.
+ * 
+ * For purposes of the foregoing, “Sell” means practicing any or all of the rights granted 
+ * to you under the License to provide to third parties, for a fee or other consideration 
+ * (including without limitation fees for hosting or consulting/ support services related to 
+ * the Software), a product or service whose value derives, entirely or substantially, from the 
+ * functionality of the Software. Any license notice or attribution required by the License 
+ * must also include this Commons Clause License Condition notice.
+ * 
+ * Software: genestrip
+ * 
+ * License: Apache 2.0
+ * 
+ * Licensor: Daniel Pfeifer (daniel.pfeifer@progotec.de)
+ * 
+ */
+package org.metagene.genestrip.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanParameterInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+import org.apache.commons.logging.Log;
+
+/**
+ * A small registry of live counters and gauges for observing long running goals like {@code match}
+ * or {@code filter}. A {@link Counter} keeps one cache line sized cell per thread slot, so a thread
+ * updating its own slot via {@link Counter#add(int, long)} neither synchronizes nor allocates - it is
+ * just a plain addition. Gauges are sampled via a {@link LongSupplier} only when the metrics are
+ * read.
+ * <p>
+ * The registry can be published as a JMX MBean (see {@link #registerMBean()}) and dumped periodically
+ * to a file (see {@link #startDump(File, long)}), either as CSV or, for file names ending in
+ * {@code .json}, as one JSON object per line.
+ */
+public class Metrics implements DynamicMBean {
+	/**
+	 * The number of thread slots per counter. Thread indexes are mapped onto the slots modulo this
+	 * number, so counts are exact for up to this many threads updating concurrently.
+	 */
+	public static final int SLOTS = 128;
+	/** The name under which the default registry is registered as a JMX MBean. */
+	public static final String OBJECT_NAME = "org.metagene.genestrip:type=Metrics";
+
+	// Counter names used by the fastq processing pipeline.
+	/** Reads processed, per consumer thread. */
+	public static final String READS = "reads";
+	/** K-mers of the reads processed, per consumer thread. */
+	public static final String KMERS = "kmers";
+	/** Nanoseconds producers waited on a full queue. */
+	public static final String QUEUE_PUT_WAIT_NANOS = "queuePutWaitNanos";
+	/** Nanoseconds consumers waited on an empty queue. */
+	public static final String QUEUE_TAKE_WAIT_NANOS = "queueTakeWaitNanos";
+	/** Number of elements in the queue between producer and consumers (gauge). */
+	public static final String QUEUE_SIZE = "queueSize";
+	/** K-mers probed in the Bloom filter, per consumer thread. */
+	public static final String BLOOM_PROBES = "bloomProbes";
+	/** K-mers found in the Bloom filter, per consumer thread. */
+	public static final String BLOOM_HITS = "bloomHits";
+	/** K-mers looked up in the k-mer store, per consumer thread. */
+	public static final String STORE_LOOKUPS = "storeLookups";
+	/** K-mers found in the k-mer store, per consumer thread. */
+	public static final String STORE_HITS = "storeHits";
+	/** Bytes read from the input files, possibly compressed (gauge). */
+	public static final String BYTES_READ = "bytesRead";
+	/** Bytes of input after decompression. */
+	public static final String BYTES_INFLATED = "bytesInflated";
+
+	// Eight longs per cell keep the slots of different threads in different cache lines.
+	private static final int PAD = 8;
+	private static final int SHARED_SLOT = SLOTS;
+	// The slots of addToThreadSlot() follow the shared slot, so they never share a cell with the
+	// (plainly updated) index slots.
+	private static final int FIRST_THREAD_SLOT = SHARED_SLOT + 1;
+	private static final int CELLS_PER_COUNTER = FIRST_THREAD_SLOT + SLOTS;
+	private static final VarHandle CELLS = MethodHandles.arrayElementVarHandle(long[].class);
+	// Slots for threads without an index of their own, assigned round robin on first use.
+	private static final AtomicInteger NEXT_THREAD_SLOT = new AtomicInteger();
+	private static final ThreadLocal<Integer> THREAD_SLOT = ThreadLocal
+			.withInitial(() -> NEXT_THREAD_SLOT.getAndIncrement() & (SLOTS - 1));
+
+	private static final Metrics DEFAULT = new Metrics();
+
+	/**
+	 * Returns the registry used by genestrip's own instrumentation.
+	 *
+	 * @return the default registry
+	 */
+	public static Metrics getDefault() {
+		return DEFAULT;
+	}
+
+	private final Log logger = GSLogFactory.getLog("metrics");
+	private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+	private final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+	private volatile long resetTime = System.nanoTime();
+	private ScheduledExecutorService dumpExecutor;
+	private Dump dump;
+
+	/**
+	 * Returns the counter with the given name, creating it if necessary. Callers on a hot path should
+	 * look up their counters once and keep them.
+	 *
+	 * @param name the counter name
+	 * @return the counter
+	 */
+	public Counter counter(String name) {
+		return counters.computeIfAbsent(name, Counter::new);
+	}
+
+	/**
+	 * Registers a gauge, replacing any gauge of the same name.
+	 *
+	 * @param name  the gauge name
+	 * @param value supplies the current value of the gauge whenever the metrics are read
+	 */
+	public void gauge(String name, LongSupplier value) {
+		gauges.put(name, value);
+	}
+
+	/**
+	 * Removes a gauge, so the registry does not keep the object behind it alive.
+	 *
+	 * @param name  the gauge name
+	 * @param value the gauge to remove; a gauge registered in the meantime under the same name is kept
+	 */
+	public void removeGauge(String name, LongSupplier value) {
+		gauges.remove(name, value);
+	}
+
+	/**
+	 * Sets all counters to zero. Updates running concurrently may get lost.
+	 */
+	public void reset() {
+		for (Counter counter : counters.values()) {
+			counter.reset();
+		}
+		resetTime = System.nanoTime();
+	}
+
+	/**
+	 * Returns the current values of all counters and gauges by name.
+	 *
+	 * @return the current values sorted by name
+	 */
+	public Map<String, Long> snapshot() {
+		Map<String, Long> res = new TreeMap<>();
+		for (Counter counter : counters.values()) {
+			res.put(counter.getName(), counter.get());
+		}
+		for (Map.Entry<String, LongSupplier> gauge : gauges.entrySet()) {
+			res.put(gauge.getKey(), gauge.getValue().getAsLong());
+		}
+		return res;
+	}
+
+	/**
+	 * Registers this registry as a JMX MBean under {@link #OBJECT_NAME} unless that is done already.
+	 */
+	public synchronized void registerMBean() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(OBJECT_NAME);
+			if (!server.isRegistered(name)) {
+				server.registerMBean(this, name);
+			}
+		} catch (JMException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Unregisters this registry as a JMX MBean if it is registered.
+	 */
+	public synchronized void unregisterMBean() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(OBJECT_NAME);
+			if (server.isRegistered(name)) {
+				server.unregisterMBean(name);
+			}
+		} catch (JMException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Starts appending the metrics to the given file periodically on a background thread. Each sample
+	 * holds the value of every counter and gauge, its per-slot values (for counters) and its change per
+	 * second since the previous sample. A running dump is stopped first.
+	 *
+	 * @param file           the file to append to - as JSON lines if its name ends in {@code .json},
+	 *                       otherwise as CSV
+	 * @param intervalMillis the time between two samples in milliseconds
+	 * @throws IOException if the file cannot be opened
+	 */
+	public synchronized void startDump(File file, long intervalMillis) throws IOException {
+		stopDump();
+		boolean header = !file.exists() || file.length() == 0;
+		PrintStream out = new PrintStream(new FileOutputStream(file, true), false, "UTF-8");
+		boolean json = file.getName().endsWith(".json");
+		if (header && !json) {
+			out.println("time,metric,slot,value,perSecond");
+		}
+		dump = new Dump(out, json);
+		dumpExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "Metrics Dump");
+			t.setDaemon(true);
+			return t;
+		});
+		dumpExecutor.scheduleAtFixedRate(dump, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+		if (logger.isInfoEnabled()) {
+			logger.info("Dumping metrics to " + file + " every " + intervalMillis + " ms.");
+		}
+	}
+
+	/**
+	 * Stops a running dump after writing one last sample and closes its file.
+	 */
+	public synchronized void stopDump() {
+		if (dumpExecutor != null) {
+			dumpExecutor.shutdown();
+			try {
+				dumpExecutor.awaitTermination(1, TimeUnit.MINUTES);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			dumpExecutor = null;
+			dump.run();
+			dump.out.close();
+			dump = null;
+		}
+	}
+
+	// Writes one sample per run.
+	private class Dump implements Runnable {
+		private final PrintStream out;
+		private final boolean json;
+		private final Map<String, long[]> previous = new HashMap<>();
+		private long previousTime = System.nanoTime();
+
+		public Dump(PrintStream out, boolean json) {
+			this.out = out;
+			this.json = json;
+		}
+
+		@Override
+		public void run() {
+			long now = System.nanoTime();
+			double seconds = (now - previousTime) / 1e9;
+			previousTime = now;
+			long time = System.currentTimeMillis();
+			List<String> names = new ArrayList<>(counters.keySet());
+			names.addAll(gauges.keySet());
+			names.sort(null);
+			StringBuilder sb = new StringBuilder();
+			if (json) {
+				sb.append("{\"time\":").append(time).append(",\"metrics\":{");
+			}
+			boolean first = true;
+			for (String name : names) {
+				long[] values;
+				Counter counter = counters.get(name);
+				if (counter != null) {
+					values = counter.getSlots();
+				} else {
+					LongSupplier gauge = gauges.get(name);
+					if (gauge == null) {
+						continue;
+					}
+					values = new long[] { gauge.getAsLong() };
+				}
+				long[] prev = previous.put(name, values);
+				long total = sum(values);
+				double rate = prev == null || seconds <= 0 ? 0 : (total - sum(prev)) / seconds;
+				if (json) {
+					if (!first) {
+						sb.append(',');
+					}
+					sb.append('"').append(name).append("\":{\"value\":").append(total);
+					sb.append(",\"perSecond\":").append(Math.round(rate));
+					if (counter != null) {
+						sb.append(",\"slots\":{");
+						boolean firstSlot = true;
+						for (int i = 0; i < values.length; i++) {
+							if (values[i] != 0) {
+								if (!firstSlot) {
+									sb.append(',');
+								}
+								sb.append('"').append(slotName(i)).append("\":").append(values[i]);
+								firstSlot = false;
+							}
+						}
+						sb.append('}');
+					}
+					sb.append('}');
+				} else {
+					appendCSV(sb, time, name, "all", total, rate);
+					if (counter != null) {
+						for (int i = 0; i < values.length; i++) {
+							if (values[i] != 0) {
+								double slotRate = prev == null || seconds <= 0 ? 0 : (values[i] - prev[i]) / seconds;
+								appendCSV(sb, time, name, slotName(i), values[i], slotRate);
+							}
+						}
+					}
+				}
+				first = false;
+			}
+			if (json) {
+				sb.append("}}\n");
+			}
+			out.print(sb);
+			out.flush();
+		}
+
+		private void appendCSV(StringBuilder sb, long time, String name, String slot, long value, double rate) {
+			sb.append(time).append(',').append(name).append(',').append(slot).append(',').append(value);
+			sb.append(',').append(Math.round(rate)).append('\n');
+		}
+
+		private String slotName(int slot) {
+			return slot == SHARED_SLOT ? "shared" : slot == FIRST_THREAD_SLOT ? "threads" : Integer.toString(slot);
+		}
+
+		private long sum(long[] values) {
+			long res = 0;
+			for (long v : values) {
+				res += v;
+			}
+			return res;
+		}
+	}
+
+	// DynamicMBean: one read-only attribute per counter and gauge plus "<counter>PerSecond" for the
+	// average rate since the last reset.
+
+	@Override
+	public Object getAttribute(String attribute) throws AttributeNotFoundException {
+		Counter counter = counters.get(attribute);
+		if (counter != null) {
+			return counter.get();
+		}
+		LongSupplier gauge = gauges.get(attribute);
+		if (gauge != null) {
+			return gauge.getAsLong();
+		}
+		if (attribute.endsWith("PerSecond")) {
+			counter = counters.get(attribute.substring(0, attribute.length() - "PerSecond".length()));
+			if (counter != null) {
+				double seconds = (System.nanoTime() - resetTime) / 1e9;
+				return seconds <= 0 ? 0d : counter.get() / seconds;
+			}
+		}
+		throw new AttributeNotFoundException(attribute);
+	}
+
+	@Override
+	public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+		throw new AttributeNotFoundException("Metrics are read-only: " + attribute.getName());
+	}
+
+	@Override
+	public AttributeList getAttributes(String[] attributes) {
+		AttributeList res = new AttributeList();
+		for (String attribute : attributes) {
+			try {
+				res.add(new Attribute(attribute, getAttribute(attribute)));
+			} catch (AttributeNotFoundException e) {
+				// Left out as required by the contract.
+			}
+		}
+		return res;
+	}
+
+	@Override
+	public AttributeList setAttributes(AttributeList attributes) {
+		return new AttributeList();
+	}
+
+	@Override
+	public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+		if ("reset".equals(actionName) && (params == null || params.length == 0)) {
+			reset();
+			return null;
+		}
+		throw new ReflectionException(new NoSuchMethodException(actionName));
+	}
+
+	@Override
+	public MBeanInfo getMBeanInfo() {
+		List<MBeanAttributeInfo> attributes = new ArrayList<>();
+		for (String name : new TreeMap<>(counters).keySet()) {
+			attributes.add(new MBeanAttributeInfo(name, "long", "Counter " + name, true, false, false));
+			attributes.add(new MBeanAttributeInfo(name + "PerSecond", "double",
+					"Average change of " + name + " per second since the last reset", true, false, false));
+		}
+		for (String name : new TreeMap<>(gauges).keySet()) {
+			attributes.add(new MBeanAttributeInfo(name, "long", "Gauge " + name, true, false, false));
+		}
+		MBeanOperationInfo reset = new MBeanOperationInfo("reset", "Sets all counters to zero",
+				new MBeanParameterInfo[0], "void", MBeanOperationInfo.ACTION);
+		return new MBeanInfo(getClass().getName(), "Genestrip metrics",
+				attributes.toArray(new MBeanAttributeInfo[0]), null, new MBeanOperationInfo[] { reset }, null);
+	}
+
+	/**
+	 * A counter with one cell per thread slot. Each slot must be updated by at most one thread at a
+	 * time via {@link #add(int, long)}; threads without a slot of their own use {@link #add(long)}.
+	 */
+	public static final class Counter {
+		private final String name;
+		// Cell i is at PAD * (i + 1), leaving a padding cell in front of the first slot.
+		private final long[] cells = new long[PAD * (CELLS_PER_COUNTER + 1)];
+
+		private Counter(String name) {
+			this.name = name;
+		}
+
+		/**
+		 * Returns the name of the counter.
+		 *
+		 * @return the name
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * Adds to the slot of the calling thread. This is a plain addition, which is only correct if no
+		 * other thread updates the same slot concurrently.
+		 *
+		 * @param slot the thread's slot, typically its consumer thread index
+		 * @param n    the amount to add
+		 */
+		// Made final for potential inlining by JVM
+		public final void add(int slot, long n) {
+			int i = PAD * ((slot & (SLOTS - 1)) + 1);
+			CELLS.setOpaque(cells, i, cells[i] + n);
+		}
+
+		/**
+		 * Adds atomically to a slot assigned to the calling thread. For frequent updates from threads
+		 * without an index of their own (e.g. all producers and consumers of a queue): the threads hardly
+		 * ever share a slot, so the atomic addition is uncontended, and still correct if they do. These
+		 * slots are separate from the ones of {@link #add(int, long)}.
+		 *
+		 * @param n the amount to add
+		 */
+		public void addToThreadSlot(long n) {
+			CELLS.getAndAdd(cells, PAD * (FIRST_THREAD_SLOT + THREAD_SLOT.get() + 1), n);
+		}
+
+		/**
+		 * Adds atomically to a slot shared by all threads. Meant for rare updates only.
+		 *
+		 * @param n the amount to add
+		 */
+		public void add(long n) {
+			CELLS.getAndAdd(cells, PAD * (SHARED_SLOT + 1), n);
+		}
+
+		/**
+		 * Returns the sum over all slots.
+		 *
+		 * @return the value of the counter
+		 */
+		public long get() {
+			long res = 0;
+			for (int i = 0; i < CELLS_PER_COUNTER; i++) {
+				res += (long) CELLS.getOpaque(cells, PAD * (i + 1));
+			}
+			return res;
+		}
+
+		/**
+		 * Returns the value of a single slot.
+		 *
+		 * @param slot the slot
+		 * @return the value of the slot
+		 */
+		public long get(int slot) {
+			return (long) CELLS.getOpaque(cells, PAD * ((slot & (SLOTS - 1)) + 1));
+		}
+
+		// The values of the index slots, followed by the shared slot and the sum of the thread slots.
+		private long[] getSlots() {
+			long[] res = new long[FIRST_THREAD_SLOT + 1];
+			for (int i = 0; i < CELLS_PER_COUNTER; i++) {
+				res[Math.min(i, FIRST_THREAD_SLOT)] += (long) CELLS.getOpaque(cells, PAD * (i + 1));
+			}
+			return res;
+		}
+
+		private void reset() {
+			for (int i = 0; i < CELLS_PER_COUNTER; i++) {
+				CELLS.setOpaque(cells, PAD * (i + 1), 0L);
+			}
+		}
+	}
+}
@@ -48,6 +48,9 @@ public class DefaultExecutionContext implements ExecutionContext {
 	private final ExecutorService executorService;
 	private final List<Thread> executorThreads;
 	private final long logUpdateCycle;
+	private final boolean lockFreeQueue;
+	private final int readBatchSize;
+	private final boolean parallelParsing;
 
 	/**
 	 * Creates an execution context with the default thread name prefix.
@@ -59,7 +62,25 @@ public class DefaultExecutionContext implements ExecutionContext {
 	 * @param logUpdateCycle the number of processed reads between progress log updates
 	 */
 	public DefaultExecutionContext(Thread mainTread, int consumers, long logUpdateCycle) {
-		this(mainTread, consumers, logUpdateCycle, "Executor Thread");
+		this(mainTread, consumers, logUpdateCycle, false, 1, false);
+	}
+
+	/**
+	 * Creates an execution context with the default thread name prefix.
+	 *
+	 * @param mainTread      the main thread to interrupt when a worker thread fails, may be {@code null}
+	 * @param consumers      the number of worker threads; a negative value uses the number of
+	 *                       available processors minus one, and {@code 0} makes tasks run inline
+	 *                       in the calling thread
+	 * @param logUpdateCycle the number of processed reads between progress log updates
+	 * @param lockFreeQueue  whether work queues to the worker threads should be lock-free
+	 * @param readBatchSize  the number of reads handed to a worker thread at once, at least {@code 1}
+	 * @param parallelParsing whether FASTQ input is parsed by the worker threads in chunks
+	 */
+	public DefaultExecutionContext(Thread mainTread, int consumers, long logUpdateCycle, boolean lockFreeQueue,
+			int readBatchSize, boolean parallelParsing) {
+		this(mainTread, consumers, logUpdateCycle, "Executor Thread", lockFreeQueue, readBatchSize,
+				parallelParsing);
 	}
 	
 	/**
@@ -73,7 +94,31 @@ public class DefaultExecutionContext implements ExecutionContext {
 	 * @param threadBaseName the base name used for the created worker threads
 	 */
 	public DefaultExecutionContext(Thread mainTread, int consumers, long logUpdateCycle, String threadBaseName) {
+		this(mainTread, consumers, logUpdateCycle, threadBaseName, false, 1, false);
+	}
+
+	/**
+	 * Creates an execution context.
+	 *
+	 * @param mainTread      the main thread to interrupt when a worker thread fails, may be {@code null}
+	 * @param consumers      the number of worker threads; a negative value uses the number of
+	 *                       available processors minus one, and {@code 0} makes tasks run inline
+	 *                       in the calling thread
+	 * @param logUpdateCycle the number of processed reads between progress log updates
+	 * @param threadBaseName the base name used for the created worker threads
+	 * @param lockFreeQueue  whether work queues to the worker threads should be lock-free
+	 * @param readBatchSize  the number of reads handed to a worker thread at once, at least {@code 1}
+	 * @param parallelParsing whether FASTQ input is parsed by the worker threads in chunks
+	 */
+	public DefaultExecutionContext(Thread mainTread, int consumers, long logUpdateCycle, String threadBaseName,
+			boolean lockFreeQueue, int readBatchSize, boolean parallelParsing) {
+		if (readBatchSize < 1) {
+			throw new IllegalArgumentException("Read batch size must be at least 1: " + readBatchSize);
+		}
 		this.mainThread = mainTread;
+		this.lockFreeQueue = lockFreeQueue;
+		this.readBatchSize = readBatchSize;
+		this.parallelParsing = parallelParsing;
 		this.threadBaseName = threadBaseName;
 		this.consumers = consumers < 0 ? (Runtime.getRuntime().availableProcessors() - 1) : consumers;
 		this.throwablesInThreads = Collections.synchronizedList(new ArrayList<Throwable>());
@@ -120,6 +165,21 @@ public class DefaultExecutionContext implements ExecutionContext {
 		return consumers;
 	}
 
+	@Override
+	public boolean isLockFreeQueue() {
+		return lockFreeQueue;
+	}
+
+	@Override
+	public int getReadBatchSize() {
+		return readBatchSize;
+	}
+
+	@Override
+	public boolean isParallelParsing() {
+		return parallelParsing;
+	}
+
 	@Override
 	public void execute(Runnable runnable) {
 		if (executorService != null) {
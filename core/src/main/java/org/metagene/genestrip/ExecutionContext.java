@@ -41,6 +41,31 @@ public interface ExecutionContext {
 	 */
 	public int getThreads();
 
+	/**
+	 * Returns whether work queues between a producer and the worker threads should be lock-free
+	 * ({@link org.metagene.genestrip.util.RingBlockingQueue}) rather than monitor-based
+	 * ({@link org.metagene.genestrip.util.SimpleBlockingQueue}).
+	 *
+	 * @return {@code true} if lock-free work queues should be used
+	 */
+	public boolean isLockFreeQueue();
+
+	/**
+	 * Returns the number of reads a producer collects before handing them to a worker thread as one
+	 * batch. A value of {@code 1} hands over every read on its own.
+	 *
+	 * @return the number of reads per batch, at least {@code 1}
+	 */
+	public int getReadBatchSize();
+
+	/**
+	 * Returns whether FASTQ input should be split into record-aligned chunks which are then parsed
+	 * by the worker threads, instead of being parsed by the producer alone.
+	 *
+	 * @return {@code true} if FASTQ input should be parsed in parallel
+	 */
+	public boolean isParallelParsing();
+
 	/**
 	 * Executes the given task, either on a worker thread or inline in the calling thread depending
 	 * on the configured number of threads.
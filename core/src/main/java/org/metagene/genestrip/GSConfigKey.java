@@ -188,6 +188,25 @@ public enum GSConfigKey implements ConfigKey {
 	MAX_DUST("maxDust", new IntConfigParamInfo(-1, Integer.MAX_VALUE, -1), GSGoalKey.DB),
 	/** False positive probability of the temporary Bloom filter used by the tempindex goal. */
 	TEMP_BLOOM_FILTER_FPP("tempBloomFilterFpp", new DoubleConfigParamInfo(0, 1, 0.001d, true), true, GSGoalKey.TEMPINDEX),
+	/** Whether the deduplicated DB size is estimated via HyperLogLog sketches in a single pass. */
+	@MDDescription("If `true`, the number of distinct *k*-mers per store bucket is estimated via HyperLogLog sketches in a single pass over the fasta files "
+			+ "instead of two passes (goals `fillsize` and `tempindex` via a temporary Bloom filter). This speeds up database generation, "
+			+ "but the estimate is less accurate so the store is sized larger by `hllSafetyMargin`.")
+	HLL_DB_SIZE("hllDBSize", new BooleanConfigParamInfo(false), GSGoalKey.DB),
+	/** Relative margin added to the HyperLogLog size estimates. */
+	@MDDescription("The relative margin by which the HyperLogLog estimates of distinct *k*-mers are increased when sizing the store (see `hllDBSize`). "
+			+ "If the margin is too low, some *k*-mers may not fit into the store.")
+	HLL_SAFETY_MARGIN("hllSafetyMargin", new DoubleConfigParamInfo(0, 1, 0.05d), GSGoalKey.DB),
+	/** Minimum size of chunks of regions into which fasta files are split for parallel reading, 0 for none. */
+	@MDDescription("If greater than 0, fasta files are split into chunks of regions of at least this many (uncompressed) bytes during database generation, "
+			+ "so that several threads can process the regions of a large file in parallel. Otherwise, each file is processed by one thread, "
+			+ "which may leave other threads idle when a few large files remain. A suitable value is `4194304`.")
+	FASTA_CHUNK_SIZE("fastaChunkSize", new IntConfigParamInfo(0, 1 << 28, 0), GSGoalKey.DB),
+	/** Whether the database generation passes read the references from 2-bit packed cache files. */
+	@MDDescription("If `true`, the selected RefSeq fasta files and additional fasta files are converted once into compact, 2-bit packed cache files in the project's `db` folder (goal `refseqcache`). "
+			+ "All passes of database generation (except for the update of the database) then read these files instead of the fasta files, which saves decompressing and parsing the fasta files and mapping accessions to tax ids. "
+			+ "Existing cache files are reused, so they must be removed via the goal `refseqcache` after changing the project's tax ids or related configuration parameters.")
+	REFSEQ_CACHE("refSeqCache", new BooleanConfigParamInfo(false), GSGoalKey.DB),
 	/** Scaling factor applied to the estimated k-mer count when sizing the store. */
 	@MDDescription("A scaling factor applied to the pre-computed *k*-mer count estimate (from the goal `fillsize`) to determine the allocated size of the *k*-mer store before filling it. "
 			+ "A value greater than `1.0` reserves more space than the estimate; a value less than `1.0` reserves less. "
@@ -210,12 +229,22 @@ public enum GSConfigKey implements ConfigKey {
 	@MDDescription("If `true`, the database's *k*-mer store uses the radix-indexed `RadixKMerStore` instead of the default sorted-array store. "
 			+ "It is sized per radix bucket from the deduplicated per-bucket *k*-mer counts (see goal `tempindex`) and tends to be faster for lookups on large databases that exceed the CPU cache.")
 	USE_RADIX_STORE("useRadixStore", new BooleanConfigParamInfo(false), false, GSGoalKey.FILL_DB),
+	/** Whether the database's sorted-array k-mer store keeps its data off the Java heap. */
+	@MDDescription("If `true` (and `useRadixStore` is `false`), the database's *k*-mer store keeps its *k*-mers and value indexes off the Java heap in direct memory. "
+			+ "This allows for very large databases without a correspondingly large heap and keeps them out of the garbage collector's way. "
+			+ "The JVM bounds direct memory via `-XX:MaxDirectMemorySize` (which defaults to the maximum heap size), so this option should be set accordingly.")
+	OFF_HEAP_STORE("offHeapStore", new BooleanConfigParamInfo(false), false, GSGoalKey.FILL_DB),
 	/** Number of low k-mer bits used as the radix index of the RadixKMerStore. */
 	@MDDescription("Number of low *k*-mer bits used as the radix index of the `RadixKMerStore` (only relevant when `useRadixStore` is `true`). "
 			+ "The store has `2^radixStoreBits` buckets; more bits give smaller, more cache-friendly buckets at the cost of a larger radix table. "
 			+ "It also raises the store's value capacity (`MAX_VALUES`, the number of distinct values it can hold): each *k*-mer entry reserves `62 - radixStoreBits` low bits for the remaining *k*-mer bits (sized for the worst-case `k=31`) and uses the high `2 + radixStoreBits` bits (capped at 30) for the value index, so a wider radix leaves more bits for values. "
 			+ "Because the value capacity grows with `radixStoreBits`, so does the memory of the store's value-index array; this scales with the larger databases that warrant a wider radix.")
 	RADIX_STORE_BITS("radixStoreBits", new IntConfigParamInfo(RadixKMerStore.MIN_RADIX_BITS, 24, RadixKMerStore.DEFAULT_RADIX_BITS), false, GSGoalKey.TEMPINDEX, GSGoalKey.FILL_DB),
+	/** Whether the final database is saved in the memory-mapped format. */
+	@MDDescription("If `true`, the final database is saved in an uncompressed, page-aligned binary format instead of a ZIP of serialized Java objects. "
+			+ "Such a database is memory-mapped when loaded for matching, which takes seconds instead of minutes, and the operating system shares its pages between all processes using it. "
+			+ "The database file gets larger though, and it is read-only, i.e. it cannot be used as the basis for further updates.")
+	MAPPED_DB("mappedDB", new BooleanConfigParamInfo(false), GSGoalKey.DB),
 	/** Whether to XOR-combine the Bloom filter hash functions. */
 	XOR_BLOOM_HASH("xorBloomHash", new BooleanConfigParamInfo(true)),
 	/** Line length in bytes for generated fasta files. */
@@ -295,6 +324,17 @@ public enum GSConfigKey implements ConfigKey {
 	/** Number of reads per file between matching-progress log messages. */
 	@MDDescription("Affects the log level `trace`: Defines after how many reads per fastq file, information on the matching progress is logged. If less than 1, then no progress information is logged.")
 	LOG_PROGRESS_UPDATE_CYCLE("logProgressUpdateCycle", new LongConfigParamInfo(0, Long.MAX_VALUE, 1000000), GSGoalKey.MATCH, GSGoalKey.MATCHLR, GSGoalKey.FILTER),
+	/** Whether live metrics of fastq processing are published as a JMX MBean. */
+	@MDDescription("If `true`, live metrics on fastq file processing such as reads and *k*-mers per second and consumer thread, queue stall times and hit rates "
+			+ "are published as the JMX MBean `org.metagene.genestrip:type=Metrics`, e.g. for inspection via `jconsole`.")
+	METRICS_JMX("metricsJMX", new BooleanConfigParamInfo(false), GSGoalKey.MATCH, GSGoalKey.MATCHLR, GSGoalKey.FILTER),
+	/** Interval in milliseconds for appending live metrics to a file in the log directory, 0 for none. */
+	@MDDescription("If greater than 0, the live metrics on fastq file processing are appended every so many milliseconds to the file `metrics.csv` "
+			+ "in the project's `log` folder.")
+	METRICS_DUMP_INTERVAL("metricsDumpInterval", new LongConfigParamInfo(0, Long.MAX_VALUE, 0), GSGoalKey.MATCH, GSGoalKey.MATCHLR, GSGoalKey.FILTER),
+	/** Whether live metrics are dumped as JSON lines instead of CSV. */
+	@MDDescription("If `true`, live metrics are dumped to `metrics.json` with one JSON object per line instead of `metrics.csv` (see `metricsDumpInterval`).")
+	METRICS_DUMP_JSON("metricsDumpJSON", new BooleanConfigParamInfo(false), GSGoalKey.MATCH, GSGoalKey.MATCHLR, GSGoalKey.FILTER),
 	/** Whether to perform Kraken-style read classification. */
 	@MDDescription("Whether to do read classification in the style of Kraken and KrakenUniq. Matching is faster without "
 			+ "read classification and the columns `kmers`, `unique kmers` and `max contig length` in resulting CSV files are usually more conclusive anyways - "
@@ -303,6 +343,10 @@ public enum GSConfigKey implements ConfigKey {
 	/** Whether unique k-mers are counted and reported. */
 	@MDDescription("If `true`, the number of unique *k*-mers will be counted and reported. This requires less than 5% of additional main memory.")
 	COUNT_UNIQUE_KMERS("countUniqueKMers", new BooleanConfigParamInfo(true), GSGoalKey.MATCH, GSGoalKey.MATCHLR),
+	/** Whether unique k-mers are counted lock-free (atomic bit set and saturating atomic counts). */
+	@MDDescription("If `true`, unique *k*-mers are counted without locks via atomic updates, which scales better with many consumer threads. "
+			+ "Per-*k*-mer frequencies (see `maxKMerResCounts`) then saturate at 32767 instead of overflowing.")
+	LOCK_FREE_UNIQUE_COUNTER("lockFreeUniqueCounter", new BooleanConfigParamInfo(false), GSGoalKey.MATCH, GSGoalKey.MATCHLR),
 	/** Whether the match goal also writes filtered fastq files. */
 	@MDDescription("If `true`, then the goal `match` writes filtered fastq files in the same way that the goal `filter` does.")
 	WRITE_FILTERED_FASTQ("writeFilteredFastq", new BooleanConfigParamInfo(false), GSGoalKey.MATCH, GSGoalKey.MATCHLR),
@@ -313,6 +357,14 @@ public enum GSConfigKey implements ConfigKey {
 	/** Whether all reads, not only classified ones, are written to Kraken-style output. */
 	@MDDescription("If `false`, Genestrip will write only classified reads to kraken style output files.")
 	WRITE_ALL("writeAll", new BooleanConfigParamInfo(true), GSGoalKey.MATCH),
+	/** Whether Kraken-style output lists the reads in input order. */
+	@MDDescription("If `true`, the lines of kraken style output files follow the order of the reads in the fastq file. "
+			+ "Otherwise, the lines of reads matched by different threads come in blocks, which is slightly faster and needs less main memory.")
+	ORDERED_KRAKEN_STYLE_OUT("orderedKrakenStyleOut", new BooleanConfigParamInfo(false), GSGoalKey.MATCH, GSGoalKey.MATCHLR),
+	/** Whether filtered fastq files list the reads in input order. */
+	@MDDescription("If `true`, the reads of filtered fastq files follow their order in the input fastq file, also with `parallelParsing`. "
+			+ "Otherwise, the reads written by different threads may be interleaved, which is slightly faster and needs less main memory.")
+	ORDERED_FASTQ_OUT("orderedFastqOut", new BooleanConfigParamInfo(false), GSGoalKey.FILTER, GSGoalKey.MATCH, GSGoalKey.MATCHLR),
 	/** Whether a Bloom filter is used during matching. */
 	@MDDescription("If `true` a bloom filter will be loaded and used during fastq file analysis (i.e. matching). "
 			+ "Using the bloom filter tends to shorten matching time, if the most part of the reads cannot be classified because they contain *no* *k*-mers from the database. "
@@ -344,6 +396,20 @@ public enum GSConfigKey implements ConfigKey {
 	MAX_KMER_RES_COUNTS("maxKMerResCounts", new IntConfigParamInfo(0, 65536, 0), GSGoalKey.MATCH, GSGoalKey.MATCHLR),
 	/** Size of the work queue between reader and consumer threads. */
 	THREAD_QUEUE_SIZE("threadQueueSize", new IntConfigParamInfo(1, 10000, 1000), true),
+	/** Whether the work queue between reader and consumer threads is lock-free instead of monitor-based. */
+	LOCK_FREE_QUEUE("lockFreeQueue", new BooleanConfigParamInfo(false), true),
+	/** Number of reads handed from the reader to a consumer thread at once, 1 hands over every read on its own. */
+	READ_BATCH_SIZE("readBatchSize", new IntConfigParamInfo(1, 1024, 1), true),
+	/** Whether FASTQ input is split into record-aligned chunks and parsed by the consumer threads. */
+	PARALLEL_PARSING("parallelParsing", new BooleanConfigParamInfo(false), true),
+	/** Number of background threads per GZIP input stream (for BGZF files), 0 decompresses on the reading thread. */
+	GZIP_THREADS("gzipThreads", new IntConfigParamInfo(0, 64, 0), true),
+	/** Number of background threads per GZIP output stream (writing BGZF), 0 compresses on the writing thread. */
+	GZIP_OUTPUT_THREADS("gzipOutputThreads", new IntConfigParamInfo(0, 64, 0), true),
+	/** Compression level of GZIP output files, -1 for the default level of deflate. */
+	GZIP_LEVEL("gzipLevel", new IntConfigParamInfo(-1, 9, -1), true),
+	/** Number of buffers read ahead on a background thread when reading fastq and fasta files, 0 for none. */
+	READ_AHEAD_BUFFERS("readAheadBuffers", new IntConfigParamInfo(0, 64, 0), true),
 	/** Initial read buffer size in bytes. */
 	INITIAL_READ_SIZE_BYTES("initialReadSizeBytes", new IntConfigParamInfo(256, 65536, 4096), true),
 	/** Maximum number of classification paths tracked per read. */
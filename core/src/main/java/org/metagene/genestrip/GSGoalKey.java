@@ -156,6 +156,9 @@ public enum GSGoalKey implements GoalKey {
 	/** Associates additional fasta files with tax ids in memory. */
 	@MDDescription("Associate additional fasta files with tax ids in memory.")
 	ADD_FASTAS("addfastas"),
+	/** Converts the project's reference fasta files into 2-bit packed cache files. */
+	@MDDescription("Convert the project's reference fasta files into 2-bit packed cache files for faster database generation (see `refSeqCache`).")
+	REFSEQCACHE("refseqcache"),
 	/** Precomputes the number of k-mers for the project's database. */
 	@MDDescription("Precompute the number of *k*-mers for the project's database.")
 	FILLSIZE("fillsize"),
@@ -37,10 +37,13 @@ import org.metagene.genestrip.goals.genbank.TaxNodesFromGenbankGoal;
 import org.metagene.genestrip.goals.kraken.KrakenResCountGoal;
 import org.metagene.genestrip.goals.kraken.KrakenResFileGoal;
 import org.metagene.genestrip.goals.refseq.*;
+import org.metagene.genestrip.io.BufferedLineReader;
+import org.metagene.genestrip.io.StreamProvider;
 import org.metagene.genestrip.io.StreamingResourceStream;
 import org.metagene.genestrip.make.FileGoal;
 import org.metagene.genestrip.make.FileListGoal;
 import org.metagene.genestrip.make.Goal;
+import org.metagene.genestrip.make.GoalKey;
 import org.metagene.genestrip.make.Maker;
 import org.metagene.genestrip.make.ObjectGoal;
 import org.metagene.genestrip.match.MatchingResult;
@@ -49,16 +52,26 @@ import org.metagene.genestrip.refseq.RefSeqCategory;
 import org.metagene.genestrip.tax.SmallTaxTree.SmallTaxIdNode;
 import org.metagene.genestrip.tax.TaxTree;
 import org.metagene.genestrip.tax.TaxTree.TaxIdNode;
+import org.metagene.genestrip.util.Metrics;
 
 /**
  * Builds the Genestrip goal graph for a project and wires up their dependencies. Also offers
  * convenience methods to run matching and filtering directly (for programmatic/API use) and manages a
- * shared {@link ExecutionContext} for parallel work.
+ * shared {@link ExecutionContext} for parallel work. Process wide settings like GZIP threads, read-ahead
+ * and metrics publication only apply while the maker runs goals (see {@link #startRun()}).
  *
  * @param <P> the concrete project type
  */
 public class GSMaker<P extends GSProject> extends Maker<P> {
     private ExecutionContext executionContext;
+    // Nesting depth of runs and the settings to restore at the end of the outermost run.
+    private int runs;
+    private int prevGZIPThreads;
+    private int prevGZIPOutputThreads;
+    private int prevGZIPLevel;
+    private int prevReadAheadBuffers;
+    private boolean mbeanRegistered;
+    private boolean dumpStarted;
 
     /**
      * Creates a maker for the given project.
@@ -79,17 +92,30 @@ public class GSMaker<P extends GSProject> extends Maker<P> {
         }
     }
 
+    @Override
+    public void make(boolean isolate, GoalKey... keys) {
+        startRun();
+        try {
+            super.make(isolate, keys);
+        } finally {
+            endRun();
+        }
+    }
+
     /**
      * Creates the execution context, sizing its thread pool from the project's {@code threads}
      * configuration.
      *
      * @param mainThread the thread that drives goal execution
-     * @param project    the project supplying the thread and log-cycle configuration
+     * @param project    the project supplying the thread, log-cycle and queue configuration
      * @return the newly created execution context
      */
     protected ExecutionContext createExecutionContext(Thread mainThread, P project) {
         return new DefaultExecutionContext(mainThread, project.intConfigValue(GSConfigKey.THREADS),
-                project.longConfigValue(GSConfigKey.LOG_PROGRESS_UPDATE_CYCLE));
+                project.longConfigValue(GSConfigKey.LOG_PROGRESS_UPDATE_CYCLE),
+                project.booleanConfigValue(GSConfigKey.LOCK_FREE_QUEUE),
+                project.intConfigValue(GSConfigKey.READ_BATCH_SIZE),
+                project.booleanConfigValue(GSConfigKey.PARALLEL_PARSING));
     }
 
     /**
@@ -105,6 +131,67 @@ public class GSMaker<P extends GSProject> extends Maker<P> {
         return executionContext;
     }
 
+    /**
+     * Starts a run of goals: applies the project's GZIP (de)compression and read-ahead settings to the
+     * streams and readers created during the run and publishes the metrics as configured. Must be paired
+     * with {@link #endRun()}. Nested runs keep the settings of the outermost one.
+     */
+    protected void startRun() {
+        if (runs++ > 0) {
+            return;
+        }
+        P project = getProject();
+        prevGZIPThreads = StreamProvider.getGZIPThreads();
+        prevGZIPOutputThreads = StreamProvider.getGZIPOutputThreads();
+        prevGZIPLevel = StreamProvider.getGZIPLevel();
+        prevReadAheadBuffers = BufferedLineReader.getReadAheadBuffers();
+        StreamProvider.setGZIPThreads(project.intConfigValue(GSConfigKey.GZIP_THREADS));
+        StreamProvider.setGZIPOutputThreads(project.intConfigValue(GSConfigKey.GZIP_OUTPUT_THREADS));
+        StreamProvider.setGZIPLevel(project.intConfigValue(GSConfigKey.GZIP_LEVEL));
+        BufferedLineReader.setReadAheadBuffers(project.intConfigValue(GSConfigKey.READ_AHEAD_BUFFERS));
+        if (project.booleanConfigValue(GSConfigKey.METRICS_JMX)) {
+            Metrics.getDefault().registerMBean();
+            mbeanRegistered = true;
+        }
+        long dumpInterval = project.longConfigValue(GSConfigKey.METRICS_DUMP_INTERVAL);
+        if (dumpInterval > 0) {
+            File logDir = project.getLogDir();
+            logDir.mkdirs();
+            String name = project.booleanConfigValue(GSConfigKey.METRICS_DUMP_JSON) ? "metrics.json" : "metrics.csv";
+            try {
+                Metrics.getDefault().startDump(new File(logDir, name), dumpInterval);
+                dumpStarted = true;
+            } catch (IOException e) {
+                // Metrics are for observation only, so the run goes on without them.
+                if (getLogger().isWarnEnabled()) {
+                    getLogger().warn("Cannot dump metrics to " + new File(logDir, name) + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Ends a run of goals started via {@link #startRun()}: stops the metrics publication and restores the
+     * previous stream and reader settings.
+     */
+    protected void endRun() {
+        if (--runs > 0) {
+            return;
+        }
+        if (dumpStarted) {
+            Metrics.getDefault().stopDump();
+            dumpStarted = false;
+        }
+        if (mbeanRegistered) {
+            Metrics.getDefault().unregisterMBean();
+            mbeanRegistered = false;
+        }
+        StreamProvider.setGZIPThreads(prevGZIPThreads);
+        StreamProvider.setGZIPOutputThreads(prevGZIPOutputThreads);
+        StreamProvider.setGZIPLevel(prevGZIPLevel);
+        BufferedLineReader.setReadAheadBuffers(prevReadAheadBuffers);
+    }
+
     /**
      * Returns the thread that drives goal execution.
      *
@@ -308,20 +395,35 @@ public class GSMaker<P extends GSProject> extends Maker<P> {
 
         // Create database and bloom filter
 
+        RefSeqCacheGoal<P> refSeqCacheGoal = new RefSeqCacheGoal(project, getExecutionContext(project), categoriesGoal, taxNodesGoal, taxTreeGoal,
+                refSeqFnaFilesGoal, additionalFastasGoal, accessionMapGoal, projectSetupGoal);
+        registerGoal(refSeqCacheGoal);
+        // The fasta reading goals use the cache when depending on it.
+        Goal<P>[] cacheDeps = project.booleanConfigValue(GSConfigKey.REFSEQ_CACHE) ? new Goal[] { refSeqCacheGoal } : new Goal[0];
+
         ObjectGoal<Long, P> basicSizeGoal = new FillSizeGoal(project, getExecutionContext(project), categoriesGoal, taxNodesGoal, refSeqFnaFilesGoal,
-                additionalFastasGoal, accessionMapGoal);
+                additionalFastasGoal, accessionMapGoal, cacheDeps);
         registerGoal(basicSizeGoal);
 
-        ObjectGoal<FillBloomFilterGoal.DBSize, P> fillSizeGoal = new FillBloomFilterGoal(project, getExecutionContext(project), categoriesGoal,
-                taxNodesGoal, refSeqFnaFilesGoal, additionalFastasGoal, accessionMapGoal, basicSizeGoal);
+        ObjectGoal<FillBloomFilterGoal.DBSize, P> fillSizeGoal = project.booleanConfigValue(GSConfigKey.HLL_DB_SIZE) ?
+                new HLLDBSizeGoal(project, getExecutionContext(project), categoriesGoal, taxNodesGoal, refSeqFnaFilesGoal,
+                        additionalFastasGoal, accessionMapGoal, cacheDeps) :
+                new FillBloomFilterGoal(project, getExecutionContext(project), categoriesGoal,
+                        taxNodesGoal, refSeqFnaFilesGoal, additionalFastasGoal, accessionMapGoal, basicSizeGoal, cacheDeps);
         registerGoal(fillSizeGoal);
 
         FillDBGoal<P> fillDBGoal = new FillDBGoal(project, getExecutionContext(project), categoriesGoal, taxNodesGoal, taxTreeGoal, refSeqFnaFilesGoal,
-                additionalFastasGoal, accessionMapGoal, fillSizeGoal, projectSetupGoal);
+                additionalFastasGoal, accessionMapGoal, fillSizeGoal, Goal.append(cacheDeps, projectSetupGoal));
         registerGoal(fillDBGoal);
 
         StoreDBGoal<P> storeTempDBGoal = new StoreDBGoal<P>(project, GSGoalKey.TEMPDB,
                 project.getOutputFile(GSGoalKey.TEMPDB.getName(), GSFileType.DB, false), fillDBGoal, projectSetupGoal) {
+            @Override
+            protected boolean isMappedFormat() {
+                // The temporary database gets reloaded for the update, so its store must stay mutable.
+                return false;
+            }
+
             @Override
             protected void dependentMade(Goal<P> goal) {
                 super.dependentMade(goal);
@@ -525,15 +627,20 @@ public class GSMaker<P extends GSProject> extends Maker<P> {
      * @return the matching result for the given key
      */
     public MatchingResult match(boolean lr, boolean clean, String key, String... pathsOrURLs) {
-        MatchResultGoal<P> matchResGoal = createGoalChainForMatchResult(lr, key, pathsOrURLs);
-        MatchGoal<P> matchGoal = new MatchGoal(matchResGoal.getProject(), (lr ? GSGoalKey.MATCHLR : GSGoalKey.MATCH), matchResGoal.getFastqMapGoal(), matchResGoal);
-        if (clean) {
-            matchGoal.cleanThis();
+        startRun();
+        try {
+            MatchResultGoal<P> matchResGoal = createGoalChainForMatchResult(lr, key, pathsOrURLs);
+            MatchGoal<P> matchGoal = new MatchGoal(matchResGoal.getProject(), (lr ? GSGoalKey.MATCHLR : GSGoalKey.MATCH), matchResGoal.getFastqMapGoal(), matchResGoal);
+            if (clean) {
+                matchGoal.cleanThis();
+            }
+            // Store it here as it will be cleared via "allDependentsMade()" in matchGoal.make()...
+            MatchingResult res = matchResGoal.get().get(key);
+            matchGoal.make();
+            return res;
+        } finally {
+            endRun();
         }
-        // Store it here as it will be cleared via "allDependentsMade()" in matchGoal.make()...
-        MatchingResult res = matchResGoal.get().get(key);
-        matchGoal.make();
-        return res;
     }
 
     /**
@@ -545,7 +652,12 @@ public class GSMaker<P extends GSProject> extends Maker<P> {
      * @return the matching result for the given key
      */
     public MatchingResult matchResult(boolean lr, String key, String... pathsOrURLs) {
-        return createGoalChainForMatchResult(lr, key, pathsOrURLs).get().get(key);
+        startRun();
+        try {
+            return createGoalChainForMatchResult(lr, key, pathsOrURLs).get().get(key);
+        } finally {
+            endRun();
+        }
     }
 
     /**
@@ -633,11 +745,16 @@ public class GSMaker<P extends GSProject> extends Maker<P> {
      * @param pathsOrURLs the fastq/fasta input paths or URLs
      */
     public void filter(boolean clean, String key, String... pathsOrURLs) {
-        FilterGoal<P> filterGoal = createGoalChainForFilter(key, pathsOrURLs);
-        if (clean) {
-            filterGoal.cleanThis();
+        startRun();
+        try {
+            FilterGoal<P> filterGoal = createGoalChainForFilter(key, pathsOrURLs);
+            if (clean) {
+                filterGoal.cleanThis();
+            }
+            filterGoal.make();
+        } finally {
+            endRun();
         }
-        filterGoal.make();
     }
 
     /**
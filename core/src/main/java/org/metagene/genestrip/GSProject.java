@@ -102,7 +102,9 @@ public class GSProject extends Project {
         /** A log file. */
         LOG(".log"),
         /** An SVG graphics file. */
-        SVG(".svg");
+        SVG(".svg"),
+        /** A 2-bit packed reference cache file. */
+        REFSEQ_CACHE(".2bit");
 
         private final String suffix;
 
@@ -415,6 +417,7 @@ public class GSProject extends Project {
                 case SER:
                 case DB:
                 case FILTER:
+                case REFSEQ_CACHE:
                     return getDBDir();
                 case LOG:
                     return getLogDir();
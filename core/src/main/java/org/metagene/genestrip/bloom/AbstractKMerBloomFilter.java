@@ -29,6 +29,7 @@ import org.metagene.genestrip.util.LargeBitVector;
 
 import java.io.IOException;
 import java.io.ObjectOutputStream;
+import java.util.Arrays;
 import java.util.Random;
 
 /**
@@ -215,6 +216,29 @@ public abstract class AbstractKMerBloomFilter extends AbstractCountingKMerProbFi
 		return true;
 	}
 
+	/**
+	 * Tests a batch of k-mers hash function by hash function: each round probes the bits of all k-mers
+	 * still (probably) present for one hash function, so the memory accesses of a round are independent.
+	 */
+	@Override
+	public int containsLongBatch(final long[] data, final int n, final boolean[] contains) {
+		Arrays.fill(contains, 0, n, true);
+		for (int i = 0; i < hashes; i++) {
+			for (int j = 0; j < n; j++) {
+				if (contains[j]) {
+					contains[j] = bitVector.get(reduce(hash(data[j], i)));
+				}
+			}
+		}
+		int count = 0;
+		for (int j = 0; j < n; j++) {
+			if (contains[j]) {
+				count++;
+			}
+		}
+		return count;
+	}
+
 	/**
 	 * Adds the given k-mer to the filter and reports whether it was newly added, computing each hash
 	 * only once and setting the corresponding bits atomically. This combines the effect of a {@link
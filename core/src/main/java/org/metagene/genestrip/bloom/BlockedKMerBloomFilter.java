@@ -197,6 +197,34 @@ public class BlockedKMerBloomFilter extends AbstractCountingKMerProbFilter {
         return ((m1 & a) == m1) && ((m2 & b) == m2);
     }
 
+    /**
+     * Tests a batch of k-mers without any data dependent branch between the probes, so the CPU can
+     * overlap the (typically two) cache misses per k-mer of many k-mers.
+     */
+    @Override
+    public int containsLongBatch(long[] keys, int n, boolean[] contains) {
+        int count = 0;
+        long[] d = data;
+        for (int i = 0; i < n; i++) {
+            long hash = seed ^ keys[i];
+            long start = reduce(hash);
+            hash = hash ^ Long.rotateLeft(hash, 32);
+            long m1 = (1L << hash) | (1L << (hash >> 6));
+            long m2 = (1L << (hash >> 12)) | (1L << (hash >> 18));
+            boolean c;
+            if (d != null) {
+                int s = (int) start;
+                c = ((m1 & d[s]) == m1) && ((m2 & d[s + 1 + (int) (hash >>> 60)]) == m2);
+            } else {
+                c = ((m1 & BigArrays.get(largeData, start)) == m1)
+                        && ((m2 & BigArrays.get(largeData, start + 1 + (hash >>> 60))) == m2);
+            }
+            contains[i] = c;
+            count += c ? 1 : 0;
+        }
+        return count;
+    }
+
     @Override
     public long ensureExpectedSize(long entryCount, boolean enforceLarge) {
         entryCount = Math.max(1, entryCount);
@@ -254,6 +282,44 @@ public class BlockedKMerBloomFilter extends AbstractCountingKMerProbFilter {
         // return (((((int) v) & 0xffffffffL) * (buckets & 0xffffffffL)) >>> 32);
     }
 
+    /**
+     * Returns the hash seed used to derive bit positions.
+     *
+     * @return the hash seed
+     */
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Returns the number of buckets (start words) that keys are reduced to.
+     *
+     * @return the number of buckets
+     */
+    public long getBuckets() {
+        return buckets;
+    }
+
+    /**
+     * Returns the number of backing words, i.e. {@link #getBuckets()} plus the block overhang.
+     *
+     * @return the number of backing words
+     */
+    public long getWordCount() {
+        return data != null ? data.length : largeData != null ? BigArrays.length(largeData) : 0;
+    }
+
+    /**
+     * Returns the backing word at the given index (e.g. for writing the filter in a raw binary
+     * layout, see {@link MappedBlockedKMerBloomFilter}).
+     *
+     * @param index the word index in {@code [0, getWordCount())}
+     * @return the backing word
+     */
+    public long getWord(long index) {
+        return data != null ? data[(int) index] : BigArrays.get(largeData, index);
+    }
+
     @Override
     public void clear() {
         if (largeData != null) {
@@ -26,13 +26,16 @@ package org.metagene.genestrip.bloom;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 
 import org.metagene.genestrip.ExecutionContext;
 import org.metagene.genestrip.fastq.AbstractLoggingFastqStreamer;
+import org.metagene.genestrip.io.ConcurrentBlockWriter;
 import org.metagene.genestrip.io.StreamProvider;
 import org.metagene.genestrip.io.StreamingResourceStream;
 import org.metagene.genestrip.util.CGAT;
+import org.metagene.genestrip.util.Metrics;
 
 /**
  * Streams FASTQ reads and classifies each read by how many of its (canonical) k-mers are found in a
@@ -40,12 +43,23 @@ import org.metagene.genestrip.util.CGAT;
  * another.
  */
 public class FastqBloomFilter extends AbstractLoggingFastqStreamer {
+	// The number of canonical k-mers probed at once via KMerProbFilter.containsLongBatch().
+	private static final int PROBE_BATCH_SIZE = 64;
+	// Bytes of output a consumer collects before handing them over to a writer thread in ordered mode.
+	private static final int OUT_BLOCK_SIZE = 256 * 1024;
+
 	private final double positiveRatio;
 	private final int minPosCount;
 	private final KMerProbFilter filter;
+	private final Metrics.Counter probesMetric = Metrics.getDefault().counter(Metrics.BLOOM_PROBES);
+	private final Metrics.Counter hitsMetric = Metrics.getDefault().counter(Metrics.BLOOM_HITS);
 
 	private OutputStream indexed;
 	private OutputStream notIndexed;
+	// Writers keeping the reads in input order for indexed and notIndexed, or null to write to the streams directly.
+	private ConcurrentBlockWriter indexedWriter;
+	private ConcurrentBlockWriter notIndexedWriter;
+	private boolean orderedFastqOut;
 
 	/**
 	 * Creates a filter that accepts a read when enough of its k-mers are present in {@code filter}.
@@ -79,13 +93,54 @@ public class FastqBloomFilter extends AbstractLoggingFastqStreamer {
 	 */
 	public void runFilter(StreamingResourceStream fastqs, File filteredFile, File restFile) throws IOException {
 		try (OutputStream lindexed = filteredFile != null ? StreamProvider.getOutputStreamForFile(filteredFile) : null;
-			 OutputStream lnotIndexed = restFile != null ? StreamProvider.getOutputStreamForFile(restFile) : null) {
+			 OutputStream lnotIndexed = restFile != null ? StreamProvider.getOutputStreamForFile(restFile) : null;
+			 // Closed before lindexed and lnotIndexed, so they write their remaining reads first.
+			 ConcurrentBlockWriter lindexedWriter = lindexed != null && orderedFastqOut
+					 ? createBlockWriter(lindexed, OUT_BLOCK_SIZE, true) : null;
+			 ConcurrentBlockWriter lnotIndexedWriter = lnotIndexed != null && orderedFastqOut
+					 ? createBlockWriter(lnotIndexed, OUT_BLOCK_SIZE, true) : null) {
 			indexed = lindexed;
 			notIndexed = lnotIndexed;
+			indexedWriter = lindexedWriter;
+			notIndexedWriter = lnotIndexedWriter;
 			processFastqStreams(fastqs);
 		}
 		indexed = null;
 		notIndexed = null;
+		indexedWriter = null;
+		notIndexedWriter = null;
+	}
+
+	/**
+	 * Sets whether the reads are written in input order. Otherwise, they come in the order in which the
+	 * consumers get done. Only has an effect on subsequent calls of {@link #runFilter}.
+	 *
+	 * @param orderedFastqOut whether to write the reads in input order
+	 */
+	public void setOrderedFastqOut(boolean orderedFastqOut) {
+		this.orderedFastqOut = orderedFastqOut;
+	}
+
+	@Override
+	protected void readFastq(InputStream inputStream, boolean fasta) throws IOException {
+		super.readFastq(inputStream, fasta);
+		// The read numbers start at 0 again for the next file.
+		if (indexedWriter != null) {
+			indexedWriter.endSequence();
+		}
+		if (notIndexedWriter != null) {
+			notIndexedWriter.endSequence();
+		}
+	}
+
+	@Override
+	protected void endChunk(long readNo, long nextReadNo, int threadIndex) throws IOException {
+		if (indexedWriter != null) {
+			indexedWriter.getSlot(threadIndex).endChunk(readNo, nextReadNo);
+		}
+		if (notIndexedWriter != null) {
+			notIndexedWriter.getSlot(threadIndex).endChunk(readNo, nextReadNo);
+		}
 	}
 
 	@Override
@@ -93,14 +148,17 @@ public class FastqBloomFilter extends AbstractLoggingFastqStreamer {
 		MyReadEntry re = (MyReadEntry) readStruct;
 
 		boolean res = isAcceptRead(re);
-		if (res) {
-			if (indexed != null) {
-				rewriteInput(readStruct, indexed);
-			}
-		} else {
-			if (notIndexed != null) {
-				rewriteInput(readStruct, notIndexed);
-			}
+		probesMetric.add(index, re.counter + re.negCounter);
+		hitsMetric.add(index, re.counter);
+		if (indexedWriter != null) {
+			rewriteInput(readStruct, indexedWriter, res, index);
+		} else if (res && indexed != null) {
+			rewriteInput(readStruct, indexed);
+		}
+		if (notIndexedWriter != null) {
+			rewriteInput(readStruct, notIndexedWriter, !res, index);
+		} else if (!res && notIndexed != null) {
+			rewriteInput(readStruct, notIndexed);
 		}
 	}
 
@@ -111,7 +169,8 @@ public class FastqBloomFilter extends AbstractLoggingFastqStreamer {
 
 	/**
 	 * Decides whether the given read should be accepted based on how many of its canonical k-mers are
-	 * present in the filter.
+	 * present in the filter. The k-mers are probed in batches of up to {@value #PROBE_BATCH_SIZE}, so
+	 * that their memory accesses overlap.
 	 *
 	 * @param entry the read to test
 	 * @return whether the given read has enough of its canonical k-mers present in the filter, scanning
@@ -124,8 +183,12 @@ public class FastqBloomFilter extends AbstractLoggingFastqStreamer {
 
 		long kmer = -1;
 		long reverseKmer = -1;
-		int counter = 0;
-		int negCounter = 0;
+		entry.counter = 0;
+		entry.negCounter = 0;
+		long[] kmers = entry.kmers;
+		int n = 0;
+		int growth = 1;
+		int limit = batchLimit(entry, growth, posThreshold, negThreshold);
 		for (int i = 0; i < max; i++) {
 			if (kmer == -1) {
 				kmer = CGAT.kMerToLongStraight(entry.read, i, k, entry.badPos);
@@ -143,21 +206,45 @@ public class FastqBloomFilter extends AbstractLoggingFastqStreamer {
 				}
 			}
 			if (kmer != -1) {
-				if (filter.containsLong(CGAT.standardKMer(kmer, reverseKmer))) {
-					counter++;
-					if (counter >= posThreshold) {
-						return true;
-					}
-				} else {
-					negCounter++;
-					if (negCounter > negThreshold) {
-						return false;
+				kmers[n++] = CGAT.standardKMer(kmer, reverseKmer);
+				if (n == limit) {
+					int decision = probeBatch(entry, n, posThreshold, negThreshold);
+					if (decision != 0) {
+						return decision > 0;
 					}
+					n = 0;
+					growth *= 2;
+					limit = batchLimit(entry, growth, posThreshold, negThreshold);
 				}
 			}
 		}
 
-		return false;
+		return n > 0 && probeBatch(entry, n, posThreshold, negThreshold) > 0;
+	}
+
+	// A batch holds as many k-mers as a decision needs at least. So, in the beginning, no more k-mers are probed than
+	// by checking them one by one. But since this may be a single k-mer for each batch (e.g. with minPosCount = 1),
+	// the batches also double in size, so that the extra probes are bounded by the ones already needed.
+	private int batchLimit(MyReadEntry entry, int growth, int posThreshold, int negThreshold) {
+		int needed = Math.min(posThreshold - entry.counter, negThreshold + 1 - entry.negCounter);
+		return Math.min(PROBE_BATCH_SIZE, Math.max(growth, needed));
+	}
+
+	// Probes the collected k-mers at once, but counts them in order as if they had been probed one by one.
+	// Returns 1 if the read is accepted, -1 if it is rejected and 0 if this is still open.
+	private int probeBatch(MyReadEntry entry, int n, int posThreshold, int negThreshold) {
+		boolean[] contains = entry.contains;
+		filter.containsLongBatch(entry.kmers, n, contains);
+		for (int j = 0; j < n; j++) {
+			if (contains[j]) {
+				if (++entry.counter >= posThreshold) {
+					return 1;
+				}
+			} else if (++entry.negCounter > negThreshold) {
+				return -1;
+			}
+		}
+		return 0;
 	}
 
 
@@ -167,6 +254,14 @@ public class FastqBloomFilter extends AbstractLoggingFastqStreamer {
 	protected static class MyReadEntry extends ReadEntry {
 		/** Single-element holder for the position of the last invalid base. */
 		public final int[] badPos = new int[1];
+		/** The canonical k-mers collected for the next batch probe. */
+		protected final long[] kmers = new long[PROBE_BATCH_SIZE];
+		/** The results of the last batch probe. */
+		protected final boolean[] contains = new boolean[PROBE_BATCH_SIZE];
+		/** The number of k-mers of the read found in the filter so far. */
+		protected int counter;
+		/** The number of k-mers of the read not found in the filter so far. */
+		protected int negCounter;
 
 		/**
 		 * Creates the read entry.
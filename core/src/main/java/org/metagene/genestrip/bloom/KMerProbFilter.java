@@ -64,6 +64,24 @@ public interface KMerProbFilter extends Serializable {
      * @return {@code false} if the k-mer is definitely absent, {@code true} if it is (probably) present.
      */
     public boolean containsLong(final long data);
+    /**
+     * Tests a batch of k-mers like {@link #containsLong(long)}. Implementations probe the k-mers in an
+     * interleaved way so that several memory accesses are in flight at a time.
+     *
+     * @param data     the k-mers to test
+     * @param n        the number of k-mers to test from the start of {@code data}
+     * @param contains receives the result of {@link #containsLong(long)} for each k-mer
+     * @return the number of k-mers (probably) present
+     */
+    default public int containsLongBatch(final long[] data, final int n, final boolean[] contains) {
+        int count = 0;
+        for (int i = 0; i < n; i++) {
+            if (contains[i] = containsLong(data[i])) {
+                count++;
+            }
+        }
+        return count;
+    }
     /**
      * (Re)sizes the filter for the given expected number of insertions, using large backing storage
      * when required or when {@code enforceLarge} is set.
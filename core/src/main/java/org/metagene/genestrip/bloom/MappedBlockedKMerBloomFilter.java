@@ -0,0 +1,106 @@
+/*
+ * 
+ * “Commons Clause” License Condition v1.0
+ * 
+ * The Software is provided to you by the Licensor under the License, 
+ * as defined below, subject to the following condition.
+ * 
+ * Without limiting other conditions in the License, the grant of rights under the License 
+ * will not include, and the License does not grant to you, the right to Sell the Software.
+ * 
+ * For purposes of the foregoing, “Sell” means practicing any or all of the rights granted 
+ * to you under the License to provide to third parties, for a fee or other consideration 
+ * (including without limitation fees for hosting or consulting/ support services related to 
+ * the Software), a product or service whose value derives, entirely or substantially, from the 
+ * functionality of the Software. Any license notice or attribution required by the License 
+ * must also include this Commons Clause License Condition notice.
+ * 
+ * Software: genestrip
+ * 
+ * License: Apache 2.0
+ * 
+ * Licensor: Daniel Pfeifer (daniel.pfeifer@progotec.de)
+ * 
+ */
+package org.metagene.genestrip.bloom;
+
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.ObjectOutputStream;
+
+import org.metagene.genestrip.util.MappedLongArray;
+
+/**
+ * A read-only view of a {@link BlockedKMerBloomFilter} whose words reside in a memory-mapped file
+ * region rather than on the heap. It answers {@link #containsLong(long)} exactly like the filter it
+ * was written from (same seed, bucket count and bit layout), but all mutating operations throw an
+ * {@link UnsupportedOperationException}. Being backed by a mapping, it cannot be serialized.
+ */
+public class MappedBlockedKMerBloomFilter implements KMerProbFilter {
+    private static final long serialVersionUID = 1L;
+
+    private final long seed;
+    private final long buckets;
+    private final long entries;
+    private final transient MappedLongArray words;
+
+    /**
+     * Creates the view over the given mapped words.
+     *
+     * @param seed    the hash seed of the original filter, see {@link BlockedKMerBloomFilter#getSeed()}
+     * @param buckets the bucket count of the original filter, see {@link BlockedKMerBloomFilter#getBuckets()}
+     * @param entries the number of entries of the original filter
+     * @param words   the mapped words of the original filter
+     */
+    public MappedBlockedKMerBloomFilter(long seed, long buckets, long entries, MappedLongArray words) {
+        if (buckets <= 0) {
+            throw new IllegalArgumentException("Number of buckets must be positive: " + buckets);
+        }
+        this.seed = seed;
+        this.buckets = buckets;
+        this.entries = entries;
+        this.words = words;
+    }
+
+    // Made final for potential (automated) inlining by JVM
+    @Override
+    public final boolean containsLong(final long key) {
+        long hash = seed ^ key; // Same super simple hash function as in BlockedKMerBloomFilter.
+        long start = Math.abs(hash % buckets);
+        hash = hash ^ Long.rotateLeft(hash, 32);
+        long a = words.get(start);
+        long b = words.get(start + 1 + (hash >>> 60));
+        long m1 = (1L << hash) | (1L << (hash >> 6));
+        long m2 = (1L << (hash >> 12)) | (1L << (hash >> 18));
+        return ((m1 & a) == m1) && ((m2 & b) == m2);
+    }
+
+    @Override
+    public long getEntries() {
+        return entries;
+    }
+
+    @Override
+    public void putLong(long data) {
+        throw new UnsupportedOperationException("Mapped filter is read-only.");
+    }
+
+    @Override
+    public boolean putLongIfAbsent(long data) {
+        throw new UnsupportedOperationException("Mapped filter is read-only.");
+    }
+
+    @Override
+    public long ensureExpectedSize(long expectedInsertions, boolean enforceLarge) {
+        throw new UnsupportedOperationException("Mapped filter is read-only.");
+    }
+
+    @Override
+    public void clear() {
+        throw new UnsupportedOperationException("Mapped filter is read-only.");
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        throw new NotSerializableException("A memory-mapped filter cannot be serialized.");
+    }
+}
@@ -55,7 +55,7 @@ public abstract class AbstractFastaReader {
 	 * @param bufferSize the size in bytes of the line buffer used to hold each line.
 	 */
 	public AbstractFastaReader(int bufferSize) {
-		this.bufferedLineReader = new BufferedLineReader();
+		this.bufferedLineReader = new BufferedLineReader(true);
 		target = new byte[bufferSize];
 	}
 
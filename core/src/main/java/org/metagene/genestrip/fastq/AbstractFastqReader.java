@@ -24,28 +24,45 @@
  */
 package org.metagene.genestrip.fastq;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PrintStream;
+import java.io.SequenceInputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
 
 import org.apache.commons.logging.Log;
 import org.metagene.genestrip.ExecutionContext;
 import org.metagene.genestrip.io.BufferedLineReader;
+import org.metagene.genestrip.io.ConcurrentBlockWriter;
 import org.metagene.genestrip.util.ByteArrayUtil;
 import org.metagene.genestrip.util.GSLogFactory;
+import org.metagene.genestrip.util.Metrics;
+import org.metagene.genestrip.util.RingBlockingQueue;
 import org.metagene.genestrip.util.SimpleBlockingQueue;
 
 /**
  * Abstract multi-threaded FASTQ/FASTA reader. It parses reads into a pool of reusable
  * {@link ReadEntry} buffers and either processes them inline or hands them to a configurable number
  * of consumer threads via a blocking queue, calling {@link #nextEntry(ReadEntry, int)} for each.
+ * If the execution context's read batch size is greater than one, the reads are handed over in
+ * {@link ReadBatch}es instead of one by one, which saves most of the queue synchronization.
+ * With parallel parsing, FASTQ input is not even parsed by the producer: it is split into chunks at
+ * record boundaries, and the consumer threads parse the chunks themselves. FASTQ input with wrapped
+ * (multi-line) sequences is parsed serially anyways, as its record boundaries cannot be found reliably.
  */
 public abstract class AbstractFastqReader {
     private static final byte[] LINE_3 = new byte[]{'+', '\n'};
+    // Initial size of the chunks for parallel parsing. They grow if a record does not fit.
+    private static final int PARSE_CHUNK_SIZE = 256 * 1024;
+    // The chunks grow up to this size, which is plenty even for records of long reads.
+    private static final int MAX_PARSE_CHUNK_SIZE = 256 * 1024 * 1024;
 
     /** The logger used by this reader. */
     protected final Log logger = GSLogFactory.getLog("fastqreader");
@@ -60,7 +77,22 @@ public abstract class AbstractFastqReader {
     private final BufferedLineReader bufferedLineReaderFastQ;
     private final ReadEntry[] readStructPool;
     private final BlockingQueue<ReadEntry> blockingQueue;
-    private final byte[] plusLine;
+    private final boolean parallelParsing;
+    private final int batchSize;
+    private final ReadBatch[] batchPool;
+    private final BlockingQueue<ReadBatch> batchQueue;
+    // The batch being filled by the producer and the number of its entries handed out so far.
+    // (Can be one more than currentBatch.size, as doReadFasta() looks ahead by one entry.)
+    private ReadBatch currentBatch;
+    private int handedOut;
+    // Counts of reads parsed by the consumer threads (with parallel parsing).
+    private final AtomicLong parsedReads = new AtomicLong();
+    private final AtomicLong parsedKMers = new AtomicLong();
+    private final AtomicLong parsedBPs = new AtomicLong();
+    // Live metrics updated per consumer thread (see Metrics).
+    private final Metrics.Counter readsMetric = Metrics.getDefault().counter(Metrics.READS);
+    private final Metrics.Counter kMersMetric = Metrics.getDefault().counter(Metrics.KMERS);
+    private final Metrics.Counter bytesInflatedMetric = Metrics.getDefault().counter(Metrics.BYTES_INFLATED);
     /** The k-mer length used when counting k-mers per read. */
     protected final int k;
 
@@ -77,7 +109,8 @@ public abstract class AbstractFastqReader {
      *
      * @param k the k-mer length used when counting k-mers per read.
      * @param initialSizeBytes the initial size in bytes of each allocated read buffer.
-     * @param maxQueueSize the maximum number of read entries buffered in the blocking queue.
+     * @param maxQueueSize the maximum number of read entries buffered in the blocking queue
+     *                     (rounded down to whole batches if reads are handed over in batches).
      * @param bundle the execution context providing the consumer threads and error handling.
      * @param withProbs whether reads carry per-base quality (probability) values.
      * @param config optional configuration passed on to the read-entry and runnable factories.
@@ -86,17 +119,33 @@ public abstract class AbstractFastqReader {
                                boolean withProbs, Object... config) {
         this.k = k;
         this.bundle = bundle;
-        bufferedLineReaderFastQ = new BufferedLineReader();
+        bufferedLineReaderFastQ = new BufferedLineReader(true);
+        bufferedLineReaderFastQ.setBytesCounter(bytesInflatedMetric);
         int consumerNumber = bundle.getThreads();
-        plusLine = new byte[initialSizeBytes];
-        readStructPool = new ReadEntry[consumerNumber == 0 ? 2 : (maxQueueSize + consumerNumber + 2)];
-        for (int i = 0; i < readStructPool.length; i++) {
-            readStructPool[i] = createReadEntry(initialSizeBytes, withProbs, config);
+        parallelParsing = consumerNumber > 0 && bundle.isParallelParsing();
+        batchSize = consumerNumber == 0 ? 1 : bundle.getReadBatchSize();
+        // Parallel parsing hands over chunks as batches, so it also needs the batch pool.
+        if (batchSize > 1 || parallelParsing) {
+            int maxQueueBatches = Math.max(1, maxQueueSize / batchSize);
+            readStructPool = null;
+            blockingQueue = null;
+            batchPool = new ReadBatch[maxQueueBatches + consumerNumber + 2];
+            for (int i = 0; i < batchPool.length; i++) {
+                batchPool[i] = new ReadBatch(batchSize, initialSizeBytes, withProbs, config);
+            }
+            batchQueue = createBatchQueue(maxQueueBatches);
+        } else {
+            readStructPool = new ReadEntry[consumerNumber == 0 ? 2 : (maxQueueSize + consumerNumber + 2)];
+            for (int i = 0; i < readStructPool.length; i++) {
+                readStructPool[i] = createReadEntry(initialSizeBytes, withProbs, config);
+            }
+            blockingQueue = consumerNumber == 0 ? null
+                    : createBlockingQueue(maxQueueSize);
+            batchPool = null;
+            batchQueue = null;
         }
-        blockingQueue = consumerNumber == 0 ? null
-                : createBlockingQueue(maxQueueSize);
 
-        if (blockingQueue != null) {
+        if (blockingQueue != null || batchQueue != null) {
             for (int i = 0; i < consumerNumber; i++) {
                 bundle.execute(createRunnable(i, config));
             }
@@ -110,10 +159,33 @@ public abstract class AbstractFastqReader {
      * @return the blocking queue used to pass read entries to the consumer threads.
      */
     protected BlockingQueue<ReadEntry> createBlockingQueue(int maxQueueSize) {
+        return newQueue(maxQueueSize);
+    }
+
+    /**
+     * Creates the blocking queue used to hand read batches to the consumer threads.
+     *
+     * @param maxQueueSize the maximum number of read batches the queue may hold.
+     * @return the blocking queue used to pass read batches to the consumer threads.
+     */
+    protected BlockingQueue<ReadBatch> createBatchQueue(int maxQueueSize) {
+        return newQueue(maxQueueSize);
+    }
+
+    private <T> BlockingQueue<T> newQueue(int maxQueueSize) {
+        Metrics.Counter putWaitNanos = Metrics.getDefault().counter(Metrics.QUEUE_PUT_WAIT_NANOS);
+        Metrics.Counter takeWaitNanos = Metrics.getDefault().counter(Metrics.QUEUE_TAKE_WAIT_NANOS);
+        if (bundle.isLockFreeQueue()) {
+            RingBlockingQueue<T> queue = new RingBlockingQueue<>(maxQueueSize);
+            queue.setWaitCounters(putWaitNanos, takeWaitNanos);
+            return queue;
+        }
         // This simple blocking queue gives about 5% to 10% performance boost (on my Mac)
         // over the ArrayBlockingQueue. Also, it does not cause any memory churn
         // (unlike ArrayBlockingQueue).
-        return new SimpleBlockingQueue<>(maxQueueSize);
+        SimpleBlockingQueue<T> queue = new SimpleBlockingQueue<>(maxQueueSize);
+        queue.setWaitCounters(putWaitNanos, takeWaitNanos);
+        return queue;
         // return new ArrayBlockingQueue<>(maxQueueSize);
     }
 
@@ -143,14 +215,47 @@ public abstract class AbstractFastqReader {
     }
 
     /**
-     * Creates the worker {@link Runnable} for a consumer thread, which takes read entries from the
-     * queue, processes them via {@link #nextEntry(ReadEntry, int)} and returns them to the pool.
+     * Creates the worker {@link Runnable} for a consumer thread, which takes read entries (or read
+     * batches) from the queue, processes them via {@link #nextEntry(ReadEntry, int)} and returns them
+     * to the pool.
      *
      * @param rindex the index identifying this consumer thread.
      * @param config optional configuration for the consumer thread.
      * @return the runnable executed by the consumer thread.
      */
     protected Runnable createRunnable(int rindex, Object... config) {
+        if (batchQueue != null) {
+            return new Runnable() {
+                private final int index = rindex;
+
+                private final BufferedLineReader chunkReader = parallelParsing ? new BufferedLineReader() : null;
+
+                @Override
+                public void run() {
+                    while (!dump) {
+                        try {
+                            ReadBatch batch = batchQueue.take();
+                            if (batch.dataSize >= 0) {
+                                nextChunk(batch, chunkReader, index);
+                            } else {
+                                ReadEntry[] entries = batch.entries;
+                                int size = batch.size;
+                                for (int i = 0; i < size; i++) {
+                                    processEntry(entries[i], index);
+                                }
+                            }
+                            batch.pooled = true;
+                        } catch (IOException e) {
+                            throw new RuntimeException(e);
+                        } catch (InterruptedException e) {
+                            if (!dump) {
+                                throw new RuntimeException(e);
+                            }
+                        }
+                    }
+                }
+            };
+        }
         return new Runnable() {
             private final int index = rindex;
 
@@ -160,7 +265,7 @@ public abstract class AbstractFastqReader {
                     try {
                         ReadEntry readStruct = blockingQueue.take();
 //						try {
-                        nextEntry(readStruct, index);
+                        processEntry(readStruct, index);
 //						} finally {
 //							if (readsDone) {
 //								synchronized (mainThread) {
@@ -222,17 +327,43 @@ public abstract class AbstractFastqReader {
      * @throws IOException if the stream cannot be read.
      */
     protected void readFastq(InputStream inputStream, boolean fasta) throws IOException {
+        // The queue size gauge is replaced by the next reader in case of an exception.
+        BlockingQueue<?> queue = blockingQueue != null ? blockingQueue : batchQueue;
+        LongSupplier queueSize = queue == null ? null : queue::size;
+        if (queueSize != null) {
+            Metrics.getDefault().gauge(Metrics.QUEUE_SIZE, queueSize);
+        }
         start();
         reads = 0;
         kMers = 0;
         readBPs = 0;
         bufferedLineReaderFastQ.setInputStream(inputStream);
 
+        boolean chunks = parallelParsing && !fasta;
+        if (chunks) {
+            parsedReads.set(0);
+            parsedKMers.set(0);
+            parsedBPs.set(0);
+            chunks = doReadFastqChunks(inputStream);
+        }
+        if (!chunks && batchQueue != null) {
+            currentBatch = nextFreeBatch();
+            handedOut = 0;
+        }
         if (fasta) {
             doReadFasta();
-        } else {
+        } else if (!chunks) {
             doReadFastq();
         }
+        if (!chunks && batchQueue != null) {
+            // Entries handed out but not dispatched are just dropped.
+            handedOut = currentBatch.size;
+            if (handedOut > 0) {
+                putCurrentBatch();
+            }
+            currentBatch.pooled = true;
+            currentBatch = null;
+        }
 // This newer approach caused the threads to hang at the end of the reading process.
 // I can't be bothered to find out why, so I use the older (ugly) polling approach which works well...		
 //		readsDone = true;
@@ -257,14 +388,15 @@ public abstract class AbstractFastqReader {
 //				}
 //			}
 //		}
-        if (blockingQueue != null) {
+        if (blockingQueue != null || batchQueue != null) {
             // Gentle polling and waiting until all consumers are done.
             boolean stillWorking = true;
             while (stillWorking) {
                 checkAndLogConsumerThreadProblem();
                 stillWorking = false;
-                for (int i = 0; i < readStructPool.length; i++) {
-                    if (!readStructPool[i].pooled) {
+                int n = batchPool != null ? batchPool.length : readStructPool.length;
+                for (int i = 0; i < n; i++) {
+                    if (batchPool != null ? !batchPool[i].pooled : !readStructPool[i].pooled) {
                         stillWorking = true;
                         try {
                             Thread.sleep(100);
@@ -276,7 +408,15 @@ public abstract class AbstractFastqReader {
                 }
             }
         }
+        if (chunks) {
+            reads = parsedReads.get();
+            kMers = parsedKMers.get();
+            readBPs = parsedBPs.get();
+        }
 
+        if (queueSize != null) {
+            Metrics.getDefault().removeGauge(Metrics.QUEUE_SIZE, queueSize);
+        }
         done();
     }
 
@@ -287,84 +427,226 @@ public abstract class AbstractFastqReader {
      */
     protected void doReadFastq() throws IOException {
         ReadEntry readStruct = nextFreeReadStruct();
-        for (readStruct.readDescriptorSize = bufferedLineReaderFastQ.nextLine(readStruct.readDescriptor)
-                - 1; readStruct.readDescriptorSize >= 0; readStruct.readDescriptorSize = bufferedLineReaderFastQ
-                .nextLine(readStruct.readDescriptor) - 1) {
-            readStruct.readDescriptor[readStruct.readDescriptorSize] = 0;
-            readStruct.readSize = bufferedLineReaderFastQ.nextLine(readStruct.read) - 1;
-            if (readStruct.readSize == readStruct.read.length) {
-                readStruct.growReadBuffer(bufferedLineReaderFastQ);
+        while (nextFastqRecord(bufferedLineReaderFastQ, readStruct)) {
+            readStruct.readNo = reads;
+
+            reads++;
+            if (readStruct.readSize >= k) {
+                kMers += readStruct.readSize - k + 1;
             }
+            readBPs += readStruct.readSize;
+            dispatch(readStruct);
+            checkAndLogConsumerThreadProblem();
+            readStruct = nextFreeReadStruct();
+            updateProgress();
+        }
+        readStruct.pooled = true;
+    }
 
-            int newSize = bufferedLineReaderFastQ.nextLine(readStruct.read, readStruct.readSize) - 1;
-            // If there is no '+' then the line still belongs to the read.
-            while (readStruct.read[readStruct.readSize] != '+') {
-                readStruct.readSize = newSize;
-                if (newSize == readStruct.read.length) {
-                    readStruct.growReadBuffer(bufferedLineReaderFastQ);
+    /**
+     * Splits FASTQ input into chunks ending at record boundaries and hands them to the consumer threads,
+     * which parse them via {@link #nextChunk(ReadBatch, BufferedLineReader, int)}. This only works for
+     * records of four lines. If the first record has more lines (i.e. its sequence is wrapped), nothing is
+     * handed over and the input is left to the serial parser instead.
+     *
+     * @param inputStream the stream to read the FASTQ input from.
+     * @return whether the input was handed over in chunks, otherwise the line reader is set up to read all
+     * of the input serially.
+     * @throws IOException if the input cannot be read or no record boundary is found within
+     * the maximum chunk size.
+     */
+    protected boolean doReadFastqChunks(InputStream inputStream) throws IOException {
+        long chunkNo = 0;
+        ReadBatch chunk = nextFreeBatch();
+        chunk.ensureData(PARSE_CHUNK_SIZE);
+        int fill = 0;
+        boolean eof = false;
+        boolean checked = false;
+        while (!eof) {
+            int r = inputStream.read(chunk.data, fill, chunk.data.length - fill);
+            if (r < 0) {
+                eof = true;
+            } else {
+                bytesInflatedMetric.add(r);
+                fill += r;
+                if (fill < chunk.data.length) {
+                    continue;
                 }
-                newSize = bufferedLineReaderFastQ.nextLine(readStruct.read, readStruct.readSize) - 1;
             }
-            readStruct.read[readStruct.readSize] = 0;
-            // This means the buffer (i.e. readStruct.read) was full but we found the '+',
-            // but still not passed the plus line
-            // as not read passed the buffer
-            if (newSize == readStruct.read.length) {
-                // Dump the rest of the plus line here (until eol reached).
-                bufferedLineReaderFastQ.nextLine(plusLine);
+            if (!checked) {
+                // The third line of the first record must be its '+' line.
+                int plusLine = nextLineStart(chunk.data, nextLineStart(chunk.data, 0, fill), fill);
+                if (plusLine >= fill && !eof) {
+                    growChunk(chunk);
+                    continue;
+                }
+                if (plusLine >= fill || chunk.data[plusLine] != '+') {
+                    // The bytes of the chunk get counted again by the line reader. (They are copied as the
+                    // chunk goes back to the pool.)
+                    bytesInflatedMetric.add(-fill);
+                    bufferedLineReaderFastQ.setInputStream(new SequenceInputStream(
+                            new ByteArrayInputStream(Arrays.copyOf(chunk.data, fill)), inputStream));
+                    chunk.pooled = true;
+                    return false;
+                }
+                checked = true;
             }
-
-            // We got passed the '+' line...
-            if (readStruct.readProbs != null) {
-                int readProbsSize = bufferedLineReaderFastQ.nextLine(readStruct.readProbs) - 1;
-                while (readProbsSize < readStruct.readSize) {
-                    int oldSize = readProbsSize;
-                    readProbsSize = bufferedLineReaderFastQ.nextLine(readStruct.readProbs, readProbsSize) - 1;
-                    // The means we reached EOF:
-                    if (readProbsSize == oldSize - 1) {
-                        break;
-                    }
+            int end = eof ? fill : lastRecordStart(chunk.data, fill);
+            if (end <= 0) {
+                if (!eof) {
+                    // Not even one complete record in the chunk.
+                    growChunk(chunk);
                 }
-                readStruct.readProbsSize = readProbsSize;
-                readStruct.readProbs[readProbsSize] = 0;
-            } else {
-                int readProbsSize = bufferedLineReaderFastQ.skipLine() - 1;
-                while (readProbsSize < readStruct.readSize) {
-                    int oldSize = readProbsSize;
-                    readProbsSize = readProbsSize + bufferedLineReaderFastQ.skipLine() - 1;
-                    // The means we reached EOF:
-                    if (readProbsSize == oldSize - 1) {
-                        break;
-                    }
+                continue;
+            }
+            // The start of the next record goes to the next chunk.
+            ReadBatch next = nextFreeBatch();
+            int rest = fill - end;
+            next.ensureData(Math.max(PARSE_CHUNK_SIZE, rest + 1));
+            System.arraycopy(chunk.data, end, next.data, 0, rest);
+            chunk.dataSize = end;
+            chunk.chunkNo = chunkNo++;
+            try {
+                batchQueue.put(chunk);
+            } catch (InterruptedException e) {
+                throw new FastqReaderInterruptedException(e);
+            }
+            chunk = next;
+            fill = rest;
+            checkAndLogConsumerThreadProblem();
+            reads = parsedReads.get();
+            updateProgress();
+        }
+        chunk.pooled = true;
+        return true;
+    }
+
+    private static void growChunk(ReadBatch chunk) throws IOException {
+        if (chunk.data.length >= MAX_PARSE_CHUNK_SIZE) {
+            throw new IOException("No FASTQ record boundary found within " + MAX_PARSE_CHUNK_SIZE
+                    + " bytes. Parallel parsing only supports records of four lines, so it must be disabled for this input.");
+        }
+        chunk.data = Arrays.copyOf(chunk.data, Math.min(MAX_PARSE_CHUNK_SIZE, 2 * chunk.data.length));
+    }
+
+    /**
+     * Returns the start of the last FASTQ record in {@code data[0, size)} other than at position 0. A record
+     * starts with a line beginning with '@' whose next but one line begins with '+'. This rules out quality
+     * lines starting with '@' as the line two after them is a sequence line.
+     *
+     * @param data the buffer to search in.
+     * @param size the number of valid bytes in the buffer.
+     * @return the start position of the last record, or {@code -1} if there is none.
+     */
+    protected static int lastRecordStart(byte[] data, int size) {
+        for (int i = size - 1; i > 0; i--) {
+            if (data[i] == '@' && data[i - 1] == '\n') {
+                int j = nextLineStart(data, i, size);
+                j = nextLineStart(data, j, size);
+                if (j < size && data[j] == '+') {
+                    return i;
                 }
-                readStruct.readProbsSize = readProbsSize;
             }
+        }
+        return -1;
+    }
 
-            readStruct.readNo = reads;
+    private static int nextLineStart(byte[] data, int pos, int size) {
+        while (pos < size && data[pos] != '\n') {
+            pos++;
+        }
+        return pos + 1;
+    }
 
-            reads++;
+    /**
+     * Parses all reads of a chunk and processes them via {@link #nextEntry(ReadEntry, int)}. Called on the
+     * consumer threads with parallel parsing. The read numbers hold the chunk number in their upper 32 bits,
+     * so they reflect the input order. The end of the chunk is reported via
+     * {@link #endChunk(long, long, int)}.
+     *
+     * @param chunk the chunk to parse.
+     * @param lineReader the line reader of the calling consumer thread.
+     * @param threadIndex the index of the calling consumer thread.
+     * @throws IOException if processing a read fails.
+     */
+    protected void nextChunk(ReadBatch chunk, BufferedLineReader lineReader, int threadIndex) throws IOException {
+        lineReader.setInputStream(new ByteArrayInputStream(chunk.data, 0, chunk.dataSize));
+        ReadEntry readStruct = chunk.entries[0];
+        long readNo = chunk.chunkNo << 32;
+        long chunkReads = 0;
+        long chunkKMers = 0;
+        long chunkBPs = 0;
+        while (nextFastqRecord(lineReader, readStruct)) {
+            readStruct.readNo = readNo++;
+            chunkReads++;
             if (readStruct.readSize >= k) {
-                kMers += readStruct.readSize - k + 1;
+                chunkKMers += readStruct.readSize - k + 1;
             }
-            readBPs += readStruct.readSize;
-            if (blockingQueue == null) {
-                nextEntry(readStruct, 0);
-                readStruct.pooled = true;
-                if (dump) {
-                    throw new FastqReaderInterruptedException();
+            chunkBPs += readStruct.readSize;
+            processEntry(readStruct, threadIndex);
+        }
+        endChunk(readNo, (chunk.chunkNo + 1) << 32, threadIndex);
+        parsedReads.addAndGet(chunkReads);
+        parsedKMers.addAndGet(chunkKMers);
+        parsedBPs.addAndGet(chunkBPs);
+    }
+
+    // Parses the next FASTQ record into readStruct. Returns false at the end of the input.
+    private boolean nextFastqRecord(BufferedLineReader lineReader, ReadEntry readStruct) throws IOException {
+        readStruct.readDescriptorSize = lineReader.nextLine(readStruct.readDescriptor) - 1;
+        if (readStruct.readDescriptorSize < 0) {
+            return false;
+        }
+        readStruct.readDescriptor[readStruct.readDescriptorSize] = 0;
+        readStruct.readSize = lineReader.nextLine(readStruct.read) - 1;
+        if (readStruct.readSize == readStruct.read.length) {
+            readStruct.growReadBuffer(lineReader);
+        }
+
+        int newSize = lineReader.nextLine(readStruct.read, readStruct.readSize) - 1;
+        // If there is no '+' then the line still belongs to the read.
+        while (readStruct.read[readStruct.readSize] != '+') {
+            readStruct.readSize = newSize;
+            if (newSize == readStruct.read.length) {
+                readStruct.growReadBuffer(lineReader);
+            }
+            newSize = lineReader.nextLine(readStruct.read, readStruct.readSize) - 1;
+        }
+        readStruct.read[readStruct.readSize] = 0;
+        // This means the buffer (i.e. readStruct.read) was full but we found the '+',
+        // but still not passed the plus line
+        // as not read passed the buffer
+        if (newSize == readStruct.read.length) {
+            // Dump the rest of the plus line here (until eol reached).
+            lineReader.skipLine();
+        }
+
+        // We got passed the '+' line...
+        if (readStruct.readProbs != null) {
+            int readProbsSize = lineReader.nextLine(readStruct.readProbs) - 1;
+            while (readProbsSize < readStruct.readSize) {
+                int oldSize = readProbsSize;
+                readProbsSize = lineReader.nextLine(readStruct.readProbs, readProbsSize) - 1;
+                // The means we reached EOF:
+                if (readProbsSize == oldSize - 1) {
+                    break;
                 }
-            } else {
-                try {
-                    blockingQueue.put(readStruct);
-                } catch (InterruptedException e) {
-                    throw new FastqReaderInterruptedException(e);
+            }
+            readStruct.readProbsSize = readProbsSize;
+            readStruct.readProbs[readProbsSize] = 0;
+        } else {
+            int readProbsSize = lineReader.skipLine() - 1;
+            while (readProbsSize < readStruct.readSize) {
+                int oldSize = readProbsSize;
+                readProbsSize = readProbsSize + lineReader.skipLine() - 1;
+                // The means we reached EOF:
+                if (readProbsSize == oldSize - 1) {
+                    break;
                 }
             }
-            checkAndLogConsumerThreadProblem();
-            readStruct = nextFreeReadStruct();
-            updateProgress();
+            readStruct.readProbsSize = readProbsSize;
         }
-        readStruct.pooled = true;
+        return true;
     }
 
     /**
@@ -399,7 +681,7 @@ public abstract class AbstractFastqReader {
                 int len = newSize - readStruct.readSize;
                 System.arraycopy(readStruct.read, readStruct.readSize, readStruct2.readDescriptor, 0, len);
                 if (newSize == readStruct.read.length) {
-                    readStruct2.readDescriptorSize = bufferedLineReaderFastQ.nextLine(readStruct2.readDescriptor, len);
+                    readStruct2.readDescriptorSize = bufferedLineReaderFastQ.nextLine(readStruct2.readDescriptor, len) - 1;
                 } else {
                     readStruct2.readDescriptorSize = len;
                 }
@@ -415,19 +697,7 @@ public abstract class AbstractFastqReader {
             }
             readBPs += readStruct.readSize;
             readStruct.readProbsSize = -1; // Indicate no probs available.
-            if (blockingQueue == null) {
-                nextEntry(readStruct, 0);
-                readStruct.pooled = true;
-                if (dump) {
-                    throw new FastqReaderInterruptedException();
-                }
-            } else {
-                try {
-                    blockingQueue.put(readStruct);
-                } catch (InterruptedException e) {
-                    throw new FastqReaderInterruptedException(e);
-                }
-            }
+            dispatch(readStruct);
             checkAndLogConsumerThreadProblem();
             updateProgress();
             readStruct = readStruct2;
@@ -444,7 +714,64 @@ public abstract class AbstractFastqReader {
     protected void updateProgress() {
     }
 
+    // Processes the read inline or passes it on to the consumer threads.
+    private void dispatch(ReadEntry readStruct) throws IOException {
+        if (batchQueue != null) {
+            // Entries are handed out in order, so readStruct is currentBatch.entries[currentBatch.size].
+            currentBatch.size++;
+            if (currentBatch.size == batchSize) {
+                putCurrentBatch();
+            }
+        } else if (blockingQueue == null) {
+            processEntry(readStruct, 0);
+            readStruct.pooled = true;
+            if (dump) {
+                throw new FastqReaderInterruptedException();
+            }
+        } else {
+            try {
+                blockingQueue.put(readStruct);
+            } catch (InterruptedException e) {
+                throw new FastqReaderInterruptedException(e);
+            }
+        }
+    }
+
+    private void putCurrentBatch() {
+        ReadBatch batch = currentBatch;
+        ReadBatch next = nextFreeBatch();
+        // Move a looked-ahead entry (see doReadFasta()) over to the next batch.
+        int pending = handedOut - batch.size;
+        for (int i = 0; i < pending; i++) {
+            ReadEntry h = next.entries[i];
+            next.entries[i] = batch.entries[batch.size + i];
+            batch.entries[batch.size + i] = h;
+        }
+        currentBatch = next;
+        handedOut = pending;
+        try {
+            batchQueue.put(batch);
+        } catch (InterruptedException e) {
+            throw new FastqReaderInterruptedException(e);
+        }
+    }
+
+    private ReadBatch nextFreeBatch() {
+        for (int i = 0; i < batchPool.length; i++) {
+            if (batchPool[i].pooled) {
+                batchPool[i].pooled = false;
+                batchPool[i].size = 0;
+                batchPool[i].dataSize = -1;
+                return batchPool[i];
+            }
+        }
+        throw new IllegalStateException("There should always be a read batch available...");
+    }
+
     private ReadEntry nextFreeReadStruct() {
+        if (batchQueue != null) {
+            return currentBatch.entries[handedOut++];
+        }
         for (int i = 0; i < readStructPool.length; i++) {
             if (readStructPool[i].pooled) {
                 readStructPool[i].pooled = false;
@@ -469,6 +796,53 @@ public abstract class AbstractFastqReader {
         }
     }
 
+    /**
+     * Writes the given read entry as a record of the calling consumer thread's slot. In ordered mode, the
+     * record is also added if the read is not to be written, so that the writer can keep the input order.
+     *
+     * @param readStruct the read entry to write.
+     * @param writer the writer to write to.
+     * @param write whether the read should be written at all.
+     * @param threadIndex the index of the calling consumer thread, which selects the slot.
+     * @throws IOException if writing failed.
+     */
+    protected void rewriteInput(ReadEntry readStruct, ConcurrentBlockWriter writer, boolean write, int threadIndex)
+            throws IOException {
+        if (write || writer.isOrdered()) {
+            ConcurrentBlockWriter.Slot slot = writer.getSlot(threadIndex);
+            slot.startRecord(readStruct.readNo);
+            if (write) {
+                readStruct.write(slot);
+            }
+            slot.endRecord();
+        }
+    }
+
+    /**
+     * Creates a writer for the output of the consumer threads with one slot per consumer thread.
+     *
+     * @param out the stream to write to.
+     * @param blockSize the number of bytes per slot after which a block is handed over.
+     * @param ordered whether the records are written in the order of the read numbers.
+     * @return the writer.
+     */
+    protected ConcurrentBlockWriter createBlockWriter(OutputStream out, int blockSize, boolean ordered) {
+        return new ConcurrentBlockWriter(out, Math.max(1, bundle.getThreads()), blockSize, ordered);
+    }
+
+    /**
+     * Hook called on a consumer thread after all reads of a chunk have been processed with parallel parsing;
+     * does nothing by default. Subclasses writing ordered output should pass the arguments on to
+     * {@link ConcurrentBlockWriter.Slot#endChunk(long, long)}.
+     *
+     * @param readNo the read number following the chunk's last read.
+     * @param nextReadNo the read number of the next chunk's first read.
+     * @param threadIndex the index of the calling consumer thread.
+     * @throws IOException if writing failed.
+     */
+    protected void endChunk(long readNo, long nextReadNo, int threadIndex) throws IOException {
+    }
+
     /**
      * Hook called after a read entry is written out so subclasses can update write statistics; does
      * nothing by default.
@@ -487,6 +861,15 @@ public abstract class AbstractFastqReader {
     // Must be thread safe. Can freely operate on readStruct.
     protected abstract void nextEntry(ReadEntry readStruct, int threadIndex) throws IOException;
 
+    // Processes a read via nextEntry() and counts it in the thread's metrics slot.
+    private void processEntry(ReadEntry readStruct, int threadIndex) throws IOException {
+        readsMetric.add(threadIndex, 1);
+        if (readStruct.readSize >= k) {
+            kMersMetric.add(threadIndex, readStruct.readSize - k + 1);
+        }
+        nextEntry(readStruct, threadIndex);
+    }
+
     /**
      * Hook called after all reads have been processed; does nothing by default.
      *
@@ -503,12 +886,49 @@ public abstract class AbstractFastqReader {
     protected void start() throws IOException {
     }
 
+    /**
+     * A reusable, pooled block of read entries handed to a consumer thread as a whole. With parallel
+     * parsing, it may carry a chunk of unparsed FASTQ input instead.
+     */
+    protected final class ReadBatch {
+        // One entry more than the batch size for the look-ahead entry of doReadFasta().
+        private final ReadEntry[] entries;
+        // Number of entries filled by the producer.
+        private int size;
+        // Unparsed input, only allocated with parallel parsing.
+        private byte[] data;
+        // Number of valid bytes in data or -1 if this batch carries entries.
+        private int dataSize;
+        private long chunkNo;
+        // volatile: written by consumer threads, read by the producer's pool/poll loop.
+        private volatile boolean pooled;
+
+        private ReadBatch(int batchSize, int initialSizeBytes, boolean withProbs, Object... config) {
+            entries = new ReadEntry[batchSize + 1];
+            for (int i = 0; i < entries.length; i++) {
+                entries[i] = createReadEntry(initialSizeBytes, withProbs, config);
+            }
+            pooled = true;
+            dataSize = -1;
+        }
+
+        private void ensureData(int minSize) {
+            if (data == null || data.length < minSize) {
+                data = new byte[minSize];
+            }
+        }
+    }
+
     /**
      * A reusable, pooled buffer holding one read's descriptor, sequence and (optional) quality
      * bytes.
      */
     protected static class ReadEntry {
-        /** The zero-based sequential number of this read. */
+        /**
+         * The zero-based sequential number of this read. With parallel parsing, the upper 32 bits hold
+         * the number of the read's chunk instead, so the numbers are unique and follow the input order
+         * but are only contiguous within a chunk (see {@link AbstractFastqReader#endChunk(long, long, int)}).
+         */
         public long readNo;
         /** Whether this entry is currently free in the pool and available for reuse. */
         // volatile: written by consumer threads, read by the producer's pool/poll loop.
@@ -28,12 +28,14 @@ import java.io.IOException;
 import java.text.DecimalFormat;
 import java.text.DecimalFormatSymbols;
 import java.util.Locale;
+import java.util.function.LongSupplier;
 
 import org.metagene.genestrip.ExecutionContext;
 import org.metagene.genestrip.io.StreamingResource;
 import org.metagene.genestrip.io.StreamingResourceStream;
 import me.tongfei.progressbar.*;
 import org.metagene.genestrip.util.GSLogFactory;
+import org.metagene.genestrip.util.Metrics;
 import org.metagene.genestrip.util.progressbar.GSProgressBarCreator;
 
 
@@ -67,6 +69,7 @@ public abstract class AbstractLoggingFastqStreamer extends AbstractFastqReader {
     /** The total number of base pairs processed across all files. */
     protected long totalBPs;
     private final long logUpdateCycle;
+    private long nextProgressReads;
 
     /**
      * Creates the streamer with the given matching parameters and execution context.
@@ -104,6 +107,12 @@ public abstract class AbstractLoggingFastqStreamer extends AbstractFastqReader {
         coveredCounter = 0;
         totalReads = 0;
 
+        // Bytes read from the files so far, including the current one.
+        LongSupplier bytesRead = () -> {
+            StreamingResource.StreamAccess access = byteCountAccess;
+            return coveredFilesSize + (access == null ? 0 : access.getBytesRead());
+        };
+        Metrics.getDefault().gauge(Metrics.BYTES_READ, bytesRead);
         for (StreamingResource fastq : fastqs) {
             currentFastq = fastq;
             try (StreamingResource.StreamAccess lbyteCountAccess = fastq.openStream()) {
@@ -124,9 +133,11 @@ public abstract class AbstractLoggingFastqStreamer extends AbstractFastqReader {
                 totalKMers += kMers;
                 totalBPs += readBPs;
                 coveredFilesSize += byteCountAccess.getBytesRead();
+                byteCountAccess = null;
             }
             coveredCounter++;
         }
+        Metrics.getDefault().removeGauge(Metrics.BYTES_READ, bytesRead);
         allDone();
     }
 
@@ -161,6 +172,7 @@ public abstract class AbstractLoggingFastqStreamer extends AbstractFastqReader {
     @Override
     protected void start() throws IOException {
         indexedC = 0;
+        nextProgressReads = logUpdateCycle;
         doUpdateProgress();
     }
 
@@ -180,7 +192,9 @@ public abstract class AbstractLoggingFastqStreamer extends AbstractFastqReader {
 
     @Override
     protected void updateProgress() {
-        if (logUpdateCycle > 0 && reads % logUpdateCycle == 0) {
+        // Not a modulo check, as 'reads' leaps by whole chunks with parallel parsing.
+        if (logUpdateCycle > 0 && reads >= nextProgressReads) {
+            nextProgressReads = reads + logUpdateCycle;
             doUpdateProgress();
         }
     }
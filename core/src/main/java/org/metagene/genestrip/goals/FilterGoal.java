@@ -99,6 +99,7 @@ public class FilterGoal<P extends GSProject> extends MultiFileGoal<P> {
 					return getKey().getName();
 				}
 			};
+			f.setOrderedFastqOut(booleanConfigValue(GSConfigKey.ORDERED_FASTQ_OUT));
 			f.runFilter(resources, file, dumpFile);
 		} finally {
 			if (f != null) {
@@ -73,6 +73,9 @@ public class LoadDBGoal<P extends GSProject> extends ObjectGoal<Database, P> imp
 		try {
 			if (dbGoal.isMade()) {
 				set(dbGoal.get());
+			} else if (Database.isMappedFormat(dbFile)) {
+				// Just maps the file - too fast to need a progress bar.
+				set(Database.load(dbFile, booleanConfigValue(GSConfigKey.USE_BLOOM_FILTER_FOR_MATCH)));
 			} else if (booleanConfigValue(GSConfigKey.PROGRESS_BAR)) {
 				try (StreamingResource.StreamAccess sa = new StreamingFileResource(dbFile, true).openStream()) {
 					try (ProgressBar pb = GSProgressBarCreator.newGSProgressBar(getKey().getName(), sa, null)) {
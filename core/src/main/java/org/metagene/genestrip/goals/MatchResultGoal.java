@@ -127,6 +127,8 @@ public class MatchResultGoal<P extends GSProject> extends ObjectGoal<Map<String,
 									: null,
 							bundle, booleanConfigValue(GSConfigKey.WITH_PROBS),
 							database.getConfigInfo().getProperty(GSProject.DB_MD5));
+					matcher.setOrderedKrakenStyleOut(booleanConfigValue(GSConfigKey.ORDERED_KRAKEN_STYLE_OUT));
+					matcher.setOrderedFastqOut(booleanConfigValue(GSConfigKey.ORDERED_FASTQ_OUT));
 					if (afterMatchCallback != null) {
 						matcher.setAfterMatchCallback(new FastqKMerMatcher.AfterMatchCallback() {
 							@Override
@@ -137,7 +139,8 @@ public class MatchResultGoal<P extends GSProject> extends ObjectGoal<Map<String,
 					}
 					uniqueCounter = booleanConfigValue(GSConfigKey.COUNT_UNIQUE_KMERS)
 							? new KMerUniqueCounterBits(database.getKmerStore(),
-							intConfigValue(GSConfigKey.MAX_KMER_RES_COUNTS) > 0)
+							intConfigValue(GSConfigKey.MAX_KMER_RES_COUNTS) > 0,
+							booleanConfigValue(GSConfigKey.LOCK_FREE_UNIQUE_COUNTER))
 							: null;
 				}
 				if (uniqueCounter != null) {
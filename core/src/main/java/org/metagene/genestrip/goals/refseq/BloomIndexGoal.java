@@ -68,16 +68,22 @@ public class BloomIndexGoal<P extends GSProject> extends ObjectGoal<KMerProbFilt
 		KMerStore<String> store = wrapper.getKmerStore();
 		SmallTaxTree taxTree = wrapper.getTaxTree();
 
+		// Resolve the taxids once per value index rather than once per k-mer.
+		boolean[] requested = new boolean[store.getNValues()];
+		for (int i = 0; i < requested.length; i++) {
+			String taxid = store.getValueForIndex(i);
+			if (taxid != null) {
+				SmallTaxIdNode node = taxTree.getNodeByTaxId(taxid);
+				requested[i] = node != null && node.isRequested();
+			}
+		}
+
 		long[] counter = new long[1];
 		store.visit(new IndexedKMerStoreVisitor<String>() {
 			@Override
 			public void nextValue(KMerStore<String> trie, long kmer, int index, long i) {
-				String taxid = store.getValueForIndex(index);
-				if (taxid != null) {
-					SmallTaxIdNode node = taxTree.getNodeByTaxId(taxid);
-					if (node != null && node.isRequested()) {
-						counter[0]++;
-					}
+				if (requested[index]) {
+					counter[0]++;
 				}
 			}
 		});
@@ -100,12 +106,8 @@ public class BloomIndexGoal<P extends GSProject> extends ObjectGoal<KMerProbFilt
 		store.visit(new IndexedKMerStoreVisitor<String>() {
 			@Override
 			public void nextValue(KMerStore<String> trie, long kmer, int index, long i) {
-				String taxid = store.getValueForIndex(index);
-				if (taxid != null) {
-					SmallTaxIdNode node = taxTree.getNodeByTaxId(taxid);
-					if (node != null && node.isRequested()) {
-						filter.putLong(kmer);
-					}
+				if (requested[index]) {
+					filter.putLong(kmer);
 				}
 			}
 		});
@@ -28,17 +28,21 @@ import me.tongfei.progressbar.ProgressBar;
 import org.metagene.genestrip.ExecutionContext;
 import org.metagene.genestrip.GSConfigKey;
 import org.metagene.genestrip.GSProject;
+import org.metagene.genestrip.io.StreamProvider;
 import org.metagene.genestrip.make.Goal;
 import org.metagene.genestrip.make.GoalKey;
 import org.metagene.genestrip.make.ObjectGoal;
 import org.metagene.genestrip.refseq.AbstractRefSeqFastaReader;
 import org.metagene.genestrip.refseq.RefSeqCategory;
 import org.metagene.genestrip.tax.TaxTree;
+import org.metagene.genestrip.util.RingBlockingQueue;
 import org.metagene.genestrip.util.SimpleBlockingQueue;
 import org.metagene.genestrip.util.progressbar.GSProgressBarCreator;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.*;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -65,6 +69,11 @@ public abstract class FastaReaderGoal<T, P extends GSProject> extends ObjectGoal
 
     // volatile / atomic: written by dump() and the consumer threads, read by the producer's spin loop.
     private volatile boolean dump;
+    // The tax tree to resolve tax ids if cache files are read instead of FASTA files.
+    private volatile TaxTree cacheTaxTree;
+    // The minimum size of chunks for reading FASTA files, 0 if files are not split.
+    private volatile int chunkSize;
+    private final AtomicInteger chunksInQueue = new AtomicInteger();
     private final AtomicInteger doneCounter = new AtomicInteger();
     private ProgressBar progressBar;
 
@@ -92,13 +101,42 @@ public abstract class FastaReaderGoal<T, P extends GSProject> extends ObjectGoal
         this.bundle = bundle;
     }
 
+    /**
+     * Returns the number of worker threads of the execution context, at least one. Subclasses may use
+     * this to parallelize post-processing steps.
+     *
+     * @return the number of worker threads, at least {@code 1}
+     */
+    protected int getThreads() {
+        return Math.max(1, bundle.getThreads());
+    }
+
+    /**
+     * Returns the cache goal among the dependencies of this goal if there is one.
+     *
+     * @return the cache goal or {@code null}
+     */
+    protected RefSeqCacheGoal<P> getCacheGoal() {
+        for (Goal<P> goal : getDependencies()) {
+            if (goal instanceof RefSeqCacheGoal) {
+                return (RefSeqCacheGoal<P>) goal;
+            }
+        }
+        return null;
+    }
+
     /**
      * Reads all relevant RefSeq FASTA files and any additional FASTA files, single-threaded or via
-     * the configured pool of consumer threads, then invokes {@link #afterReadFastas}.
+     * the configured pool of consumer threads, then invokes {@link #afterReadFastas}. If this goal
+     * depends on a {@link RefSeqCacheGoal}, its cache files are read instead of the FASTA files.
      *
      * @throws IOException if reading a FASTA file fails
      */
     public void readFastas() throws IOException {
+        RefSeqCacheGoal<P> cacheGoal = getCacheGoal();
+        cacheTaxTree = cacheGoal == null ? null : cacheGoal.getTaxTree();
+        chunkSize = isSplitFiles() ? intConfigValue(GSConfigKey.FASTA_CHUNK_SIZE) : 0;
+        chunksInQueue.set(0);
         BlockingQueue<FileAndNode> blockingQueue = null;
         AbstractRefSeqFastaReader.StringLong2DigitTrie regionsPerTaxid = new AbstractRefSeqFastaReader.StringLong2DigitTrie();
         // Reading order is irrelevant here (so multi-threading is safe), including for minUpdate:
@@ -115,12 +153,27 @@ public abstract class FastaReaderGoal<T, P extends GSProject> extends ObjectGoal
         AbstractRefSeqFastaReader fastaReader = createFastaReader(regionsPerTaxid);
 
         int sumFiles = 0;
-        List<File> refSeqFiles = isIncludeRefSeqFna() ? fnaFilesGoal.getFiles() : Collections.emptyList();
+        List<File> cacheFiles = cacheGoal == null ? Collections.emptyList() : cacheGoal.get();
+        sumFiles += cacheFiles.size();
+        List<File> refSeqFiles = isIncludeRefSeqFna() && cacheGoal == null ? fnaFilesGoal.getFiles() : Collections.emptyList();
         sumFiles += refSeqFiles.size();
-        Map<File, TaxTree.TaxIdNode> additionalMap = additionalGoal == null ? null : additionalGoal.get();
+        Map<File, TaxTree.TaxIdNode> additionalMap = additionalGoal == null || cacheGoal != null ? null : additionalGoal.get();
         sumFiles += additionalMap == null ? 0 : additionalMap.size();
         try (ProgressBar pb = (progressBar = createProgressBar(sumFiles))) {
             doneCounter.set(0);
+            for (File cacheFile : cacheFiles) {
+                if (blockingQueue == null) {
+                    fastaReader.readCache(cacheFile, cacheTaxTree);
+                } else {
+                    try {
+                        doneCounter.incrementAndGet();
+                        blockingQueue.put(new DBGoal.FileAndNode(cacheFile, null));
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+                checkAndLogConsumerThreadProblem();
+            }
             for (File fnaFile : refSeqFiles) {
                 RefSeqCategory cat = fnaFilesGoal.getCategoryForFile(fnaFile);
                 if (categoriesGoal.get().contains(cat)) {
@@ -174,6 +227,9 @@ public abstract class FastaReaderGoal<T, P extends GSProject> extends ObjectGoal
      * @return the newly created blocking queue
      */
     protected BlockingQueue<FileAndNode> createBlockingQueue(int maxQueueSize) {
+        if (bundle.isLockFreeQueue()) {
+            return new RingBlockingQueue<>(maxQueueSize);
+        }
         // This simple blocking queue performs better than ArrayBlockingQueue.
         return new SimpleBlockingQueue<>(maxQueueSize);
         //return new ArrayBlockingQueue<>(maxQueueSize);
@@ -188,6 +244,17 @@ public abstract class FastaReaderGoal<T, P extends GSProject> extends ObjectGoal
         return booleanConfigValue(GSConfigKey.REF_SEQ_DB);
     }
 
+    /**
+     * Whether large FASTA files may be split into chunks of regions for the consumer threads as
+     * configured via {@link GSConfigKey#FASTA_CHUNK_SIZE}. Goals whose readers must see each file as a
+     * whole return {@code false}.
+     *
+     * @return {@code true} if FASTA files may be split
+     */
+    protected boolean isSplitFiles() {
+        return true;
+    }
+
     /**
      * Hook invoked once all FASTA files have been read; the default implementation does nothing.
      *
@@ -244,10 +311,21 @@ public abstract class FastaReaderGoal<T, P extends GSProject> extends ObjectGoal
                     try {
                         try {
                             DBGoal.FileAndNode fileAndNode = blockingQueue.take();
-                            fastaReader.ignoreAccessionMap(fileAndNode.getNode());
-                            fastaReader.readFasta(fileAndNode.getFile());
-                            if (progressBar != null) {
-                                progressBar.step();
+                            if (fileAndNode.getChunk() != null) {
+                                chunksInQueue.decrementAndGet();
+                                readChunk(fastaReader, fileAndNode);
+                            } else {
+                                if (cacheTaxTree != null) {
+                                    fastaReader.readCache(fileAndNode.getFile(), cacheTaxTree);
+                                } else if (chunkSize > 0) {
+                                    readFastaInChunks(fastaReader, fileAndNode, blockingQueue);
+                                } else {
+                                    fastaReader.ignoreAccessionMap(fileAndNode.getNode());
+                                    fastaReader.readFasta(fileAndNode.getFile());
+                                }
+                                if (progressBar != null) {
+                                    progressBar.step();
+                                }
                             }
                         } finally {
                             doneCounter.decrementAndGet();
@@ -264,6 +342,179 @@ public abstract class FastaReaderGoal<T, P extends GSProject> extends ObjectGoal
         };
     }
 
+    /**
+     * Splits a FASTA file at region headers into chunks of about {@link GSConfigKey#FASTA_CHUNK_SIZE}
+     * bytes, so that other consumer threads can process the regions of one large file in parallel.
+     * A chunk is offered to the queue as long as few chunks are queued and otherwise processed by the
+     * calling thread. Each region is entirely contained in one chunk, so the per-region bookkeeping
+     * of the readers is unaffected. A region larger than a chunk is not buffered but read as a stream
+     * by the calling thread.
+     *
+     * @param fastaReader   the reader of the calling thread
+     * @param fileAndNode   the FASTA file to read
+     * @param blockingQueue the queue to hand chunks over to other consumer threads
+     * @throws IOException if reading the FASTA file fails
+     */
+    protected void readFastaInChunks(AbstractRefSeqFastaReader fastaReader, FileAndNode fileAndNode,
+                                     BlockingQueue<FileAndNode> blockingQueue) throws IOException {
+        try (InputStream in = StreamProvider.getInputStreamForFile(fileAndNode.getFile())) {
+            splitRegions(in, chunkSize, new ChunkConsumer() {
+                @Override
+                public void accept(byte[] data, int size) throws IOException {
+                    dispatchChunk(fastaReader, new FileAndNode(fileAndNode.getFile(), fileAndNode.getNode(), data, size),
+                            blockingQueue);
+                }
+
+                @Override
+                public void acceptRegion(InputStream region) throws IOException {
+                    fastaReader.ignoreAccessionMap(fileAndNode.getNode());
+                    fastaReader.readFasta(fileAndNode.getFile(), region);
+                }
+            });
+        }
+    }
+
+    /**
+     * Receives the chunks of {@link #splitRegions(InputStream, int, ChunkConsumer)}.
+     */
+    interface ChunkConsumer {
+        void accept(byte[] data, int size) throws IOException;
+
+        // Receives a single region larger than a chunk. The stream is only valid during the call.
+        void acceptRegion(InputStream region) throws IOException;
+    }
+
+    // Splits the FASTA stream into chunks of complete regions of about 'chunkSize' bytes, but at most twice that.
+    // A region that does not fit is passed on as a stream instead. The consumer takes over the chunk buffers.
+    static void splitRegions(InputStream in, int chunkSize, ChunkConsumer consumer) throws IOException {
+        byte[] data = new byte[chunkSize];
+        int filled = 0;
+        boolean eof = false;
+        while (!eof) {
+            filled += in.readNBytes(data, filled, data.length - filled);
+            eof = filled < data.length;
+            int end = eof ? filled : lastRegionStart(data, filled);
+            if (end < 0) {
+                // The current region is larger than the chunk: stream it (which reuses 'data' as its buffer).
+                RegionStream region = new RegionStream(in, data, filled);
+                consumer.acceptRegion(region);
+                region.skipRest();
+                eof = region.eof;
+                filled = region.limit - region.pos;
+                byte[] next = new byte[nextChunkSize(filled, chunkSize)];
+                System.arraycopy(data, region.pos, next, 0, filled);
+                data = next;
+                continue;
+            }
+            byte[] next = new byte[nextChunkSize(filled - end, chunkSize)];
+            System.arraycopy(data, end, next, 0, filled - end);
+            if (end > 0) {
+                consumer.accept(data, end);
+            }
+            data = next;
+            filled -= end;
+        }
+    }
+
+    // Returns the start position of the last region header in data (excluding position 0) or -1 if there is none.
+    static int lastRegionStart(byte[] data, int filled) {
+        for (int i = filled - 1; i > 0; i--) {
+            if (data[i] == '>' && data[i - 1] == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // A started region that is already as large as a chunk will be streamed, so there is no need to read more
+    // data into its buffer.
+    private static int nextChunkSize(int started, int chunkSize) {
+        return started < chunkSize ? started + chunkSize : started;
+    }
+
+    // The region at the start of a buffer followed by the rest of the region from the input. It ends before the
+    // next region header, which is left in the buffer from 'pos' to 'limit'.
+    private static final class RegionStream extends InputStream {
+        private final InputStream in;
+        private final byte[] buffer;
+        private int pos;
+        private int limit;
+        // Whether the byte before 'pos' is a line end.
+        private boolean newLine;
+        private boolean end;
+        private boolean eof;
+
+        RegionStream(InputStream in, byte[] buffer, int limit) {
+            this.in = in;
+            this.buffer = buffer;
+            this.limit = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == 1 ? b[0] & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (end) {
+                return -1;
+            }
+            if (pos == limit) {
+                int r = in.read(buffer, 0, buffer.length);
+                if (r < 0) {
+                    end = eof = true;
+                    return -1;
+                }
+                pos = 0;
+                limit = r;
+            }
+            int max = Math.min(limit, pos + len);
+            int n = 0;
+            while (pos < max) {
+                byte c = buffer[pos];
+                if (c == '>' && newLine) {
+                    end = true;
+                    break;
+                }
+                newLine = c == '\n';
+                b[off + n++] = c;
+                pos++;
+            }
+            return n == 0 ? -1 : n;
+        }
+
+        void skipRest() throws IOException {
+            byte[] b = new byte[4096];
+            while (read(b, 0, b.length) >= 0) {
+            }
+        }
+    }
+
+    private void dispatchChunk(AbstractRefSeqFastaReader fastaReader, FileAndNode chunk,
+                               BlockingQueue<FileAndNode> blockingQueue) throws IOException {
+        // Bounds the memory for queued chunks. (Never blocks, since all consumers might be in here.)
+        if (chunksInQueue.get() < 2 * getThreads()) {
+            chunksInQueue.incrementAndGet();
+            doneCounter.incrementAndGet();
+            if (blockingQueue.offer(chunk)) {
+                return;
+            }
+            chunksInQueue.decrementAndGet();
+            doneCounter.decrementAndGet();
+        }
+        readChunk(fastaReader, chunk);
+    }
+
+    private void readChunk(AbstractRefSeqFastaReader fastaReader, FileAndNode chunk) throws IOException {
+        fastaReader.ignoreAccessionMap(chunk.getNode());
+        fastaReader.readFasta(chunk.getFile(), new ByteArrayInputStream(chunk.getChunk(), 0, chunk.getChunkSize()));
+    }
+
     /**
      * Creates the FASTA reader that processes each region; called once per reader thread. The shared
      * {@code regionsPerTaxid} trie tracks how many regions have been seen per taxid.
@@ -296,6 +547,8 @@ public abstract class FastaReaderGoal<T, P extends GSProject> extends ObjectGoal
     protected static final class FileAndNode {
         private final File file;
         private final TaxTree.TaxIdNode node;
+        private final byte[] chunk;
+        private final int chunkSize;
 
         /**
          * Creates a pairing of the given FASTA file and optional tax node.
@@ -304,8 +557,40 @@ public abstract class FastaReaderGoal<T, P extends GSProject> extends ObjectGoal
          * @param node the associated tax node, or {@code null}
          */
         public FileAndNode(File file, TaxTree.TaxIdNode node) {
+            this(file, node, null, 0);
+        }
+
+        /**
+         * Creates a pairing of a chunk of complete regions from the given FASTA file and optional tax node.
+         *
+         * @param file      the FASTA file the chunk is from
+         * @param node      the associated tax node, or {@code null}
+         * @param chunk     the buffer holding the chunk, or {@code null} for the entire file
+         * @param chunkSize the number of bytes of the chunk in the buffer
+         */
+        public FileAndNode(File file, TaxTree.TaxIdNode node, byte[] chunk, int chunkSize) {
             this.file = file;
             this.node = node;
+            this.chunk = chunk;
+            this.chunkSize = chunkSize;
+        }
+
+        /**
+         * Returns the buffer holding a chunk of the file, or {@code null} if the entire file is meant.
+         *
+         * @return the chunk buffer
+         */
+        public byte[] getChunk() {
+            return chunk;
+        }
+
+        /**
+         * Returns the number of bytes of the chunk in its buffer.
+         *
+         * @return the chunk size
+         */
+        public int getChunkSize() {
+            return chunkSize;
         }
 
         /**
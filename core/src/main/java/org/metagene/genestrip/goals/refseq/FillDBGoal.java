@@ -41,6 +41,7 @@ import org.metagene.genestrip.refseq.RefSeqCategory;
 import org.metagene.genestrip.store.Database;
 import org.metagene.genestrip.store.KMerSortedArray;
 import org.metagene.genestrip.store.KMerStore;
+import org.metagene.genestrip.store.OffHeapKMerSortedArray;
 import org.metagene.genestrip.store.RadixKMerStore;
 import org.metagene.genestrip.tax.Rank;
 import org.metagene.genestrip.tax.SmallTaxTree;
@@ -116,7 +117,9 @@ public class FillDBGoal<P extends GSProject> extends FastaReaderGoal<Database, P
 		} else {
 			long dedupSize = dbSize.getSize();
 			long size = resizeFactor == 1d ? dedupSize : (long) (dedupSize * resizeFactor);
-			KMerSortedArray<String> array = new KMerSortedArray<>(k, fillFpp, optFpp, null, false, xor);
+			KMerStore<String> array = booleanConfigValue(GSConfigKey.OFF_HEAP_STORE)
+					? new OffHeapKMerSortedArray<>(k, fillFpp, optFpp, null, xor)
+					: new KMerSortedArray<>(k, fillFpp, optFpp, null, false, xor);
 			array.initSize(size);
 			store = array;
 		}
@@ -138,6 +141,13 @@ public class FillDBGoal<P extends GSProject> extends FastaReaderGoal<Database, P
 			if (getLogger().isWarnEnabled() && tooManyCounter > 0) {
 				getLogger().warn("Not stored kmers: " + tooManyCounter);
 			}
+			if (store instanceof RadixKMerStore) {
+				long dropped = ((RadixKMerStore<String>) store).getDroppedKMers();
+				if (getLogger().isWarnEnabled() && dropped > 0) {
+					getLogger().warn("Kmers dropped due to full radix buckets: " + dropped
+							+ (booleanConfigValue(GSConfigKey.HLL_DB_SIZE) ? " (consider increasing " + GSConfigKey.HLL_SAFETY_MARGIN.getName() + ")" : ""));
+				}
+			}
 			long unused = store.getSize() - store.getEntries();
 			if (getLogger().isInfoEnabled() && unused > 0) {
 				getLogger().info("Unused kmers spots: " + unused +
@@ -153,7 +163,7 @@ public class FillDBGoal<P extends GSProject> extends FastaReaderGoal<Database, P
 			if (getLogger().isInfoEnabled()) {
 				getLogger().info("Sorting kmers ...");
 			}
-			store.optimize();
+			store.optimize(getThreads());
 			Database database = new Database(store, smallTaxTree, getProject().getAllAsProperties());
 			database.initStoreIndices();
 			set(database);
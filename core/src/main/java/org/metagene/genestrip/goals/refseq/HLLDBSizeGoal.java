@@ -0,0 +1,389 @@
+/*
+ * 
+ * “Commons Clause” License Condition v1.0
+ * 
+ * The Software is provided to you by the Licensor under the License, 
+ * as defined below, subject to the following condition.
+ * 
+ * Without limiting other conditions in the License, the grant of rights under the License 
+ * will not include, and the License does not grant to you, the right to Sell the Software.
+ * 
+ * For purposes of the foregoing, “Sell” means practicing any or all of the rights granted 
+ * to you under the License to provide to third parties, for a fee or other consideration 
+ * (including without limitation fees for hosting or consulting/ support services related to 
+ * the Software), a product or service whose value derives, entirely or substantially, from the 
+ * functionality of the Software. Any license notice or attribution required by the License 
+ * must also include this Commons Clause License Condition notice.
+ * 
+ * Software: genestrip
+ * 
+ * License: Apache 2.0
+ * 
+ * Licensor: Daniel Pfeifer (daniel.pfeifer@progotec.de)
+ * 
+ */
+package org.metagene.genestrip.goals.refseq;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.metagene.genestrip.ExecutionContext;
+import org.metagene.genestrip.GSConfigKey;
+import org.metagene.genestrip.GSGoalKey;
+import org.metagene.genestrip.GSProject;
+import org.metagene.genestrip.make.Goal;
+import org.metagene.genestrip.make.ObjectGoal;
+import org.metagene.genestrip.refseq.AbstractRefSeqFastaReader;
+import org.metagene.genestrip.refseq.AbstractStoreFastaReader;
+import org.metagene.genestrip.refseq.AccessionMap;
+import org.metagene.genestrip.refseq.RefSeqCategory;
+import org.metagene.genestrip.store.RadixKMerStore;
+import org.metagene.genestrip.tax.Rank;
+import org.metagene.genestrip.tax.TaxTree.TaxIdNode;
+import org.metagene.genestrip.util.MurmurHash3DropIn;
+
+import net.agkn.hll.HLL;
+import net.agkn.hll.HLLType;
+
+/**
+ * Alternative to {@link FillBloomFilterGoal} (activated via {@link GSConfigKey#HLL_DB_SIZE}) that
+ * estimates the deduplicated database size in a single pass over the FASTA files and without the
+ * {@link FillSizeGoal} pass: each reader thread feeds the selected k-mers into HyperLogLog sketches,
+ * which are merged after reading.
+ * <p>
+ * Keeping a full sketch per {@link RadixKMerStore} radix bucket would take too much memory for
+ * {@code 2^radixStoreBits} buckets, so there is one sketch per group of adjacent buckets (given by the
+ * high bits of the radix) and, in addition, a small sketch per bucket (see {@link BucketRegisters}),
+ * which all reader threads share. The small sketches distribute the group's estimate among its
+ * buckets: duplication may differ a lot between the buckets of a group, so the buckets' shares of
+ * included k-mers are not good enough for that. Since the small sketches are much less accurate, each
+ * bucket's estimate is raised by two of their standard errors, but never beyond the exact number of
+ * included k-mers of the bucket. All estimates are increased by {@link GSConfigKey#HLL_SAFETY_MARGIN},
+ * since a store sized too small cannot take all k-mers. Still, among many small buckets, a few may come
+ * out slightly too small; the k-mers dropped due to this are reported by {@link FillDBGoal}.
+ *
+ * @param <P> the project type
+ */
+public class HLLDBSizeGoal<P extends GSProject> extends FastaReaderGoal<FillBloomFilterGoal.DBSize, P> {
+    // log2 of the number of registers per sketch: the standard error is 1.04 / sqrt(2^12), i.e. ~1.6%.
+    private static final int LOG2M = 12;
+    private static final int REGWIDTH = 5;
+    private static final int MAX_GROUP_BITS = 10;
+    // The registers of all bucket sketches take at most 2^26 bytes, i.e. 64 MB, unless there are so many
+    // buckets that each sketch is left with less than 2^4 registers.
+    private static final int MAX_BUCKET_REGISTER_BITS = 26;
+    private static final int MIN_BUCKET_LOG2M = 4;
+    private static final int MAX_BUCKET_LOG2M = 10;
+    private static final double BUCKET_STD_ERRORS = 2;
+    private static final long HASH_SEED = 0x5bd1e995L;
+
+    private final ObjectGoal<AccessionMap, P> accessionMapGoal;
+    private final List<MyFastaReader> readers;
+
+    private int radixBits;
+    private int groupBits;
+    private BucketRegisters bucketRegisters;
+
+    /**
+     * Creates the goal, wiring the accession-map goal alongside the FASTA inputs.
+     *
+     * @param project the project
+     * @param bundle the execution context providing threading and shared services
+     * @param categoriesGoal the goal supplying the selected RefSeq categories
+     * @param taxNodesGoal the goal supplying the selected taxonomic nodes
+     * @param fnaFilesGoal the goal supplying the downloaded RefSeq FASTA files
+     * @param additionalGoal the goal supplying additional FASTA files mapped to tax nodes
+     * @param accessionMapGoal the goal supplying the accession-to-tax-id map
+     * @param deps the additional goals this goal depends on
+     */
+    @SafeVarargs
+    public HLLDBSizeGoal(P project, ExecutionContext bundle, ObjectGoal<Set<RefSeqCategory>, P> categoriesGoal,
+                         ObjectGoal<Set<TaxIdNode>, P> taxNodesGoal, RefSeqFnaFilesDownloadGoal fnaFilesGoal,
+                         ObjectGoal<Map<File, TaxIdNode>, P> additionalGoal,
+                         ObjectGoal<AccessionMap, P> accessionMapGoal, Goal<P>... deps) {
+        super(project, GSGoalKey.TEMPINDEX, bundle, categoriesGoal, taxNodesGoal, fnaFilesGoal, additionalGoal, Goal.append(deps, accessionMapGoal));
+        this.accessionMapGoal = accessionMapGoal;
+        readers = new ArrayList<>();
+    }
+
+    @Override
+    protected void doMakeThis() {
+        try {
+            radixBits = intConfigValue(GSConfigKey.RADIX_STORE_BITS);
+            groupBits = Math.min(MAX_GROUP_BITS, radixBits);
+            bucketRegisters = new BucketRegisters(radixBits, bucketLog2m(radixBits));
+            readFastas();
+
+            HLL[] sketches = new HLL[1 << groupBits];
+            int[] included = new int[1 << radixBits];
+            long includedKmers = 0;
+            for (MyFastaReader reader : readers) {
+                for (int i = 0; i < sketches.length; i++) {
+                    if (sketches[i] == null) {
+                        sketches[i] = reader.sketches[i];
+                    } else {
+                        sketches[i].union(reader.sketches[i]);
+                    }
+                }
+                for (int i = 0; i < included.length; i++) {
+                    included[i] += reader.included[i];
+                }
+                includedKmers += reader.getIncludedKmers();
+            }
+            set(estimate(sketches, bucketRegisters, included, radixBits - groupBits,
+                    doubleConfigValue(GSConfigKey.HLL_SAFETY_MARGIN)));
+            if (getLogger().isInfoEnabled()) {
+                getLogger().info("Estimated distinct kmers: " + get().getSize());
+                getLogger().info("Duplication factor: " + ((double) includedKmers) / get().getSize());
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            readers.clear();
+            bucketRegisters = null;
+            cleanUpThreads();
+        }
+    }
+
+    /**
+     * Computes the DB size from merged sketches, the bucket sketches and exact per-bucket counts of
+     * included k-mers.
+     *
+     * @param sketches the sketches per group of buckets
+     * @param bucketRegisters the (small) sketches per radix bucket
+     * @param included the included k-mers (with duplicates) per radix bucket
+     * @param bucketBitsPerGroup the number of low radix bits not used to select the group
+     * @param margin the relative safety margin added to the estimates
+     * @return the estimated DB size including per-bucket sizes
+     */
+    static FillBloomFilterGoal.DBSize estimate(HLL[] sketches, BucketRegisters bucketRegisters, int[] included,
+                                               int bucketBitsPerGroup, double margin) {
+        int[] bucketSizes = new int[included.length];
+        double[] bucketEstimates = new double[included.length];
+        long size = 0;
+        int bucketsPerGroup = 1 << bucketBitsPerGroup;
+        double padding = 1 + BUCKET_STD_ERRORS * bucketRegisters.getStandardError();
+        for (int g = 0; g < sketches.length; g++) {
+            long groupIncluded = 0;
+            double groupEstimate = 0;
+            for (int b = g * bucketsPerGroup; b < (g + 1) * bucketsPerGroup; b++) {
+                if (included[b] > 0) {
+                    groupIncluded += included[b];
+                    bucketEstimates[b] = Math.max(1, Math.min(included[b], bucketRegisters.cardinality(b)));
+                    groupEstimate += bucketEstimates[b];
+                }
+            }
+            if (groupIncluded == 0) {
+                continue;
+            }
+            // The sketch estimate may slightly exceed the exact number of included k-mers.
+            // The group's sketch is more accurate than the sum of the bucket sketches, so it scales the latter.
+            double scale = Math.min(groupIncluded, sketches[g].cardinality()) / groupEstimate;
+            for (int b = g * bucketsPerGroup; b < (g + 1) * bucketsPerGroup; b++) {
+                if (included[b] > 0) {
+                    // Rounding up per bucket is conservative, but only matters for tiny buckets.
+                    bucketSizes[b] = (int) Math.min(Integer.MAX_VALUE, Math.ceil(
+                            Math.min(included[b], bucketEstimates[b] * scale * padding) * (1 + margin)));
+                    size += bucketSizes[b];
+                }
+            }
+        }
+        return new FillBloomFilterGoal.DBSize(size, bucketSizes);
+    }
+
+    /**
+     * Returns log2 of the number of registers per bucket sketch for the given radix width.
+     *
+     * @param radixBits the radix width of the store
+     * @return log2 of the number of registers per bucket sketch
+     */
+    static int bucketLog2m(int radixBits) {
+        return Math.max(MIN_BUCKET_LOG2M, Math.min(MAX_BUCKET_LOG2M, MAX_BUCKET_REGISTER_BITS - radixBits));
+    }
+
+    @Override
+    protected AbstractStoreFastaReader createFastaReader(AbstractRefSeqFastaReader.StringLong2DigitTrie regionsPerTaxid) {
+        MyFastaReader fastaReader = new MyFastaReader(intConfigValue(GSConfigKey.FASTA_LINE_SIZE_BYTES),
+                taxNodesGoal.get(),
+                isIncludeRefSeqFna() ? accessionMapGoal.get() : null,
+                intConfigValue(GSConfigKey.KMER_SIZE),
+                intConfigValue(GSConfigKey.MAX_GENOMES_PER_TAXID),
+                (Rank) configValue(GSConfigKey.MAX_GENOMES_PER_TAXID_RANK),
+                longConfigValue(GSConfigKey.MAX_KMERS_PER_TAXID),
+                intConfigValue(GSConfigKey.MAX_DUST),
+                intConfigValue(GSConfigKey.STEP_SIZE),
+                booleanConfigValue(GSConfigKey.COMPLETE_GENOMES_ONLY),
+                regionsPerTaxid,
+                booleanConfigValue(GSConfigKey.ENABLE_LOWERCASE_BASES));
+        readers.add(fastaReader);
+        return fastaReader;
+    }
+
+    /**
+     * Creates an empty sketch as used per group of radix buckets.
+     *
+     * @return the new sketch
+     */
+    static HLL createSketch() {
+        // Dense registers only: they are small and faster to update than the sparse representations.
+        return new HLL(LOG2M, REGWIDTH, 0, false, HLLType.FULL);
+    }
+
+    /**
+     * FASTA reader that feeds each included k-mer into the sketch of its radix bucket group and counts
+     * included k-mers per radix bucket. Each reader thread has its own instance, so no synchronization
+     * is needed.
+     */
+    protected class MyFastaReader extends AbstractStoreFastaReader {
+        private final HLL[] sketches;
+        private final int[] included;
+
+        /**
+         * Creates the reader with empty sketches and counters.
+         *
+         * @param bufferSize the FASTA line read-buffer size in bytes
+         * @param taxNodes the taxonomic nodes to keep k-mers for
+         * @param accessionMap the accession-to-tax-id map, or {@code null} if not used
+         * @param k the k-mer size
+         * @param maxGenomesPerTaxId the maximum number of genomes kept per tax id
+         * @param maxGenomesPerTaxIdRank the rank at which the genome limit is applied
+         * @param maxKmersPerTaxId the maximum number of k-mers kept per tax id
+         * @param maxDust the maximum allowed low-complexity (dust) run length
+         * @param stepSize the k-mer sampling step size
+         * @param completeGenomesOnly whether only complete genomes are considered
+         * @param regionsPerTaxid the per-tax-id region counter
+         * @param enableLowerCaseBases whether lower-case bases are processed
+         */
+        public MyFastaReader(int bufferSize, Set<TaxIdNode> taxNodes, AccessionMap accessionMap, int k,
+                             int maxGenomesPerTaxId, Rank maxGenomesPerTaxIdRank, long maxKmersPerTaxId, int maxDust, int stepSize, boolean completeGenomesOnly, StringLong2DigitTrie regionsPerTaxid, boolean enableLowerCaseBases) {
+            super(bufferSize, taxNodes, accessionMap, k, maxGenomesPerTaxId, maxGenomesPerTaxIdRank, maxKmersPerTaxId, maxDust, stepSize, completeGenomesOnly, regionsPerTaxid, enableLowerCaseBases);
+            sketches = new HLL[1 << groupBits];
+            for (int i = 0; i < sketches.length; i++) {
+                sketches[i] = createSketch();
+            }
+            included = new int[1 << radixBits];
+        }
+
+        /**
+         * Returns the number of included k-mers counted so far.
+         *
+         * @return the number of included k-mers counted so far
+         */
+        public long getIncludedKmers() {
+            return includedKmers;
+        }
+
+        @Override
+        protected boolean handleStore() {
+            long kmer = byteRingBuffer.getStandardKMer();
+            int radix = RadixKMerStore.radixOf(kmer, radixBits);
+            included[radix]++;
+            long hash = MurmurHash3DropIn.hash64(kmer, HASH_SEED);
+            sketches[radix >>> (radixBits - groupBits)].addRaw(hash);
+            bucketRegisters.add(radix, hash);
+            return true;
+        }
+    }
+
+    /**
+     * HyperLogLog registers of one small sketch per radix bucket with one byte per register. Unlike
+     * the group sketches, the registers are shared by all reader threads, as keeping them per thread
+     * would take too much memory. A register rarely grows, so compare-and-set on the int holding
+     * it is cheap.
+     */
+    static class BucketRegisters {
+        private static final VarHandle INT_ARRAY_HANDLE = MethodHandles.arrayElementVarHandle(int[].class);
+
+        private final int log2m;
+        private final int m;
+        private final int[] registers;
+
+        /**
+         * Creates empty sketches.
+         *
+         * @param radixBits the radix width of the store, i.e. log2 of the number of buckets
+         * @param log2m log2 of the number of registers per bucket sketch
+         */
+        BucketRegisters(int radixBits, int log2m) {
+            this.log2m = log2m;
+            m = 1 << log2m;
+            // Four registers per int.
+            registers = new int[1 << (radixBits + log2m - 2)];
+        }
+
+        /**
+         * Adds a hashed k-mer to the sketch of its bucket. Thread-safe.
+         *
+         * @param bucket the radix bucket of the k-mer
+         * @param hash the 64 bit hash of the k-mer
+         */
+        void add(int bucket, long hash) {
+            int register = (bucket << log2m) | (int) (hash & (m - 1));
+            // Position of the lowest one bit of the remaining hash bits (at most 65 - log2m).
+            int value = Long.numberOfTrailingZeros((hash >>> log2m) | (1L << (64 - log2m))) + 1;
+            int index = register >>> 2;
+            int shift = (register & 3) << 3;
+            int old = registers[index];
+            while (((old >>> shift) & 0xFF) < value) {
+                int update = (old & ~(0xFF << shift)) | (value << shift);
+                if (INT_ARRAY_HANDLE.compareAndSet(registers, index, old, update)) {
+                    return;
+                }
+                old = (int) INT_ARRAY_HANDLE.getVolatile(registers, index);
+            }
+        }
+
+        /**
+         * Estimates the number of distinct k-mers added to a bucket, via linear counting for small
+         * cardinalities.
+         *
+         * @param bucket the radix bucket
+         * @return the estimated number of distinct k-mers in the bucket
+         */
+        double cardinality(int bucket) {
+            double sum = 0;
+            int zeros = 0;
+            int start = bucket << log2m;
+            for (int r = start; r < start + m; r++) {
+                int value = (registers[r >>> 2] >>> ((r & 3) << 3)) & 0xFF;
+                if (value == 0) {
+                    zeros++;
+                }
+                sum += 1d / (1L << value);
+            }
+            double estimate = alpha() * m * m / sum;
+            if (estimate <= 2.5 * m && zeros > 0) {
+                return m * Math.log(((double) m) / zeros);
+            }
+            return estimate;
+        }
+
+        /**
+         * Returns the relative standard error of the estimates.
+         *
+         * @return the relative standard error of the estimates
+         */
+        double getStandardError() {
+            return 1.04 / Math.sqrt(m);
+        }
+
+        private double alpha() {
+            switch (log2m) {
+                case 4:
+                    return 0.673;
+                case 5:
+                    return 0.697;
+                case 6:
+                    return 0.709;
+                default:
+                    return 0.7213 / (1 + 1.079 / m);
+            }
+        }
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * 
+ * “Commons Clause” License Condition v1.0
+ * 
+ * The Software is provided to you by the Licensor under the License, 
+ * as defined below, subject to the following condition.
+ * 
+ * Without limiting other conditions in the License, the grant of rights under the License 
+ * will not include, and the License does not grant to you, the right to Sell the Software.
+ * 
+ * For purposes of the foregoing, “Sell” means practicing any or all of the rights granted 
+ * to you under the License to provide to third parties, for a fee or other consideration 
+ * (including without limitation fees for hosting or consulting/ support services related to 
+ * the Software), a product or service whose value derives, entirely or substantially, from the 
+ * functionality of the Software. Any license notice or attribution required by the License 
+ * must also include this Commons Clause License Condition notice.
+ * 
+ * Software: genestrip
+ * 
+ * License: Apache 2.0
+ * 
+ * Licensor: Daniel Pfeifer (daniel.pfeifer@progotec.de)
+ * 
+ */
+package org.metagene.genestrip.goals.refseq;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.commons.codec.digest.DigestUtils;
+
+import org.metagene.genestrip.ExecutionContext;
+import org.metagene.genestrip.GSConfigKey;
+import org.metagene.genestrip.GSGoalKey;
+import org.metagene.genestrip.GSProject;
+import org.metagene.genestrip.make.Goal;
+import org.metagene.genestrip.make.ObjectGoal;
+import org.metagene.genestrip.refseq.AbstractRefSeqFastaReader;
+import org.metagene.genestrip.refseq.AccessionMap;
+import org.metagene.genestrip.refseq.RefSeqCacheWriter;
+import org.metagene.genestrip.refseq.RefSeqCategory;
+import org.metagene.genestrip.tax.TaxTree;
+import org.metagene.genestrip.tax.TaxTree.TaxIdNode;
+
+/**
+ * Goal that converts the selected RefSeq FASTA files and additional FASTA files into 2-bit packed
+ * cache files via {@link RefSeqCacheWriter} (one per FASTA file, in the project's DB folder). An existing
+ * cache file is only reused if the fingerprint in its header still matches the FASTA file (by size and
+ * modification time), the project's tax ids, the RefSeq categories and the configuration for reading
+ * FASTA files. Otherwise it gets regenerated. Any {@link FastaReaderGoal} depending on this goal replays the cache
+ * files instead of reading the FASTA files. This saves inflating and parsing the FASTA files as well
+ * as the accession lookups for every further pass over the references.
+ *
+ * @param <P> the project type
+ */
+public class RefSeqCacheGoal<P extends GSProject> extends FastaReaderGoal<List<File>, P> {
+    private final ObjectGoal<TaxTree, P> taxTreeGoal;
+    private final ObjectGoal<AccessionMap, P> accessionMapGoal;
+    private final List<File> cacheFiles;
+
+    /**
+     * Creates the goal, wiring the tax tree and accession-map goals alongside the FASTA inputs.
+     *
+     * @param project the project
+     * @param bundle the execution context providing the worker threads
+     * @param categoriesGoal the goal supplying the selected RefSeq categories
+     * @param taxNodesGoal the goal supplying the selected taxonomic nodes
+     * @param taxTreeGoal the goal supplying the tax tree to resolve cached tax ids
+     * @param fnaFilesGoal the goal supplying the downloaded RefSeq FASTA files
+     * @param additionalGoal the goal supplying additional FASTA files mapped to tax nodes
+     * @param accessionMapGoal the goal supplying the accession-to-tax-id map
+     * @param deps the additional goals this goal depends on
+     */
+    @SafeVarargs
+    public RefSeqCacheGoal(P project, ExecutionContext bundle, ObjectGoal<Set<RefSeqCategory>, P> categoriesGoal,
+                           ObjectGoal<Set<TaxIdNode>, P> taxNodesGoal, ObjectGoal<TaxTree, P> taxTreeGoal,
+                           RefSeqFnaFilesDownloadGoal fnaFilesGoal, ObjectGoal<Map<File, TaxIdNode>, P> additionalGoal,
+                           ObjectGoal<AccessionMap, P> accessionMapGoal, Goal<P>... deps) {
+        super(project, GSGoalKey.REFSEQCACHE, bundle, categoriesGoal, taxNodesGoal, fnaFilesGoal, additionalGoal, Goal.append(deps, taxTreeGoal, accessionMapGoal));
+        this.taxTreeGoal = taxTreeGoal;
+        this.accessionMapGoal = accessionMapGoal;
+        cacheFiles = new ArrayList<>();
+    }
+
+    /**
+     * Returns the tax tree to resolve the tax ids of cached regions.
+     *
+     * @return the tax tree
+     */
+    public TaxTree getTaxTree() {
+        return taxTreeGoal.get();
+    }
+
+    /**
+     * Returns the cache file for the given FASTA file.
+     *
+     * @param fastaFile the FASTA file
+     * @return the cache file
+     */
+    public File getCacheFile(File fastaFile) {
+        // FASTA files from different folders may have the same name.
+        String baseName = getProject().getFileBaseName(fastaFile.getName()) + "_"
+                + DigestUtils.md5Hex(fastaFile.getAbsolutePath()).substring(0, 8);
+        return getProject().getOutputFile(getKey().getName(), null, baseName, GSProject.GSFileType.REFSEQ_CACHE, false);
+    }
+
+    // Covers everything that determines the content of a cache file apart from the FASTA file.
+    private String getConfigFingerprint() {
+        StringBuilder builder = new StringBuilder();
+        Set<String> taxIds = new TreeSet<>();
+        for (TaxIdNode node : taxNodesGoal.get()) {
+            taxIds.add(node.getTaxId());
+        }
+        builder.append(taxIds).append(' ');
+        builder.append(new TreeSet<>(categoriesGoal.get())).append(' ');
+        builder.append(booleanConfigValue(GSConfigKey.COMPLETE_GENOMES_ONLY)).append(' ');
+        builder.append(booleanConfigValue(GSConfigKey.ENABLE_LOWERCASE_BASES));
+        return DigestUtils.md5Hex(builder.toString());
+    }
+
+    @Override
+    protected void doMakeThis() {
+        try {
+            cacheFiles.clear();
+            readFastas();
+            // The order of the files from the consumer threads is random.
+            Collections.sort(cacheFiles);
+            set(new ArrayList<>(cacheFiles));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            cleanUpThreads();
+        }
+    }
+
+    /**
+     * Only discards the list of cache files but keeps the files.
+     */
+    @Override
+    public void dump() {
+        set(null);
+        cleanUpThreads();
+    }
+
+    @Override
+    public boolean isCleaned() {
+        return super.isCleaned() && getExistingCacheFiles().length == 0;
+    }
+
+    /**
+     * Deletes all of the project's cache files.
+     */
+    @Override
+    protected void doCleanThis() {
+        super.doCleanThis();
+        for (File file : getExistingCacheFiles()) {
+            if (getLogger().isInfoEnabled()) {
+                getLogger().info("Deleting file " + file);
+            }
+            file.delete();
+        }
+    }
+
+    private File[] getExistingCacheFiles() {
+        String prefix = getProject().getName() + "_" + getKey().getName() + "_";
+        File[] files = getProject().getDirForType(GSProject.GSFileType.REFSEQ_CACHE).listFiles(
+                (dir, name) -> name.startsWith(prefix));
+        return files == null ? new File[0] : files;
+    }
+
+    // The writer converts entire files (see its readFasta override below).
+    @Override
+    protected boolean isSplitFiles() {
+        return false;
+    }
+
+    @Override
+    protected AbstractRefSeqFastaReader createFastaReader(AbstractRefSeqFastaReader.StringLong2DigitTrie regionsPerTaxid) {
+        String configFingerprint = getConfigFingerprint();
+        return new RefSeqCacheWriter(intConfigValue(GSConfigKey.FASTA_LINE_SIZE_BYTES),
+                taxNodesGoal.get(),
+                isIncludeRefSeqFna() ? accessionMapGoal.get() : null,
+                booleanConfigValue(GSConfigKey.COMPLETE_GENOMES_ONLY),
+                booleanConfigValue(GSConfigKey.ENABLE_LOWERCASE_BASES)) {
+            @Override
+            public void readFasta(File file) throws IOException {
+                File cacheFile = getCacheFile(file);
+                String fingerprint = configFingerprint + " " + file.length() + " " + file.lastModified();
+                if (!fingerprint.equals(RefSeqCacheWriter.readFingerprint(cacheFile))) {
+                    if (cacheFile.exists() && getLogger().isInfoEnabled()) {
+                        getLogger().info("Regenerating outdated cache file " + cacheFile);
+                    }
+                    convert(file, cacheFile, fingerprint);
+                }
+                synchronized (cacheFiles) {
+                    cacheFiles.add(cacheFile);
+                }
+            }
+        };
+    }
+}
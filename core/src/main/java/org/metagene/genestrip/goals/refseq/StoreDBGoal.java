@@ -30,6 +30,7 @@ import java.io.IOException;
 import java.util.Arrays;
 import java.util.Properties;
 
+import org.metagene.genestrip.GSConfigKey;
 import org.metagene.genestrip.GSGoalKey;
 import org.metagene.genestrip.GSProject;
 import org.metagene.genestrip.make.FileListGoal;
@@ -69,6 +70,20 @@ public class StoreDBGoal<P extends GSProject> extends FileListGoal<P> {
         if (getLogger().isInfoEnabled()) {
             getLogger().info("Saving database " + storeFile + " along with index ...");
         }
-        db.save(storeFile);
+        if (isMappedFormat()) {
+            db.saveMapped(storeFile);
+        } else {
+            db.save(storeFile);
+        }
+    }
+
+    /**
+     * Whether the database is saved in the memory-mapped format (see
+     * {@link Database#saveMapped(File)}) instead of as a ZIP.
+     *
+     * @return whether to use the memory-mapped format
+     */
+    protected boolean isMappedFormat() {
+        return booleanConfigValue(GSConfigKey.MAPPED_DB);
     }
 }
\ No newline at end of file
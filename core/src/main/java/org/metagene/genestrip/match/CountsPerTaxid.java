@@ -590,6 +590,26 @@ public class CountsPerTaxid implements Serializable, Comparable<CountsPerTaxid>
         return maxKMerCounts;
     }
 
+    // Adds the raw match counts of another instance for the same tax id (e.g. from another consumer thread).
+    void mergeFrom(CountsPerTaxid other) {
+        reads += other.reads;
+        reads1KMer += other.reads1KMer;
+        readsBPs += other.readsBPs;
+        readsKmers += other.readsKmers;
+        kmers += other.kmers;
+        contigs += other.contigs;
+        contigLenSquaredSum += other.contigLenSquaredSum;
+        if (other.maxContigLen > maxContigLen) {
+            maxContigLen = other.maxContigLen;
+            System.arraycopy(other.maxContigDescriptor, 0, maxContigDescriptor, 0,
+                    Math.min(other.maxContigDescriptor.length, maxContigDescriptor.length));
+        }
+        errorSum += other.errorSum;
+        errorSquaredSum += other.errorSquaredSum;
+        classErrorSum += other.classErrorSum;
+        classErrorSquaredSum += other.classErrorSquaredSum;
+    }
+
     void completeValues(int pos, long dbKMers, SmallTaxTree.SmallTaxIdNode node) {
         this.pos = pos;
         this.dbKMers = dbKMers;
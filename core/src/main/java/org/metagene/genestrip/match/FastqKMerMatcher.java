@@ -23,19 +23,19 @@
  * 
  */
 package org.metagene.genestrip.match;
-import java.nio.charset.StandardCharsets;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
 import org.metagene.genestrip.ExecutionContext;
 import org.metagene.genestrip.fastq.AbstractLoggingFastqStreamer;
+import org.metagene.genestrip.io.ConcurrentBlockWriter;
 import org.metagene.genestrip.io.StreamProvider;
 import org.metagene.genestrip.io.StreamingResource;
 import org.metagene.genestrip.io.StreamingResourceListStream;
@@ -46,8 +46,9 @@ import org.metagene.genestrip.tax.SmallTaxTree;
 import org.metagene.genestrip.tax.SmallTaxTree.SmallTaxIdNode;
 import org.metagene.genestrip.util.ByteArrayUtil;
 import org.metagene.genestrip.util.CGAT;
+import org.metagene.genestrip.util.Metrics;
 
-import it.unimi.dsi.fastutil.objects.Object2LongMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
 
 /**
  * Matches the k-mers of FASTQ (or FASTA) reads against the k-mer database and classifies
@@ -59,8 +60,10 @@ import it.unimi.dsi.fastutil.objects.Object2LongMap;
  * consumer threads in parallel.
  */
 public class FastqKMerMatcher extends AbstractLoggingFastqStreamer {
-    /** Sentinel node marking an invalid (ambiguous) k-mer position within a read. */
-    protected final static SmallTaxIdNode INVALID_NODE = new SmallTaxIdNode("INVALID", null, null);
+    /** Sentinel store index marking an invalid (ambiguous) k-mer position within a read. */
+    protected final static int INVALID_INDEX = -2;
+    // Bytes of Kraken-style or filtered fastq output a consumer collects before handing them over to a writer thread.
+    private static final int OUT_BLOCK_SIZE = 256 * 1024;
 
     /** The k-mer store (database) mapping k-mers to their tax id nodes. */
     protected final KMerStore<SmallTaxIdNode> kmerStore;
@@ -72,8 +75,13 @@ public class FastqKMerMatcher extends AbstractLoggingFastqStreamer {
     // Turned from KMerUniqueCounter to KMerUniqueCounterBits for potential method inlining.
     /** Optional counter of unique k-mers per tax id, or {@code null} if unique counting is disabled. */
     protected KMerUniqueCounterBits uniqueCounter;
-    /** Per-store-index statistics accumulators, indexed by a tax id node's store index. */
+    /**
+     * Per-store-index statistics, indexed by a tax id node's store index. Merged from
+     * {@link #statsPerConsumer} at the end of {@code runMatcher}.
+     */
     protected final CountsPerTaxid[] statsIndex;
+    /** Per-consumer, per-store-index statistics accumulators, updated without locking by their consumer. */
+    protected final CountsPerTaxid[][] statsPerConsumer;
     /** Per-consumer, per-store-index last read number seen, used to count reads with at least one k-mer. */
     protected final long readNoPerCPerStat[][];
 
@@ -81,12 +89,27 @@ public class FastqKMerMatcher extends AbstractLoggingFastqStreamer {
     protected final int maxPaths;
     /** The taxonomy tree used for voting and lowest-common-ancestor resolution. */
     protected final SmallTaxTree taxTree;
+    /**
+     * The tree's node index for each store index, or {@code -1} for store indexes without a value.
+     * (Without a tax tree, it is just {@code 0} for store indexes with a value.)
+     */
+    protected final int[] nodeIndexByStoreIndex;
+    /** The store index for each node index of the tax tree, or {@code null} without a tax tree. */
+    protected final int[] storeIndexByNodeIndex;
+    /** The tax id bytes for each store index as written to the Kraken-style output. */
+    protected final byte[][] taxIdBytesByStoreIndex;
     /** Maximum allowed tax error count per read before it is discarded. */
     protected final double maxReadTaxErrorCount;
     /** Maximum allowed classification error count per read before it is discarded. */
     protected final double maxReadClassErrorCount;
     /** Output stream for the filtered (matched) reads, or {@code null} if none. */
     protected OutputStream indexed;
+    /**
+     * Writer keeping the filtered reads in input order for {@link #indexed}, or {@code null} to write
+     * to {@link #indexed} directly (synchronized on it).
+     */
+    protected ConcurrentBlockWriter filteredWriter;
+    private boolean orderedFastqOut;
     /** Minimum vote count threshold applied during classification. */
     protected final int threshold;
 
@@ -95,10 +118,14 @@ public class FastqKMerMatcher extends AbstractLoggingFastqStreamer {
     /** Initial read size in bytes (kept boxed for reuse as a map key). */
     protected final Integer initialReadSize;
 
-    // A PrintStream is implicitly synchronized. So we don't need to worry about
-    // multi-threading when using it.
-    /** Print stream for the Kraken-style per-read output, or {@code null} if none. */
-    protected PrintStream out;
+    /** Stream for the Kraken-style per-read output, or {@code null} if none. */
+    protected OutputStream out;
+    /**
+     * Writer collecting the Kraken-style lines per consumer for {@link #out}, or {@code null} to write
+     * to {@link #out} directly (synchronized on it).
+     */
+    protected ConcurrentBlockWriter krakenWriter;
+    private boolean orderedKrakenStyleOut;
     /** Whether to write all reads to the Kraken-style output, not just classified ones. */
     protected final boolean writeAll;
 
@@ -106,6 +133,8 @@ public class FastqKMerMatcher extends AbstractLoggingFastqStreamer {
     protected int consumers;
 
     private AfterMatchCallback afterMatchCallback;
+    private final Metrics.Counter lookupsMetric = Metrics.getDefault().counter(Metrics.STORE_LOOKUPS);
+    private final Metrics.Counter hitsMetric = Metrics.getDefault().counter(Metrics.STORE_HITS);
 
     /**
      * Creates a matcher over the given database and taxonomy.
@@ -131,6 +160,7 @@ public class FastqKMerMatcher extends AbstractLoggingFastqStreamer {
         consumers = bundle.getThreads() <= 0 ? 1 : bundle.getThreads();
         this.kmerStore = kmerStore;
         this.statsIndex = new CountsPerTaxid[kmerStore.getNValues()];
+        this.statsPerConsumer = new CountsPerTaxid[consumers][kmerStore.getNValues()];
         this.readNoPerCPerStat = new long[consumers][kmerStore.getNValues()];
         this.initialReadSize = initialReadSize;
         this.maxKmerResCounts = maxKmerResCounts;
@@ -144,6 +174,21 @@ public class FastqKMerMatcher extends AbstractLoggingFastqStreamer {
         if (taxTree != null) {
             taxTree.initCountSize(consumers);
         }
+        // The matching loop runs on store and node indexes only, so resolve everything it needs from
+        // the node objects up front.
+        int nValues = kmerStore.getNValues();
+        nodeIndexByStoreIndex = new int[nValues];
+        taxIdBytesByStoreIndex = new byte[nValues][];
+        for (int i = 0; i < nValues; i++) {
+            SmallTaxIdNode node = kmerStore.getValueForIndex(i);
+            if (node == null) {
+                nodeIndexByStoreIndex[i] = -1;
+            } else {
+                nodeIndexByStoreIndex[i] = taxTree == null ? 0 : node.getNodeIndex();
+                taxIdBytesByStoreIndex[i] = node.getTaxId().getBytes(StandardCharsets.US_ASCII);
+            }
+        }
+        storeIndexByNodeIndex = taxTree == null ? null : taxTree.getStoreIndexes();
     }
 
     @Override
@@ -181,20 +226,25 @@ public class FastqKMerMatcher extends AbstractLoggingFastqStreamer {
     public MatchingResult runMatcher(StreamingResourceStream fastqs, File filteredFile, File krakenOutStyleFile,
                                      KMerUniqueCounterBits uniqueCounter) throws IOException {
         try (OutputStream lindexed = filteredFile != null ? StreamProvider.getOutputStreamForFile(filteredFile) : null;
-             // A PrintStream is implicitly synchronized. So we don't need to worry about
-             // multi threading when using it.
-             PrintStream lout = krakenOutStyleFile != null
-                     ? new PrintStream(StreamProvider.getOutputStreamForFile(krakenOutStyleFile), false, StandardCharsets.UTF_8)
-                     : null) {
+             OutputStream lout = krakenOutStyleFile != null ? StreamProvider.getOutputStreamForFile(krakenOutStyleFile) : null;
+             // Closed before lindexed and lout, so they write their remaining records first.
+             ConcurrentBlockWriter lfilteredWriter = lindexed != null && orderedFastqOut
+                     ? createBlockWriter(lindexed, OUT_BLOCK_SIZE, true) : null;
+             ConcurrentBlockWriter lwriter = lout != null ? createBlockWriter(lout, OUT_BLOCK_SIZE, orderedKrakenStyleOut) : null) {
             indexed = lindexed;
+            filteredWriter = lfilteredWriter;
             out = lout;
+            krakenWriter = lwriter;
 
             initStats();
             initUniqueCounter(uniqueCounter);
             processFastqStreams(fastqs);
         }
+        mergeStats();
         out = null;
+        krakenWriter = null;
         indexed = null;
+        filteredWriter = null;
 
         Map<String, CountsPerTaxid> taxid2Stats = new HashMap<>();
         for (CountsPerTaxid stats : statsIndex) {
@@ -203,21 +253,21 @@ public class FastqKMerMatcher extends AbstractLoggingFastqStreamer {
             }
         }
 
-        Map<String, short[]> countMap = null;
+        // Statistics are kept by store index, which is also the value index in the unique counter's
+        // store. So tax id strings only come in for the result map.
+        Int2ObjectMap<short[]> countMap = null;
         if (uniqueCounter != null) {
-            Object2LongMap<String> counts = uniqueCounter.getUniqueKmerCounts();
-            for (CountsPerTaxid stats : statsIndex) {
-                if (stats != null) {
-                    stats.uniqueKmers = counts.getLong(stats.getTaxid());
+            long[] counts = uniqueCounter.getUniqueKmerCountsByIndex();
+            for (int i = 0; i < statsIndex.length; i++) {
+                if (statsIndex[i] != null) {
+                    statsIndex[i].uniqueKmers = counts[i];
                 }
             }
-            if (uniqueCounter instanceof KMerUniqueCounterBits) {
-                if (((KMerUniqueCounterBits) uniqueCounter).isWithCounts()) {
-                    countMap = ((KMerUniqueCounterBits) uniqueCounter).getMaxCountsCounts(maxKmerResCounts);
-                    for (CountsPerTaxid stats : statsIndex) {
-                        if (stats != null) {
-                            stats.maxKMerCounts = countMap.get(stats.getTaxid());
-                        }
+            if (uniqueCounter.isWithCounts()) {
+                countMap = uniqueCounter.getMaxCountsCountsByIndex(maxKmerResCounts);
+                for (int i = 0; i < statsIndex.length; i++) {
+                    if (statsIndex[i] != null) {
+                        statsIndex[i].maxKMerCounts = countMap.get(i);
                     }
                 }
             }
@@ -231,7 +281,28 @@ public class FastqKMerMatcher extends AbstractLoggingFastqStreamer {
         }
 
         return new MatchingResult(kmerStore.getK(), taxid2Stats, dbMD5, totalReads, totalKMers, totalBPs,
-                countMap == null ? null : countMap.get(null));
+                countMap == null ? null : countMap.get(-1));
+    }
+
+    /**
+     * Sets whether the Kraken-style output lists the reads in input order. Otherwise, the lines of
+     * different consumers come in blocks as they get done. Only has an effect on subsequent calls of
+     * {@code runMatcher}.
+     *
+     * @param orderedKrakenStyleOut whether to write the Kraken-style output in input order
+     */
+    public void setOrderedKrakenStyleOut(boolean orderedKrakenStyleOut) {
+        this.orderedKrakenStyleOut = orderedKrakenStyleOut;
+    }
+
+    /**
+     * Sets whether the filtered reads are written in input order. Otherwise, they come in the order in
+     * which the consumers get done. Only has an effect on subsequent calls of {@code runMatcher}.
+     *
+     * @param orderedFastqOut whether to write the filtered reads in input order
+     */
+    public void setOrderedFastqOut(boolean orderedFastqOut) {
+        this.orderedFastqOut = orderedFastqOut;
     }
 
     @Override
@@ -244,6 +315,13 @@ public class FastqKMerMatcher extends AbstractLoggingFastqStreamer {
                 Arrays.fill(a, -1);
             }
             super.readFastq(inputStream, fasta);
+            // The read numbers start at 0 again for the next file.
+            if (krakenWriter != null) {
+                krakenWriter.endSequence();
+            }
+            if (filteredWriter != null) {
+                filteredWriter.endSequence();
+            }
         } finally {
             if (taxTree != null) {
                 taxTree.releaseOwner();
@@ -251,9 +329,39 @@ public class FastqKMerMatcher extends AbstractLoggingFastqStreamer {
         }
     }
 
+    @Override
+    protected void endChunk(long readNo, long nextReadNo, int threadIndex) throws IOException {
+        if (krakenWriter != null) {
+            krakenWriter.getSlot(threadIndex).endChunk(readNo, nextReadNo);
+        }
+        if (filteredWriter != null) {
+            filteredWriter.getSlot(threadIndex).endChunk(readNo, nextReadNo);
+        }
+    }
+
     // Package private for testing purposes.
     void initStats() {
         Arrays.fill(statsIndex, null);
+        for (CountsPerTaxid[] shard : statsPerConsumer) {
+            Arrays.fill(shard, null);
+        }
+    }
+
+    // Package private for testing purposes.
+    void mergeStats() {
+        for (int vi = 0; vi < statsIndex.length; vi++) {
+            CountsPerTaxid merged = null;
+            for (CountsPerTaxid[] shard : statsPerConsumer) {
+                CountsPerTaxid stats = shard[vi];
+                if (stats != null) {
+                    if (merged == null) {
+                        merged = new CountsPerTaxid(stats.getLevel(), stats.getTaxid(), initialReadSize);
+                    }
+                    merged.mergeFrom(stats);
+                }
+            }
+            statsIndex[vi] = merged;
+        }
     }
 
     void initUniqueCounter(KMerUniqueCounterBits uniqueCounter) {
@@ -273,12 +381,12 @@ public class FastqKMerMatcher extends AbstractLoggingFastqStreamer {
         myEntry.usedPaths = 0;
         myEntry.classNode = null;
         for (int i = 0; i < maxPaths; i++) {
-            myEntry.readTaxIdNode[i] = null;
+            myEntry.readTaxIds[i] = -1;
             myEntry.counts[i] = 0;
         }
 
         boolean found = matchRead(myEntry, index);
-        afterMatch(myEntry, found);
+        afterMatch(myEntry, found, index);
         if (afterMatchCallback != null) {
             afterMatchCallback.afterMatch(myEntry, found);
         }
@@ -299,14 +407,28 @@ public class FastqKMerMatcher extends AbstractLoggingFastqStreamer {
      *
      * @param myEntry the matched read entry
      * @param found   whether the read matched at least one k-mer
+     * @param index   the index of the consumer thread
      * @throws IOException if writing the read or its output line fails
      */
-    protected void afterMatch(MatcherReadEntry myEntry, boolean found) throws IOException {
-        if (found && indexed != null) {
+    protected void afterMatch(MatcherReadEntry myEntry, boolean found, int index) throws IOException {
+        if (filteredWriter != null) {
+            rewriteInput(myEntry, filteredWriter, found, index);
+        } else if (found && indexed != null) {
             rewriteInput(myEntry, indexed);
         }
         if (out != null) {
-            if (writeAll || myEntry.classNode != null) {
+            boolean write = writeAll || myEntry.classNode != null;
+            if (krakenWriter != null) {
+                // In ordered mode, every read needs a record (even an empty one) to keep the sequence going.
+                if (write || krakenWriter.isOrdered()) {
+                    ConcurrentBlockWriter.Slot slot = krakenWriter.getSlot(index);
+                    slot.startRecord(myEntry.readNo);
+                    if (write) {
+                        myEntry.writeMatchDetails(slot);
+                    }
+                    slot.endRecord();
+                }
+            } else if (write) {
                 synchronized (out) {
                     myEntry.writeMatchDetails(out);
                 }
@@ -329,16 +451,25 @@ public class FastqKMerMatcher extends AbstractLoggingFastqStreamer {
         int prints = 0;
         int readTaxErrorCount = taxTree == null ? -1 : 0;
 
-        SmallTaxIdNode taxIdNode;
+        // The store index of the current k-mer's value, -1 if there is none or INVALID_INDEX.
+        int vi;
         int max = entry.readSize - k + 1;
         // Loop-invariant per read: hoisted out of the per-error-k-mer threshold check in the loop.
         double maxReadTaxErrorCountTimesMax = maxReadTaxErrorCount * max;
-        SmallTaxIdNode lastTaxid = null;
+        int lastVi = -1;
         int contigLen = 0;
         CountsPerTaxid stats = null;
         // The consumer index is constant for this call, so hoist its per-store-index row once.
         final long[] readNoRow = readNoPerCPerStat[index];
 
+        // Pass 1: gather the canonical k-mers of the read. steps[s] is 0 for a valid k-mer (whose
+        // lookup result is taken from the batch in order) and otherwise the number of read positions
+        // covered by a run of invalid k-mers, as they only add to the current contig length.
+        entry.ensureBatchCapacity(max);
+        final long[] batchKmers = entry.batchKmers;
+        final int[] steps = entry.batchSteps;
+        int nSteps = 0;
+        int nKmers = 0;
         long kmer = -1;
         long reverseKmer = -1;
         int oldIndex = 0;
@@ -361,15 +492,51 @@ public class FastqKMerMatcher extends AbstractLoggingFastqStreamer {
                     reverseKmer = CGAT.nextKMerReverse(reverseKmer, lastBase, k);
                 }
             }
-            taxIdNode = kmer == -1 ? INVALID_NODE :
-                    kmerStore.getLong(CGAT.standardKMer(kmer, reverseKmer), entry.indexPos);
+            if (kmer == -1) {
+                steps[nSteps++] = i >= max ? max - oldIndex : i - oldIndex + 1;
+            } else {
+                steps[nSteps++] = 0;
+                batchKmers[nKmers++] = CGAT.standardKMer(kmer, reverseKmer);
+            }
+        }
+        // Pass 2: resolve all k-mers in one call, so the store can overlap their cache misses.
+        // Only value indexes are looked up as the rest of the matching runs on primitives.
+        final int[] batchIndexes = entry.batchIndexes;
+        final long[] batchPos = entry.batchPos;
+        kmerStore.getIndexBatch(batchKmers, nKmers, batchIndexes, batchPos);
+        // Recorded here as the voting below may return early for unclassified reads.
+        int storeHits = 0;
+        for (int i = 0; i < nKmers; i++) {
+            if (batchIndexes[i] >= 0 && nodeIndexByStoreIndex[batchIndexes[i]] >= 0) {
+                storeHits++;
+            }
+        }
+        lookupsMetric.add(index, nKmers);
+        hitsMetric.add(index, storeHits);
+
+        // Pass 3: contig and voting logic over the lookup results in read order.
+        int kmerIndex = 0;
+        for (int s = 0; s < nSteps; s++) {
+            final int step = steps[s];
+            long pos = -1;
+            if (step == 0) {
+                vi = batchIndexes[kmerIndex];
+                pos = batchPos[kmerIndex];
+                kmerIndex++;
+                if (vi >= 0 && nodeIndexByStoreIndex[vi] < 0) {
+                    // A store index without a value is just like a missing k-mer.
+                    vi = -1;
+                }
+            } else {
+                vi = INVALID_INDEX;
+            }
             // Whether this k-mer starts a new contig (its tax node differs from the previous k-mer's).
-            // Computed before lastTaxid is updated further below, and used to run the per-contig-only
+            // Computed before lastVi is updated further below, and used to run the per-contig-only
             // work (the tax-path merge and the stats/reads1KMer resolution) once per contig rather than
             // per k-mer.
-            final boolean newContig = taxIdNode != lastTaxid;
+            final boolean newContig = vi != lastVi;
             if (readTaxErrorCount != -1) {
-                if (taxIdNode == null || taxIdNode == INVALID_NODE) {
+                if (vi < 0) {
                     readTaxErrorCount++;
                     if (maxReadTaxErrorCount >= 0) {
                         if ((maxReadTaxErrorCount >= 1 && readTaxErrorCount > maxReadTaxErrorCount)
@@ -381,148 +548,143 @@ public class FastqKMerMatcher extends AbstractLoggingFastqStreamer {
                     // incCount is the per-k-mer vote weight; the tax-path merge is idempotent within a
                     // contig (repeated calls with the same node do not change the path set), so it only
                     // needs to run at the contig start.
-                    taxTree.incCount(taxIdNode, index, entry.readNo);
+                    final int nodeIndex = nodeIndexByStoreIndex[vi];
+                    taxTree.incCount(nodeIndex, index, entry.readNo);
                     if (newContig) {
-                        mergeReadTaxidPath(taxIdNode, entry);
+                        mergeReadTaxidPath(nodeIndex, entry);
                     }
                 }
             }
-            if (taxIdNode != lastTaxid) {
+            if (newContig) {
                 if (contigLen > 0) {
                     if (out != null) {
-                        printKrakenStyleOut(entry, lastTaxid, contigLen, prints++);
+                        printKrakenStyleOut(entry, lastVi, contigLen, prints++);
                     }
                     if (stats != null) {
-                        synchronized (stats) {
-                            // Batched per contig: for a matched contig contigLen equals the number of
-                            // its k-mers, so this replaces the former per-k-mer stats.kmers++.
-                            stats.kmers += contigLen;
-                            stats.contigs++;
-                            stats.contigLenSquaredSum += ((long) contigLen) * contigLen;
-                            if (contigLen > stats.maxContigLen) {
-                                stats.maxContigLen = contigLen;
-                                int j = 1;
-                                for (; j < entry.readDescriptorSize && j < stats.maxContigDescriptor.length && entry.readDescriptor[j] != ' '; j++) {
-                                    stats.maxContigDescriptor[j - 1] = entry.readDescriptor[j];
-                                }
-                                stats.maxContigDescriptor[j - 1] = 0;
+                        // Batched per contig: for a matched contig contigLen equals the number of
+                        // its k-mers, so this replaces the former per-k-mer stats.kmers++.
+                        stats.kmers += contigLen;
+                        stats.contigs++;
+                        stats.contigLenSquaredSum += ((long) contigLen) * contigLen;
+                        if (contigLen > stats.maxContigLen) {
+                            stats.maxContigLen = contigLen;
+                            int j = 1;
+                            for (; j < entry.readDescriptorSize && j < stats.maxContigDescriptor.length && entry.readDescriptor[j] != ' '; j++) {
+                                stats.maxContigDescriptor[j - 1] = entry.readDescriptor[j];
                             }
+                            stats.maxContigDescriptor[j - 1] = 0;
                         }
                     }
                     contigLen = 0;
                 }
             }
-            if (taxIdNode == INVALID_NODE) {
-                contigLen += i >= max ? max - oldIndex : i - oldIndex + 1;
+            if (vi == INVALID_INDEX) {
+                contigLen += step;
             }
             else {
                 contigLen++;
             }
-            lastTaxid = taxIdNode;
-            if (taxIdNode != null && taxIdNode != INVALID_NODE) {
+            lastVi = vi;
+            if (vi >= 0) {
                 found = true;
                 if (newContig) {
                     // 'stats' and the reads1KMer bookkeeping are constant within a contig, so resolve
                     // them once at the contig start; 'stats' is then carried across the contig for the
                     // boundary flush. stats.kmers itself is accumulated per contig in the contig-boundary
-                    // block (and the tail), so this hot path no longer locks 'stats' per k-mer.
-                    int vi = taxIdNode.getStoreIndex();
-                    stats = getCountsPerTaxid(taxIdNode, vi);
-                    // reads1KMer is counted once per (read, tax id); the guard row readNoPerCPerStat[index]
-                    // is owned by this consumer thread alone, so the check is race-free and only the rare
-                    // first hit of a tax id in a read needs the lock.
+                    // block (and the tail).
+                    stats = getCountsPerTaxid(vi, index);
+                    // reads1KMer is counted once per (read, tax id); like 'stats', the guard row
+                    // readNoPerCPerStat[index] is owned by this consumer thread alone.
                     if (readNoRow[vi] != entry.readNo) {
                         readNoRow[vi] = entry.readNo;
-                        synchronized (stats) {
-                            stats.reads1KMer++;
-                        }
+                        stats.reads1KMer++;
                     }
                 }
                 if (uniqueCounter != null) {
                     // This is a considerable optimization as found via profiling:
                     // Old version:
-                    // uniqueCounter.put(CGAT.standardKMer(kmer, reverseKmer), taxIdNode.getTaxId(), entry.indexPos[0]);
+                    // uniqueCounter.put(CGAT.standardKMer(kmer, reverseKmer), taxIdNode.getTaxId(), pos);
+                    // (With the store index based lookup, only pos is needed anyways.)
                     // Faster version:
-                    uniqueCounter.putInlined(entry.indexPos[0]);
+                    uniqueCounter.putInlined(pos);
                 }
             } else {
                 stats = null;
             }
         }
         if (contigLen > 0 && out != null) {
-            printKrakenStyleOut(entry, lastTaxid, contigLen, prints);
+            printKrakenStyleOut(entry, lastVi, contigLen, prints);
         }
         if (found) {
             if (contigLen > 0) {
                 if (stats != null) {
-                    synchronized (stats) {
-                        // Batched per contig (final contig): see the boundary block above.
-                        stats.kmers += contigLen;
-                        stats.contigs++;
-                        stats.contigLenSquaredSum += ((long) contigLen) * contigLen;
-                        if (contigLen > stats.maxContigLen) {
-                            stats.maxContigLen = contigLen;
-                            int j = 1;
-                            for (; j < entry.readDescriptorSize && j < stats.maxContigDescriptor.length && entry.readDescriptor[j] != ' '; j++) {
-                                stats.maxContigDescriptor[j - 1] = entry.readDescriptor[j];
-                            }
-                            stats.maxContigDescriptor[j - 1] = 0;
+                    // Batched per contig (final contig): see the boundary block above.
+                    stats.kmers += contigLen;
+                    stats.contigs++;
+                    stats.contigLenSquaredSum += ((long) contigLen) * contigLen;
+                    if (contigLen > stats.maxContigLen) {
+                        stats.maxContigLen = contigLen;
+                        int j = 1;
+                        for (; j < entry.readDescriptorSize && j < stats.maxContigDescriptor.length && entry.readDescriptor[j] != ' '; j++) {
+                            stats.maxContigDescriptor[j - 1] = entry.readDescriptor[j];
                         }
+                        stats.maxContigDescriptor[j - 1] = 0;
                     }
                 }
             }
             if (readTaxErrorCount != -1) {
                 int ties = 0;
                 for (int i = 0; i < entry.usedPaths; i++) {
-                    int sum = taxTree.sumCounts(entry.readTaxIdNode[i], index, entry.readNo);
+                    int sum = taxTree.sumCounts(entry.readTaxIds[i], index, entry.readNo);
                     if (sum > entry.counts[0]) {
                         entry.counts[0] = sum;
-                        entry.readTaxIdNode[0] = entry.readTaxIdNode[i];
+                        entry.readTaxIds[0] = entry.readTaxIds[i];
                         ties = 0;
                     } else if (sum == entry.counts[0]) {
                         ties++;
                         entry.counts[ties] = sum;
-                        entry.readTaxIdNode[ties] = entry.readTaxIdNode[i];
+                        entry.readTaxIds[ties] = entry.readTaxIds[i];
                     }
                 }
                 if (threshold > 1) {
                     for (int i = 0; i <= ties; i++) {
-                        entry.readTaxIdNode[i] = taxTree.lowestNodeWhereSumAboveThreshold(entry.readTaxIdNode[i], index, entry.readNo, threshold);
+                        entry.readTaxIds[i] = taxTree.lowestNodeWhereSumAboveThreshold(entry.readTaxIds[i], index, entry.readNo, threshold);
                     }
                 }
-                SmallTaxIdNode node = entry.readTaxIdNode[0];
+                int nodeIndex = entry.readTaxIds[0];
                 for (int i = 1; i <= ties; i++) {
-                    node = taxTree.getLowestCommonAncestor(node, entry.readTaxIdNode[i]);
+                    nodeIndex = taxTree.getLowestCommonAncestor(nodeIndex, entry.readTaxIds[i]);
                 }
-                entry.classNode = node;
-                if (node == null) {
+                if (nodeIndex < 0) {
+                    entry.classNode = null;
                     return false;
                 }
-                // For 'readKmers', I decided to count in the k-mers from 'entry.readTaxIdNode[0]' and not just 'node'.
+                // The only node object materialized per read.
+                SmallTaxIdNode node = taxTree.getNodeByIndex(nodeIndex);
+                entry.classNode = node;
+                // For 'readKmers', I decided to count in the k-mers from 'entry.readTaxIds[0]' and not just 'node'.
                 // (They only differ in case of a tie anyways.) But if there is tie, then the k-mers from one of the tie's nodes
                 // solidify the LCA in a sense - so the counts from one of the involved paths are included.
-                // When threshold > 1, readTaxIdNode[0] was promoted to an ancestor above, so the
+                // When threshold > 1, readTaxIds[0] was promoted to an ancestor above, so the
                 // voting-time entry.counts[0] is stale; recompute sumCounts for the actual node.
                 int readKmers = (ties > 0 || threshold > 1)
-                        ? taxTree.sumCounts(entry.readTaxIdNode[0], index, entry.readNo) : entry.counts[0];
+                        ? taxTree.sumCounts(entry.readTaxIds[0], index, entry.readNo) : entry.counts[0];
                 int classErrC = max - readKmers;
                 if (maxReadClassErrorCount < 0 || (maxReadClassErrorCount >= 1 && classErrC <= maxReadClassErrorCount)
                         || (classErrC <= maxReadClassErrorCount * max)) {
                     double err = ((double) readTaxErrorCount) / max;
                     double classErr = ((double) classErrC) / max;
                     entry.classNode = node;
-                    int vi = node.getStoreIndex();
-                    if (vi >= 0) {
-                        stats = getCountsPerTaxid(node, vi);
-                        synchronized (stats) {
-                            stats.reads++;
-                            stats.readsKmers += readKmers;
-                            stats.readsBPs += entry.readSize;
-                            stats.errorSum += err;
-                            stats.errorSquaredSum += err * err;
-                            stats.classErrorSum += classErr;
-                            stats.classErrorSquaredSum += classErr * classErr;
-                        }
+                    int classVi = storeIndexByNodeIndex[nodeIndex];
+                    if (classVi >= 0) {
+                        stats = getCountsPerTaxid(classVi, index);
+                        stats.reads++;
+                        stats.readsKmers += readKmers;
+                        stats.readsBPs += entry.readSize;
+                        stats.errorSum += err;
+                        stats.errorSquaredSum += err * err;
+                        stats.classErrorSum += classErr;
+                        stats.classErrorSquaredSum += classErr * classErr;
                     }
                     else if (getLogger().isWarnEnabled()) {
                         getLogger().warn("Missing database entry for tax node: " + node);
@@ -535,22 +697,22 @@ public class FastqKMerMatcher extends AbstractLoggingFastqStreamer {
     }
 
     /**
-     * Returns the statistics object for the given store index {@code vi}, lazily creating
-     * it for the given node in a thread-safe way if necessary.
+     * Returns the consumer's own statistics object for the given store index {@code vi}, lazily
+     * creating it for the store's tax id node if necessary. As the object is only ever accessed by the
+     * consumer thread with the given index, it can be updated without locking; the shards of all
+     * consumers are merged into {@link #statsIndex} at the end of {@code runMatcher}.
      *
-     * @param node the tax id node the statistics belong to
-     * @param vi   the store index selecting the statistics slot
+     * @param vi    the store index selecting the statistics slot
+     * @param index the consumer thread index selecting the shard
      * @return the (possibly newly created) statistics object for the node
      */
-    protected final CountsPerTaxid getCountsPerTaxid(final SmallTaxIdNode node, final int vi) {
-        CountsPerTaxid stats = statsIndex[vi];
+    protected final CountsPerTaxid getCountsPerTaxid(final int vi, final int index) {
+        final CountsPerTaxid[] shard = statsPerConsumer[index];
+        CountsPerTaxid stats = shard[vi];
         if (stats == null) {
-            synchronized (statsIndex) {
-                if (statsIndex[vi] == null) {
-                    statsIndex[vi] = new CountsPerTaxid(node.getLevel(), node.getTaxId(), initialReadSize);
-                }
-                stats = statsIndex[vi];
-            }
+            SmallTaxIdNode node = kmerStore.getValueForIndex(vi);
+            stats = new CountsPerTaxid(node.getLevel(), node.getTaxId(), initialReadSize);
+            shard[vi] = stats;
         }
         return stats;
     }
@@ -561,25 +723,25 @@ public class FastqKMerMatcher extends AbstractLoggingFastqStreamer {
      * is idempotent for a node already represented in the path set, so the matcher runs it only once
      * per contig rather than once per k-mer.
      *
-     * @param node  the tax id node hit by a k-mer of the current read
+     * @param node  the node index of the tax id node hit by a k-mer of the current read
      * @param entry the read together with its per-read working state
      */
     // Made final for potential inlining by JVM
-    protected final void mergeReadTaxidPath(final SmallTaxIdNode node, final MatcherReadEntry entry) {
+    protected final void mergeReadTaxidPath(final int node, final MatcherReadEntry entry) {
         boolean found = false;
         for (int i = 0; i < entry.usedPaths; i++) {
-            if (taxTree.isAncestorOf(node, entry.readTaxIdNode[i])) {
-                entry.readTaxIdNode[i] = node;
+            if (taxTree.isAncestorOf(node, entry.readTaxIds[i])) {
+                entry.readTaxIds[i] = node;
                 found = true;
                 break;
-            } else if (taxTree.isAncestorOf(entry.readTaxIdNode[i], node)) {
+            } else if (taxTree.isAncestorOf(entry.readTaxIds[i], node)) {
                 found = true;
                 break;
             }
         }
         if (!found) {
             if (entry.usedPaths < maxPaths) {
-                entry.readTaxIdNode[entry.usedPaths] = node;
+                entry.readTaxIds[entry.usedPaths] = node;
                 entry.usedPaths++;
             }
         }
@@ -590,21 +752,21 @@ public class FastqKMerMatcher extends AbstractLoggingFastqStreamer {
      * buffer, using {@code A} for invalid (ambiguous) and {@code 0} for unmatched k-mers.
      *
      * @param entry     the read whose output buffer is appended to
-     * @param taxid     the tax id node of the segment, or {@code null}/{@code INVALID_NODE}
+     * @param vi        the store index of the segment's tax id node, or {@code -1}/{@code INVALID_INDEX}
      * @param contigLen the length of the contiguous k-mer run
      * @param state     the segment index (a leading space is added when non-zero)
      */
-    protected void printKrakenStyleOut(final MatcherReadEntry entry, final SmallTaxIdNode taxid, final int contigLen, final int state) {
+    protected void printKrakenStyleOut(final MatcherReadEntry entry, final int vi, final int contigLen, final int state) {
         if (state != 0) {
             entry.printChar(' ');
         }
-        if (taxid == INVALID_NODE) {
+        if (vi == INVALID_INDEX) {
             entry.printChar('A');
         }
-        else if (taxid == null) {
+        else if (vi < 0) {
             entry.printChar('0');
         } else {
-            entry.printString(taxid.getTaxId());
+            entry.printBytes(taxIdBytesByStoreIndex[vi]);
         }
         entry.printChar(':');
         entry.printInt(contigLen);
@@ -632,12 +794,18 @@ public class FastqKMerMatcher extends AbstractLoggingFastqStreamer {
 
         /** Number of candidate taxonomic paths currently used. */
         public int usedPaths;
-        /** The candidate taxonomic path nodes tracked for this read. */
-        public SmallTaxIdNode[] readTaxIdNode;
+        /** The node indexes (see {@link SmallTaxTree#getNodeByIndex(int)}) of the candidate taxonomic paths tracked for this read. */
+        public int[] readTaxIds;
         /** Vote counts associated with the candidate paths. */
         public int[] counts;
-        /** Single-element scratch array holding the store index of the last matched k-mer. */
-        public long[] indexPos;
+        /** Scratch array holding the canonical k-mers of the read for the batched store lookup. */
+        public long[] batchKmers;
+        /** Scratch array receiving the looked-up store index of each k-mer in {@link #batchKmers}. */
+        public int[] batchIndexes;
+        /** Scratch array receiving the store position of each k-mer in {@link #batchKmers}. */
+        public long[] batchPos;
+        /** Scratch array describing the valid k-mers and invalid k-mer runs of the read in order. */
+        public int[] batchSteps;
         /** The resolved classification node for this read, or {@code null} if unclassified. */
         public SmallTaxIdNode classNode;
 
@@ -652,9 +820,23 @@ public class FastqKMerMatcher extends AbstractLoggingFastqStreamer {
             super(maxReadSizeBytes, withProbs);
 
             buffer = null;
-            readTaxIdNode = new SmallTaxIdNode[paths];
+            readTaxIds = new int[paths];
             counts = new int[paths];
-            indexPos = new long[1];
+            ensureBatchCapacity(maxReadSizeBytes);
+        }
+
+        /**
+         * Ensures that the batch lookup scratch arrays hold at least the given number of k-mers.
+         *
+         * @param capacity the required number of k-mers
+         */
+        public void ensureBatchCapacity(int capacity) {
+            if (batchKmers == null || batchKmers.length < capacity) {
+                batchKmers = new long[capacity];
+                batchIndexes = new int[capacity];
+                batchPos = new long[capacity];
+                batchSteps = new int[capacity];
+            }
         }
 
         /**
@@ -679,6 +861,18 @@ public class FastqKMerMatcher extends AbstractLoggingFastqStreamer {
             bufferPos += len;
         }
 
+        /**
+         * Appends the given bytes to the output buffer.
+         *
+         * @param bytes the bytes to append
+         */
+        public void printBytes(final byte[] bytes) {
+            int len = bytes.length;
+            growPrintBuffer(len);
+            System.arraycopy(bytes, 0, buffer, bufferPos, len);
+            bufferPos += len;
+        }
+
         /**
          * Ensures the output buffer has room for at least {@code additionalSize} more
          * bytes, allocating or doubling it as needed.
@@ -24,14 +24,20 @@
  */
 package org.metagene.genestrip.refseq;
 
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.Set;
 
 import org.metagene.genestrip.fasta.AbstractFastaReader;
 import org.metagene.genestrip.tax.Rank;
+import org.metagene.genestrip.tax.TaxTree;
 import org.metagene.genestrip.tax.TaxTree.TaxIdNode;
 import org.metagene.genestrip.util.ByteArrayUtil;
+import org.metagene.genestrip.util.CGAT;
 import org.metagene.genestrip.util.StringLongDigitTrie;
 
 /**
@@ -119,6 +125,95 @@ public abstract class AbstractRefSeqFastaReader extends AbstractFastaReader {
 		super.readFasta(file);
 	}
 
+	/**
+	 * Reads FASTA content from the given stream, such as a chunk of regions, taken from the given file.
+	 *
+	 * @param file        the FASTA file the content is from
+	 * @param inputStream the stream to read FASTA content from
+	 * @throws IOException if the stream cannot be read
+	 */
+	public void readFasta(File file, InputStream inputStream) throws IOException {
+		this.file = file;
+		readFasta(inputStream);
+	}
+
+	/**
+	 * Replays a cache file created by {@link RefSeqCacheWriter} as if the original FASTA file was read:
+	 * each cached region is mapped to its cached tax id node (bypassing the accession map) and its
+	 * bases are handed to {@link #dataLine()} in lines of the region's original line width, with
+	 * non-CGAT bases as {@code 'N'}. The FASTA file the cache was created from becomes the current
+	 * {@link #file}.
+	 *
+	 * @param cacheFile the cache file to replay
+	 * @param taxTree   the tax tree to resolve the cached tax ids
+	 * @throws IOException if the cache file cannot be read
+	 */
+	public void readCache(File cacheFile, TaxTree taxTree) throws IOException {
+		if (getLogger().isDebugEnabled()) {
+			getLogger().debug("Reading cache file " + cacheFile);
+		}
+		boolean oldIgnoreMap = ignoreMap;
+		TaxIdNode oldMappedNode = mappedNode;
+		byte[] packed = new byte[RefSeqCacheWriter.BLOCK_SIZE / 4];
+		int[] runs = new int[64];
+		try (DataInputStream in = new DataInputStream(
+				new BufferedInputStream(new FileInputStream(cacheFile), 1024 * 1024))) {
+			file = new File(RefSeqCacheWriter.readHeader(in));
+			dataLines = 0;
+			start();
+			while (in.readBoolean()) {
+				size = in.readInt();
+				in.readFully(target, 0, size);
+				target[size] = 0;
+				ignoreAccessionMap(taxTree.getNodeByTaxId(in.readUTF()));
+				startRegion();
+				infoLine();
+				size = 0;
+				for (int bases = in.readInt(); bases > 0; bases = in.readInt()) {
+					int lineWidth = in.readInt();
+					int nRuns = in.readInt();
+					if (2 * nRuns > runs.length) {
+						runs = new int[2 * nRuns];
+					}
+					for (int i = 0; i < 2 * nRuns; i++) {
+						runs[i] = in.readInt();
+					}
+					in.readFully(packed, 0, (bases + 3) >>> 2);
+					// Runs of non-CGAT bases are sorted and never adjacent.
+					int r = 0;
+					int runStart = nRuns > 0 ? runs[0] : bases;
+					int runEnd = nRuns > 0 ? runs[0] + runs[1] : bases;
+					for (int i = 0; i < bases; i++) {
+						if (i == runEnd) {
+							r++;
+							runStart = r < nRuns ? runs[2 * r] : bases;
+							runEnd = r < nRuns ? runStart + runs[2 * r + 1] : bases;
+						}
+						target[size++] = i >= runStart ? (byte) 'N' : CGAT.DECODE_TABLE[(packed[i >>> 2] >>> ((i & 3) << 1)) & 3];
+						if (size == lineWidth) {
+							replayDataLine();
+						}
+					}
+				}
+				if (size > 0) {
+					replayDataLine();
+				}
+				endRegion();
+			}
+			done();
+		} finally {
+			ignoreAccessionMap(oldIgnoreMap ? oldMappedNode : null);
+		}
+	}
+
+	private void replayDataLine() {
+		target[size++] = '\n';
+		target[size] = 0;
+		dataLines++;
+		dataLine();
+		size = 0;
+	}
+
 	/**
 	 * Returns the trie counting how many regions have been included per tax id.
 	 *
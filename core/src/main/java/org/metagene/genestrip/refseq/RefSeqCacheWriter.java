@@ -0,0 +1,244 @@
+/*
+ * 
+ * “Commons Clause” License Condition v1.0
+ * 
+ * The Software is provided to you by the Licensor under the License, 
+ * as defined below, subject to the following condition.
+ * 
+ * Without limiting other conditions in the License, the grant of rights under the License 
+ * will not include, and the License does not grant to you, the right to Sell the Software.
+ * 
+ * For purposes of the foregoing, “Sell” means practicing any or all of the rights granted 
+ * to you under the License to provide to third parties, for a fee or other consideration 
+ * (including without limitation fees for hosting or consulting/ support services related to 
+ * the Software), a product or service whose value derives, entirely or substantially, from the 
+ * functionality of the Software. Any license notice or attribution required by the License 
+ * must also include this Commons Clause License Condition notice.
+ * 
+ * Software: genestrip
+ * 
+ * License: Apache 2.0
+ * 
+ * Licensor: Daniel Pfeifer (daniel.pfeifer@progotec.de)
+ * 
+ */
+package org.metagene.genestrip.refseq;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Set;
+
+import org.metagene.genestrip.tax.TaxTree.TaxIdNode;
+import org.metagene.genestrip.util.CGAT;
+
+/**
+ * Converts a FASTA file into a compact cache file that can be replayed much faster via
+ * {@link AbstractRefSeqFastaReader#readCache(File, org.metagene.genestrip.tax.TaxTree)}. Only regions
+ * that map to one of the given tax nodes are kept. For each of them, the cache holds the header line,
+ * the tax id of the resolved node and the bases packed as 2-bit codes in blocks. Positions of
+ * non-CGAT bases are kept as runs per block, so that k-mer generation on replay is the same as on the
+ * FASTA file. Lower case bases are either converted to upper case or treated as non-CGAT bases, as
+ * they would be when reading the FASTA file, so a cache is only valid for the configuration it was
+ * created with. The caller therefore passes a fingerprint of the configuration, which is stored in
+ * the header of the cache file and can be checked via {@link #readFingerprint(File)}.
+ */
+public class RefSeqCacheWriter extends AbstractRefSeqFastaReader {
+	static final int MAGIC = 0x47533242; // "GS2B"
+	static final int VERSION = 2;
+	// Bases per block - must be a multiple of 4.
+	static final int BLOCK_SIZE = 64 * 1024;
+
+	private final boolean enableLowerCaseBases;
+	private final byte[] packed;
+	private int[] runs;
+
+	private DataOutputStream out;
+	private int bases;
+	private int nRuns;
+	private int lineWidth;
+
+	/**
+	 * Creates a cache writer.
+	 *
+	 * @param bufferSize           the read buffer size in bytes
+	 * @param taxNodes             the set of tax id nodes of interest
+	 * @param accessionMap         maps sequence accessions to their tax id nodes
+	 * @param completeGenomesOnly  whether only complete genomes are considered
+	 * @param enableLowerCaseBases whether lower case bases are converted to upper case
+	 */
+	public RefSeqCacheWriter(int bufferSize, Set<TaxIdNode> taxNodes, AccessionMap accessionMap,
+							 boolean completeGenomesOnly, boolean enableLowerCaseBases) {
+		// There are no per tax id limits here - they get applied when replaying the cache.
+		super(bufferSize, taxNodes, accessionMap, 0, Integer.MAX_VALUE, null, Long.MAX_VALUE, 1,
+				completeGenomesOnly, new StringLong2DigitTrie());
+		this.enableLowerCaseBases = enableLowerCaseBases;
+		packed = new byte[BLOCK_SIZE / 4];
+		runs = new int[64];
+	}
+
+	/**
+	 * Writes the cache file for the given FASTA file. The cache file is first written under a
+	 * temporary name and renamed when complete.
+	 *
+	 * @param fastaFile   the FASTA file to convert
+	 * @param cacheFile   the cache file to write
+	 * @param fingerprint identifies the FASTA file and the configuration the cache is created for
+	 * @throws IOException if reading or writing fails
+	 */
+	public void convert(File fastaFile, File cacheFile, String fingerprint) throws IOException {
+		File tmpFile = new File(cacheFile.getParentFile(), cacheFile.getName() + ".tmp");
+		try (DataOutputStream dataOut = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(tmpFile), 1024 * 1024))) {
+			out = dataOut;
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeUTF(fastaFile.getPath());
+			out.writeUTF(fingerprint);
+			super.readFasta(fastaFile);
+			out.writeBoolean(false);
+		} finally {
+			out = null;
+		}
+		Files.move(tmpFile.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * Checks the header of a cache file and returns the path of the FASTA file it was created from.
+	 *
+	 * @param in the cache file's stream positioned at its start
+	 * @return the path of the original FASTA file
+	 * @throws IOException if the stream is not a cache file of the supported version
+	 */
+	static String readHeader(DataInputStream in) throws IOException {
+		if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+			throw new IOException("Not a reference cache file or unsupported version.");
+		}
+		String path = in.readUTF();
+		// The fingerprint.
+		in.readUTF();
+		return path;
+	}
+
+	/**
+	 * Returns the fingerprint a cache file was created with.
+	 *
+	 * @param cacheFile the cache file
+	 * @return the fingerprint or {@code null} if the file does not exist, is not a cache file or is
+	 *         of another version
+	 */
+	public static String readFingerprint(File cacheFile) {
+		if (!cacheFile.exists()) {
+			return null;
+		}
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				return null;
+			}
+			in.readUTF();
+			return in.readUTF();
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	@Override
+	protected void startRegion() {
+		super.startRegion();
+		bases = 0;
+		nRuns = 0;
+		lineWidth = 0;
+	}
+
+	@Override
+	protected void infoLine() {
+		super.infoLine();
+		if (includeRegion) {
+			try {
+				out.writeBoolean(true);
+				out.writeInt(size);
+				out.write(target, 0, size);
+				out.writeUTF(node.getTaxId());
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+	}
+
+	@Override
+	protected void dataLine() {
+		if (includeRegion) {
+			// Strip the line terminator(s) just like AbstractStoreFastaReader does.
+			int end = size;
+			while (end > 0 && (target[end - 1] == '\n' || target[end - 1] == '\r')) {
+				end--;
+			}
+			if (lineWidth == 0) {
+				lineWidth = end;
+			}
+			for (int i = 0; i < end; i++) {
+				byte c = enableLowerCaseBases ? CGAT.cgatToUpperCase(target[i]) : target[i];
+				int bp = c < 0 ? -1 : CGAT.CGAT_JUMP_TABLE[c];
+				if (bp == -1) {
+					if (nRuns > 0 && runs[2 * nRuns - 2] + runs[2 * nRuns - 1] == bases) {
+						runs[2 * nRuns - 1]++;
+					} else {
+						if (2 * nRuns == runs.length) {
+							runs = Arrays.copyOf(runs, 2 * runs.length);
+						}
+						runs[2 * nRuns] = bases;
+						runs[2 * nRuns + 1] = 1;
+						nRuns++;
+					}
+				} else {
+					packed[bases >>> 2] |= (byte) (bp << ((bases & 3) << 1));
+				}
+				bases++;
+				if (bases == BLOCK_SIZE) {
+					writeBlock();
+				}
+			}
+		}
+	}
+
+	@Override
+	protected void endRegion() {
+		super.endRegion();
+		if (includeRegion) {
+			if (bases > 0) {
+				writeBlock();
+			}
+			try {
+				out.writeInt(0);
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+	}
+
+	private void writeBlock() {
+		try {
+			out.writeInt(bases);
+			out.writeInt(lineWidth);
+			out.writeInt(nRuns);
+			for (int i = 0; i < 2 * nRuns; i++) {
+				out.writeInt(runs[i]);
+			}
+			int len = (bases + 3) >>> 2;
+			out.write(packed, 0, len);
+			Arrays.fill(packed, 0, len, (byte) 0);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		bases = 0;
+		nRuns = 0;
+	}
+}
@@ -27,8 +27,11 @@ package org.metagene.genestrip.store;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.Serializable;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.metagene.genestrip.bloom.BlockedKMerBloomFilter;
 import org.metagene.genestrip.bloom.KMerProbFilter;
@@ -55,7 +58,8 @@ import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
  *     {@link #createOptimizedFilter()} helper used when sorting,</li>
  * <li>the per-value k-mer count statistics ({@code fix} / {@code getFixedNKmersPerTaxid} /
  *     {@code getNKmersPerTaxid}), and</li>
- * <li>the lock array used to serialize concurrent updates of the same entry.</li>
+ * <li>the lock array used to serialize concurrent updates of the same entry, and the helpers for
+ *     filling the store from several threads without a global lock.</li>
  * </ul>
  * The storage-specific operations ({@code initSize}, {@code putLong}, {@code getLong},
  * {@code update}, {@code optimize}, {@code visit}, {@code convertValues}) remain abstract.
@@ -65,6 +69,16 @@ import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
 public abstract class AbstractKMerStore<V extends Serializable> implements TunableKMerStore<V> {
 	private static final long serialVersionUID = 1L;
 
+	private static final VarHandle ENTRIES;
+
+	static {
+		try {
+			ENTRIES = MethodHandles.lookup().findVarHandle(AbstractKMerStore.class, "entries", long.class);
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
 	/** The k-mer length; always in {@code [1, 31]}. */
 	protected final int k;
 
@@ -105,6 +119,8 @@ public abstract class AbstractKMerStore<V extends Serializable> implements Tunab
 	// Just for optimizing synchronization during updates.
 	/** The lock array used to serialize concurrent updates of the same entry. */
 	protected transient Object[] syncs;
+	// Lock-free lookup of the value indexes of known values for concurrent puts.
+	private transient ConcurrentHashMap<V, Integer> concurrentValueIndexes;
 
 	/**
 	 * Base constructor: sets {@code k} (which must be in {@code [1, 31]}), the value-index capacity,
@@ -201,6 +217,70 @@ public abstract class AbstractKMerStore<V extends Serializable> implements Tunab
 		for (int i = 0; i < syncs.length; i++) {
 			syncs[i] = new Object();
 		}
+		concurrentValueIndexes = new ConcurrentHashMap<>();
+	}
+
+	// --- Concurrent filling ---------------------------------------------------
+
+	/**
+	 * Returns the lock to serialize concurrent puts of the given k-mer with. Puts of different k-mers
+	 * almost always get different locks, so they do not block each other.
+	 *
+	 * @param kmer the k-mer to put
+	 * @return the lock for the k-mer
+	 */
+	protected final Object putSync(long kmer) {
+		return syncs[(int) (kmer ^ (kmer >>> 29)) & (syncs.length - 1)];
+	}
+
+	/**
+	 * Atomically reserves the next entry position, i.e. increments {@link #entries} unless the store
+	 * is full.
+	 *
+	 * @return the reserved position or {@code -1} if the store is full
+	 */
+	protected final long reserveEntry() {
+		long pos;
+		do {
+			pos = (long) ENTRIES.getVolatile(this);
+			if (pos >= size) {
+				return -1;
+			}
+		} while (!ENTRIES.compareAndSet(this, pos, pos + 1));
+		return pos;
+	}
+
+	/**
+	 * Atomically increments {@link #entries}.
+	 */
+	protected final void incEntries() {
+		ENTRIES.getAndAdd(this, 1L);
+	}
+
+	/**
+	 * Like {@link #getAddValueIndex(Serializable)}, but safe to call from concurrent puts. The index of a
+	 * known value is found without locking; a new value is added while holding the lock on
+	 * {@link #valueMap}, just like in the subclasses' {@code update()}. Unlike
+	 * {@link #getAddValueIndex(Serializable)}, it does not accept null, since its lock-free lookup (a
+	 * {@link ConcurrentHashMap}) cannot hold null keys.
+	 *
+	 * @param value the value, not null
+	 * @return the store index of the value
+	 * @throws NullPointerException if the value is null
+	 */
+	protected final int getAddValueIndexConcurrently(V value) {
+		if (value == null) {
+			throw new NullPointerException("null is not allowed as a value.");
+		}
+		Integer index = concurrentValueIndexes.get(value);
+		if (index != null) {
+			return index;
+		}
+		synchronized (valueMap) {
+			int res = getAddValueIndex(value);
+			concurrentValueIndexes.put(value, res);
+			return res;
+		}
 	}
 
 	@Override
@@ -260,6 +340,23 @@ public abstract class AbstractKMerStore<V extends Serializable> implements Tunab
 		return useFilter;
 	}
 
+	/**
+	 * Performs the default {@link KMerStore#getLongBatch(long[], int, Serializable[], long[])}, i.e. a
+	 * plain loop over {@link #getLong(long, long[])}, for implementations whose batched path does not
+	 * apply.
+	 */
+	protected final void getLongEach(long[] kmers, int n, V[] out, long[] posOut) {
+		TunableKMerStore.super.getLongBatch(kmers, n, out, posOut);
+	}
+
+	/**
+	 * Performs the default {@link KMerStore#getIndexBatch(long[], int, int[], long[])}, i.e. a plain
+	 * loop over {@link #getLong(long, long[])}, for implementations whose batched path does not apply.
+	 */
+	protected final void getIndexEach(long[] kmers, int n, int[] out, long[] posOut) {
+		TunableKMerStore.super.getIndexBatch(kmers, n, out, posOut);
+	}
+
 	/**
 	 * Builds the post-{@code optimize()} pre-filter sized for {@link #entries}, choosing the same
 	 * kind (blocked / XOR / Murmur) as the current fill-time filter. Returns {@code null} when
@@ -172,6 +172,28 @@ public class Database implements Serializable {
         }
     }
 
+    /**
+     * Saves this database to the given file in the memory-mapped format, see
+     * {@link MappedDatabaseFormat#save(Database, File)}.
+     *
+     * @param file the destination file
+     * @throws java.io.IOException if writing fails
+     */
+    public void saveMapped(File file) throws IOException {
+        MappedDatabaseFormat.save(this, file);
+    }
+
+    /**
+     * Returns whether the given file holds a database in the memory-mapped format rather than a ZIP.
+     *
+     * @param file the database file to inspect
+     * @return whether the file is in the memory-mapped format
+     * @throws java.io.IOException if the file exists but cannot be read
+     */
+    public static boolean isMappedFormat(File file) throws IOException {
+        return MappedDatabaseFormat.isMappedFile(file);
+    }
+
     /**
      * Returns the configuration properties describing how this database was created.
      *
@@ -237,7 +259,8 @@ public class Database implements Serializable {
     }
 
     /**
-     * Loads a database from the given file, see {@link #load(InputStream, boolean)}.
+     * Loads a database from the given file, see {@link #load(InputStream, boolean)}. A file in the
+     * memory-mapped format is mapped instead, see {@link MappedDatabaseFormat#load(File, boolean)}.
      *
      * @param file       the database file to read
      * @param withFilter whether to also load the probabilistic pre-filter
@@ -246,6 +269,9 @@ public class Database implements Serializable {
      * @throws java.lang.ClassNotFoundException if a serialized class cannot be resolved
      */
     public static Database load(File file, boolean withFilter) throws IOException, ClassNotFoundException {
+        if (isMappedFormat(file)) {
+            return MappedDatabaseFormat.load(file, withFilter);
+        }
         try (InputStream is = new FileInputStream(file)) {
             return load(is, withFilter);
         }
@@ -314,13 +340,16 @@ public class Database implements Serializable {
     }
 
     /**
-     * Loads only the config-info properties from the given database file.
+     * Loads only the config-info properties from the given database file (in either format).
      *
      * @param file the database file to read
      * @return the config-info properties
      * @throws java.io.IOException if reading fails
      */
     public static Properties loadConfigInfo(File file) throws IOException {
+        if (isMappedFormat(file)) {
+            return MappedDatabaseFormat.loadConfigInfo(file);
+        }
         try (InputStream is = new FileInputStream(file)) {
             return loadConfigInfo(is);
         }
@@ -32,11 +32,10 @@ import org.metagene.genestrip.bloom.KMerProbFilter;
 import org.metagene.genestrip.bloom.MurmurKMerBloomFilter;
 import org.metagene.genestrip.bloom.XORKMerBloomFilter;
 import org.metagene.genestrip.util.CGAT;
+import org.metagene.genestrip.util.ParallelSorter;
 
 import it.unimi.dsi.fastutil.BigArrays;
-import it.unimi.dsi.fastutil.BigSwapper;
 import it.unimi.dsi.fastutil.longs.LongBigArrays;
-import it.unimi.dsi.fastutil.longs.LongComparator;
 
 /**
  * A {@link KMerStore} that keeps its k-mers in a single {@code long} array sorted by
@@ -49,7 +48,7 @@ import it.unimi.dsi.fastutil.longs.LongComparator;
  *
  * @param <V> the value type mapped to each k-mer
  */
-public class KMerSortedArray<V extends Serializable> extends AbstractKMerStore<V> {
+public class KMerSortedArray<V extends Serializable> extends AbstractKMerStore<V> implements SortedKMerArray {
 	// The value index is stored in a (large) short array, offset by Short.MIN_VALUE, so the number
 	// of distinct values is capped by the short range.
 	/** Maximum number of distinct values, capped by the short range of the value index. */
@@ -171,27 +170,27 @@ public class KMerSortedArray<V extends Serializable> extends AbstractKMerStore<V
 		}
 		sorted = false;
 		long pos;
-		int sindex;
 		if (filter.containsLong(kmer)) {
 			// Fail fast - we could check if the kmer is indeed stored, but it's way too
 			// slow because of linear search in the kmer array...
 			return false;
 		}
-		synchronized (this) {
+		// Only puts of the same kmer must be serialized (so that just one of them stores it),
+		// which keeps concurrent fill threads from blocking each other.
+		synchronized (putSync(kmer)) {
 			// We must check here again for thread safety.
-			// It is still better to do it here (again) than not doing it outside to improve
-			// parallelism.
 			if (filter.containsLong(kmer)) {
 				return false;
 			}
-			if (entries == size) {
+			pos = reserveEntry();
+			if (pos < 0) {
 				// Overfull store, leave quietly.
 				return false;
 			}
-			pos = entries++;
-			sindex = getAddValueIndex(value);
-			filter.putLong(kmer);
+			// Thread-safe (unlike putLong()) and sets the very same bits.
+			filter.putLongIfAbsent(kmer);
 		}
+		int sindex = getAddValueIndexConcurrently(value);
 		if (largeKmers != null) {
 			BigArrays.set(largeKmers, pos, kmer);
 		} else {
@@ -281,12 +280,38 @@ public class KMerSortedArray<V extends Serializable> extends AbstractKMerStore<V
 		}
 	}
 
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * When sorted, all k-mers are searched in lock-step over the whole array via
+	 * {@link SortedKMerArray#searchBatch}, so the loads of each search round are in flight together
+	 * (memory-level parallelism).
+	 */
+	@Override
+	public void getLongBatch(final long[] kmers, final int n, final V[] out, final long[] posOut) {
+		if (!sorted || posOut == null) {
+			getLongEach(kmers, n, out, posOut);
+			return;
+		}
+		SortedKMerArray.searchBatch(this, entries, useFilter ? filter : null, indexMap, kmers, n, out, null, posOut);
+	}
+
+	@Override
+	public void getIndexBatch(final long[] kmers, final int n, final int[] out, final long[] posOut) {
+		if (!sorted || posOut == null) {
+			getIndexEach(kmers, n, out, posOut);
+			return;
+		}
+		SortedKMerArray.searchBatch(this, entries, useFilter ? filter : null, indexMap, kmers, n, null, out, posOut);
+	}
+
 	/**
 	 * Returns the k-mer stored at the given storage position.
 	 *
 	 * @param pos the storage position
 	 * @return the k-mer stored at the given storage position.
 	 */
+	@Override
 	public long getKMerAt(long pos) {
 		if (largeKmers != null) {
 			return BigArrays.get(largeKmers, pos);
@@ -354,24 +379,28 @@ public class KMerSortedArray<V extends Serializable> extends AbstractKMerStore<V
 	 * @param pos the storage position
 	 * @return the value index of the entry at the given storage position.
 	 */
+	@Override
 	public int indexAtPosition(long pos) {
 		return (largeKmers != null ? BigArrays.get(largeValueIndexes, pos) : valueIndexes[(int) pos]) - Short.MIN_VALUE;
 	}
 
 	@Override
 	public void optimize() {
+		optimize(1);
+	}
+
+	@Override
+	public void optimize(int threads) {
 		if (sorted) {
 			return;
 		}
 		if (largeKmers != null) {
-			BigArrays.quickSort(0, entries, new LongComparator() {
+			ParallelSorter.sort(entries, 2 * k, new ParallelSorter.KeySwapper() {
 				@Override
-				public int compare(long k1, long k2) {
-					long kmer1 = BigArrays.get(largeKmers, k1);
-					long kmer2 = BigArrays.get(largeKmers, k2);
-					return Long.compare(kmer1, kmer2);
+				public long key(long index) {
+					return BigArrays.get(largeKmers, index);
 				}
-			}, new BigSwapper() {
+
 				@Override
 				public void swap(long a, long b) {
 					long kmerA = BigArrays.get(largeKmers, a);
@@ -383,16 +412,14 @@ public class KMerSortedArray<V extends Serializable> extends AbstractKMerStore<V
 					BigArrays.set(largeValueIndexes, b, indexA);
 					BigArrays.set(largeValueIndexes, a, indexB);
 				}
-			});
+			}, threads);
 		} else {
-			BigArrays.quickSort(0, entries, new LongComparator() {
+			ParallelSorter.sort(entries, 2 * k, new ParallelSorter.KeySwapper() {
 				@Override
-				public int compare(long k1, long k2) {
-					long kmer1 = kmers[(int) k1];
-					long kmer2 = kmers[(int) k2];
-					return Long.compare(kmer1, kmer2);
+				public long key(long index) {
+					return kmers[(int) index];
 				}
-			}, new BigSwapper() {
+
 				@Override
 				public void swap(long a, long b) {
 					long kmerA = kmers[(int) a];
@@ -404,21 +431,19 @@ public class KMerSortedArray<V extends Serializable> extends AbstractKMerStore<V
 					valueIndexes[(int) b] = indexA;
 					valueIndexes[(int) a] = indexB;
 				}
-			});
+			}, threads);
 		}
 		sorted = true;
 		// Rework the bloom filter from the fill-time one into the optimized one.
 		filter = createOptimizedFilter();
 		if (filter != null) {
-			long kmer;
-			for (long i = 0; i < entries; i++) {
-				if (largeKmers != null) {
-					kmer = BigArrays.get(largeKmers, i);
-				} else {
-					kmer = kmers[(int) i];
+			final KMerProbFilter f = filter;
+			// putLongIfAbsent() is thread-safe (unlike putLong()) and sets the very same bits.
+			ParallelSorter.forRanges(entries, threads, (from, to) -> {
+				for (long i = from; i < to; i++) {
+					f.putLongIfAbsent(largeKmers != null ? BigArrays.get(largeKmers, i) : kmers[(int) i]);
 				}
-				filter.putLong(kmer);
-			}
+			});
 		}
 	}
 
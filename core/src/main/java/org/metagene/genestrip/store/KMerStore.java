@@ -78,6 +78,17 @@ public interface KMerStore<V extends Serializable> extends Serializable {
 	 */
 	public void optimize();
 
+	/**
+	 * Like {@link #optimize()}, but may use up to the given number of threads for sorting and for
+	 * rebuilding the pre-filter. The resulting store is identical to the one of {@link #optimize()}.
+	 * The default implementation ignores {@code threads}.
+	 *
+	 * @param threads the maximum number of threads to use
+	 */
+	public default void optimize(int threads) {
+		optimize();
+	}
+
 	/**
 	 * Returns whether this store has been optimized for lookups.
 	 *
@@ -156,6 +167,52 @@ public interface KMerStore<V extends Serializable> extends Serializable {
 	 */
 	public V getLong(long kmer, long[] posStore);
 
+	/**
+	 * Looks up the values of the first {@code n} given k-mers in one call. The result is the same as
+	 * calling {@link #getLong(long, long[])} for each k-mer, but implementations may interleave the
+	 * independent lookups so that their cache misses overlap. The default implementation simply
+	 * loops over {@link #getLong(long, long[])}.
+	 *
+	 * @param kmers  the k-mers (encoded as {@code long}s) to look up
+	 * @param n      the number of k-mers to look up from {@code kmers}
+	 * @param out    receives the stored value of {@code kmers[i]} at {@code out[i]}, or {@code null}
+	 *               if the k-mer is not present
+	 * @param posOut optional; if non-{@code null}, receives the storage position of {@code kmers[i]}
+	 *               at {@code posOut[i]}, or {@code -1} if the k-mer is not present
+	 */
+	public default void getLongBatch(long[] kmers, int n, V[] out, long[] posOut) {
+		long[] posStore = posOut == null ? null : new long[1];
+		for (int i = 0; i < n; i++) {
+			out[i] = getLong(kmers[i], posStore);
+			if (posOut != null) {
+				posOut[i] = out[i] == null ? -1 : posStore[0];
+			}
+		}
+	}
+
+	/**
+	 * Like {@link #getLongBatch(long[], int, Serializable[], long[])} but reports the value index (see
+	 * {@link #getValueForIndex(int)}) of each k-mer instead of the value itself. This way, callers can
+	 * work on plain ints and only resolve the values they actually need.
+	 *
+	 * @param kmers  the k-mers (encoded as {@code long}s) to look up
+	 * @param n      the number of k-mers to look up from {@code kmers}
+	 * @param out    receives the value index of {@code kmers[i]} at {@code out[i]}, or {@code -1}
+	 *               if the k-mer is not present
+	 * @param posOut optional; if non-{@code null}, receives the storage position of {@code kmers[i]}
+	 *               at {@code posOut[i]}, or {@code -1} if the k-mer is not present
+	 */
+	public default void getIndexBatch(long[] kmers, int n, int[] out, long[] posOut) {
+		long[] posStore = posOut == null ? null : new long[1];
+		for (int i = 0; i < n; i++) {
+			V value = getLong(kmers[i], posStore);
+			out[i] = value == null ? -1 : getIndexForValue(value);
+			if (posOut != null) {
+				posOut[i] = value == null ? -1 : posStore[0];
+			}
+		}
+	}
+
 	/**
 	 * Returns whether the store is full.
 	 *
@@ -28,6 +28,8 @@ import java.util.HashMap;
 import java.util.Map;
 
 import it.unimi.dsi.fastutil.BigArrays;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
 import org.metagene.genestrip.store.KMerStore.IndexedKMerStoreVisitor;
 import org.metagene.genestrip.util.LargeBitVector;
 import org.metagene.genestrip.util.LargeShortVector;
@@ -40,6 +42,11 @@ import it.unimi.dsi.fastutil.objects.Object2LongMap;
  * k-mer's storage position in the backing {@link KMerStore}, so every distinct k-mer is counted at
  * most once. When constructed with counts enabled, a parallel {@link LargeShortVector} also records
  * how often each k-mer was matched.
+ * <p>
+ * By default, concurrent updates via {@link #putInlined(long)} are guarded by striped locks. In lock-free
+ * mode, the bit is set atomically instead and the count is incremented via a saturating compare-and-set
+ * (so it stops at {@link Short#MAX_VALUE} rather than overflowing), which avoids lock contention with many
+ * consumer threads.
  */
 public class KMerUniqueCounterBits implements KMerUniqueCounter {
 	private static final int LOCKS = 512; // Must be a value in 2^n, n = 1,2,3,...
@@ -49,6 +56,7 @@ public class KMerUniqueCounterBits implements KMerUniqueCounter {
 	private final LargeBitVector bitVector;
 	private final LargeShortVector countsVector;
 	private final Object[] locks;
+	private final boolean lockFree;
 
 	/**
 	 * Creates a counter over the given store. If {@code withCounts} is set, per-k-mer match counts are
@@ -58,14 +66,37 @@ public class KMerUniqueCounterBits implements KMerUniqueCounter {
 	 * @param withCounts if {@code true}, per-k-mer match counts are tracked as well
 	 */
 	public KMerUniqueCounterBits(KMerStore<String> store, boolean withCounts) {
+		this(store, withCounts, false);
+	}
+
+	/**
+	 * Creates a counter over the given store, optionally in lock-free mode.
+	 *
+	 * @param store      the backing k-mer store
+	 * @param withCounts if {@code true}, per-k-mer match counts are tracked as well
+	 * @param lockFree   if {@code true}, {@link #putInlined(long)} uses atomic updates instead of locks
+	 */
+	public KMerUniqueCounterBits(KMerStore<String> store, boolean withCounts, boolean lockFree) {
 		this.store = store;
+		this.lockFree = lockFree;
 		bitVector = new LargeBitVector(store.getEntries());
 		countsVector = withCounts ? new LargeShortVector(store.getEntries()) : null;
-		locks = new Object[LOCKS];
-		for (int i = 0; i < locks.length; i++) {
-			locks[i] = new Object();
+		locks = lockFree ? null : new Object[LOCKS];
+		if (locks != null) {
+			for (int i = 0; i < locks.length; i++) {
+				locks[i] = new Object();
+			}
 		}
 	}
+
+	/**
+	 * Returns whether this counter runs in lock-free mode.
+	 *
+	 * @return {@code true} if updates are atomic instead of lock-guarded
+	 */
+	public boolean isLockFree() {
+		return lockFree;
+	}
 	
 	/**
 	 * Returns whether per-k-mer match counts are being tracked.
@@ -110,11 +141,22 @@ public class KMerUniqueCounterBits implements KMerUniqueCounter {
 
 	/**
 	 * Marks the k-mer at the given storage position as matched (and increments its match count when
-	 * counting is enabled), synchronizing per bit-array word to allow concurrent callers.
+	 * counting is enabled), synchronizing per bit-array word (or using atomic updates in lock-free mode)
+	 * to allow concurrent callers.
 	 *
 	 * @param index the storage position of the k-mer within the backing store
 	 */
 	public final void putInlined(final long index) {
+		if (lockFree) {
+			// Read first: re-matching an already counted k-mer (the common case) then needs no atomic write.
+			if (!bitVector.get(index)) {
+				bitVector.setAndTestWasUnset(index);
+			}
+			if (countsVector != null) {
+				countsVector.incSaturated(index);
+			}
+			return;
+		}
 		long arrayIndex = ((index >>> 6) % bitVector.size);
 		synchronized (locks[(int)(arrayIndex & LOCKS_MASK)]) {
 			// Inline start
@@ -145,6 +187,22 @@ public class KMerUniqueCounterBits implements KMerUniqueCounter {
 	@Override
 	public Object2LongMap<String> getUniqueKmerCounts() {
 		Object2LongMap<String> res = new Object2LongLinkedOpenHashMap<String>();
+		long[] valueCounter = getUniqueKmerCountsByIndex();
+		for (int i = 0; i < valueCounter.length; i++) {
+			String taxid = store.getValueForIndex(i);
+			res.put(taxid, valueCounter[i]);
+		}
+
+		return res;
+	}
+
+	/**
+	 * Like {@link #getUniqueKmerCounts()} but keyed by the taxids' value indexes in the backing store
+	 * (see {@link KMerStore#getValueForIndex(int)}), so no taxid strings are involved.
+	 *
+	 * @return the number of distinct matched k-mers per value index
+	 */
+	public long[] getUniqueKmerCountsByIndex() {
 		long[] valueCounter = new long[store.getNValues()];
 		store.visit(new IndexedKMerStoreVisitor<String>() {
 			@Override
@@ -154,12 +212,7 @@ public class KMerUniqueCounterBits implements KMerUniqueCounter {
 				}
 			}
 		});
-		for (int i = 0; i < valueCounter.length; i++) {
-			String taxid = store.getValueForIndex(i);
-			res.put(taxid, valueCounter[i]);
-		}
-
-		return res;
+		return valueCounter;
 	}
 
 	/**
@@ -171,30 +224,51 @@ public class KMerUniqueCounterBits implements KMerUniqueCounter {
 	 * @return a map from taxid to its highest match counts, with the overall top counts under the {@code null} key
 	 */
 	public Map<String, short[]> getMaxCountsCounts(int counts) {
+		Int2ObjectMap<short[]> byIndex = getMaxCountsCountsByIndex(counts);
 		Map<String, short[]> res = new HashMap<String, short[]>();
+		for (Int2ObjectMap.Entry<short[]> entry : byIndex.int2ObjectEntrySet()) {
+			int index = entry.getIntKey();
+			res.put(index == -1 ? null : store.getValueForIndex(index), entry.getValue());
+		}
+		return res;
+	}
+
+	/**
+	 * Like {@link #getMaxCountsCounts(int)} but keyed by the taxids' value indexes in the backing store.
+	 * The overall top counts are held under the key {@code -1}.
+	 *
+	 * @param counts the number of highest match counts to keep per taxid
+	 * @return a map from value index to its highest match counts, with the overall top counts under {@code -1}
+	 */
+	public Int2ObjectMap<short[]> getMaxCountsCountsByIndex(int counts) {
+		short[][] byIndex = new short[store.getNValues()][];
 		short[] totalMaxCounts = new short[counts];
-		res.put(null, totalMaxCounts);
-		
-		
+
 		store.visit(new IndexedKMerStoreVisitor<String>() {
 			@Override
 			public void nextValue(KMerStore<String> trie, long kmer, int index, long i) {
 				if (bitVector.get(i)) {
-					String taxid = store.getValueForIndex(index);
-					if (taxid != null) {						
-						short[] target = res.get(taxid); 
-						if (target == null) {
-							target = new short[counts];
-							res.put(taxid, target);
-						}								
-						short count = countsVector.get(i);
-						updateMaxCounts(count, target);
-						updateMaxCounts(count, totalMaxCounts);
+					short[] target = byIndex[index];
+					if (target == null) {
+						if (store.getValueForIndex(index) == null) {
+							return;
+						}
+						target = byIndex[index] = new short[counts];
 					}
+					short count = countsVector.get(i);
+					updateMaxCounts(count, target);
+					updateMaxCounts(count, totalMaxCounts);
 				}
 			}
 		});
 
+		Int2ObjectMap<short[]> res = new Int2ObjectOpenHashMap<short[]>();
+		res.put(-1, totalMaxCounts);
+		for (int i = 0; i < byIndex.length; i++) {
+			if (byIndex[i] != null) {
+				res.put(i, byIndex[i]);
+			}
+		}
 		return res;
 	}
 	
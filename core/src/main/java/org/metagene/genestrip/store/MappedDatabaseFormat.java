@@ -0,0 +1,499 @@
+/*
+ * 
+ * “Commons Clause” License Condition v1.0
+ * 
+ * The Software is provided to you by the Licensor under the License, 
+ * as defined below, subject to the following condition.
+ * 
+ * Without limiting other conditions in the License, the grant of rights under the License 
+ * will not include, and the License does not grant to you, the right to Sell the Software.
+ * 
+ * For purposes of the foregoing, “Sell” means practicing any or all of the rights granted 
+ * to you under the License to provide to third parties, for a fee or other consideration 
+ * (including without limitation fees for hosting or consulting/ support services related to 
+ * the Software), a product or service whose value derives, entirely or substantially, from the 
+ * functionality of the Software. Any license notice or attribution required by the License 
+ * must also include this Commons Clause License Condition notice.
+ * 
+ * Software: genestrip
+ * 
+ * License: Apache 2.0
+ * 
+ * Licensor: Daniel Pfeifer (daniel.pfeifer@progotec.de)
+ * 
+ */
+package org.metagene.genestrip.store;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.commons.codec.binary.Hex;
+import org.metagene.genestrip.GSProject;
+import org.metagene.genestrip.bloom.BlockedKMerBloomFilter;
+import org.metagene.genestrip.bloom.KMerProbFilter;
+import org.metagene.genestrip.bloom.MappedBlockedKMerBloomFilter;
+import org.metagene.genestrip.tax.SmallTaxTree;
+import org.metagene.genestrip.util.MappedLongArray;
+import org.metagene.genestrip.util.MappedShortArray;
+
+import it.unimi.dsi.fastutil.objects.Object2LongMap;
+
+/**
+ * An uncompressed, page-aligned binary file format for a {@link Database}, as an alternative to the
+ * ZIP of Java-serialized objects written by {@link Database#save(File)}. The large arrays of a
+ * {@link KMerSortedArray} or {@link RadixKMerStore} and the words of a
+ * {@link BlockedKMerBloomFilter} are written raw (little endian), each starting on a page boundary,
+ * so that {@link #load(File, boolean)} merely maps them via {@link FileChannel#map} instead of
+ * inflating, deserializing and copying them onto the heap. The result is backed by a read-only
+ * {@link MappedKMerStore}, loads within seconds, and shares the OS page cache with every other
+ * process using the same file.
+ * <p>
+ * Layout: a header page (magic, version, section offsets and lengths), a section with the
+ * Java-serialized small parts (tax tree, values, statistics), the page-aligned array sections and
+ * finally the config-info properties. As in the ZIP format, the config info carries an MD5
+ * fingerprint of all preceding sections except the header.
+ */
+public final class MappedDatabaseFormat {
+	/** The magic bytes at the start of a mapped database file. */
+	private static final byte[] MAGIC = { 'G', 'S', 'M', 'A', 'P', 'D', 'B', '1' };
+	/** The format version. */
+	public static final int VERSION = 1;
+	/** The page size all array sections are aligned to. */
+	public static final int PAGE_SIZE = 4096;
+
+	private static final int SORTED_STORE = 0;
+	private static final int RADIX_STORE = 1;
+
+	private static final int NO_FILTER = 0;
+	private static final int BLOCKED_FILTER = 1;
+	// Other filter types have no raw layout and are stored Java-serialized (so they end up on the heap).
+	private static final int SERIALIZED_FILTER = 2;
+
+	private static final int WRITE_BUFFER_SIZE = 1 << 20;
+
+	// Static utility class - not meant to be instantiated.
+	private MappedDatabaseFormat() {
+	}
+
+	/**
+	 * Returns whether the given file starts with the magic bytes of this format.
+	 *
+	 * @param file the file to inspect
+	 * @return whether the file is a mapped database file
+	 * @throws IOException if the file exists but cannot be read
+	 */
+	public static boolean isMappedFile(File file) throws IOException {
+		if (!file.isFile() || file.length() < PAGE_SIZE) {
+			return false;
+		}
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			ByteBuffer buffer = ByteBuffer.allocate(MAGIC.length);
+			readFully(channel, 0, buffer);
+			return Arrays.equals(MAGIC, buffer.array());
+		}
+	}
+
+	/**
+	 * Writes the database to the file in the mapped format. Its k-mer store must be an optimized
+	 * {@link KMerSortedArray}, {@link OffHeapKMerSortedArray} or {@link RadixKMerStore}. As with
+	 * {@link Database#save(File)}, the database's config info is updated with the MD5 fingerprint of the written data.
+	 *
+	 * @param database the database to write
+	 * @param file     the destination file
+	 * @throws IOException if writing fails
+	 */
+	public static void save(Database database, File file) throws IOException {
+		KMerStore<String> store = database.getKmerStore();
+		if (!store.isOptimized()) {
+			throw new IllegalStateException("Only an optimized store can be saved in the mapped format.");
+		}
+		// A mapped store is not written back, as its filter is mapped too.
+		if (store instanceof MappedKMerStore
+				|| (!(store instanceof SortedKMerArray) && !(store instanceof RadixKMerStore))) {
+			throw new IllegalArgumentException("Unsupported store type for the mapped format: " + store.getClass().getName());
+		}
+		AbstractKMerStore<String> aStore = (AbstractKMerStore<String>) store;
+		MessageDigest messageDigest;
+		try {
+			messageDigest = MessageDigest.getInstance("MD5");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+		ByteBuffer header = ByteBuffer.allocate(PAGE_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		header.put(MAGIC);
+		header.putInt(VERSION);
+
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			SectionWriter writer = new SectionWriter(channel, PAGE_SIZE, messageDigest);
+
+			// The small parts go Java-serialized into the meta section.
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			try (ObjectOutputStream oOut = new ObjectOutputStream(bytes)) {
+				oOut.writeObject(database.getTaxTree());
+				oOut.writeInt(store.getK());
+				int nValues = store.getNValues();
+				oOut.writeInt(nValues);
+				for (int i = 0; i < nValues; i++) {
+					oOut.writeObject(store.getValueForIndex(i));
+				}
+				oOut.writeBoolean(aStore.isUseFilter());
+				oOut.writeObject(aStore.kmerPersTaxid);
+			}
+			long metaOffset = writer.position();
+			writer.putBytes(bytes.toByteArray());
+			long metaLength = writer.position() - metaOffset;
+			writer.align();
+
+			int storeKind;
+			int radixBits = 0;
+			long array0Offset = writer.position();
+			long array0Length;
+			long array1Offset;
+			long array1Length;
+			if (store instanceof SortedKMerArray) {
+				SortedKMerArray sortedArray = (SortedKMerArray) store;
+				storeKind = SORTED_STORE;
+				long entries = store.getEntries();
+				for (long i = 0; i < entries; i++) {
+					writer.putLong(sortedArray.getKMerAt(i));
+				}
+				array0Length = entries;
+				writer.align();
+				array1Offset = writer.position();
+				for (long i = 0; i < entries; i++) {
+					writer.putShort((short) (sortedArray.indexAtPosition(i) + Short.MIN_VALUE));
+				}
+				array1Length = entries;
+			} else {
+				RadixKMerStore<String> radixStore = (RadixKMerStore<String>) store;
+				storeKind = RADIX_STORE;
+				radixBits = radixStore.getRadixBits();
+				int radixSize = 1 << radixBits;
+				long total = 0;
+				for (int r = 0; r < radixSize; r++) {
+					long[] bucket = radixStore.bucket(r);
+					int fill = radixStore.bucketFill(r);
+					for (int i = 0; i < fill; i++) {
+						writer.putLong(bucket[i]);
+					}
+					total += fill;
+				}
+				array0Length = total;
+				writer.align();
+				array1Offset = writer.position();
+				long start = 0;
+				for (int r = 0; r < radixSize; r++) {
+					writer.putLong(start);
+					start += radixStore.bucketFill(r);
+				}
+				writer.putLong(start);
+				array1Length = radixSize + 1;
+			}
+			writer.align();
+
+			KMerProbFilter filter = aStore.getFilter();
+			int filterKind;
+			long filterOffset = writer.position();
+			long filterLength = 0;
+			long filterSeed = 0;
+			long filterBuckets = 0;
+			long filterEntries = 0;
+			if (filter instanceof BlockedKMerBloomFilter) {
+				BlockedKMerBloomFilter blocked = (BlockedKMerBloomFilter) filter;
+				filterKind = BLOCKED_FILTER;
+				filterLength = blocked.getWordCount();
+				for (long i = 0; i < filterLength; i++) {
+					writer.putLong(blocked.getWord(i));
+				}
+				filterSeed = blocked.getSeed();
+				filterBuckets = blocked.getBuckets();
+				filterEntries = blocked.getEntries();
+			} else if (filter != null) {
+				filterKind = SERIALIZED_FILTER;
+				bytes = new ByteArrayOutputStream();
+				try (ObjectOutputStream oOut = new ObjectOutputStream(bytes)) {
+					oOut.writeObject(filter);
+				}
+				writer.putBytes(bytes.toByteArray());
+				filterLength = writer.position() - filterOffset;
+			} else {
+				filterKind = NO_FILTER;
+			}
+			writer.align();
+			writer.flush();
+
+			// Only the core DB data shall be in the MD5 fingerprint, so the config goes undigested.
+			Properties configInfo = database.getConfigInfo();
+			configInfo.setProperty(GSProject.DB_MD5, Hex.encodeHexString(messageDigest.digest()));
+			bytes = new ByteArrayOutputStream();
+			configInfo.store(bytes, "Genestrip database configuration information");
+			writer = new SectionWriter(channel, writer.position(), null);
+			long configOffset = writer.position();
+			writer.putBytes(bytes.toByteArray());
+			long configLength = writer.position() - configOffset;
+			writer.flush();
+
+			header.putInt(storeKind);
+			header.putInt(filterKind);
+			header.putInt(radixBits);
+			header.putLong(metaOffset).putLong(metaLength);
+			header.putLong(array0Offset).putLong(array0Length);
+			header.putLong(array1Offset).putLong(array1Length);
+			header.putLong(filterOffset).putLong(filterLength);
+			header.putLong(filterSeed).putLong(filterBuckets).putLong(filterEntries);
+			header.putLong(configOffset).putLong(configLength);
+			header.clear();
+			for (long pos = 0; header.hasRemaining();) {
+				pos += channel.write(header, pos);
+			}
+		}
+	}
+
+	/**
+	 * Opens a database from a file in the mapped format. Its k-mer store is a
+	 * {@link MappedKMerSortedArray} or {@link MappedRadixKMerStore} depending on the store the file was
+	 * written from. When {@code withFilter} is set, the pre-filter is attached too - a
+	 * {@link BlockedKMerBloomFilter} as a {@link MappedBlockedKMerBloomFilter}.
+	 *
+	 * @param file       the database file to map
+	 * @param withFilter whether to also load the probabilistic pre-filter
+	 * @return the opened database
+	 * @throws IOException                   if reading or mapping fails
+	 * @throws ClassNotFoundException        if a serialized class cannot be resolved
+	 * @throws InvalidDatabaseClassException if the serialized classes are incompatible with the current
+	 *                                       runtime (carrying the config info for diagnostics).
+	 */
+	@SuppressWarnings("unchecked")
+	public static Database load(File file, boolean withFilter) throws IOException, ClassNotFoundException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			Header header = readHeader(channel, file);
+			Properties configInfo = readConfigInfo(channel, header);
+			try {
+				SmallTaxTree taxTree;
+				int k;
+				List<String> values;
+				boolean useFilter;
+				Object2LongMap<String> kmerPersTaxid;
+				try (ObjectInputStream oIn = new ObjectInputStream(new ByteArrayInputStream(
+						readBytes(channel, header.metaOffset, header.metaLength)))) {
+					taxTree = (SmallTaxTree) oIn.readObject();
+					k = oIn.readInt();
+					int nValues = oIn.readInt();
+					values = new ArrayList<>(nValues);
+					for (int i = 0; i < nValues; i++) {
+						values.add((String) oIn.readObject());
+					}
+					useFilter = oIn.readBoolean();
+					kmerPersTaxid = (Object2LongMap<String>) oIn.readObject();
+				}
+
+				MappedKMerStore<String> store;
+				if (header.storeKind == SORTED_STORE) {
+					store = new MappedKMerSortedArray<>(k, values,
+							new MappedLongArray(channel, header.array0Offset, header.array0Length),
+							new MappedShortArray(channel, header.array1Offset, header.array1Length), kmerPersTaxid);
+				} else if (header.storeKind == RADIX_STORE) {
+					store = new MappedRadixKMerStore<>(k, header.radixBits, values,
+							new MappedLongArray(channel, header.array1Offset, header.array1Length),
+							new MappedLongArray(channel, header.array0Offset, header.array0Length), kmerPersTaxid);
+				} else {
+					throw new IOException("Unknown store type " + header.storeKind + " in mapped database file " + file);
+				}
+				if (withFilter) {
+					KMerProbFilter filter = null;
+					if (header.filterKind == BLOCKED_FILTER) {
+						filter = new MappedBlockedKMerBloomFilter(header.filterSeed, header.filterBuckets,
+								header.filterEntries, new MappedLongArray(channel, header.filterOffset, header.filterLength));
+					} else if (header.filterKind == SERIALIZED_FILTER) {
+						try (ObjectInputStream oIn = new ObjectInputStream(new ByteArrayInputStream(
+								readBytes(channel, header.filterOffset, header.filterLength)))) {
+							filter = (KMerProbFilter) oIn.readObject();
+						}
+					}
+					store.setFilter(filter);
+					store.setUseFilter(useFilter && filter != null);
+				}
+				Database database = new Database(store, taxTree, configInfo);
+				database.initStoreIndices();
+				return database;
+			} catch (InvalidClassException e) {
+				throw new InvalidDatabaseClassException(e.classname, e.getMessage(), configInfo, e);
+			}
+		}
+	}
+
+	/**
+	 * Reads only the config-info properties from a file in the mapped format.
+	 *
+	 * @param file the database file to read
+	 * @return the config-info properties
+	 * @throws IOException if reading fails
+	 */
+	public static Properties loadConfigInfo(File file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			return readConfigInfo(channel, readHeader(channel, file));
+		}
+	}
+
+	private static Properties readConfigInfo(FileChannel channel, Header header) throws IOException {
+		Properties configInfo = new Properties();
+		configInfo.load(new ByteArrayInputStream(readBytes(channel, header.configOffset, header.configLength)));
+		return configInfo;
+	}
+
+	private static Header readHeader(FileChannel channel, File file) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(PAGE_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		readFully(channel, 0, buffer);
+		byte[] magic = new byte[MAGIC.length];
+		buffer.get(magic);
+		if (!Arrays.equals(MAGIC, magic)) {
+			throw new IOException("Not a mapped database file: " + file);
+		}
+		int version = buffer.getInt();
+		if (version != VERSION) {
+			throw new IOException("Unsupported mapped database version " + version + " in file " + file);
+		}
+		Header header = new Header();
+		header.storeKind = buffer.getInt();
+		header.filterKind = buffer.getInt();
+		header.radixBits = buffer.getInt();
+		header.metaOffset = buffer.getLong();
+		header.metaLength = buffer.getLong();
+		header.array0Offset = buffer.getLong();
+		header.array0Length = buffer.getLong();
+		header.array1Offset = buffer.getLong();
+		header.array1Length = buffer.getLong();
+		header.filterOffset = buffer.getLong();
+		header.filterLength = buffer.getLong();
+		header.filterSeed = buffer.getLong();
+		header.filterBuckets = buffer.getLong();
+		header.filterEntries = buffer.getLong();
+		header.configOffset = buffer.getLong();
+		header.configLength = buffer.getLong();
+		return header;
+	}
+
+	private static byte[] readBytes(FileChannel channel, long offset, long length) throws IOException {
+		if (length > Integer.MAX_VALUE - 8) {
+			throw new IOException("Section too large: " + length);
+		}
+		ByteBuffer buffer = ByteBuffer.allocate((int) length);
+		readFully(channel, offset, buffer);
+		return buffer.array();
+	}
+
+	private static void readFully(FileChannel channel, long offset, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			int n = channel.read(buffer, offset);
+			if (n < 0) {
+				throw new EOFException("Unexpected end of mapped database file.");
+			}
+			offset += n;
+		}
+		buffer.flip();
+	}
+
+	// The decoded header page.
+	private static final class Header {
+		private int storeKind;
+		private int filterKind;
+		private int radixBits;
+		private long metaOffset;
+		private long metaLength;
+		private long array0Offset;
+		private long array0Length;
+		private long array1Offset;
+		private long array1Length;
+		private long filterOffset;
+		private long filterLength;
+		private long filterSeed;
+		private long filterBuckets;
+		private long filterEntries;
+		private long configOffset;
+		private long configLength;
+	}
+
+	// Buffered, little-endian writer of raw values to a file channel from a given position on,
+	// optionally feeding all written bytes into a message digest.
+	private static final class SectionWriter {
+		private final FileChannel channel;
+		private final MessageDigest digest;
+		private final ByteBuffer buffer;
+		private long written;
+
+		private SectionWriter(FileChannel channel, long start, MessageDigest digest) {
+			this.channel = channel;
+			this.digest = digest;
+			this.written = start;
+			buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		}
+
+		private long position() {
+			return written + buffer.position();
+		}
+
+		private void putLong(long value) throws IOException {
+			if (buffer.remaining() < Long.BYTES) {
+				flush();
+			}
+			buffer.putLong(value);
+		}
+
+		private void putShort(short value) throws IOException {
+			if (buffer.remaining() < Short.BYTES) {
+				flush();
+			}
+			buffer.putShort(value);
+		}
+
+		private void putBytes(byte[] bytes) throws IOException {
+			for (int off = 0; off < bytes.length;) {
+				if (!buffer.hasRemaining()) {
+					flush();
+				}
+				int n = Math.min(buffer.remaining(), bytes.length - off);
+				buffer.put(bytes, off, n);
+				off += n;
+			}
+		}
+
+		// Pads with zeros up to the next page boundary.
+		private void align() throws IOException {
+			long pad = (PAGE_SIZE - (position() % PAGE_SIZE)) % PAGE_SIZE;
+			for (long i = 0; i < pad; i++) {
+				if (!buffer.hasRemaining()) {
+					flush();
+				}
+				buffer.put((byte) 0);
+			}
+		}
+
+		private void flush() throws IOException {
+			buffer.flip();
+			if (digest != null) {
+				digest.update(buffer.duplicate());
+			}
+			while (buffer.hasRemaining()) {
+				written += channel.write(buffer, written);
+			}
+			buffer.clear();
+		}
+	}
+}
@@ -0,0 +1,156 @@
+/*
+ * 
+ * “Commons Clause” License Condition v1.0
+ * 
+ * The Software is provided to you by the Licensor under the License, 
+ * as defined below, subject to the following condition.
+ * 
+ * Without limiting other conditions in the License, the grant of rights under the License 
+ * will not include, and the License does not grant to you, the right to Sell the Software.
+ * 
+ * For purposes of the foregoing, “Sell” means practicing any or all of the rights granted 
+ * to you under the License to provide to third parties, for a fee or other consideration 
+ * (including without limitation fees for hosting or consulting/ support services related to 
+ * the Software), a product or service whose value derives, entirely or substantially, from the 
+ * functionality of the Software. Any license notice or attribution required by the License 
+ * must also include this Commons Clause License Condition notice.
+ * 
+ * Software: genestrip
+ * 
+ * License: Apache 2.0
+ * 
+ * Licensor: Daniel Pfeifer (daniel.pfeifer@progotec.de)
+ * 
+ */
+package org.metagene.genestrip.store;
+
+import java.io.Serializable;
+import java.util.List;
+
+import org.metagene.genestrip.util.MappedLongArray;
+import org.metagene.genestrip.util.MappedShortArray;
+
+import it.unimi.dsi.fastutil.objects.Object2LongMap;
+
+/**
+ * The memory-mapped, read-only counterpart of {@link KMerSortedArray}: a sorted {@code long} array of
+ * k-mers with a parallel {@code short} array of value indexes (offset by {@link Short#MIN_VALUE}),
+ * both mapped from a database file. Lookups binary-search the mapped k-mers and report the same
+ * storage positions as the heap-based store the file was written from.
+ *
+ * @param <V> the value type mapped to each k-mer
+ */
+public class MappedKMerSortedArray<V extends Serializable> extends MappedKMerStore<V> implements SortedKMerArray {
+	private static final long serialVersionUID = 1L;
+
+	private final transient MappedLongArray kmers;
+	private final transient MappedShortArray valueIndexes;
+
+	/**
+	 * Creates the store over the given mapped arrays.
+	 *
+	 * @param k the k-mer length
+	 * @param values the values in the order of their value index
+	 * @param kmers the mapped, sorted k-mers
+	 * @param valueIndexes the mapped value indexes (offset by {@link Short#MIN_VALUE})
+	 * @param kmerPersTaxid the fixed number of k-mers per value, or {@code null}
+	 */
+	public MappedKMerSortedArray(int k, List<V> values, MappedLongArray kmers, MappedShortArray valueIndexes,
+			Object2LongMap<V> kmerPersTaxid) {
+		super(k, KMerSortedArray.MAX_VALUES, values, kmers.length(), kmerPersTaxid);
+		if (valueIndexes.length() != kmers.length()) {
+			throw new IllegalArgumentException("Inconsistent array lengths: " + kmers.length() + " vs. " + valueIndexes.length());
+		}
+		this.kmers = kmers;
+		this.valueIndexes = valueIndexes;
+	}
+
+	/**
+	 * Value-converting copy constructor: shares the mapped arrays with {@code org} while remapping the
+	 * values via {@code converter}.
+	 *
+	 * @param <W> the source value type
+	 * @param org the store to share the mapped arrays with
+	 * @param converter the converter remapping source values to this store's value type
+	 */
+	public <W extends Serializable> MappedKMerSortedArray(MappedKMerSortedArray<W> org, KMerStore.ValueConverter<W, V> converter) {
+		super(org, converter);
+		kmers = org.kmers;
+		valueIndexes = org.valueIndexes;
+	}
+
+	@Override
+	public <W extends Serializable> KMerStore<W> convertValues(KMerStore.ValueConverter<V, W> converter) {
+		return new MappedKMerSortedArray<>(this, converter);
+	}
+
+	// Made final for potential (automated) inlining by JVM
+	@Override
+	public final V getLong(final long kmer, final long[] posStore) {
+		if (filter != null && useFilter && !filter.containsLong(kmer)) {
+			return null;
+		}
+		long pos = kmers.binarySearch(0, entries, kmer);
+		if (pos < 0) {
+			return null;
+		}
+		if (posStore != null) {
+			posStore[0] = pos;
+		}
+		return indexMap[valueIndexes.get(pos) - Short.MIN_VALUE];
+	}
+
+	/**
+	 * Returns the k-mer stored at the given storage position.
+	 *
+	 * @param pos the storage position
+	 * @return the k-mer stored at the given storage position.
+	 */
+	@Override
+	public long getKMerAt(long pos) {
+		return kmers.get(pos);
+	}
+
+	/**
+	 * Returns the value index of the entry at the given storage position.
+	 *
+	 * @param pos the storage position
+	 * @return the value index of the entry at the given storage position.
+	 */
+	@Override
+	public int indexAtPosition(long pos) {
+		return valueIndexes.get(pos) - Short.MIN_VALUE;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * As in {@link KMerSortedArray}, all k-mers are searched in lock-step over the whole array via
+	 * {@link SortedKMerArray#searchBatch}, so the loads of each search round are in flight together
+	 * (memory-level parallelism).
+	 */
+	@Override
+	public void getLongBatch(final long[] kmers, final int n, final V[] out, final long[] posOut) {
+		if (posOut == null) {
+			getLongEach(kmers, n, out, posOut);
+			return;
+		}
+		SortedKMerArray.searchBatch(this, entries, useFilter ? filter : null, indexMap, kmers, n, out, null, posOut);
+	}
+
+	@Override
+	public void getIndexBatch(final long[] kmers, final int n, final int[] out, final long[] posOut) {
+		if (posOut == null) {
+			getIndexEach(kmers, n, out, posOut);
+			return;
+		}
+		SortedKMerArray.searchBatch(this, entries, useFilter ? filter : null, indexMap, kmers, n, null, out, posOut);
+	}
+
+	@Override
+	public void visit(KMerStore.IndexedKMerStoreVisitor<V> visitor) {
+		for (long i = 0; i < entries; i++) {
+			visitor.nextValue(this, kmers.get(i), valueIndexes.get(i) - Short.MIN_VALUE, i);
+		}
+	}
+}
@@ -0,0 +1,106 @@
+/*
+ * 
+ * “Commons Clause” License Condition v1.0
+ * 
+ * The Software is provided to you by the Licensor under the License, 
+ * as defined below, subject to the following condition.
+ * 
+ * Without limiting other conditions in the License, the grant of rights under the License 
+ * will not include, and the License does not grant to you, the right to Sell the Software.
+ * 
+ * For purposes of the foregoing, “Sell” means practicing any or all of the rights granted 
+ * to you under the License to provide to third parties, for a fee or other consideration 
+ * (including without limitation fees for hosting or consulting/ support services related to 
+ * the Software), a product or service whose value derives, entirely or substantially, from the 
+ * functionality of the Software. Any license notice or attribution required by the License 
+ * must also include this Commons Clause License Condition notice.
+ * 
+ * Software: genestrip
+ * 
+ * License: Apache 2.0
+ * 
+ * Licensor: Daniel Pfeifer (daniel.pfeifer@progotec.de)
+ * 
+ */
+package org.metagene.genestrip.store;
+
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.List;
+
+import it.unimi.dsi.fastutil.objects.Object2LongMap;
+
+/**
+ * Base class for read-only {@link KMerStore}s whose k-mer and value-index data reside in a
+ * memory-mapped database file (see {@link MappedDatabaseFormat}) rather than on the heap. Only the
+ * (small) value table is kept on the heap, so opening a store takes about as long as mapping the
+ * file, and the OS page cache holding the data is shared by all processes using the same file.
+ * <p>
+ * The store is always optimized. All mutating operations throw an
+ * {@link UnsupportedOperationException}, and the store cannot be serialized.
+ *
+ * @param <V> the value type mapped to each k-mer
+ */
+public abstract class MappedKMerStore<V extends Serializable> extends AbstractKMerStore<V> {
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Creates the store with the given values, whose list position becomes their value index.
+	 *
+	 * @param k the k-mer length
+	 * @param maxValues the maximum number of distinct values
+	 * @param values the values in the order of their value index
+	 * @param entries the number of stored k-mers
+	 * @param kmerPersTaxid the fixed number of k-mers per value, or {@code null}
+	 */
+	protected MappedKMerStore(int k, int maxValues, List<V> values, long entries, Object2LongMap<V> kmerPersTaxid) {
+		super(k, maxValues, values, null, 1);
+		this.entries = entries;
+		this.size = entries;
+		this.sorted = true;
+		this.kmerPersTaxid = kmerPersTaxid;
+	}
+
+	/**
+	 * Value-converting copy constructor: shares the mapped data with {@code org} while remapping the
+	 * values via {@code converter}.
+	 *
+	 * @param <W> the source value type
+	 * @param org the store to share the mapped data with
+	 * @param converter the converter remapping source values to this store's value type
+	 */
+	protected <W extends Serializable> MappedKMerStore(MappedKMerStore<W> org, KMerStore.ValueConverter<W, V> converter) {
+		super(org, converter);
+	}
+
+	@Override
+	public void initSize(long size) {
+		throw new UnsupportedOperationException("Mapped store is read-only.");
+	}
+
+	@Override
+	public boolean putLong(long kmer, V value) {
+		throw new UnsupportedOperationException("Mapped store is read-only.");
+	}
+
+	@Override
+	public boolean update(long kmer, KMerStore.UpdateValueProvider<V> provider) {
+		throw new UnsupportedOperationException("Mapped store is read-only.");
+	}
+
+	@Override
+	public void setIndexAtPosition(long pos, int index) {
+		throw new UnsupportedOperationException("Mapped store is read-only.");
+	}
+
+	@Override
+	public void optimize() {
+		// Always optimized.
+	}
+
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		throw new NotSerializableException("A memory-mapped store cannot be serialized - use MappedDatabaseFormat instead.");
+	}
+}
@@ -0,0 +1,196 @@
+/*
+ * 
+ * “Commons Clause” License Condition v1.0
+ * 
+ * The Software is provided to you by the Licensor under the License, 
+ * as defined below, subject to the following condition.
+ * 
+ * Without limiting other conditions in the License, the grant of rights under the License 
+ * will not include, and the License does not grant to you, the right to Sell the Software.
+ * 
+ * For purposes of the foregoing, “Sell” means practicing any or all of the rights granted 
+ * to you under the License to provide to third parties, for a fee or other consideration 
+ * (including without limitation fees for hosting or consulting/ support services related to 
+ * the Software), a product or service whose value derives, entirely or substantially, from the 
+ * functionality of the Software. Any license notice or attribution required by the License 
+ * must also include this Commons Clause License Condition notice.
+ * 
+ * Software: genestrip
+ * 
+ * License: Apache 2.0
+ * 
+ * Licensor: Daniel Pfeifer (daniel.pfeifer@progotec.de)
+ * 
+ */
+package org.metagene.genestrip.store;
+
+import java.io.Serializable;
+import java.util.List;
+
+import org.metagene.genestrip.util.MappedLongArray;
+
+import it.unimi.dsi.fastutil.objects.Object2LongMap;
+
+/**
+ * The memory-mapped, read-only counterpart of {@link RadixKMerStore}. All buckets are laid out
+ * back to back in a single mapped array of packed entries (value index above the remaining k-mer
+ * bits, exactly as in {@link RadixKMerStore}), and a second mapped array holds the start of each
+ * bucket plus a final end marker. Since the bucket starts are the prefix sums of the bucket fills,
+ * a lookup reports the same storage positions as the heap-based store the file was written from.
+ *
+ * @param <V> the value type mapped to each k-mer
+ */
+public class MappedRadixKMerStore<V extends Serializable> extends MappedKMerStore<V> implements RadixKMerBuckets {
+	private static final long serialVersionUID = 1L;
+
+	private final int radixBits;
+	private final int radixMask;
+	private final int remainingBits;
+	private final long remainingMask;
+
+	// bucketStart[r] is the position of the first entry of bucket r; bucketStart[2^radixBits] == entries.
+	private final transient MappedLongArray bucketStart;
+	private final transient MappedLongArray bucketEntries;
+
+	/**
+	 * Creates the store over the given mapped arrays.
+	 *
+	 * @param k the k-mer length
+	 * @param radixBits the number of low k-mer bits used as the radix index
+	 * @param values the values in the order of their value index
+	 * @param bucketStart the mapped bucket starts (length {@code 2^radixBits + 1})
+	 * @param bucketEntries the mapped packed entries of all buckets
+	 * @param kmerPersTaxid the fixed number of k-mers per value, or {@code null}
+	 */
+	public MappedRadixKMerStore(int k, int radixBits, List<V> values, MappedLongArray bucketStart,
+			MappedLongArray bucketEntries, Object2LongMap<V> kmerPersTaxid) {
+		super(k, RadixKMerStore.maxValuesForRadix(radixBits), values, bucketEntries.length(), kmerPersTaxid);
+		if (bucketStart.length() != (1L << radixBits) + 1) {
+			throw new IllegalArgumentException("Bucket start array must have length 2^radixBits + 1.");
+		}
+		this.radixBits = radixBits;
+		this.radixMask = (1 << radixBits) - 1;
+		this.remainingBits = RadixKMerStore.remainingBitsForRadix(radixBits);
+		this.remainingMask = (1L << remainingBits) - 1;
+		this.bucketStart = bucketStart;
+		this.bucketEntries = bucketEntries;
+	}
+
+	/**
+	 * Value-converting copy constructor: shares the mapped arrays with {@code org} while remapping the
+	 * values via {@code converter}.
+	 *
+	 * @param <W> the source value type
+	 * @param org the store to share the mapped arrays with
+	 * @param converter the converter remapping source values to this store's value type
+	 */
+	public <W extends Serializable> MappedRadixKMerStore(MappedRadixKMerStore<W> org, KMerStore.ValueConverter<W, V> converter) {
+		super(org, converter);
+		radixBits = org.radixBits;
+		radixMask = org.radixMask;
+		remainingBits = org.remainingBits;
+		remainingMask = org.remainingMask;
+		bucketStart = org.bucketStart;
+		bucketEntries = org.bucketEntries;
+	}
+
+	/**
+	 * Returns the number of low k-mer bits used as the radix index.
+	 *
+	 * @return the number of radix bits
+	 */
+	public int getRadixBits() {
+		return radixBits;
+	}
+
+	@Override
+	public <W extends Serializable> KMerStore<W> convertValues(KMerStore.ValueConverter<V, W> converter) {
+		return new MappedRadixKMerStore<>(this, converter);
+	}
+
+	// Made final for potential (automated) inlining by JVM
+	@Override
+	public final V getLong(final long kmer, final long[] posStore) {
+		final int radix = (int) (kmer & radixMask);
+		long lo = bucketStart.get(radix);
+		long hi = bucketStart.get(radix + 1) - 1;
+		if (lo > hi) {
+			// No k-mer with this radix prefix - return early, even before the filter.
+			return null;
+		}
+		if (filter != null && useFilter && !filter.containsLong(kmer)) {
+			return null;
+		}
+		final long remaining = kmer >>> radixBits;
+		while (lo <= hi) {
+			final long mid = (lo + hi) >>> 1;
+			final long entry = bucketEntries.get(mid);
+			final long midRem = entry & remainingMask;
+			if (midRem < remaining) {
+				lo = mid + 1;
+			} else if (midRem > remaining) {
+				hi = mid - 1;
+			} else {
+				if (posStore != null) {
+					posStore[0] = mid;
+				}
+				return indexMap[(int) (entry >>> remainingBits)];
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * As in {@link RadixKMerStore}, the bucket lookups, the pre-filter probes and the per-bucket
+	 * binary searches are run in separate passes over the whole batch via
+	 * {@link RadixKMerBuckets#searchBatch}, so the bucket loads of each search round overlap.
+	 */
+	@Override
+	public void getLongBatch(final long[] kmers, final int n, final V[] out, final long[] posOut) {
+		if (posOut == null) {
+			getLongEach(kmers, n, out, posOut);
+			return;
+		}
+		RadixKMerBuckets.searchBatch(this, radixBits, useFilter ? filter : null, indexMap, kmers, n, out, null, posOut);
+	}
+
+	@Override
+	public void getIndexBatch(final long[] kmers, final int n, final int[] out, final long[] posOut) {
+		if (posOut == null) {
+			getIndexEach(kmers, n, out, posOut);
+			return;
+		}
+		RadixKMerBuckets.searchBatch(this, radixBits, useFilter ? filter : null, indexMap, kmers, n, null, out, posOut);
+	}
+
+	@Override
+	public int bucketFill(int radix) {
+		return (int) (bucketStart.get(radix + 1) - bucketStart.get(radix));
+	}
+
+	@Override
+	public long bucketEntry(int radix, int pos) {
+		return bucketEntries.get(bucketStart.get(radix) + pos);
+	}
+
+	@Override
+	public long bucketStart(int radix) {
+		return bucketStart.get(radix);
+	}
+
+	@Override
+	public void visit(KMerStore.IndexedKMerStoreVisitor<V> visitor) {
+		int radixSize = 1 << radixBits;
+		long pos = 0;
+		for (int r = 0; r < radixSize; r++) {
+			long end = bucketStart.get(r + 1);
+			for (; pos < end; pos++) {
+				long entry = bucketEntries.get(pos);
+				// Reassemble the full k-mer: remaining bits shifted back above the radix bits.
+				visitor.nextValue(this, ((entry & remainingMask) << radixBits) | r, (int) (entry >>> remainingBits), pos);
+			}
+		}
+	}
+}
@@ -0,0 +1,350 @@
+/*
+ * 
+ * “Commons Clause” License Condition v1.0
+ * 
+ * The Software is provided to you by the Licensor under the License, 
+ * as defined below, subject to the following condition.
+ * 
+ * Without limiting other conditions in the License, the grant of rights under the License 
+ * will not include, and the License does not grant to you, the right to Sell the Software.
+ * 
+ * For purposes of the foregoing, “Sell” means practicing any or all of the rights granted 
+ * to you under the License to provide to third parties, for a fee or other consideration 
+ * (including without limitation fees for hosting or consulting/ support services related to 
+ * the Software), a product or service whose value derives, entirely or substantially, from the 
+ * functionality of the Software. Any license notice or attribution required by the License 
+ * must also include this Commons Clause License Condition notice.
+ * 
+ * Software: genestrip
+ * 
+ * License: Apache 2.0
+ * 
+ * Licensor: Daniel Pfeifer (daniel.pfeifer@progotec.de)
+ * 
+ */
+package org.metagene.genestrip.store;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.List;
+
+import org.metagene.genestrip.bloom.KMerProbFilter;
+import org.metagene.genestrip.bloom.MurmurKMerBloomFilter;
+import org.metagene.genestrip.bloom.XORKMerBloomFilter;
+import org.metagene.genestrip.util.OffHeapLongArray;
+import org.metagene.genestrip.util.OffHeapShortArray;
+import org.metagene.genestrip.util.ParallelSorter;
+
+/**
+ * A variant of {@link KMerSortedArray} that keeps its k-mers and value indexes off the Java heap in
+ * direct {@link java.nio.ByteBuffer} slabs (see {@link OffHeapLongArray}), so that very large stores
+ * neither require a huge heap nor add to the old generation the garbage collector has to deal with.
+ * Semantics (fill, sort via {@link #optimize()}, binary-search lookups, storage positions) are the
+ * same as for {@link KMerSortedArray}.
+ * <p>
+ * The JVM bounds all direct buffers by {@code -XX:MaxDirectMemorySize}, which defaults to the maximum
+ * heap size, so it should be set explicitly when using this store. When serialized (e.g. as part of a
+ * {@link Database}), the entries are written inline and restored off-heap on deserialization.
+ *
+ * @param <V> the value type mapped to each k-mer
+ */
+public class OffHeapKMerSortedArray<V extends Serializable> extends AbstractKMerStore<V> implements SortedKMerArray {
+	private static final long serialVersionUID = 1L;
+
+	/** The k-mers, sorted after optimization. */
+	private transient OffHeapLongArray kmers;
+	/** The per-k-mer value indexes, offset by {@link Short#MIN_VALUE}. */
+	private transient OffHeapShortArray valueIndexes;
+
+	/** Log2 of the number of k-mers per off-heap slab. */
+	private final int slabShift;
+
+	/** Whether the store size has already been initialized. */
+	private boolean initSize;
+
+	/**
+	 * Creates a store with a fill-time pre-filter of the given {@code entryFpp} (an
+	 * {@link XORKMerBloomFilter} when {@code xor}, otherwise a {@link MurmurKMerBloomFilter}) and a
+	 * post-optimize filter targeting {@code optimizedFpp}.
+	 *
+	 * @param k the k-mer length
+	 * @param entryFpp the target false-positive probability of the fill-time pre-filter
+	 * @param optimizedFpp the target false-positive probability after optimization
+	 * @param initialValues the initial list of values
+	 * @param xor whether to use an {@link XORKMerBloomFilter} (else a {@link MurmurKMerBloomFilter})
+	 */
+	public OffHeapKMerSortedArray(int k, double entryFpp, double optimizedFpp, List<V> initialValues, boolean xor) {
+		this(k, initialValues, xor ? new XORKMerBloomFilter(entryFpp) : new MurmurKMerBloomFilter(entryFpp), optimizedFpp,
+				OffHeapLongArray.DEFAULT_SLAB_SHIFT);
+	}
+
+	/**
+	 * Creates a store using the given fill-time pre-filter and slab size.
+	 *
+	 * @param k the k-mer length
+	 * @param initialValues the initial list of values
+	 * @param filter the fill-time pre-filter to use
+	 * @param optimizedFpp the target false-positive probability after optimization
+	 * @param slabShift log2 of the number of k-mers per off-heap slab
+	 */
+	protected OffHeapKMerSortedArray(int k, List<V> initialValues, KMerProbFilter filter, double optimizedFpp,
+			int slabShift) {
+		super(k, KMerSortedArray.MAX_VALUES, initialValues, filter, optimizedFpp);
+		this.slabShift = slabShift;
+	}
+
+	/**
+	 * Value-converting copy constructor: shares the (immutable after optimize) off-heap k-mer and
+	 * value-index arrays with {@code org} while remapping the values via {@code converter}.
+	 *
+	 * @param <W> the source value type
+	 * @param org the store to copy k-mer and value-index arrays from
+	 * @param converter the converter remapping source values to this store's value type
+	 */
+	public <W extends Serializable> OffHeapKMerSortedArray(OffHeapKMerSortedArray<W> org, KMerStore.ValueConverter<W, V> converter) {
+		super(org, converter);
+		kmers = org.kmers;
+		valueIndexes = org.valueIndexes;
+		slabShift = org.slabShift;
+		initSize = org.initSize;
+	}
+
+	@Override
+	public <W extends Serializable> KMerStore<W> convertValues(KMerStore.ValueConverter<V, W> converter) {
+		return new OffHeapKMerSortedArray<>(this, converter);
+	}
+
+	@Override
+	public void initSize(long size) {
+		if (initSize) {
+			throw new IllegalStateException("Cant initlialize size twice.");
+		}
+		if (size < 0) {
+			throw new IllegalArgumentException("Expected insertions must be > 0.");
+		}
+		initSize = true;
+		filter.ensureExpectedSize(size, false);
+		filter.clear();
+		this.size = size;
+		allocate(size);
+	}
+
+	private void allocate(long size) {
+		kmers = new OffHeapLongArray(size, slabShift);
+		// Same number of bytes per slab as for the k-mers.
+		valueIndexes = new OffHeapShortArray(size, Math.min(slabShift + 2, OffHeapShortArray.DEFAULT_SLAB_SHIFT));
+	}
+
+	/**
+	 * @return true if put succeeded, false if (probably) some value is already
+	 *         stored under that kmer.
+	 */
+	@Override
+	public boolean putLong(final long kmer, final V value) {
+		if (value == null) {
+			throw new NullPointerException("null is not allowed as a value.");
+		}
+		sorted = false;
+		long pos;
+		if (filter.containsLong(kmer)) {
+			// Fail fast - see KMerSortedArray.
+			return false;
+		}
+		// Only puts of the same kmer are serialized - see KMerSortedArray.
+		synchronized (putSync(kmer)) {
+			if (filter.containsLong(kmer)) {
+				return false;
+			}
+			pos = reserveEntry();
+			if (pos < 0) {
+				// Overfull store, leave quietly.
+				return false;
+			}
+			filter.putLongIfAbsent(kmer);
+		}
+		int sindex = getAddValueIndexConcurrently(value);
+		kmers.set(pos, kmer);
+		setIndexAtPosition(pos, sindex);
+		return true;
+	}
+
+	@Override
+	public boolean update(long kmer, KMerStore.UpdateValueProvider<V> provider) {
+		if (!sorted) {
+			throw new IllegalStateException("Update only works when optimized.");
+		}
+		if (filter != null && useFilter && !filter.containsLong(kmer)) {
+			return false;
+		}
+		long pos = kmers.binarySearch(0, entries, kmer);
+		if (pos < 0) {
+			return false;
+		}
+		// Synchronize only on accesses that (might) target the same entry; see KMerSortedArray.
+		synchronized (syncs[(int) (pos % 512)]) {
+			int index = valueIndexes.get(pos) - Short.MIN_VALUE;
+			V oldValue = indexMap[index];
+			V newValue = provider.getUpdateValue(oldValue);
+			if (newValue == null) {
+				throw new NullPointerException("Null is not allowed as a value.");
+			}
+			if (newValue != oldValue && !newValue.equals(oldValue)) {
+				synchronized (valueMap) {
+					index = getAddValueIndex(newValue);
+					kmersMoved++;
+				}
+				setIndexAtPosition(pos, index);
+				return true;
+			}
+			return false;
+		}
+	}
+
+	@Override
+	public void setIndexAtPosition(long pos, int index) {
+		valueIndexes.set(pos, (short) (index + Short.MIN_VALUE));
+	}
+
+	/**
+	 * Returns the k-mer stored at the given storage position.
+	 *
+	 * @param pos the storage position
+	 * @return the k-mer stored at the given storage position.
+	 */
+	@Override
+	public long getKMerAt(long pos) {
+		return kmers.get(pos);
+	}
+
+	/**
+	 * Returns the value index of the entry at the given storage position.
+	 *
+	 * @param pos the storage position
+	 * @return the value index of the entry at the given storage position.
+	 */
+	@Override
+	public int indexAtPosition(long pos) {
+		return valueIndexes.get(pos) - Short.MIN_VALUE;
+	}
+
+	// Made final for potential (automated) inlining by JVM
+	@Override
+	public final V getLong(final long kmer, final long[] posStore) {
+		if (filter != null && useFilter && !filter.containsLong(kmer)) {
+			return null;
+		}
+		long pos;
+		if (sorted) {
+			pos = kmers.binarySearch(0, entries, kmer);
+		} else {
+			pos = -1;
+			for (long i = 0; i < entries; i++) {
+				if (kmers.get(i) == kmer) {
+					pos = i;
+					break;
+				}
+			}
+		}
+		if (pos < 0) {
+			return null;
+		}
+		if (posStore != null) {
+			posStore[0] = pos;
+		}
+		return indexMap[valueIndexes.get(pos) - Short.MIN_VALUE];
+	}
+
+	@Override
+	public void optimize() {
+		optimize(1);
+	}
+
+	@Override
+	public void optimize(int threads) {
+		if (sorted) {
+			return;
+		}
+		final OffHeapLongArray kmers = this.kmers;
+		final OffHeapShortArray valueIndexes = this.valueIndexes;
+		// Concurrent swaps only ever touch disjoint index ranges and use absolute buffer access.
+		ParallelSorter.sort(entries, 2 * k, new ParallelSorter.KeySwapper() {
+			@Override
+			public long key(long index) {
+				return kmers.get(index);
+			}
+
+			@Override
+			public void swap(long a, long b) {
+				kmers.swap(a, b);
+				valueIndexes.swap(a, b);
+			}
+		}, threads);
+		sorted = true;
+		// Rework the bloom filter from the fill-time one into the optimized one.
+		filter = createOptimizedFilter();
+		if (filter != null) {
+			final KMerProbFilter f = filter;
+			ParallelSorter.forRanges(entries, threads, (from, to) -> {
+				for (long i = from; i < to; i++) {
+					f.putLongIfAbsent(kmers.get(i));
+				}
+			});
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * When sorted, all k-mers are searched in lock-step over the whole array via
+	 * {@link SortedKMerArray#searchBatch}, so the loads of each search round are in flight together
+	 * (memory-level parallelism).
+	 */
+	@Override
+	public void getLongBatch(final long[] kmers, final int n, final V[] out, final long[] posOut) {
+		if (!sorted || posOut == null) {
+			getLongEach(kmers, n, out, posOut);
+			return;
+		}
+		SortedKMerArray.searchBatch(this, entries, useFilter ? filter : null, indexMap, kmers, n, out, null, posOut);
+	}
+
+	@Override
+	public void getIndexBatch(final long[] kmers, final int n, final int[] out, final long[] posOut) {
+		if (!sorted || posOut == null) {
+			getIndexEach(kmers, n, out, posOut);
+			return;
+		}
+		SortedKMerArray.searchBatch(this, entries, useFilter ? filter : null, indexMap, kmers, n, null, out, posOut);
+	}
+
+	@Override
+	public void visit(KMerStore.IndexedKMerStoreVisitor<V> visitor) {
+		for (long i = 0; i < entries; i++) {
+			visitor.nextValue(this, kmers.get(i), valueIndexes.get(i) - Short.MIN_VALUE, i);
+		}
+	}
+
+	// The off-heap entries are written inline after the regular fields.
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		out.defaultWriteObject();
+		for (long i = 0; i < entries; i++) {
+			out.writeLong(kmers.get(i));
+		}
+		for (long i = 0; i < entries; i++) {
+			out.writeShort(valueIndexes.get(i));
+		}
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		allocate(size);
+		for (long i = 0; i < entries; i++) {
+			kmers.set(i, in.readLong());
+		}
+		for (long i = 0; i < entries; i++) {
+			valueIndexes.set(i, in.readShort());
+		}
+	}
+}
@@ -0,0 +1,144 @@
+/*
+ * 
+ * “Commons Clause” License Condition v1.0
+ * 
+ * The Software is provided to you by the Licensor under the License, 
+ * as defined below, subject to the following condition.
+ * 
+ * Without limiting other conditions in the License, the grant of rights under the License 
+ * will not include, and the License does not grant to you, the right to Sell the Software.
+ * 
+ * For purposes of the foregoing, “Sell” means practicing any or all of the rights granted 
+ * to you under the License to provide to third parties, for a fee or other consideration 
+ * (including without limitation fees for hosting or consulting/ support services related to 
+ * the Software), a product or service whose value derives, entirely or substantially, from the 
+ * functionality of the Software. Any license notice or attribution required by the License 
+ * must also include this Commons Clause License Condition notice.
+ * 
+ * Software: genestrip
+ * 
+ * License: Apache 2.0
+ * 
+ * Licensor: Daniel Pfeifer (daniel.pfeifer@progotec.de)
+ * 
+ */
+package org.metagene.genestrip.store;
+
+import org.metagene.genestrip.bloom.KMerProbFilter;
+
+/**
+ * Bucket access to a store that partitions its k-mers by their low radix bits into buckets of packed
+ * entries (value index above the remaining k-mer bits), each sorted by the remaining bits. This is the
+ * layout of {@link RadixKMerStore} and {@link MappedRadixKMerStore}, which share the batched search
+ * below.
+ */
+interface RadixKMerBuckets {
+	/**
+	 * Returns the number of entries of a bucket.
+	 *
+	 * @param radix the radix of the bucket
+	 * @return the number of entries of the bucket.
+	 */
+	public int bucketFill(int radix);
+
+	/**
+	 * Returns a packed entry of a bucket.
+	 *
+	 * @param radix the radix of the bucket
+	 * @param pos   the position of the entry within the bucket
+	 * @return the packed entry.
+	 */
+	public long bucketEntry(int radix, int pos);
+
+	/**
+	 * Returns the storage position of the first entry of a bucket.
+	 *
+	 * @param radix the radix of the bucket
+	 * @return the storage position of the first entry of the bucket.
+	 */
+	public long bucketStart(int radix);
+
+	/**
+	 * Runs the bucket lookups, the pre-filter probes and the per-bucket binary searches in separate
+	 * passes over the whole batch: each search round issues one independent bucket load per still-active
+	 * k-mer, so these cache misses overlap. Exactly one of {@code out} and {@code indexOut} is non-null.
+	 * (The JIT unswitches the loops on it.)
+	 *
+	 * @param buckets   the buckets to search
+	 * @param radixBits the number of low k-mer bits used as the radix
+	 * @param filter    the pre-filter to probe first, or null if not to be used
+	 * @param indexMap  the values by value index
+	 * @param kmers     the k-mers to look up
+	 * @param n         the number of k-mers to look up
+	 * @param out       receives the values (null if absent), or null
+	 * @param indexOut  receives the value indexes (-1 if absent), or null
+	 * @param posOut    receives the storage positions (-1 if absent)
+	 */
+	static <V> void searchBatch(final RadixKMerBuckets buckets, final int radixBits, final KMerProbFilter filter,
+			final V[] indexMap, final long[] kmers, final int n, final V[] out, final int[] indexOut,
+			final long[] posOut) {
+		final int radixMask = (1 << radixBits) - 1;
+		final int remainingBits = RadixKMerStore.remainingBitsForRadix(radixBits);
+		final long remainingMask = (1L << remainingBits) - 1;
+		// Pass 1: resolve buckets and pre-filter. While searching, posOut[i] packs the search base (high
+		// 32 bits) and the remaining search length (low 32 bits) of kmers[i]; -1 marks an absent k-mer.
+		boolean active = false;
+		for (int i = 0; i < n; i++) {
+			if (out != null) {
+				out[i] = null;
+			} else {
+				indexOut[i] = -1;
+			}
+			final long kmer = kmers[i];
+			final int fill = buckets.bucketFill((int) (kmer & radixMask));
+			if (fill == 0 || (filter != null && !filter.containsLong(kmer))) {
+				posOut[i] = -1;
+			} else {
+				posOut[i] = fill;
+				active |= fill > 1;
+			}
+		}
+		// Pass 2: interleaved branch-free "base + half" search, one step per active k-mer and round.
+		// Afterwards base is the last bucket position whose remaining bits are <= those of the k-mer.
+		while (active) {
+			active = false;
+			for (int i = 0; i < n; i++) {
+				final long state = posOut[i];
+				int len = (int) state;
+				if (state < 0 || len <= 1) {
+					continue;
+				}
+				int base = (int) (state >>> 32);
+				final int half = len >>> 1;
+				final long kmer = kmers[i];
+				if ((buckets.bucketEntry((int) (kmer & radixMask), base + half) & remainingMask) <= kmer >>> radixBits) {
+					base += half;
+				}
+				len -= half;
+				posOut[i] = (((long) base) << 32) | len;
+				active |= len > 1;
+			}
+		}
+		// Pass 3: check for an exact match and resolve the value and global storage position.
+		for (int i = 0; i < n; i++) {
+			final long state = posOut[i];
+			if (state < 0) {
+				continue;
+			}
+			final int base = (int) (state >>> 32);
+			final long kmer = kmers[i];
+			final int radix = (int) (kmer & radixMask);
+			final long entry = buckets.bucketEntry(radix, base);
+			if ((entry & remainingMask) == kmer >>> radixBits) {
+				posOut[i] = buckets.bucketStart(radix) + base;
+				if (out != null) {
+					out[i] = indexMap[(int) (entry >>> remainingBits)];
+				} else {
+					indexOut[i] = (int) (entry >>> remainingBits);
+				}
+			} else {
+				posOut[i] = -1;
+			}
+		}
+	}
+}
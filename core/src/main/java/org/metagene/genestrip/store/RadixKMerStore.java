@@ -25,11 +25,15 @@
 package org.metagene.genestrip.store;
 
 import java.io.Serializable;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.metagene.genestrip.bloom.KMerProbFilter;
 import org.metagene.genestrip.bloom.MurmurKMerBloomFilter;
 import org.metagene.genestrip.bloom.XORKMerBloomFilter;
+import org.metagene.genestrip.util.ParallelSorter;
 
 import it.unimi.dsi.fastutil.longs.LongArrays;
 import it.unimi.dsi.fastutil.longs.LongComparator;
@@ -83,7 +87,7 @@ import it.unimi.dsi.fastutil.longs.LongComparator;
  *
  * @param <V> the value type mapped to each k-mer
  */
-public class RadixKMerStore<V extends Serializable> extends AbstractKMerStore<V> {
+public class RadixKMerStore<V extends Serializable> extends AbstractKMerStore<V> implements RadixKMerBuckets {
 	/**
 	 * Minimum number of low k-mer bits used as the radix index. The lower this bound, the wider the
 	 * reserved remaining-bits field (sized for the worst-case {@code k}, see
@@ -111,6 +115,8 @@ public class RadixKMerStore<V extends Serializable> extends AbstractKMerStore<V>
 
 	private static final long serialVersionUID = 1L;
 
+	private static final VarHandle INT_ARRAY_HANDLE = MethodHandles.arrayElementVarHandle(int[].class);
+
 	// Number of low k-mer bits used as the radix index, and the corresponding mask. Configurable per
 	// store; the number of buckets is 2^radixBits == radixIndex.length.
 	/** Number of low k-mer bits used as the radix index. */
@@ -133,6 +139,8 @@ public class RadixKMerStore<V extends Serializable> extends AbstractKMerStore<V>
 	// Number of entries actually stored in each bucket (<= radixIndex[r].length).
 	/** Number of entries actually stored in each bucket. */
 	private final int[] bucketFill;
+	/** Number of k-mers dropped by {@link #putLong(long, Serializable)} since their bucket was full or missing. */
+	private final AtomicLong droppedKMers = new AtomicLong();
 
 	// Maps (radix, localPos) to a global storage position. Allocated once (hence final). The
 	// constructor seeds it with the prefix sums of the bucket capacities (valid while the store is
@@ -275,6 +283,37 @@ public class RadixKMerStore<V extends Serializable> extends AbstractKMerStore<V>
 		return radixBits;
 	}
 
+	/**
+	 * Returns the number of k-mers that were not stored, since the capacity reserved for their radix
+	 * bucket was exhausted (or no capacity was reserved at all). This happens if the bucket sizes are
+	 * estimated too small.
+	 *
+	 * @return the number of k-mers dropped due to full buckets.
+	 */
+	public long getDroppedKMers() {
+		return droppedKMers.get();
+	}
+
+	// Raw bucket access for MappedDatabaseFormat, which writes the (sorted) buckets back to back.
+	long[] bucket(int radix) {
+		return radixIndex[radix];
+	}
+
+	@Override
+	public int bucketFill(int radix) {
+		return bucketFill[radix];
+	}
+
+	@Override
+	public long bucketEntry(int radix, int pos) {
+		return radixIndex[radix][pos];
+	}
+
+	@Override
+	public long bucketStart(int radix) {
+		return bucketOffset[radix];
+	}
+
 	@Override
 	public <W extends Serializable> KMerStore<W> convertValues(KMerStore.ValueConverter<V, W> converter) {
 		return new RadixKMerStore<>(this, converter);
@@ -330,6 +369,7 @@ public class RadixKMerStore<V extends Serializable> extends AbstractKMerStore<V>
 			// No capacity was reserved for this radix prefix. With exact per-bucket sizing this
 			// never happens; when the sizes are an estimate (e.g. counted via a Bloom filter) a
 			// k-mer may still arrive here, in which case it is dropped rather than failing.
+			droppedKMers.incrementAndGet();
 			return false;
 		}
 		if (filter != null && useFilter && filter.containsLong(kmer)) {
@@ -338,32 +378,54 @@ public class RadixKMerStore<V extends Serializable> extends AbstractKMerStore<V>
 			// (probabilistic) duplicate check off and fill the reserved buckets losslessly.
 			return false;
 		}
-		long remaining = remainingOf(kmer);
 		int pos;
-		int vi;
-		synchronized (this) {
-			if (filter != null && useFilter && filter.containsLong(kmer)) {
-				return false;
+		if (filter != null && useFilter) {
+			// Only puts of the same k-mer must be serialized (so that just one of them stores it),
+			// which keeps concurrent fill threads from blocking each other.
+			synchronized (putSync(kmer)) {
+				if (filter.containsLong(kmer)) {
+					return false;
+				}
+				pos = reserveBucketPos(radix, bucket.length);
+				if (pos < 0) {
+					droppedKMers.incrementAndGet();
+					return false;
+				}
+				// Thread-safe (unlike putLong()) and sets the very same bits.
+				filter.putLongIfAbsent(kmer);
 			}
-			int fill = bucketFill[radix];
-			if (fill >= bucket.length) {
-				// Reserved capacity for this radix bucket is exhausted. The per-bucket sizes can be a
-				// slight under-estimate (Bloom-filter FPP variance between counting and filling), so
-				// the k-mer is dropped instead of failing the whole build, like a full KMerSortedArray.
+		} else {
+			pos = reserveBucketPos(radix, bucket.length);
+			if (pos < 0) {
+				droppedKMers.incrementAndGet();
 				return false;
 			}
-			pos = fill;
-			bucketFill[radix] = fill + 1;
-			vi = getAddValueIndex(value);
 			if (filter != null) {
-				filter.putLong(kmer);
+				filter.putLongIfAbsent(kmer);
 			}
-			entries++;
 		}
-		bucket[pos] = entryOf(vi, remaining);
+		int vi = getAddValueIndexConcurrently(value);
+		incEntries();
+		bucket[pos] = entryOf(vi, remainingOf(kmer));
 		return true;
 	}
 
+	// Atomically increments the fill of the bucket unless it is full and returns the reserved position,
+	// or -1 if the bucket is full.
+	private int reserveBucketPos(int radix, int capacity) {
+		int fill;
+		do {
+			fill = (int) INT_ARRAY_HANDLE.getVolatile(bucketFill, radix);
+			if (fill >= capacity) {
+				// Reserved capacity for this radix bucket is exhausted. The per-bucket sizes can be a
+				// slight under-estimate (Bloom-filter FPP variance between counting and filling), so
+				// the k-mer is dropped instead of failing the whole build, like a full KMerSortedArray.
+				return -1;
+			}
+		} while (!INT_ARRAY_HANDLE.compareAndSet(bucketFill, radix, fill, fill + 1));
+		return fill;
+	}
+
 	// Made final for potential (automated) inlining by JVM
 	@Override
 	public final V getLong(final long kmer, final long[] posStore) {
@@ -411,6 +473,32 @@ public class RadixKMerStore<V extends Serializable> extends AbstractKMerStore<V>
 		return indexMap[(int) (bucket[pos] >>> remainingBits)];
 	}
 
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * When sorted, the bucket lookups, the pre-filter probes and the per-bucket binary searches are
+	 * run in separate passes over the whole batch via {@link RadixKMerBuckets#searchBatch}, like in
+	 * {@link #updateBatch(BatchBuffers, KMerStore.UpdateValueProvider)}: each search round issues one
+	 * independent bucket load per still-active k-mer, so these cache misses overlap.
+	 */
+	@Override
+	public void getLongBatch(final long[] kmers, final int n, final V[] out, final long[] posOut) {
+		if (!sorted || posOut == null) {
+			getLongEach(kmers, n, out, posOut);
+			return;
+		}
+		RadixKMerBuckets.searchBatch(this, radixBits, useFilter ? filter : null, indexMap, kmers, n, out, null, posOut);
+	}
+
+	@Override
+	public void getIndexBatch(final long[] kmers, final int n, final int[] out, final long[] posOut) {
+		if (!sorted || posOut == null) {
+			getIndexEach(kmers, n, out, posOut);
+			return;
+		}
+		RadixKMerBuckets.searchBatch(this, radixBits, useFilter ? filter : null, indexMap, kmers, n, null, out, posOut);
+	}
+
 	@Override
 	public boolean update(long kmer, KMerStore.UpdateValueProvider<V> provider) {
 		if (!sorted) {
@@ -631,6 +719,11 @@ public class RadixKMerStore<V extends Serializable> extends AbstractKMerStore<V>
 
 	@Override
 	public void optimize() {
+		optimize(1);
+	}
+
+	@Override
+	public void optimize(int threads) {
 		if (sorted) {
 			return;
 		}
@@ -639,16 +732,19 @@ public class RadixKMerStore<V extends Serializable> extends AbstractKMerStore<V>
 		// than kept as a field) so the store stays serializable - a lambda field would not be.
 		final long mask = remainingMask;
 		final LongComparator remainingComparator = (a, b) -> Long.compare(a & mask, b & mask);
-		for (int r = 0; r < radixIndex.length; r++) {
-			long[] bucket = radixIndex[r];
-			if (bucket == null) {
-				continue;
-			}
-			int fill = bucketFill[r];
-			if (fill > 1) {
-				LongArrays.quickSort(bucket, 0, fill, remainingComparator);
+		// Buckets are independent, so ranges of them can be sorted concurrently.
+		ParallelSorter.forRanges(radixIndex.length, threads, (from, to) -> {
+			for (int r = (int) from; r < to; r++) {
+				long[] bucket = radixIndex[r];
+				if (bucket == null) {
+					continue;
+				}
+				int fill = bucketFill[r];
+				if (fill > 1) {
+					LongArrays.quickSort(bucket, 0, fill, remainingComparator);
+				}
 			}
-		}
+		});
 		sorted = true;
 		// Rebuild the position offsets from the actual fills: with partially filled buckets the
 		// capacity-based seed leaves gaps, so this restores a dense [0, entries) numbering.
@@ -660,17 +756,21 @@ public class RadixKMerStore<V extends Serializable> extends AbstractKMerStore<V>
 		// Rework the bloom filter from the fill-time one into the optimized one.
 		filter = createOptimizedFilter();
 		if (filter != null) {
-			for (int r = 0; r < radixIndex.length; r++) {
-				long[] bucket = radixIndex[r];
-				if (bucket == null) {
-					continue;
-				}
-				int fill = bucketFill[r];
-				for (int i = 0; i < fill; i++) {
-					// Reassemble the full k-mer: remaining bits shifted back above the radix bits.
-					filter.putLong(((bucket[i] & remainingMask) << radixBits) | r);
+			final KMerProbFilter f = filter;
+			// putLongIfAbsent() is thread-safe (unlike putLong()) and sets the very same bits.
+			ParallelSorter.forRanges(radixIndex.length, threads, (from, to) -> {
+				for (int r = (int) from; r < to; r++) {
+					long[] bucket = radixIndex[r];
+					if (bucket == null) {
+						continue;
+					}
+					int fill = bucketFill[r];
+					for (int i = 0; i < fill; i++) {
+						// Reassemble the full k-mer: remaining bits shifted back above the radix bits.
+						f.putLongIfAbsent(((bucket[i] & remainingMask) << radixBits) | r);
+					}
 				}
-			}
+			});
 		}
 	}
 
@@ -0,0 +1,105 @@
+/*
+ * 
+ * “Commons Clause” License Condition v1.0
+ * 
+ * The Software is provided to you by the Licensor under the License, 
+ * as defined below, subject to the following condition.
+ * 
+ * Without limiting other conditions in the License, the grant of rights under the License 
+ * will not include, and the License does not grant to you, the right to Sell the Software.
+ * 
+ * For purposes of the foregoing, “Sell” means practicing any or all of the rights granted 
+ * to you under the License to provide to third parties, for a fee or other consideration 
+ * (including without limitation fees for hosting or consulting/ support services related to 
+ * the Software), a product or service whose value derives, entirely or substantially, from the 
+ * functionality of the Software. Any license notice or attribution required by the License 
+ * must also include this Commons Clause License Condition notice.
+ * 
+ * Software: genestrip
+ * 
+ * License: Apache 2.0
+ * 
+ * Licensor: Daniel Pfeifer (daniel.pfeifer@progotec.de)
+ * 
+ */
+package org.metagene.genestrip.store;
+
+import org.metagene.genestrip.bloom.KMerProbFilter;
+
+/**
+ * Positional access to a store that keeps its k-mers in one array sorted by k-mer, with the value
+ * index of each k-mer at the same storage position. This is the layout of {@link KMerSortedArray},
+ * {@link OffHeapKMerSortedArray} and {@link MappedKMerSortedArray}, which share the batched search
+ * below.
+ */
+interface SortedKMerArray {
+	/**
+	 * Returns the k-mer stored at the given storage position.
+	 *
+	 * @param pos the storage position
+	 * @return the k-mer stored at the given storage position.
+	 */
+	public long getKMerAt(long pos);
+
+	/**
+	 * Returns the value index of the entry at the given storage position.
+	 *
+	 * @param pos the storage position
+	 * @return the value index of the entry at the given storage position.
+	 */
+	public int indexAtPosition(long pos);
+
+	/**
+	 * Searches all k-mers in lock-step over the whole sorted array: since every search covers the same
+	 * range, each round halves a common length and issues one independent load per k-mer, so the loads
+	 * of a round are in flight together (memory-level parallelism). Exactly one of {@code out} and
+	 * {@code indexOut} is non-null. (The JIT unswitches the loops on it.)
+	 *
+	 * @param array    the sorted array to search
+	 * @param entries  the number of entries of the array
+	 * @param filter   the pre-filter to probe first, or null if not to be used
+	 * @param indexMap the values by value index
+	 * @param kmers    the k-mers to look up
+	 * @param n        the number of k-mers to look up
+	 * @param out      receives the values (null if absent), or null
+	 * @param indexOut receives the value indexes (-1 if absent), or null
+	 * @param posOut   receives the storage positions (-1 if absent)
+	 */
+	static <V> void searchBatch(final SortedKMerArray array, final long entries, final KMerProbFilter filter,
+			final V[] indexMap, final long[] kmers, final int n, final V[] out, final int[] indexOut,
+			final long[] posOut) {
+		// posOut[i] holds the current search base of kmers[i], or -1 once the k-mer is known to be absent.
+		for (int i = 0; i < n; i++) {
+			if (out != null) {
+				out[i] = null;
+			} else {
+				indexOut[i] = -1;
+			}
+			posOut[i] = entries == 0 || (filter != null && !filter.containsLong(kmers[i])) ? -1 : 0;
+		}
+		// Branch-free "base + half" search: afterwards base is the last position whose k-mer is <= kmer.
+		for (long len = entries; len > 1; len -= len >>> 1) {
+			final long half = len >>> 1;
+			for (int i = 0; i < n; i++) {
+				final long base = posOut[i];
+				if (base >= 0 && array.getKMerAt(base + half) <= kmers[i]) {
+					posOut[i] = base + half;
+				}
+			}
+		}
+		for (int i = 0; i < n; i++) {
+			final long pos = posOut[i];
+			if (pos >= 0) {
+				if (array.getKMerAt(pos) == kmers[i]) {
+					if (out != null) {
+						out[i] = indexMap[array.indexAtPosition(pos)];
+					} else {
+						indexOut[i] = array.indexAtPosition(pos);
+					}
+				} else {
+					posOut[i] = -1;
+				}
+			}
+		}
+	}
+}
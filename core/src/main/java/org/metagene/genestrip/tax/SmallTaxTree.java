@@ -41,12 +41,43 @@ import org.metagene.genestrip.util.DigitTrie;
  * can be updated concurrently by several matcher threads (one counter slot per thread)
  * and summed along the path from a node to the root. Iterating the tree yields its
  * nodes in depth-first order.
+ * <p>
+ * The counters of each thread live in a dense vote table of its own, indexed by a node's
+ * {@code nodeIndex}. A table entry holds a generation and a count, and the counts of
+ * older generations (i.e. previous reads) are simply ignored, so the tables never have
+ * to be cleared.
+ * <p>
+ * The node indexes also serve as interval labels: a node's descendants have the indexes
+ * between its own and its {@code lastIndex}, so ancestor checks take two comparisons. Lowest
+ * common ancestors come from a sparse table over the depths in pre-order (a compact form of
+ * the Euler tour), which is built on first use.
+ * <p>
+ * Besides the node objects, the tree keeps a struct-of-arrays form of itself: parent index, depth,
+ * last descendant index and rank per node index. The matcher works on these node indexes only (see
+ * the {@code int} variants of the voting and ancestor methods) and just materializes
+ * {@link SmallTaxIdNode}s for its results via {@link #getNodeByIndex(int)}.
  */
 public class SmallTaxTree implements Serializable, Iterable<SmallTaxTree.SmallTaxIdNode> {
 	private static final long serialVersionUID = 1L;
+	// Padding (in ints or longs) that keeps the hot data of different threads on different cache lines.
+	private static final int VOTE_PAD = 16;
+	private static final int KEY_STRIDE = 8;
 
 	private transient Comparator<String> taxIdComparator;
 	private transient int countSize;
+	private transient int nodeCount;
+	private transient SmallTaxIdNode[] nodesByIndex;
+	// The parent index (-1 for the root), depth, last descendant index and rank ordinal by node index.
+	private transient int[] parents;
+	private transient int[] depths;
+	private transient int[] lastIndexes;
+	private transient byte[] ranks;
+	// lcaTable[j][i] is the index of the shallowest node among the 2^j nodes from index i on.
+	private transient volatile int[][] lcaTable;
+	// Per thread: the current generation at [0], then (generation, count) pairs per node from VOTE_PAD on.
+	private transient int[][] voteTables;
+	// Per thread at index * KEY_STRIDE: the init key the current generation belongs to.
+	private transient long[] voteKeys;
 	private transient SmallTaxIdNode root;
 	private transient DigitTrie<SmallTaxIdNode> taxIdNodeTrie;
 	private transient Object owner;
@@ -61,6 +92,7 @@ public class SmallTaxTree implements Serializable, Iterable<SmallTaxTree.SmallTa
 		root = taxTree.getRoot() == null ? null : new SmallTaxIdNode(taxTree.getRoot());
 		taxIdNodeTrie = new DigitTrie<SmallTaxIdNode>();
 		root.initTrie(taxIdNodeTrie, 0);
+		initNodeIndexes();
 	}
 
 	/**
@@ -84,6 +116,62 @@ public class SmallTaxTree implements Serializable, Iterable<SmallTaxTree.SmallTa
 		root = SmallTaxIdNode.readTree(in);
 		taxIdNodeTrie = new DigitTrie<SmallTaxIdNode>();
 		root.initTrie(taxIdNodeTrie, 0);
+		initNodeIndexes();
+	}
+
+	// Assigns dense node indexes and drops vote tables and the LCA table as they no longer fit.
+	private void initNodeIndexes() {
+		nodeCount = root == null ? 0 : root.initNodeIndex(0, 0);
+		nodesByIndex = new SmallTaxIdNode[nodeCount];
+		parents = new int[nodeCount];
+		depths = new int[nodeCount];
+		lastIndexes = new int[nodeCount];
+		ranks = new byte[nodeCount];
+		for (SmallTaxIdNode node : this) {
+			int i = node.nodeIndex;
+			nodesByIndex[i] = node;
+			parents[i] = node.parent == null ? -1 : node.parent.nodeIndex;
+			depths[i] = node.depth;
+			lastIndexes[i] = node.lastIndex;
+			ranks[i] = (byte) node.rank;
+		}
+		lcaTable = null;
+		if (voteTables != null) {
+			Arrays.fill(voteTables, null);
+		}
+	}
+
+	private int[][] getLCATable() {
+		int[][] table = lcaTable;
+		if (table == null) {
+			synchronized (this) {
+				table = lcaTable;
+				if (table == null) {
+					table = lcaTable = createLCATable();
+				}
+			}
+		}
+		return table;
+	}
+
+	private int[][] createLCATable() {
+		int levels = nodeCount <= 1 ? 1 : 32 - Integer.numberOfLeadingZeros(nodeCount - 1);
+		int[][] table = new int[levels][];
+		table[0] = new int[nodeCount];
+		for (int i = 0; i < nodeCount; i++) {
+			table[0][i] = i;
+		}
+		for (int j = 1; j < levels; j++) {
+			int half = 1 << (j - 1);
+			int[] prev = table[j - 1];
+			int[] next = table[j] = new int[nodeCount - 2 * half + 1];
+			for (int i = 0; i < next.length; i++) {
+				int a = prev[i];
+				int b = prev[i + half];
+				next[i] = depths[a] <= depths[b] ? a : b;
+			}
+		}
+		return table;
 	}
 
 	/**
@@ -100,6 +188,7 @@ public class SmallTaxTree implements Serializable, Iterable<SmallTaxTree.SmallTa
 			node.setSubNodes(subNodes);
 			// Re-register the replaced subtree and refresh its depths from this node's own depth.
 			node.initTrie(taxIdNodeTrie, node.depth);
+			initNodeIndexes();
 		}
 
 		return node;
@@ -110,6 +199,7 @@ public class SmallTaxTree implements Serializable, Iterable<SmallTaxTree.SmallTa
 	 */
 	public void reinitPositions() {
 		root.initPositions(0, 0);
+		initNodeIndexes();
 	}
 
 	/**
@@ -127,11 +217,17 @@ public class SmallTaxTree implements Serializable, Iterable<SmallTaxTree.SmallTa
 		if (this.countSize > 0 && countSize != this.countSize) {
 			throw new IllegalStateException("Count count size can only be initialized once.");
 		}
-		this.countSize = countSize;
+		if (this.countSize == 0) {
+			this.countSize = countSize;
+			voteTables = new int[countSize][];
+			voteKeys = new long[(countSize + 1) * KEY_STRIDE];
+			Arrays.fill(voteKeys, -1);
+		}
 	}
 
 	/**
-	 * Resets all node counts and claims the tree for the given owner. The tree must be
+	 * Resets all node counts and claims the tree for the given owner. This only starts a new
+	 * generation per thread instead of touching the counts. The tree must be
 	 * released by its current owner via {@link #releaseOwner()} before another owner can
 	 * reset it.
 	 *
@@ -147,7 +243,10 @@ public class SmallTaxTree implements Serializable, Iterable<SmallTaxTree.SmallTa
 		} else if (this.owner != owner) {
 			throw new IllegalArgumentException("Tax tree not released by previous owner: " + this.owner);
 		}
-		root.resetCounts();
+		if (voteKeys != null) {
+			// The next incCount() of each thread starts a new generation.
+			Arrays.fill(voteKeys, -1);
+		}
 	}
 
 	/**
@@ -168,7 +267,52 @@ public class SmallTaxTree implements Serializable, Iterable<SmallTaxTree.SmallTa
 	 */
 	// Made final for potential inlining by JVM
 	public final void incCount(final SmallTaxIdNode node, final int index, final long initKey) {
-		node.incCount(index, initKey, countSize);
+		incCount(node.nodeIndex, index, initKey);
+	}
+
+	/**
+	 * Like {@link #incCount(SmallTaxIdNode, int, long)} but for the node with the given node index.
+	 *
+	 * @param nodeIndex the index of the node whose counter is incremented
+	 * @param index     the counter slot to increment
+	 * @param initKey   the key identifying the current read
+	 */
+	// Made final for potential inlining by JVM
+	public final void incCount(final int nodeIndex, final int index, final long initKey) {
+		int[] table = voteTables[index];
+		if (table == null) {
+			// Only ever touched by the thread owning this slot.
+			table = voteTables[index] = new int[VOTE_PAD + 2 * nodeCount + VOTE_PAD];
+		}
+		int generation = table[0];
+		final int keyIndex = (index + 1) * KEY_STRIDE;
+		if (voteKeys[keyIndex] != initKey) {
+			voteKeys[keyIndex] = initKey;
+			generation = nextGeneration(table);
+		}
+		final int i = VOTE_PAD + 2 * nodeIndex;
+		if (table[i] == generation) {
+			table[i + 1]++;
+		} else {
+			table[i] = generation;
+			table[i + 1] = 1;
+		}
+	}
+
+	private static int nextGeneration(int[] table) {
+		int generation = table[0] + 1;
+		if (generation == 0) {
+			// Wrapped around after 2^32 reads: Now the table must really be cleared.
+			Arrays.fill(table, 0);
+			generation = 1;
+		}
+		table[0] = generation;
+		return generation;
+	}
+
+	// Returns the vote table of the given thread if its current generation belongs to initKey.
+	private int[] currentVoteTable(final int index, final long initKey) {
+		return voteKeys[(index + 1) * KEY_STRIDE] == initKey ? voteTables[index] : null;
 	}
 
 	/**
@@ -182,12 +326,31 @@ public class SmallTaxTree implements Serializable, Iterable<SmallTaxTree.SmallTa
 	 */
 	// Made final for potential inlining by JVM
 	public final int sumCounts(SmallTaxIdNode node, final int index, final long initKey) {
+		return node == null ? 0 : sumCounts(node.nodeIndex, index, initKey);
+	}
+
+	/**
+	 * Like {@link #sumCounts(SmallTaxIdNode, int, long)} but for the node with the given node index.
+	 *
+	 * @param nodeIndex the index of the node to start summing from, or {@code -1} for none
+	 * @param index     the counter slot to sum
+	 * @param initKey   the key identifying the current read
+	 * @return the sum of the matching counts from the node to the root
+	 */
+	// Made final for potential inlining by JVM
+	public final int sumCounts(int nodeIndex, final int index, final long initKey) {
+		final int[] table = currentVoteTable(index, initKey);
+		if (table == null) {
+			return 0;
+		}
+		final int generation = table[0];
 		int res = 0;
-		while (node != null) {
-			if (node.counts != null && node.countsInitKeys != null && node.countsInitKeys[index] == initKey) {
-				res += node.counts[index];
+		while (nodeIndex >= 0) {
+			final int i = VOTE_PAD + 2 * nodeIndex;
+			if (table[i] == generation) {
+				res += table[i + 1];
 			}
-			node = node.parent;
+			nodeIndex = parents[nodeIndex];
 		}
 		return res;
 	}
@@ -206,18 +369,43 @@ public class SmallTaxTree implements Serializable, Iterable<SmallTaxTree.SmallTa
 	 */
 	// Made final for potential inlining by JVM
 	public final SmallTaxIdNode lowestNodeWhereSumAboveThreshold(SmallTaxIdNode node, final int index, final long initKey, int threshold) {
+		if (node == null) {
+			return null;
+		}
+		int res = lowestNodeWhereSumAboveThreshold(node.nodeIndex, index, initKey, threshold);
+		return res == -1 ? null : nodesByIndex[res];
+	}
+
+	/**
+	 * Like {@link #lowestNodeWhereSumAboveThreshold(SmallTaxIdNode, int, long, int)} but for node indexes.
+	 *
+	 * @param nodeIndex the index of the node to start summing from, or {@code -1} for none
+	 * @param index     the counter slot to sum
+	 * @param initKey   the key identifying the current read
+	 * @param threshold the running sum to reach
+	 * @return the index of the lowest node where the running sum reaches {@code threshold}, or
+	 *         {@code -1} if it never does
+	 */
+	// Made final for potential inlining by JVM
+	public final int lowestNodeWhereSumAboveThreshold(int nodeIndex, final int index, final long initKey, int threshold) {
+		final int[] table = currentVoteTable(index, initKey);
+		if (table == null) {
+			return -1;
+		}
+		final int generation = table[0];
 		int res = 0;
-		while (node != null) {
-			if (node.counts != null && node.countsInitKeys != null && node.countsInitKeys[index] == initKey) {
-				res += node.counts[index];
+		while (nodeIndex >= 0) {
+			final int i = VOTE_PAD + 2 * nodeIndex;
+			if (table[i] == generation) {
+				res += table[i + 1];
 				if (res >= threshold) {
-					return node;
+					return nodeIndex;
 				}
 			}
-			node = node.parent;
+			nodeIndex = parents[nodeIndex];
 		}
 		// TODO: Better return null here and handle null in calling code?
-		return null;
+		return -1;
 	}
 
 	/**
@@ -239,16 +427,25 @@ public class SmallTaxTree implements Serializable, Iterable<SmallTaxTree.SmallTa
 	 *         {@code node} itself
 	 */
 	// Made final for potential inlining by JVM
-	public final boolean isAncestorOf(SmallTaxIdNode node, final SmallTaxIdNode ancestor) {
-		while (node != null) {
-			// == will do, faster than equals on works on closed set of nodes with equals not overriden.
-			if (node == ancestor) {
-				return true;
-			}
-			node = node.parent;
+	public final boolean isAncestorOf(final SmallTaxIdNode node, final SmallTaxIdNode ancestor) {
+		if (node == null || ancestor == null) {
+			return false;
 		}
+		// The subtree of 'ancestor' covers the node indexes from its own up to its lastIndex.
+		return ancestor.nodeIndex <= node.nodeIndex && node.nodeIndex <= ancestor.lastIndex;
+	}
 
-		return false;
+	/**
+	 * Like {@link #isAncestorOf(SmallTaxIdNode, SmallTaxIdNode)} but for node indexes.
+	 *
+	 * @param node     the index of the node whose ancestry is checked, or {@code -1} for none
+	 * @param ancestor the index of the candidate ancestor node, or {@code -1} for none
+	 * @return {@code true} if {@code ancestor} is an ancestor of {@code node} or
+	 *         {@code node} itself
+	 */
+	// Made final for potential inlining by JVM
+	public final boolean isAncestorOf(final int node, final int ancestor) {
+		return node >= 0 && ancestor >= 0 && ancestor <= node && node <= lastIndexes[ancestor];
 	}
 
 	/**
@@ -268,24 +465,110 @@ public class SmallTaxTree implements Serializable, Iterable<SmallTaxTree.SmallTa
 		if (node1 == null || node2 == null) {
 			return null;
 		}
-		// Align the deeper node to the shallower one, then walk both up in lock-step until they meet.
-		// O(depth) using the per-node depth (kept current by initTrie()/initPositions()), and - unlike
-		// scanning node2's whole ancestor chain for each of node1's ancestors, O(d1 * d2) - it stops as
-		// soon as the paths join, so the common ancestor / nearby case (the bulk of look-ups) is cheap.
-		SmallTaxIdNode a = node1;
-		SmallTaxIdNode b = node2;
-		while (a.depth > b.depth) {
-			a = a.parent;
+		return nodesByIndex[getLowestCommonAncestor(node1.nodeIndex, node2.nodeIndex)];
+	}
+
+	/**
+	 * Like {@link #getLowestCommonAncestor(SmallTaxIdNode, SmallTaxIdNode)} but for node indexes.
+	 *
+	 * @param node1 the index of the first node, or {@code -1} for none
+	 * @param node2 the index of the second node, or {@code -1} for none
+	 * @return the index of the lowest common ancestor, or {@code -1} if either index is {@code -1}
+	 */
+	// Made final for potential inlining by JVM
+	public final int getLowestCommonAncestor(final int node1, final int node2) {
+		if (node1 == node2) {
+			return node1;
 		}
-		while (b.depth > a.depth) {
-			b = b.parent;
+		if (node1 < 0 || node2 < 0) {
+			return -1;
+		}
+		// Ancestor checks are just two compares and avoid the table lookup for the frequent case of
+		// k-mers from the same lineage.
+		if (node1 <= node2 && node2 <= lastIndexes[node1]) {
+			return node1;
 		}
-		while (a != b) {
-			a = a.parent;
-			b = b.parent;
+		if (node2 <= node1 && node1 <= lastIndexes[node2]) {
+			return node2;
+		}
+		int from = node1;
+		int to = node2;
+		if (from > to) {
+			int h = from;
+			from = to;
+			to = h;
+		}
+		// The shallowest node with an index in (from, to] is a child of the LCA on the path to the node at 'to'.
+		from++;
+		int[][] table = getLCATable();
+		int level = 31 - Integer.numberOfLeadingZeros(to - from + 1);
+		int a = table[level][from];
+		int b = table[level][to - (1 << level) + 1];
+		return parents[depths[a] <= depths[b] ? a : b];
+	}
+
+	/**
+	 * Returns the number of nodes in the tree. Node indexes range from {@code 0} (the root) to this
+	 * number minus one.
+	 *
+	 * @return the number of nodes
+	 */
+	public int getNodeCount() {
+		return nodeCount;
+	}
+
+	/**
+	 * Returns the node with the given node index.
+	 *
+	 * @param nodeIndex the node index
+	 * @return the node with the given index
+	 */
+	public final SmallTaxIdNode getNodeByIndex(int nodeIndex) {
+		return nodesByIndex[nodeIndex];
+	}
+
+	/**
+	 * Returns the index of the parent of the node with the given index.
+	 *
+	 * @param nodeIndex the node index
+	 * @return the parent's node index, or {@code -1} for the root
+	 */
+	public final int getParentIndex(int nodeIndex) {
+		return parents[nodeIndex];
+	}
+
+	/**
+	 * Returns the depth of the node with the given index (the root has depth 0).
+	 *
+	 * @param nodeIndex the node index
+	 * @return the depth of the node
+	 */
+	public final int getDepth(int nodeIndex) {
+		return depths[nodeIndex];
+	}
+
+	/**
+	 * Returns the rank ordinal of the node with the given index, see {@link TaxIdInfo#getRankOrdinal()}.
+	 *
+	 * @param nodeIndex the node index
+	 * @return the rank ordinal, or {@code -1} for no rank
+	 */
+	public final int getRankOrdinal(int nodeIndex) {
+		return ranks[nodeIndex];
+	}
+
+	/**
+	 * Returns the store indexes of all nodes by node index, see {@link SmallTaxIdNode#getStoreIndex()}.
+	 * The result is a snapshot, so it must be taken after the store indexes have been assigned.
+	 *
+	 * @return a new array holding the store index of each node by its node index
+	 */
+	public int[] getStoreIndexes() {
+		int[] res = new int[nodeCount];
+		for (int i = 0; i < nodeCount; i++) {
+			res[i] = nodesByIndex[i].storeIndex;
 		}
-		// a == b now: their common ancestor, or null if the two nodes live in different trees.
-		return a;
+		return res;
 	}
 
 	/**
@@ -384,8 +667,8 @@ public class SmallTaxTree implements Serializable, Iterable<SmallTaxTree.SmallTa
 	}
 
 	/**
-	 * A node of a {@link SmallTaxTree}. Besides the usual tree links it holds the
-	 * per-thread count slots used during matching and a {@code storeIndex} that links
+	 * A node of a {@link SmallTaxTree}. Besides the usual tree links it holds its index
+	 * into the tree's vote tables used during matching and a {@code storeIndex} that links
 	 * it to its entry in the k-mer database.
 	 */
 	public static class SmallTaxIdNode extends TaxIdInfo {
@@ -400,11 +683,13 @@ public class SmallTaxTree implements Serializable, Iterable<SmallTaxTree.SmallTa
 		protected transient SmallTaxIdNode parent;
 		// Transient (not part of the serialized format, so old databases stay loadable) and reassigned
 		// whenever the tree structure is established: initTrie() on build/load/attach and initPositions()
-		// on reinit. Cached form of getLevel() (root = 0), used by getLowestCommonAncestor().
+		// on reinit. Cached form of getLevel() (root = 0), used for the LCA table.
 		/** The depth of this node (root = 0); see {@link #getLevel()}. */
 		private transient int depth;
-		private transient int[] counts;
-		private transient long[] countsInitKeys;
+		// Dense pre-order index of this node (root = 0), assigned by SmallTaxTree.initNodeIndexes().
+		private transient int nodeIndex;
+		// The largest node index within the subtree of this node.
+		private transient int lastIndex;
 		// Made public for inlining
 		/** Index linking this node to its entry in the k-mer database, or {@code -1} if unset. */
 		public transient int storeIndex;
@@ -506,6 +791,16 @@ public class SmallTaxTree implements Serializable, Iterable<SmallTaxTree.SmallTa
 			return parent;
 		}
 
+		/**
+		 * Returns the dense pre-order index of this node within its tree (the root has index 0),
+		 * see {@link SmallTaxTree#getNodeByIndex(int)}.
+		 *
+		 * @return the node index
+		 */
+		public final int getNodeIndex() {
+			return nodeIndex;
+		}
+
 		/**
 		 * Returns the index linking this node to its entry in the k-mer database.
 		 *
@@ -631,43 +926,16 @@ public class SmallTaxTree implements Serializable, Iterable<SmallTaxTree.SmallTa
 			return null;
 		}
 
-		/**
-		 * Increments this node's counter in slot {@code index}, lazily allocating the
-		 * count arrays of the given {@code size}. The {@code initKey} identifies the
-		 * current read so a stale count from a previous read is reset to one.
-		 *
-		 * @param index   the counter slot to increment
-		 * @param initKey the key identifying the current read
-		 * @param size    the size of the count arrays to allocate lazily
-		 */
-		public final void incCount(final int index, final long initKey, final int size) {
-			if (counts == null || countsInitKeys == null) {
-				synchronized (this) {
-					if (counts == null) {
-						counts = new int[size];
-						countsInitKeys = new long[size];
-					}
-				}
-			}
-			if (countsInitKeys[index] == initKey) {
-				counts[index]++;
-			} else {
-				countsInitKeys[index] = initKey;
-				counts[index] = 1;
-			}
-		}
-
-		private final void resetCounts() {
-			if (countsInitKeys != null) {
-				for (int i = 0; i < countsInitKeys.length; i++) {
-					countsInitKeys[i] = -1;
-				}
-			}
+		private int initNodeIndex(int counter, int depth) {
+			nodeIndex = counter++;
+			this.depth = depth;
 			if (subNodes != null) {
 				for (int i = 0; i < subNodes.length; i++) {
-					subNodes[i].resetCounts();
+					counter = subNodes[i].initNodeIndex(counter, depth + 1);
 				}
 			}
+			lastIndex = counter - 1;
+			return counter;
 		}
 
 		private final void initTrie(DigitTrie<SmallTaxIdNode> trie, int depth) {
@@ -44,6 +44,8 @@ public class CGATLongBuffer {
 
 	private final int maxDust;
 	private final int[] dustFunctionDiff;
+	// dustFunctionDiffBefore[i] = dustFunctionDiff[i - 1] and 0 for i = 0.
+	private final int[] dustFunctionDiffBefore;
 
 	private byte l1Char;
 	private byte l2Char;
@@ -86,13 +88,15 @@ public class CGATLongBuffer {
 		if (maxDust >= 0) {
 			dustFunctionDiff = new int[size];
 			initDustFunctionDiff(dustFunctionDiff);
+			dustFunctionDiffBefore = new int[size + 1];
+			System.arraycopy(dustFunctionDiff, 0, dustFunctionDiffBefore, 1, size);
 			srl0Buffer = new int[size];
 			srl1Buffer = new int[size];
 			srl2Buffer = new int[size];
 		}
 		else {
 			srl0Buffer = srl1Buffer = srl2Buffer = null;
-			dustFunctionDiff = null;
+			dustFunctionDiff = dustFunctionDiffBefore = null;
 		}
 		reset();
 	}
@@ -140,45 +144,26 @@ public class CGATLongBuffer {
 			kmer = ((kmer << 2) & SHIFT_FILTERS_STRAIGHT[size]) | (long) bp;  // Inlined.
 			reverseKmer = (reverseKmer >>> 2) | (((long) CGAT_REVERSE_JUMP_TABLE[c]) << SHIFT_FILTERS_REVERSE[size]);
 			if (maxDust >= 0) {
-				if (c == l1Char) {
-					int pos = bpCounter - 1 - srl0;
-					if (pos < 0) {
-						pos += size;
-					}
-					srl0Buffer[pos]++;
-					d += dustFunctionDiff[srl0];
-					if (srl0 < size - 1) {
-						srl0++;
-					}
-				} else {
-					srl0 = 0;
-				}
-				if (c == l2Char) {
-					int pos = bpCounter - 2 - srl1;
-					if (pos < 0) {
-						pos += size;
-					}
-					srl1Buffer[pos]++;
-					d += dustFunctionDiff[srl1];
-					if (srl1 < size - 2) {
-						srl1++;
-					}
-				} else {
-					srl1 = 0;
-				}
-				if (c == l3Char) {
-					int pos = bpCounter - 3 - srl2;
-					if (pos < 0) {
-						pos += size;
-					}
-					srl2Buffer[pos]++;
-					d += dustFunctionDiff[srl2];
-					if (srl2 < size - 3) {
-						srl2++;
-					}
-				} else {
-					srl2 = 0;
-				}
+				// Branch-free updates of the three run lengths, since matches of random bases are hard
+				// to predict: 'm' is -1 if the base repeats the one 1, 2 or 3 positions back and 0 otherwise.
+				int m = c == l1Char ? -1 : 0;
+				int pos = bpCounter - 1 - srl0;
+				srl0Buffer[pos + ((pos >> 31) & size)] -= m;
+				d += dustFunctionDiff[srl0] & m;
+				srl0 = Math.min(srl0 + 1, size - 1) & m;
+
+				m = c == l2Char ? -1 : 0;
+				pos = bpCounter - 2 - srl1;
+				srl1Buffer[pos + ((pos >> 31) & size)] -= m;
+				d += dustFunctionDiff[srl1] & m;
+				srl1 = Math.min(srl1 + 1, size - 2) & m;
+
+				m = c == l3Char ? -1 : 0;
+				pos = bpCounter - 3 - srl2;
+				srl2Buffer[pos + ((pos >> 31) & size)] -= m;
+				d += dustFunctionDiff[srl2] & m;
+				srl2 = Math.min(srl2 + 1, size - 3) & m;
+
 				l3Char = l2Char;
 				l2Char = l1Char;
 				l1Char = c;
@@ -190,26 +175,22 @@ public class CGATLongBuffer {
 				filled = true;
 			}
 			if (filled && maxDust >= 0) {
+				// The run starting at the base leaving the window shrinks by one and then starts at the next
+				// base. (No other run can start there.) 'dustFunctionDiffBefore' is 0 for an empty run.
 				int oldCount = srl0Buffer[oldBp];
 				srl0Buffer[oldBp] = 0;
-				if (oldCount > 0) {
-					d -= dustFunctionDiff[oldCount - 1];
-					srl0Buffer[bpCounter] = oldCount - 1;
-				}
+				d -= dustFunctionDiffBefore[oldCount];
+				srl0Buffer[bpCounter] += Math.max(oldCount - 1, 0);
 
 				oldCount = srl1Buffer[oldBp];
 				srl1Buffer[oldBp] = 0;
-				if (oldCount > 0) {
-					d -= dustFunctionDiff[oldCount - 1];
-					srl1Buffer[bpCounter] = oldCount - 1;
-				}
+				d -= dustFunctionDiffBefore[oldCount];
+				srl1Buffer[bpCounter] += Math.max(oldCount - 1, 0);
 
 				oldCount = srl2Buffer[oldBp];
 				srl2Buffer[oldBp] = 0;
-				if (oldCount > 0) {
-					d -= dustFunctionDiff[oldCount - 1];
-					srl2Buffer[bpCounter] = oldCount - 1;
-				}
+				d -= dustFunctionDiffBefore[oldCount];
+				srl2Buffer[bpCounter] += Math.max(oldCount - 1, 0);
 			}
 			return kmer;
 		}
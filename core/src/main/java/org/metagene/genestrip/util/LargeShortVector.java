@@ -25,6 +25,8 @@
 package org.metagene.genestrip.util;
 
 import java.io.Serializable;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.util.Arrays;
 
 import it.unimi.dsi.fastutil.BigArrays;
@@ -41,6 +43,12 @@ public class LargeShortVector implements Serializable {
 	/** Maximum capacity that still uses the small ({@code int}-indexed) array. */
 	public static long MAX_SMALL_CAPACITY = Integer.MAX_VALUE - 8;
 
+	/**
+	 * Atomic access to the elements of a {@code short[]} (or of a big-array segment), so that
+	 * {@link #incSaturated(long)} can run lock-free from multiple threads.
+	 */
+	private static final VarHandle SHORT_ARRAY_HANDLE = MethodHandles.arrayElementVarHandle(short[].class);
+
 	/** Current size (number of shorts) of the vector. */
 	protected long size;
 	// Made public for inlining
@@ -146,6 +154,33 @@ public class LargeShortVector implements Serializable {
 		}
 	}
 
+	/**
+	 * Atomically increments the short at the given index unless it has already reached
+	 * {@link Short#MAX_VALUE}. Unlike {@link #inc(long)}, this is thread-safe without locking and never
+	 * overflows.
+	 *
+	 * @param index the index of the short to increment
+	 */
+	public final void incSaturated(final long index) {
+		final short[] array;
+		final int displacement;
+		if (largeShorts != null) {
+			array = largeShorts[BigArrays.segment(index)];
+			displacement = BigArrays.displacement(index);
+		} else {
+			array = shorts;
+			displacement = (int) index;
+		}
+		short old = (short) SHORT_ARRAY_HANDLE.getOpaque(array, displacement);
+		while (old != Short.MAX_VALUE) {
+			final short witness = (short) SHORT_ARRAY_HANDLE.compareAndExchange(array, displacement, old, (short) (old + 1));
+			if (witness == old) {
+				return;
+			}
+			old = witness;
+		}
+	}
+
 	/**
 	 * Returns the short at the given index.
 	 *
@@ -0,0 +1,116 @@
+/*
+ * 
+ * “Commons Clause” License Condition v1.0
+ * 
+ * The Software is provided to you by the Licensor under the License, 
+ * as defined below, subject to the following condition.
+ * 
+ * Without limiting other conditions in the License, the grant of rights under the License 
+ * will not include, and the License does not grant to you, the right to Sell the Software.
+ * 
+ * For purposes of the foregoing, “Sell” means practicing any or all of the rights granted 
+ * to you under the License to provide to third parties, for a fee or other consideration 
+ * (including without limitation fees for hosting or consulting/ support services related to 
+ * the Software), a product or service whose value derives, entirely or substantially, from the 
+ * functionality of the Software. Any license notice or attribution required by the License 
+ * must also include this Commons Clause License Condition notice.
+ * 
+ * Software: genestrip
+ * 
+ * License: Apache 2.0
+ * 
+ * Licensor: Daniel Pfeifer (daniel.pfeifer@progotec.de)
+ * 
+ */
+package org.metagene.genestrip.util;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A read-only {@code long} array backed by a memory-mapped region of a file. As a single
+ * {@link java.nio.MappedByteBuffer} is limited to 2 GB, the region is mapped in chunks of
+ * {@link #CHUNK_SIZE} elements, much like fastutil big arrays are split into segments. The data is
+ * expected in {@link ByteOrder#LITTLE_ENDIAN} byte order. Once created, the mapping stays valid even
+ * if the channel it was created from is closed.
+ */
+public final class MappedLongArray {
+	/** Log2 of the number of elements per mapped chunk. */
+	public static final int CHUNK_SHIFT = 27;
+	/** Number of elements per mapped chunk (1 GB per chunk). */
+	public static final long CHUNK_SIZE = 1L << CHUNK_SHIFT;
+	private static final long CHUNK_MASK = CHUNK_SIZE - 1;
+
+	private final LongBuffer[] chunks;
+	private final long length;
+
+	/**
+	 * Maps {@code length} longs starting at byte {@code offset} of the channel's file read-only.
+	 *
+	 * @param channel the channel of the file to map
+	 * @param offset  the byte offset of the first element in the file
+	 * @param length  the number of elements
+	 * @throws IOException if mapping fails
+	 */
+	public MappedLongArray(FileChannel channel, long offset, long length) throws IOException {
+		if (length < 0) {
+			throw new IllegalArgumentException("Negative length: " + length);
+		}
+		this.length = length;
+		int n = (int) ((length + CHUNK_SIZE - 1) >>> CHUNK_SHIFT);
+		chunks = new LongBuffer[n];
+		for (int i = 0; i < n; i++) {
+			long elements = Math.min(CHUNK_SIZE, length - (((long) i) << CHUNK_SHIFT));
+			chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, offset + (((long) i) << CHUNK_SHIFT) * Long.BYTES,
+					elements * Long.BYTES).order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+		}
+	}
+
+	/**
+	 * Returns the number of elements.
+	 *
+	 * @return the number of elements
+	 */
+	public long length() {
+		return length;
+	}
+
+	/**
+	 * Returns the element at the given index.
+	 *
+	 * @param index the element index in {@code [0, length())}
+	 * @return the element at the given index
+	 */
+	// Made final for potential (automated) inlining by JVM
+	public final long get(final long index) {
+		return chunks[(int) (index >>> CHUNK_SHIFT)].get((int) (index & CHUNK_MASK));
+	}
+
+	/**
+	 * Searches the sorted range {@code [from, to)} for the given key, with the same contract as
+	 * {@link java.util.Arrays#binarySearch(long[], int, int, long)}.
+	 *
+	 * @param from the first index of the range (inclusive)
+	 * @param to   the last index of the range (exclusive)
+	 * @param key  the key to search for
+	 * @return the index of the key if found, otherwise {@code -(insertion point) - 1}
+	 */
+	public long binarySearch(long from, long to, final long key) {
+		long lo = from;
+		long hi = to - 1;
+		while (lo <= hi) {
+			final long mid = (lo + hi) >>> 1;
+			final long midVal = get(mid);
+			if (midVal < key) {
+				lo = mid + 1;
+			} else if (midVal > key) {
+				hi = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -(lo + 1);
+	}
+}
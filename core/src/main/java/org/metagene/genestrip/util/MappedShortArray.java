@@ -0,0 +1,87 @@
+/*
+ * 
+ * “Commons Clause” License Condition v1.0
+ * 
+ * The Software is provided to you by the Licensor under the License, 
+ * as defined below, subject to the following condition.
+ * 
+ * Without limiting other conditions in the License, the grant of rights under the License 
+ * will not include, and the License does not grant to you, the right to Sell the Software.
+ * 
+ * For purposes of the foregoing, “Sell” means practicing any or all of the rights granted 
+ * to you under the License to provide to third parties, for a fee or other consideration 
+ * (including without limitation fees for hosting or consulting/ support services related to 
+ * the Software), a product or service whose value derives, entirely or substantially, from the 
+ * functionality of the Software. Any license notice or attribution required by the License 
+ * must also include this Commons Clause License Condition notice.
+ * 
+ * Software: genestrip
+ * 
+ * License: Apache 2.0
+ * 
+ * Licensor: Daniel Pfeifer (daniel.pfeifer@progotec.de)
+ * 
+ */
+package org.metagene.genestrip.util;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A read-only {@code short} array backed by a memory-mapped region of a file, mapped in chunks of
+ * {@link #CHUNK_SIZE} elements; see {@link MappedLongArray}.
+ */
+public final class MappedShortArray {
+	/** Log2 of the number of elements per mapped chunk. */
+	public static final int CHUNK_SHIFT = 29;
+	/** Number of elements per mapped chunk (1 GB per chunk). */
+	public static final long CHUNK_SIZE = 1L << CHUNK_SHIFT;
+	private static final long CHUNK_MASK = CHUNK_SIZE - 1;
+
+	private final ShortBuffer[] chunks;
+	private final long length;
+
+	/**
+	 * Maps {@code length} shorts starting at byte {@code offset} of the channel's file read-only.
+	 *
+	 * @param channel the channel of the file to map
+	 * @param offset  the byte offset of the first element in the file
+	 * @param length  the number of elements
+	 * @throws IOException if mapping fails
+	 */
+	public MappedShortArray(FileChannel channel, long offset, long length) throws IOException {
+		if (length < 0) {
+			throw new IllegalArgumentException("Negative length: " + length);
+		}
+		this.length = length;
+		int n = (int) ((length + CHUNK_SIZE - 1) >>> CHUNK_SHIFT);
+		chunks = new ShortBuffer[n];
+		for (int i = 0; i < n; i++) {
+			long elements = Math.min(CHUNK_SIZE, length - (((long) i) << CHUNK_SHIFT));
+			chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, offset + (((long) i) << CHUNK_SHIFT) * Short.BYTES,
+					elements * Short.BYTES).order(ByteOrder.LITTLE_ENDIAN).asShortBuffer();
+		}
+	}
+
+	/**
+	 * Returns the number of elements.
+	 *
+	 * @return the number of elements
+	 */
+	public long length() {
+		return length;
+	}
+
+	/**
+	 * Returns the element at the given index.
+	 *
+	 * @param index the element index in {@code [0, length())}
+	 * @return the element at the given index
+	 */
+	// Made final for potential (automated) inlining by JVM
+	public final short get(final long index) {
+		return chunks[(int) (index >>> CHUNK_SHIFT)].get((int) (index & CHUNK_MASK));
+	}
+}
@@ -0,0 +1,151 @@
+/*
+ * 
+ * “Commons Clause” License Condition v1.0
+ * 
+ * The Software is provided to you by the Licensor under the License, 
+ * as defined below, subject to the following condition.
+ * 
+ * Without limiting other conditions in the License, the grant of rights under the License 
+ * will not include, and the License does not grant to you, the right to Sell the Software.
+ * 
+ * For purposes of the foregoing, “Sell” means practicing any or all of the rights granted 
+ * to you under the License to provide to third parties, for a fee or other consideration 
+ * (including without limitation fees for hosting or consulting/ support services related to 
+ * the Software), a product or service whose value derives, entirely or substantially, from the 
+ * functionality of the Software. Any license notice or attribution required by the License 
+ * must also include this Commons Clause License Condition notice.
+ * 
+ * Software: genestrip
+ * 
+ * License: Apache 2.0
+ * 
+ * Licensor: Daniel Pfeifer (daniel.pfeifer@progotec.de)
+ * 
+ */
+package org.metagene.genestrip.util;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+
+/**
+ * A fixed-capacity {@code long} array that lives off the Java heap in direct {@link ByteBuffer}
+ * slabs of {@code 2^slabShift} elements each, much like fastutil big arrays are split into segments.
+ * Its memory is not scanned or moved by the garbage collector and is released once the array becomes
+ * unreachable. Note that the total size of all direct buffers is bounded by the JVM option
+ * {@code -XX:MaxDirectMemorySize} (which defaults to the maximum heap size).
+ * <p>
+ * Accesses are absolute, so threads may concurrently write to different indexes.
+ */
+public final class OffHeapLongArray {
+	/** The default log2 of the number of elements per slab (1 GB per slab). */
+	public static final int DEFAULT_SLAB_SHIFT = 27;
+
+	private final LongBuffer[] slabs;
+	private final int slabShift;
+	private final long slabMask;
+	private final long length;
+
+	/**
+	 * Creates a zero-initialized array using slabs of the default size.
+	 *
+	 * @param length the number of elements
+	 */
+	public OffHeapLongArray(long length) {
+		this(length, DEFAULT_SLAB_SHIFT);
+	}
+
+	/**
+	 * Creates a zero-initialized array using slabs of {@code 2^slabShift} elements.
+	 *
+	 * @param length the number of elements
+	 * @param slabShift log2 of the number of elements per slab
+	 */
+	public OffHeapLongArray(long length, int slabShift) {
+		if (length < 0) {
+			throw new IllegalArgumentException("Negative length: " + length);
+		}
+		if (slabShift < 1 || slabShift > DEFAULT_SLAB_SHIFT) {
+			throw new IllegalArgumentException("slabShift must be in [1, " + DEFAULT_SLAB_SHIFT + "], got " + slabShift);
+		}
+		this.length = length;
+		this.slabShift = slabShift;
+		long slabSize = 1L << slabShift;
+		this.slabMask = slabSize - 1;
+		int n = (int) ((length + slabSize - 1) >>> slabShift);
+		slabs = new LongBuffer[n];
+		for (int i = 0; i < n; i++) {
+			long elements = Math.min(slabSize, length - (((long) i) << slabShift));
+			slabs[i] = ByteBuffer.allocateDirect((int) (elements * Long.BYTES)).order(ByteOrder.nativeOrder()).asLongBuffer();
+		}
+	}
+
+	/**
+	 * Returns the number of elements.
+	 *
+	 * @return the number of elements
+	 */
+	public long length() {
+		return length;
+	}
+
+	/**
+	 * Returns the element at the given index.
+	 *
+	 * @param index the element index in {@code [0, length())}
+	 * @return the element at the given index
+	 */
+	// Made final for potential (automated) inlining by JVM
+	public final long get(final long index) {
+		return slabs[(int) (index >>> slabShift)].get((int) (index & slabMask));
+	}
+
+	/**
+	 * Sets the element at the given index.
+	 *
+	 * @param index the element index in {@code [0, length())}
+	 * @param value the new value
+	 */
+	// Made final for potential (automated) inlining by JVM
+	public final void set(final long index, final long value) {
+		slabs[(int) (index >>> slabShift)].put((int) (index & slabMask), value);
+	}
+
+	/**
+	 * Swaps the elements at the given indexes.
+	 *
+	 * @param a the first index
+	 * @param b the second index
+	 */
+	public void swap(long a, long b) {
+		long h = get(a);
+		set(a, get(b));
+		set(b, h);
+	}
+
+	/**
+	 * Searches the sorted range {@code [from, to)} for the given key, with the same contract as
+	 * {@link java.util.Arrays#binarySearch(long[], int, int, long)}.
+	 *
+	 * @param from the first index of the range (inclusive)
+	 * @param to   the last index of the range (exclusive)
+	 * @param key  the key to search for
+	 * @return the index of the key if found, otherwise {@code -(insertion point) - 1}
+	 */
+	public long binarySearch(long from, long to, final long key) {
+		long lo = from;
+		long hi = to - 1;
+		while (lo <= hi) {
+			final long mid = (lo + hi) >>> 1;
+			final long midVal = get(mid);
+			if (midVal < key) {
+				lo = mid + 1;
+			} else if (midVal > key) {
+				hi = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -(lo + 1);
+	}
+}
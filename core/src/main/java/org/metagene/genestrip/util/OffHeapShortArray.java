@@ -0,0 +1,120 @@
+/*
+ * 
+ * “Commons Clause” License Condition v1.0
+ * 
+ * The Software is provided to you by the Licensor under the License, 
+ * as defined below, subject to the following condition.
+ * 
+ * Without limiting other conditions in the License, the grant of rights under the License 
+ * will not include, and the License does not grant to you, the right to Sell the Software.
+ * 
+ * For purposes of the foregoing, “Sell” means practicing any or all of the rights granted 
+ * to you under the License to provide to third parties, for a fee or other consideration 
+ * (including without limitation fees for hosting or consulting/ support services related to 
+ * the Software), a product or service whose value derives, entirely or substantially, from the 
+ * functionality of the Software. Any license notice or attribution required by the License 
+ * must also include this Commons Clause License Condition notice.
+ * 
+ * Software: genestrip
+ * 
+ * License: Apache 2.0
+ * 
+ * Licensor: Daniel Pfeifer (daniel.pfeifer@progotec.de)
+ * 
+ */
+package org.metagene.genestrip.util;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+
+/**
+ * A fixed-capacity {@code short} array that lives off the Java heap in direct {@link ByteBuffer}
+ * slabs of {@code 2^slabShift} elements each; see {@link OffHeapLongArray}.
+ */
+public final class OffHeapShortArray {
+	/** The default log2 of the number of elements per slab (1 GB per slab). */
+	public static final int DEFAULT_SLAB_SHIFT = 29;
+
+	private final ShortBuffer[] slabs;
+	private final int slabShift;
+	private final long slabMask;
+	private final long length;
+
+	/**
+	 * Creates a zero-initialized array using slabs of the default size.
+	 *
+	 * @param length the number of elements
+	 */
+	public OffHeapShortArray(long length) {
+		this(length, DEFAULT_SLAB_SHIFT);
+	}
+
+	/**
+	 * Creates a zero-initialized array using slabs of {@code 2^slabShift} elements.
+	 *
+	 * @param length the number of elements
+	 * @param slabShift log2 of the number of elements per slab
+	 */
+	public OffHeapShortArray(long length, int slabShift) {
+		if (length < 0) {
+			throw new IllegalArgumentException("Negative length: " + length);
+		}
+		if (slabShift < 1 || slabShift > DEFAULT_SLAB_SHIFT) {
+			throw new IllegalArgumentException("slabShift must be in [1, " + DEFAULT_SLAB_SHIFT + "], got " + slabShift);
+		}
+		this.length = length;
+		this.slabShift = slabShift;
+		long slabSize = 1L << slabShift;
+		this.slabMask = slabSize - 1;
+		int n = (int) ((length + slabSize - 1) >>> slabShift);
+		slabs = new ShortBuffer[n];
+		for (int i = 0; i < n; i++) {
+			long elements = Math.min(slabSize, length - (((long) i) << slabShift));
+			slabs[i] = ByteBuffer.allocateDirect((int) (elements * Short.BYTES)).order(ByteOrder.nativeOrder()).asShortBuffer();
+		}
+	}
+
+	/**
+	 * Returns the number of elements.
+	 *
+	 * @return the number of elements
+	 */
+	public long length() {
+		return length;
+	}
+
+	/**
+	 * Returns the element at the given index.
+	 *
+	 * @param index the element index in {@code [0, length())}
+	 * @return the element at the given index
+	 */
+	// Made final for potential (automated) inlining by JVM
+	public final short get(final long index) {
+		return slabs[(int) (index >>> slabShift)].get((int) (index & slabMask));
+	}
+
+	/**
+	 * Sets the element at the given index.
+	 *
+	 * @param index the element index in {@code [0, length())}
+	 * @param value the new value
+	 */
+	// Made final for potential (automated) inlining by JVM
+	public final void set(final long index, final short value) {
+		slabs[(int) (index >>> slabShift)].put((int) (index & slabMask), value);
+	}
+
+	/**
+	 * Swaps the elements at the given indexes.
+	 *
+	 * @param a the first index
+	 * @param b the second index
+	 */
+	public void swap(long a, long b) {
+		short h = get(a);
+		set(a, get(b));
+		set(b, h);
+	}
+}
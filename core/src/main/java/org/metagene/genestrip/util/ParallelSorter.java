@@ -0,0 +1,233 @@
+/*
+ * 
+ * “Commons Clause” License Condition v1.0
+ * 
+ * The Software is provided to you by the Licensor under the License, 
+ * as defined below, subject to the following condition.
+ * 
+ * Without limiting other conditions in the License, the grant of rights under the License 
+ * will not include, and the License does not grant to you, the right to Sell the Software.
+ * 
+ * For purposes of the foregoing, “Sell” means practicing any or all of the rights granted 
+ * to you under the License to provide to third parties, for a fee or other consideration 
+ * (including without limitation fees for hosting or consulting/ support services related to 
+ * the Software), a product or service whose value derives, entirely or substantially, from the 
+ * functionality of the Software. Any license notice or attribution required by the License 
+ * must also include this Commons Clause License Condition notice.
+ * 
+ * Software: genestrip
+ * 
+ * License: Apache 2.0
+ * 
+ * Licensor: Daniel Pfeifer (daniel.pfeifer@progotec.de)
+ * 
+ */
+package org.metagene.genestrip.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import it.unimi.dsi.fastutil.BigArrays;
+
+/**
+ * In-place sorting of non-negative {@code long} keys (such as k-mers) together with any satellite
+ * data, mostly multi-threaded, plus small helpers to split work on index ranges across a given
+ * number of threads. The sort first partitions the keys by their most significant bits in a single
+ * in-place MSD radix pass ("American flag sort") and then sorts the resulting partitions concurrently
+ * via fastutil's {@link BigArrays#quickSort}. It needs no extra memory beyond the partition counters.
+ * Only the counting of the radix pass and the partition sorts run concurrently: moving the keys into
+ * their partitions is a single-threaded permutation, since an in-place permutation by several threads
+ * would need a repair phase for the keys left misplaced. This move takes linear time, whereas the
+ * partition sorts take {@code n log n}.
+ * <p>
+ * The helpers use a short-lived thread pool of their own, so they may be called while the threads
+ * of an {@link org.metagene.genestrip.ExecutionContext} are still blocked on other work.
+ */
+public final class ParallelSorter {
+	/** Below this number of keys, sorting is always single-threaded. */
+	public static final long MIN_PARALLEL_SIZE = 1 << 16;
+	/** The number of most significant key bits used for partitioning. */
+	public static final int PARTITION_BITS = 10;
+	// Number of ranges per thread for range-splitting helpers, to balance uneven work.
+	private static final int RANGES_PER_THREAD = 4;
+
+	// Static utility class - not meant to be instantiated.
+	private ParallelSorter() {
+	}
+
+	/**
+	 * Access to the keys and satellite data to be sorted.
+	 */
+	public interface KeySwapper {
+		/**
+		 * Returns the key at the given index.
+		 *
+		 * @param index the index
+		 * @return the (non-negative) key at the given index
+		 */
+		long key(long index);
+
+		/**
+		 * Swaps the keys and satellite data at the given indexes.
+		 *
+		 * @param a the first index
+		 * @param b the second index
+		 */
+		void swap(long a, long b);
+	}
+
+	/**
+	 * A unit of work on the index range {@code [from, to)}.
+	 */
+	public interface RangeTask {
+		/**
+		 * Processes the given index range.
+		 *
+		 * @param from the first index (inclusive)
+		 * @param to   the last index (exclusive)
+		 */
+		void run(long from, long to);
+	}
+
+	/**
+	 * Sorts the keys in {@code [0, n)} in ascending order, using up to {@code threads} threads.
+	 *
+	 * @param n       the number of keys
+	 * @param keyBits the number of significant key bits, i.e. all keys are in {@code [0, 2^keyBits)}
+	 * @param data    access to the keys and satellite data
+	 * @param threads the number of threads to use
+	 */
+	public static void sort(long n, int keyBits, KeySwapper data, int threads) {
+		if (threads <= 1 || n < MIN_PARALLEL_SIZE) {
+			quickSort(0, n, data);
+			return;
+		}
+		int bits = Math.min(PARTITION_BITS, keyBits);
+		int shift = keyBits - bits;
+		int nParts = 1 << bits;
+
+		// Pass 1: count the keys per partition, each thread over its own range.
+		long[][] localCounts = new long[threads][];
+		List<Callable<Void>> tasks = new ArrayList<>();
+		long chunk = (n + threads - 1) / threads;
+		for (int t = 0; t < threads; t++) {
+			final int tf = t;
+			final long from = Math.min(n, t * chunk);
+			final long to = Math.min(n, from + chunk);
+			tasks.add(() -> {
+				long[] counts = new long[nParts];
+				for (long i = from; i < to; i++) {
+					counts[(int) (data.key(i) >>> shift)]++;
+				}
+				localCounts[tf] = counts;
+				return null;
+			});
+		}
+		invokeAll(threads, tasks);
+		long[] start = new long[nParts + 1];
+		for (int p = 0; p < nParts; p++) {
+			long c = 0;
+			for (long[] counts : localCounts) {
+				c += counts[p];
+			}
+			start[p + 1] = start[p] + c;
+		}
+
+		// Pass 2: move every key into its partition in place (cycle leader permutation). Single-threaded,
+		// see the class comment.
+		long[] next = new long[nParts];
+		System.arraycopy(start, 0, next, 0, nParts);
+		for (int p = 0; p < nParts; p++) {
+			long end = start[p + 1];
+			while (next[p] < end) {
+				long i = next[p];
+				int q = (int) (data.key(i) >>> shift);
+				if (q == p) {
+					next[p]++;
+				} else {
+					data.swap(i, next[q]++);
+				}
+			}
+		}
+
+		// Pass 3: sort the partitions concurrently.
+		tasks.clear();
+		for (int p = 0; p < nParts; p++) {
+			final long from = start[p];
+			final long to = start[p + 1];
+			if (to - from > 1) {
+				tasks.add(() -> {
+					quickSort(from, to, data);
+					return null;
+				});
+			}
+		}
+		invokeAll(threads, tasks);
+	}
+
+	private static void quickSort(long from, long to, KeySwapper data) {
+		BigArrays.quickSort(from, to, (k1, k2) -> Long.compare(data.key(k1), data.key(k2)), data::swap);
+	}
+
+	/**
+	 * Splits {@code [0, n)} into consecutive ranges and processes them using up to {@code threads}
+	 * threads. With a single thread, the whole range is processed by the calling thread.
+	 *
+	 * @param n       the size of the index range
+	 * @param threads the number of threads to use
+	 * @param task    the task processing each range
+	 */
+	public static void forRanges(long n, int threads, RangeTask task) {
+		if (threads <= 1 || n < MIN_PARALLEL_SIZE) {
+			task.run(0, n);
+			return;
+		}
+		int nRanges = threads * RANGES_PER_THREAD;
+		long chunk = (n + nRanges - 1) / nRanges;
+		List<Callable<Void>> tasks = new ArrayList<>();
+		for (long from = 0; from < n; from += chunk) {
+			final long f = from;
+			final long t = Math.min(n, from + chunk);
+			tasks.add(() -> {
+				task.run(f, t);
+				return null;
+			});
+		}
+		invokeAll(threads, tasks);
+	}
+
+	/**
+	 * Runs the given tasks on a thread pool of the given size and waits for their completion. An
+	 * exception thrown by a task is rethrown (wrapped in a {@link RuntimeException} if checked).
+	 *
+	 * @param threads the number of threads to use
+	 * @param tasks   the tasks to run
+	 */
+	public static void invokeAll(int threads, List<Callable<Void>> tasks) {
+		ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, tasks.size())));
+		try {
+			for (Future<Void> future : pool.invokeAll(tasks)) {
+				future.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new RuntimeException(cause);
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+}
@@ -0,0 +1,311 @@
+/*
+ * 
+ * “Commons Clause” License Condition v1.0
+ * 
+ * The Software is provided to you by the Licensor under the License, 
+ * as defined below, subject to the following condition.
+ * 
+ * Without limiting other conditions in the License, the grant of rights under the License 
+ * will not include, and the License does not grant to you, the right to Sell the Software.
+ * 
+ * For purposes of the foregoing, “Sell” means practicing any or all of the rights granted 
+ * to you under the License to provide to third parties, for a fee or other consideration 
+ * (including without limitation fees for hosting or consulting/ support services related to 
+ * the Software), a product or service whose value derives, entirely or substantially, from the 
+ * functionality of the Software. Any license notice or attribution required by the License 
+ * must also include this Commons Clause License Condition notice.
+ * 
+ * Software: genestrip
+ * 
+ * License: Apache 2.0
+ * 
+ * Licensor: Daniel Pfeifer (daniel.pfeifer@progotec.de)
+ * 
+ */
+package org.metagene.genestrip.util;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A bounded, lock-free multi-producer/multi-consumer queue over a ring of slots, each carrying a sequence
+ * number that tells producers and consumers whether the slot is free or filled for their turn (D. Vyukov's
+ * bounded MPMC queue, like the ring of the LMAX Disruptor). A {@link #put(Object)} or {@link #take()} is a
+ * single compare-and-set on the enqueue or dequeue position, so no monitor is taken per element.
+ * When the queue is full or empty, callers first spin briefly, then yield and finally park for short
+ * periods, so idle consumers do not burn a core. Like {@link SimpleBlockingQueue}, only what genestrip
+ * needs from {@link BlockingQueue} is implemented.
+ *
+ * @param <T> the type of elements held in this queue
+ */
+public class RingBlockingQueue<T> implements BlockingQueue<T> {
+    private static final VarHandle LONG_ARRAY_HANDLE = MethodHandles.arrayElementVarHandle(long[].class);
+
+    // The enqueue and dequeue positions live in one array, but on different cache lines (and away from
+    // the array header) to avoid false sharing between producers and consumers.
+    private static final int ENQUEUE = 8;
+    private static final int DEQUEUE = 24;
+    private static final int POSITIONS_LENGTH = 32;
+
+    private static final int SPINS = 100;
+    private static final int YIELDS = 10;
+    private static final long PARK_NANOS = 50_000;
+
+    private final Object[] slots;
+    private final long[] sequences;
+    private final long[] positions;
+    private final int mask;
+    private final int capacity;
+    private Metrics.Counter putWaitNanos;
+    private Metrics.Counter takeWaitNanos;
+
+    /**
+     * Creates a queue with at least the given capacity. The actual ring size is the next power of two,
+     * but at most {@code capacity} elements are held at any time.
+     *
+     * @param capacity the capacity of the queue
+     */
+    public RingBlockingQueue(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be >= 1, got " + capacity);
+        }
+        this.capacity = capacity;
+        int ringSize = Integer.highestOneBit(capacity);
+        if (ringSize < capacity) {
+            ringSize <<= 1;
+        }
+        slots = new Object[ringSize];
+        sequences = new long[ringSize];
+        for (int i = 0; i < ringSize; i++) {
+            sequences[i] = i;
+        }
+        positions = new long[POSITIONS_LENGTH];
+        mask = ringSize - 1;
+    }
+
+    /**
+     * Sets counters to which the nanoseconds spent waiting in {@link #put(Object)} on a full queue and
+     * in {@link #take()} on an empty queue are added. Time is only measured when a wait is necessary.
+     *
+     * @param putWaitNanos  the counter for waiting producers or {@code null} for none
+     * @param takeWaitNanos the counter for waiting consumers or {@code null} for none
+     */
+    public void setWaitCounters(Metrics.Counter putWaitNanos, Metrics.Counter takeWaitNanos) {
+        this.putWaitNanos = putWaitNanos;
+        this.takeWaitNanos = takeWaitNanos;
+    }
+
+    @Override
+    public final void put(final T item) throws InterruptedException {
+        int waits = 0;
+        long start = 0;
+        while (!offer(item)) {
+            if (waits == 0) {
+                start = System.nanoTime();
+            }
+            waits = await(waits);
+        }
+        if (waits > 0 && putWaitNanos != null) {
+            putWaitNanos.addToThreadSlot(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public final T take() throws InterruptedException {
+        int waits = 0;
+        T item;
+        long start = 0;
+        while ((item = poll()) == null) {
+            if (waits == 0) {
+                start = System.nanoTime();
+            }
+            waits = await(waits);
+        }
+        if (waits > 0 && takeWaitNanos != null) {
+            takeWaitNanos.addToThreadSlot(System.nanoTime() - start);
+        }
+        return item;
+    }
+
+    @Override
+    public final boolean offer(final T item) {
+        if (item == null) {
+            throw new NullPointerException("null is not allowed as an element.");
+        }
+        long pos = (long) LONG_ARRAY_HANDLE.getVolatile(positions, ENQUEUE);
+        for (;;) {
+            if (pos - (long) LONG_ARRAY_HANDLE.getVolatile(positions, DEQUEUE) >= capacity) {
+                return false;
+            }
+            final int index = (int) pos & mask;
+            final long diff = (long) LONG_ARRAY_HANDLE.getAcquire(sequences, index) - pos;
+            if (diff == 0) {
+                if (LONG_ARRAY_HANDLE.compareAndSet(positions, ENQUEUE, pos, pos + 1)) {
+                    slots[index] = item;
+                    // Publishes the slot to the consumer of position 'pos'.
+                    LONG_ARRAY_HANDLE.setRelease(sequences, index, pos + 1);
+                    return true;
+                }
+                pos = (long) LONG_ARRAY_HANDLE.getVolatile(positions, ENQUEUE);
+            } else if (diff < 0) {
+                // The slot still holds the element of the previous round: the ring is full.
+                return false;
+            } else {
+                pos = (long) LONG_ARRAY_HANDLE.getVolatile(positions, ENQUEUE);
+            }
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public final T poll() {
+        long pos = (long) LONG_ARRAY_HANDLE.getVolatile(positions, DEQUEUE);
+        for (;;) {
+            final int index = (int) pos & mask;
+            final long diff = (long) LONG_ARRAY_HANDLE.getAcquire(sequences, index) - (pos + 1);
+            if (diff == 0) {
+                if (LONG_ARRAY_HANDLE.compareAndSet(positions, DEQUEUE, pos, pos + 1)) {
+                    final T item = (T) slots[index];
+                    slots[index] = null;
+                    // Frees the slot for the producer of the next round.
+                    LONG_ARRAY_HANDLE.setRelease(sequences, index, pos + mask + 1);
+                    return item;
+                }
+                pos = (long) LONG_ARRAY_HANDLE.getVolatile(positions, DEQUEUE);
+            } else if (diff < 0) {
+                // The slot has not been filled for this round yet: the queue is empty.
+                return null;
+            } else {
+                pos = (long) LONG_ARRAY_HANDLE.getVolatile(positions, DEQUEUE);
+            }
+        }
+    }
+
+    // Spin, then yield, then park briefly. Returns the updated wait count.
+    private static int await(int waits) throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        if (waits < SPINS) {
+            Thread.onSpinWait();
+        } else if (waits < SPINS + YIELDS) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(PARK_NANOS);
+            return waits;
+        }
+        return waits + 1;
+    }
+
+    @Override
+    public int size() {
+        long size = (long) LONG_ARRAY_HANDLE.getVolatile(positions, ENQUEUE)
+                - (long) LONG_ARRAY_HANDLE.getVolatile(positions, DEQUEUE);
+        return (int) Math.max(0, Math.min(capacity, size));
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return capacity - size();
+    }
+
+    @Override
+    public boolean add(T t) {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
+    @Override
+    public boolean offer(T t, long timeout, TimeUnit unit) throws InterruptedException {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
+    @Override
+    public T poll(long timeout, TimeUnit unit) throws InterruptedException {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
+    @Override
+    public int drainTo(Collection<? super T> c) {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
+    @Override
+    public int drainTo(Collection<? super T> c, int maxElements) {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
+    @Override
+    public T remove() {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
+    @Override
+    public T element() {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
+    @Override
+    public T peek() {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
+    @Override
+    public Object[] toArray() {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
+    @Override
+    public <T1> T1[] toArray(T1[] a) {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
+    @Override
+    public boolean containsAll(Collection<?> c) {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends T> c) {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
+    @Override
+    public boolean removeAll(Collection<?> c) {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
+    @Override
+    public boolean retainAll(Collection<?> c) {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
+    @Override
+    public void clear() {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+}
@@ -43,6 +43,8 @@ public class SimpleBlockingQueue<T> implements BlockingQueue<T> {
     private int size = 0;
     private int head = 0;
     private int tail = 0;
+    private Metrics.Counter putWaitNanos;
+    private Metrics.Counter takeWaitNanos;
 
     /**
      * Creates a blocking queue with the given fixed capacity.
@@ -55,12 +57,30 @@ public class SimpleBlockingQueue<T> implements BlockingQueue<T> {
         array = (T[]) new Object[capacity];
     }
 
+    /**
+     * Sets counters to which the nanoseconds spent waiting in {@link #put(Object)} on a full queue and
+     * in {@link #take()} on an empty queue are added. Time is only measured when a wait is necessary.
+     *
+     * @param putWaitNanos  the counter for waiting producers or {@code null} for none
+     * @param takeWaitNanos the counter for waiting consumers or {@code null} for none
+     */
+    public void setWaitCounters(Metrics.Counter putWaitNanos, Metrics.Counter takeWaitNanos) {
+        this.putWaitNanos = putWaitNanos;
+        this.takeWaitNanos = takeWaitNanos;
+    }
+
 
     @Override
     public final void put(final T item) throws InterruptedException {
         synchronized (lock) {
-            while (size == capacity) {
-                lock.wait();
+            if (size == capacity) {
+                long start = System.nanoTime();
+                while (size == capacity) {
+                    lock.wait();
+                }
+                if (putWaitNanos != null) {
+                    putWaitNanos.addToThreadSlot(System.nanoTime() - start);
+                }
             }
 
             if (tail == capacity) {
@@ -80,8 +100,14 @@ public class SimpleBlockingQueue<T> implements BlockingQueue<T> {
         T item = null;
 
         synchronized (lock) {
-            while (size == 0) {
-                lock.wait();
+            if (size == 0) {
+                long start = System.nanoTime();
+                while (size == 0) {
+                    lock.wait();
+                }
+                if (takeWaitNanos != null) {
+                    takeWaitNanos.addToThreadSlot(System.nanoTime() - start);
+                }
             }
 
             if (head == capacity) {
@@ -105,8 +131,20 @@ public class SimpleBlockingQueue<T> implements BlockingQueue<T> {
     }
 
     @Override
-    public boolean offer(T t) {
-        throw new UnsupportedOperationException("Not supported yet.");
+    public boolean offer(T item) {
+        synchronized (lock) {
+            if (size == capacity) {
+                return false;
+            }
+            if (tail == capacity) {
+                tail = 0;
+            }
+            array[tail] = item;
+            size++;
+            tail++;
+            lock.notify();
+            return true;
+        }
     }
 
     @Override
@@ -24,6 +24,7 @@
  */
 package org.metagene.genestrip.bloom;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
@@ -129,6 +130,37 @@ public class KMerBloomFilterTest {
 		assertTrue(testedFp <= fpp * 1.1);
 	}
 
+	@Test
+	public void testContainsLongBatch() {
+		KMerProbFilter filter = createFilter(size, fpp);
+		long[] kmers = new long[1000];
+		boolean[] contains = new boolean[kmers.length];
+		byte[] read = new byte[k];
+		for (int i = 0; i < kmers.length; i++) {
+			for (int j = 0; j < k; j++) {
+				read[j] = CGAT.DECODE_TABLE[random.nextInt(4)];
+			}
+			kmers[i] = CGAT.kMerToLong(read, 0, k, null);
+			if (i % 2 == 0) {
+				filter.putLong(kmers[i]);
+			}
+		}
+		// Only the first n entries count.
+		int n = kmers.length - 3;
+		contains[n] = true;
+		int count = filter.containsLongBatch(kmers, n, contains);
+		int expected = 0;
+		for (int i = 0; i < n; i++) {
+			assertEquals(filter.containsLong(kmers[i]), contains[i]);
+			if (contains[i]) {
+				expected++;
+			}
+		}
+		assertEquals(expected, count);
+		assertTrue(contains[n]);
+		assertTrue(count >= n / 2);
+	}
+
 	public final boolean contains(KMerProbFilter filter, byte[] seq, int start, int[] badPos) {
 		long data = CGAT.kMerToLong(seq, start, k, badPos);
 		if (data == -1 && badPos != null && badPos[0] == -1) {
@@ -27,10 +27,19 @@ package org.metagene.genestrip.fastq;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.junit.Test;
 import org.metagene.genestrip.DefaultExecutionContext;
+import org.metagene.genestrip.io.ConcurrentBlockWriter;
 import org.metagene.genestrip.util.ByteArrayUtil;
 
 public class FastqReaderTest {
@@ -78,6 +87,163 @@ public class FastqReaderTest {
 		assertEquals(2, calls[0]);
 	}
 
+	@Test
+	public void testBatchedMultiThreadFastqReader() throws IOException {
+		for (boolean fasta : new boolean[] { false, true }) {
+			byte[] data = createReads(5000, fasta);
+			Map<Long, String> expected = readAll(data, fasta, 0, 1, false);
+			assertEquals(5000, expected.size());
+			// Batch sizes that do and do not divide the number of reads.
+			for (int batchSize : new int[] { 1, 7, 64, 1000 }) {
+				assertEquals(expected, readAll(data, fasta, 3, batchSize, false));
+			}
+		}
+	}
+
+	@Test
+	public void testParallelParsingFastqReader() throws IOException {
+		// Enough reads for several chunks.
+		byte[] data = createReads(40000, false);
+		Map<Long, String> expected = readAll(data, false, 0, 1, false);
+		for (int batchSize : new int[] { 1, 32 }) {
+			Map<Long, String> actual = readAll(data, false, 3, batchSize, true);
+			assertEquals(expected.size(), actual.size());
+			// The read numbers carry chunk numbers but must still follow the input order.
+			Iterator<String> it = new TreeMap<>(actual).values().iterator();
+			for (long i = 0; i < expected.size(); i++) {
+				assertEquals(expected.get(i), it.next());
+			}
+		}
+		// FASTA falls back to reading by the producer.
+		byte[] fastaData = createReads(1000, true);
+		assertEquals(readAll(fastaData, true, 0, 1, false), readAll(fastaData, true, 3, 1, true));
+	}
+
+	@Test
+	public void testParallelParsingMultiLineFastq() throws IOException {
+		// Wrapped sequence and quality lines, so there are no four-line records to split the input at.
+		byte[] data = createReads(40000, false, 10);
+		Map<Long, String> expected = readAll(data, false, 0, 1, false);
+		assertEquals(40000, expected.size());
+		assertEquals(expected, readAll(data, false, 3, 1, true));
+		assertEquals(expected, readAll(data, false, 3, 32, true));
+	}
+
+	@Test
+	public void testParallelParsingOrderedOutput() throws IOException {
+		byte[] data = createReads(40000, false);
+		String expected = rewriteAll(data, 0, false);
+		assertEquals(expected, rewriteAll(data, 3, false));
+		// The chunks' read numbers have gaps, which the ends of the chunks bridge.
+		assertEquals(expected, rewriteAll(data, 3, true));
+	}
+
+	// Rewrites the reads of even length: in order via a writer with consumers, otherwise directly.
+	protected String rewriteAll(byte[] data, int consumers, boolean parallelParsing) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		DefaultExecutionContext bundle = new DefaultExecutionContext(null, consumers, 1, false, 32,
+				parallelParsing);
+		ConcurrentBlockWriter writer = consumers == 0 ? null : new ConcurrentBlockWriter(out, consumers, 256, true);
+		AbstractFastqReader fastqReader = new AbstractFastqReader(2, 16, 10, bundle, true) {
+			@Override
+			protected void nextEntry(ReadEntry readStruct, int threadIndex) throws IOException {
+				boolean write = readStruct.readSize % 2 == 0;
+				if (writer != null) {
+					rewriteInput(readStruct, writer, write, threadIndex);
+				} else if (write) {
+					rewriteInput(readStruct, out);
+				}
+			}
+
+			@Override
+			protected void endChunk(long readNo, long nextReadNo, int threadIndex) throws IOException {
+				writer.getSlot(threadIndex).endChunk(readNo, nextReadNo);
+			}
+		};
+		try {
+			fastqReader.readFastq(new ByteArrayInputStream(data), false);
+			if (writer != null) {
+				writer.close();
+			}
+		} finally {
+			fastqReader.dump();
+		}
+		return out.toString(StandardCharsets.US_ASCII.name());
+	}
+
+	@Test
+	public void testLastRecordStart() {
+		byte[] data = "@A\nAC\n+\n@I\n@B\nGT\n+\n@@\n@C\nA".getBytes(StandardCharsets.US_ASCII);
+		// "@C" is not verified as the '+' line is missing, and the quality line "@@" is ruled out.
+		assertEquals(11, AbstractFastqReader.lastRecordStart(data, data.length));
+		assertEquals(-1, AbstractFastqReader.lastRecordStart(data, 11));
+	}
+
+	protected Map<Long, String> readAll(byte[] data, boolean fasta, int consumers, int batchSize,
+			boolean parallelParsing) throws IOException {
+		Map<Long, String> result = new ConcurrentHashMap<>();
+		DefaultExecutionContext bundle = new DefaultExecutionContext(null, consumers, 1, false, batchSize,
+				parallelParsing);
+		AbstractFastqReader fastqReader = new AbstractFastqReader(2, 16, 10, bundle, !fasta) {
+			@Override
+			protected void nextEntry(ReadEntry readStruct, int threadIndex) throws IOException {
+				String s = new String(readStruct.readDescriptor, 0, readStruct.readDescriptorSize,
+						StandardCharsets.US_ASCII) + " "
+						+ new String(readStruct.read, 0, readStruct.readSize, StandardCharsets.US_ASCII);
+				if (readStruct.readProbs != null) {
+					s += " " + new String(readStruct.readProbs, 0, readStruct.readProbsSize,
+							StandardCharsets.US_ASCII);
+				}
+				assertNull(result.put(readStruct.readNo, s));
+			}
+		};
+		try {
+			fastqReader.readFastq(new ByteArrayInputStream(data), fasta);
+			// A second stream through the same reader must start over.
+			result.clear();
+			fastqReader.readFastq(new ByteArrayInputStream(data), fasta);
+		} finally {
+			fastqReader.dump();
+		}
+		return result;
+	}
+
+	protected byte[] createReads(int n, boolean fasta) {
+		return createReads(n, fasta, 0);
+	}
+
+	// Wraps the sequence and quality lines after 'wrap' characters unless 'wrap' is 0.
+	protected byte[] createReads(int n, boolean fasta, int wrap) {
+		Random r = new Random(42);
+		StringBuilder b = new StringBuilder();
+		for (int i = 0; i < n; i++) {
+			b.append(fasta ? '>' : '@').append("R").append(i).append('\n');
+			// Some reads exceed the initial buffer size and force it to grow.
+			int len = 1 + r.nextInt(40);
+			StringBuilder read = new StringBuilder();
+			for (int j = 0; j < len; j++) {
+				read.append("ACGT".charAt(r.nextInt(4)));
+			}
+			appendWrapped(b, read, wrap);
+			if (!fasta) {
+				b.append("+\n");
+				StringBuilder probs = new StringBuilder();
+				for (int j = 0; j < len; j++) {
+					probs.append((char) ('!' + r.nextInt(40)));
+				}
+				appendWrapped(b, probs, wrap);
+			}
+		}
+		return b.toString().getBytes(StandardCharsets.US_ASCII);
+	}
+
+	private static void appendWrapped(StringBuilder b, CharSequence s, int wrap) {
+		int step = wrap == 0 ? s.length() : wrap;
+		for (int i = 0; i < s.length(); i += step) {
+			b.append(s, i, Math.min(s.length(), i + step)).append('\n');
+		}
+	}
+
 	protected String probs(String s, boolean withProbs) {
 		if (withProbs) {
 			return s;
@@ -139,7 +139,7 @@ public class ComprehensiveFilterTest extends ComprehensiveMatchTest {
                             protected void rewriteInput(ReadEntry readStruct, OutputStream out) throws IOException {
                                 MatcherReadEntry matcherReadEntry = (MatcherReadEntry) readStruct;
                                 for (int i = 0; i < matcherReadEntry.usedPaths; i++) {
-                                    if (matcherReadEntry.readTaxIdNode[i].isRequested()) {
+                                    if (taxTree.getNodeByIndex(matcherReadEntry.readTaxIds[i]).isRequested()) {
                                         super.rewriteInput(readStruct, out);
                                         break;
                                     }
@@ -0,0 +1,216 @@
+/*
+ * 
+ * “Commons Clause” License Condition v1.0
+ * 
+ * The Software is provided to you by the Licensor under the License, 
+ * as defined below, subject to the following condition.
+ * 
+ * Without limiting other conditions in the License, the grant of rights under the License 
+ * will not include, and the License does not grant to you, the right to Sell the Software.
+ * 
+ * For purposes of the foregoing, “Sell” means practicing any or all of the rights granted 
+ * to you under the License to provide to third parties, for a fee or other consideration 
+ * (including without limitation fees for hosting or consulting/ support services related to 
+ * the Software), a product or service whose value derives, entirely or substantially, from the 
+ * functionality of the Software. Any license notice or attribution required by the License 
+ * must also include this Commons Clause License Condition notice.
+ * 
+ * Software: genestrip
+ * 
+ * License: Apache 2.0
+ * 
+ * Licensor: Daniel Pfeifer (daniel.pfeifer@progotec.de)
+ * 
+ */
+package org.metagene.genestrip.goals.refseq;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.metagene.genestrip.refseq.AbstractRefSeqFastaReader.StringLong2DigitTrie;
+import org.metagene.genestrip.refseq.AbstractStoreFastaReader;
+import org.metagene.genestrip.tax.TaxTree;
+import org.metagene.genestrip.tax.TaxTree.TaxIdNode;
+
+public class FastaReaderGoalTest {
+    private static final int BUFFER_SIZE = 4096;
+
+    @Test
+    public void testLastRegionStart() {
+        byte[] data = ">a\nCGAT\n>b\nCG\n>".getBytes(StandardCharsets.US_ASCII);
+        assertEquals(14, FastaReaderGoal.lastRegionStart(data, data.length));
+        assertEquals(8, FastaReaderGoal.lastRegionStart(data, 14));
+        assertEquals(-1, FastaReaderGoal.lastRegionStart(data, 8));
+        // A header at position 0 does not count.
+        assertEquals(-1, FastaReaderGoal.lastRegionStart(data, 3));
+    }
+
+    @Test
+    public void testSplitRegions() throws IOException {
+        byte[] fasta = createFasta(new Random(42), 50).getBytes(StandardCharsets.US_ASCII);
+        for (int chunkSize : new int[] { 1, 100, 1000, 10000, fasta.length, 2 * fasta.length }) {
+            List<byte[]> chunks = split(fasta, chunkSize);
+            ByteArrayOutputStream all = new ByteArrayOutputStream();
+            for (byte[] chunk : chunks) {
+                // Each chunk consists of complete regions.
+                assertEquals('>', chunk[0]);
+                assertEquals('\n', chunk[chunk.length - 1]);
+                all.write(chunk);
+            }
+            assertEquals(new String(fasta, StandardCharsets.US_ASCII), all.toString(StandardCharsets.US_ASCII.name()));
+            if (chunkSize > fasta.length) {
+                assertEquals(1, chunks.size());
+            } else if (chunkSize >= 1000) {
+                assertTrue(chunks.size() > 1);
+            }
+            // Streamed regions need not be read to the end by the consumer.
+            List<byte[]> unread = new ArrayList<>();
+            FastaReaderGoal.splitRegions(new ByteArrayInputStream(fasta), chunkSize, new FastaReaderGoal.ChunkConsumer() {
+                @Override
+                public void accept(byte[] data, int size) {
+                    unread.add(Arrays.copyOf(data, size));
+                }
+
+                @Override
+                public void acceptRegion(InputStream region) throws IOException {
+                    region.read();
+                }
+            });
+            for (byte[] chunk : unread) {
+                assertEquals('>', chunk[0]);
+                assertTrue(chunk.length <= 2 * chunkSize);
+            }
+        }
+    }
+
+    @Test
+    public void testChunksKeepRegionBookkeeping() throws IOException {
+        File dir = Files.createTempDirectory("fastachunks").toFile();
+        dir.deleteOnExit();
+        TaxTree tree = buildTree(dir);
+        TaxIdNode node = tree.getNodeByTaxId("2");
+        byte[] fasta = createFasta(new Random(42), 20).getBytes(StandardCharsets.US_ASCII);
+        File file = new File(dir, "test.fna");
+
+        // Per tax id limits on genomes and on k-mers.
+        int[][] limits = { { Integer.MAX_VALUE, Integer.MAX_VALUE }, { 5, Integer.MAX_VALUE }, { Integer.MAX_VALUE, 20000 } };
+        for (int[] limit : limits) {
+            RecordingReader whole = new RecordingReader(limit[0], limit[1]);
+            whole.ignoreAccessionMap(node);
+            whole.readFasta(file, new ByteArrayInputStream(fasta));
+            // The limits must take effect.
+            assertEquals(limit[0] == Integer.MAX_VALUE && limit[1] == Integer.MAX_VALUE, whole.regions.size() == 20);
+
+            for (int chunkSize : new int[] { 1, 1000, 10000 }) {
+                RecordingReader chunked = new RecordingReader(limit[0], limit[1]);
+                for (byte[] chunk : split(fasta, chunkSize)) {
+                    chunked.ignoreAccessionMap(node);
+                    chunked.readFasta(file, new ByteArrayInputStream(chunk));
+                }
+                assertTrue(whole.kmers.size() > 1000);
+                assertEquals(whole.regions, chunked.regions);
+                assertEquals(whole.kmers, chunked.kmers);
+                // Same counts of regions and k-mers.
+                assertEquals(whole.getRegionsPerTaxid().get("2").toString(),
+                        chunked.getRegionsPerTaxid().get("2").toString());
+            }
+        }
+    }
+
+    private static List<byte[]> split(byte[] fasta, int chunkSize) throws IOException {
+        List<byte[]> chunks = new ArrayList<>();
+        FastaReaderGoal.splitRegions(new ByteArrayInputStream(fasta), chunkSize, new FastaReaderGoal.ChunkConsumer() {
+            @Override
+            public void accept(byte[] data, int size) {
+                // Only regions fitting into a chunk are buffered.
+                assertTrue(size <= 2 * chunkSize);
+                chunks.add(Arrays.copyOf(data, size));
+            }
+
+            @Override
+            public void acceptRegion(InputStream region) throws IOException {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] buffer = new byte[777];
+                int n;
+                while ((n = region.read(buffer)) != -1) {
+                    out.write(buffer, 0, n);
+                }
+                chunks.add(out.toByteArray());
+            }
+        });
+        return chunks;
+    }
+
+    private static String createFasta(Random random, int regions) {
+        StringBuilder builder = new StringBuilder();
+        String bases = "CGAT";
+        for (int r = 0; r < regions; r++) {
+            builder.append(">NC_").append(r).append(".1 Test region\n");
+            // Some regions are larger than the chunks.
+            int size = random.nextInt(10) == 0 ? 20000 : 10 + random.nextInt(2000);
+            for (int i = 0; i < size; i++) {
+                builder.append(bases.charAt(random.nextInt(bases.length())));
+                if (i % 60 == 59) {
+                    builder.append('\n');
+                }
+            }
+            builder.append('\n');
+        }
+        return builder.toString();
+    }
+
+    private static TaxTree buildTree(File dir) throws IOException {
+        int[][] edges = { { 1, 1 }, { 2, 1 } };
+        StringBuilder nodes = new StringBuilder();
+        StringBuilder names = new StringBuilder();
+        for (int[] e : edges) {
+            nodes.append(e[0]).append("\t|\t").append(e[1]).append("\t|\tno rank\t|\t\t|\n");
+            names.append(e[0]).append("\t|\t").append(e[0]).append("\t|\t\t|\tscientific name\t|\n");
+        }
+        File nodesFile = new File(dir, TaxTree.NODES_DMP);
+        File namesFile = new File(dir, TaxTree.NAMES_DMP);
+        nodesFile.deleteOnExit();
+        namesFile.deleteOnExit();
+        Files.write(nodesFile.toPath(), nodes.toString().getBytes(StandardCharsets.UTF_8));
+        Files.write(namesFile.toPath(), names.toString().getBytes(StandardCharsets.UTF_8));
+        return new TaxTree(dir, false);
+    }
+
+    private static class RecordingReader extends AbstractStoreFastaReader {
+        private final List<Long> kmers = new ArrayList<>();
+        private final List<String> regions = new ArrayList<>();
+
+        public RecordingReader(int maxGenomesPerTaxId, long maxKmersPerTaxId) {
+            super(BUFFER_SIZE, Collections.emptySet(), null, 15, maxGenomesPerTaxId, null, maxKmersPerTaxId, -1, 1,
+                    false, new StringLong2DigitTrie(), false);
+        }
+
+        @Override
+        protected void infoLine() {
+            super.infoLine();
+            if (includeRegion) {
+                regions.add(new String(target, 0, size));
+            }
+        }
+
+        @Override
+        protected boolean handleStore() {
+            kmers.add(byteRingBuffer.getStandardKMer());
+            return true;
+        }
+    }
+}
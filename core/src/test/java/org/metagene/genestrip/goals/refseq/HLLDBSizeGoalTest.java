@@ -0,0 +1,131 @@
+/*
+ * 
+ * “Commons Clause” License Condition v1.0
+ * 
+ * The Software is provided to you by the Licensor under the License, 
+ * as defined below, subject to the following condition.
+ * 
+ * Without limiting other conditions in the License, the grant of rights under the License 
+ * will not include, and the License does not grant to you, the right to Sell the Software.
+ * 
+ * For purposes of the foregoing, “Sell” means practicing any or all of the rights granted 
+ * to you under the License to provide to third parties, for a fee or other consideration 
+ * (including without limitation fees for hosting or consulting/ support services related to 
+ * the Software), a product or service whose value derives, entirely or substantially, from the 
+ * functionality of the Software. Any license notice or attribution required by the License 
+ * must also include this Commons Clause License Condition notice.
+ * 
+ * Software: genestrip
+ * 
+ * License: Apache 2.0
+ * 
+ * Licensor: Daniel Pfeifer (daniel.pfeifer@progotec.de)
+ * 
+ */
+package org.metagene.genestrip.goals.refseq;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+import org.metagene.genestrip.store.RadixKMerStore;
+import org.metagene.genestrip.util.MurmurHash3DropIn;
+
+import net.agkn.hll.HLL;
+
+public class HLLDBSizeGoalTest {
+    private static final int RADIX_BITS = 16;
+    private static final int GROUP_BITS = 10;
+
+    @Test
+    public void testEstimate() {
+        int distinct = 2000000;
+        Random random = new Random(42);
+        // Two sets of sketches and counters as if filled by two reader threads.
+        HLL[][] sketches = new HLL[2][1 << GROUP_BITS];
+        int[][] included = new int[2][1 << RADIX_BITS];
+        for (int t = 0; t < 2; t++) {
+            for (int g = 0; g < sketches[t].length; g++) {
+                sketches[t][g] = HLLDBSizeGoal.createSketch();
+            }
+        }
+        HLLDBSizeGoal.BucketRegisters registers = new HLLDBSizeGoal.BucketRegisters(RADIX_BITS,
+                HLLDBSizeGoal.bucketLog2m(RADIX_BITS));
+        long total = 0;
+        for (int i = 0; i < distinct; i++) {
+            long kmer = random.nextLong() & ((1L << 62) - 1);
+            int radix = RadixKMerStore.radixOf(kmer, RADIX_BITS);
+            // Duplicates go to both threads.
+            int copies = 1 + random.nextInt(3);
+            for (int c = 0; c < copies; c++) {
+                int t = random.nextInt(2);
+                included[t][radix]++;
+                long hash = MurmurHash3DropIn.hash64(kmer, 17);
+                sketches[t][radix >>> (RADIX_BITS - GROUP_BITS)].addRaw(hash);
+                registers.add(radix, hash);
+                total++;
+            }
+        }
+        for (int g = 0; g < sketches[0].length; g++) {
+            sketches[0][g].union(sketches[1][g]);
+        }
+        for (int b = 0; b < included[0].length; b++) {
+            included[0][b] += included[1][b];
+        }
+
+        FillBloomFilterGoal.DBSize size = HLLDBSizeGoal.estimate(sketches[0], registers, included[0], RADIX_BITS - GROUP_BITS, 0);
+        assertTrue(size.getSize() < total);
+        // The bucket estimates are raised by two standard errors of the bucket sketches.
+        assertEquals(1.05, ((double) size.getSize()) / distinct, 0.05);
+        long sum = 0;
+        for (int b : size.getBucketSizes()) {
+            sum += b;
+        }
+        assertEquals(size.getSize(), sum);
+
+        FillBloomFilterGoal.DBSize withMargin = HLLDBSizeGoal.estimate(sketches[0], registers, included[0], RADIX_BITS - GROUP_BITS, 0.05);
+        assertTrue(withMargin.getSize() >= distinct);
+        assertEquals(1.05, ((double) withMargin.getSize()) / size.getSize(), 0.01);
+    }
+
+    @Test
+    public void testEstimateNonUniformDuplication() {
+        int distinct = 2000000;
+        Random random = new Random(42);
+        HLL[] sketches = new HLL[1 << GROUP_BITS];
+        for (int g = 0; g < sketches.length; g++) {
+            sketches[g] = HLLDBSizeGoal.createSketch();
+        }
+        HLLDBSizeGoal.BucketRegisters registers = new HLLDBSizeGoal.BucketRegisters(RADIX_BITS,
+                HLLDBSizeGoal.bucketLog2m(RADIX_BITS));
+        int[] included = new int[1 << RADIX_BITS];
+        int[] distinctPerBucket = new int[1 << RADIX_BITS];
+        for (int i = 0; i < distinct; i++) {
+            long kmer = random.nextLong() & ((1L << 62) - 1);
+            int radix = RadixKMerStore.radixOf(kmer, RADIX_BITS);
+            distinctPerBucket[radix]++;
+            // Within each group, the k-mers of every other bucket occur four times, the others once.
+            // So the group's ratio of distinct to included k-mers fits none of its buckets.
+            int copies = (radix & 1) == 0 ? 4 : 1;
+            long hash = MurmurHash3DropIn.hash64(kmer, 17);
+            for (int c = 0; c < copies; c++) {
+                included[radix]++;
+                sketches[radix >>> (RADIX_BITS - GROUP_BITS)].addRaw(hash);
+                registers.add(radix, hash);
+            }
+        }
+
+        FillBloomFilterGoal.DBSize size = HLLDBSizeGoal.estimate(sketches, registers, included, RADIX_BITS - GROUP_BITS, 0.05);
+        int[] bucketSizes = size.getBucketSizes();
+        // With this many buckets, a few may still be estimated slightly too small. The k-mers dropped
+        // due to this must be negligible.
+        long dropped = 0;
+        for (int b = 0; b < bucketSizes.length; b++) {
+            dropped += Math.max(0, distinctPerBucket[b] - bucketSizes[b]);
+        }
+        assertTrue("dropped " + dropped, dropped <= distinct / 100000);
+        assertEquals(1.1, ((double) size.getSize()) / distinct, 0.1);
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * 
+ * “Commons Clause” License Condition v1.0
+ * 
+ * The Software is provided to you by the Licensor under the License, 
+ * as defined below, subject to the following condition.
+ * 
+ * Without limiting other conditions in the License, the grant of rights under the License 
+ * will not include, and the License does not grant to you, the right to Sell the Software.
+ * 
+ * For purposes of the foregoing, “Sell” means practicing any or all of the rights granted 
+ * to you under the License to provide to third parties, for a fee or other consideration 
+ * (including without limitation fees for hosting or consulting/ support services related to 
+ * the Software), a product or service whose value derives, entirely or substantially, from the 
+ * functionality of the Software. Any license notice or attribution required by the License 
+ * must also include this Commons Clause License Condition notice.
+ * 
+ * Software: genestrip
+ * 
+ * License: Apache 2.0
+ * 
+ * Licensor: Daniel Pfeifer (daniel.pfeifer@progotec.de)
+ * 
+ */
+package org.metagene.genestrip.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+/**
+ * Stand-alone benchmark for {@link BufferedLineReader}: reads a synthetic FASTQ buffer (held in memory,
+ * so no I/O is measured) via the former byte by byte loop and via the current SWAR scan with bulk copies.
+ *
+ * Run: java -cp <cp> org.metagene.genestrip.io.BufferedLineReaderBenchmark [reads] [rounds]
+ */
+public class BufferedLineReaderBenchmark {
+	public static void main(String[] args) throws IOException {
+		int reads = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+		byte[] fastq = BufferedLineReaderTest.createFastq(reads);
+		// Real FASTQ has no null bytes.
+		for (int i = 0; i < fastq.length; i++) {
+			if (fastq[i] == 0) {
+				fastq[i] = 'N';
+			}
+		}
+		System.out.printf("FASTQ buffer: %d reads, %.1f MB%n", reads, fastq.length / 1e6);
+
+		byte[] target = new byte[1024];
+		long check = 0;
+		double scalarBest = Double.MAX_VALUE;
+		double swarBest = Double.MAX_VALUE;
+		for (int round = 0; round < rounds; round++) {
+			long start = System.nanoTime();
+			// Reads the header and the sequence line, skips '+' and the quality line as the fastq reader does.
+			BufferedLineReaderTest.ScalarLineReader scalar = new BufferedLineReaderTest.ScalarLineReader(
+					new ByteArrayInputStream(fastq), BufferedLineReader.DEFAULT_BUFFER_SIZE);
+			for (int size = scalar.nextLine(target, 0); size > 0; size = scalar.nextLine(target, 0)) {
+				check += scalar.nextLine(target, 0) + scalar.skipLine() + scalar.skipLine();
+			}
+			scalarBest = Math.min(scalarBest, (System.nanoTime() - start) / 1e9);
+
+			start = System.nanoTime();
+			BufferedLineReader swar = new BufferedLineReader(new ByteArrayInputStream(fastq),
+					BufferedLineReader.DEFAULT_BUFFER_SIZE, 0);
+			for (int size = swar.nextLine(target); size > 0; size = swar.nextLine(target)) {
+				check -= swar.nextLine(target) + swar.skipLine() + swar.skipLine();
+			}
+			swarBest = Math.min(swarBest, (System.nanoTime() - start) / 1e9);
+		}
+		if (check != 0) {
+			throw new AssertionError("Results differ.");
+		}
+		double scalarGBs = fastq.length / scalarBest / 1e9;
+		double swarGBs = fastq.length / swarBest / 1e9;
+		System.out.printf("byte by byte: %.2f GB/s   SWAR: %.2f GB/s   speedup %.2fx%n", scalarGBs, swarGBs,
+				swarGBs / scalarGBs);
+	}
+}
@@ -0,0 +1,240 @@
+/*
+ * 
+ * “Commons Clause” License Condition v1.0
+ * 
+ * The Software is provided to you by the Licensor under the License, 
+ * as defined below, subject to the following condition.
+ * 
+ * Without limiting other conditions in the License, the grant of rights under the License 
+ * will not include, and the License does not grant to you, the right to Sell the Software.
+ * 
+ * For purposes of the foregoing, “Sell” means practicing any or all of the rights granted 
+ * to you under the License to provide to third parties, for a fee or other consideration 
+ * (including without limitation fees for hosting or consulting/ support services related to 
+ * the Software), a product or service whose value derives, entirely or substantially, from the 
+ * functionality of the Software. Any license notice or attribution required by the License 
+ * must also include this Commons Clause License Condition notice.
+ * 
+ * Software: genestrip
+ * 
+ * License: Apache 2.0
+ * 
+ * Licensor: Daniel Pfeifer (daniel.pfeifer@progotec.de)
+ * 
+ */
+package org.metagene.genestrip.io;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class BufferedLineReaderTest {
+	@Test
+	public void testReadAhead() throws IOException {
+		byte[] data = createFastq(20000);
+		byte[] expected = readLines(new BufferedLineReader(new ByteArrayInputStream(data), 4096, 0), 1000, true);
+		for (int buffers : new int[] { 1, 3 }) {
+			byte[] lines = readLines(new BufferedLineReader(new ByteArrayInputStream(data), 4096, buffers), 1000, true);
+			assertArrayEquals(expected, lines);
+		}
+		// Null bytes are dropped.
+		byte[] all = readLines(new BufferedLineReader(new ByteArrayInputStream(data), 4096, 2), 1000, false);
+		byte[] noZeros = new byte[data.length];
+		int j = 0;
+		for (byte b : data) {
+			if (b != 0) {
+				noZeros[j++] = b;
+			}
+		}
+		assertArrayEquals(Arrays.copyOf(noZeros, j), all);
+	}
+
+	@Test
+	public void testIndexOfLineEndOrNull() {
+		Random r = new Random(42);
+		byte[] data = new byte[1000];
+		for (int k = 0; k < 1000; k++) {
+			for (int i = 0; i < data.length; i++) {
+				// Include bytes with the high bit set and bytes next to '\n' and 0.
+				data[i] = (byte) (r.nextInt(50) == 0 ? "\n\0\u000b\u0001".charAt(r.nextInt(4)) : r.nextInt(256));
+			}
+			int from = r.nextInt(100);
+			int to = from + r.nextInt(data.length - from);
+			int expected = from;
+			while (expected < to && data[expected] != '\n' && data[expected] != 0) {
+				expected++;
+			}
+			assertEquals(expected, BufferedLineReader.indexOfLineEndOrNull(data, from, to));
+		}
+	}
+
+	@Test
+	public void testSmallTarget() throws IOException {
+		byte[] data = createFastq(2000);
+		// Line parts as they come when the target is too small (returning target.length + 1).
+		for (int targetSize : new int[] { 1, 7, 64, 300 }) {
+			BufferedLineReader reader = new BufferedLineReader(new ByteArrayInputStream(data), 100, 0);
+			ScalarLineReader scalar = new ScalarLineReader(new ByteArrayInputStream(data), 100);
+			byte[] target = new byte[targetSize];
+			byte[] scalarTarget = new byte[targetSize];
+			for (int i = 0;; i++) {
+				if (i % 7 == 6) {
+					assertEquals(scalar.skipLine(), reader.skipLine());
+					continue;
+				}
+				int start = i % 3 == 0 ? 0 : Math.min(i % 5, targetSize - 1);
+				int size = reader.nextLine(target, start);
+				assertEquals(scalar.nextLine(scalarTarget, start), size);
+				int n = Math.min(size, targetSize);
+				assertArrayEquals(Arrays.copyOf(scalarTarget, n), Arrays.copyOf(target, n));
+				if (size == start) {
+					break;
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testReadAheadReplaceStream() throws IOException {
+		byte[] data = createFastq(20000);
+		BufferedLineReader reader = new BufferedLineReader(new ByteArrayInputStream(data), 4096, 2);
+		byte[] target = new byte[1000];
+		for (int i = 0; i < 10; i++) {
+			reader.nextLine(target);
+		}
+		// Replacing the stream stops reading ahead on the old one.
+		reader.setInputStream(new ByteArrayInputStream("ACGT\nTT".getBytes()));
+		assertEquals(5, reader.nextLine(target));
+		assertEquals(2, reader.skipLine());
+		assertEquals(0, reader.nextLine(target));
+		reader.close();
+	}
+
+	@Test
+	public void testReadAheadError() throws IOException {
+		InputStream failing = new InputStream() {
+			private int count;
+
+			@Override
+			public int read() throws IOException {
+				if (count++ >= 100000) {
+					throw new IOException("Test");
+				}
+				return count % 10 == 0 ? '\n' : 'A';
+			}
+		};
+		try (BufferedLineReader reader = new BufferedLineReader(failing, 4096, 2)) {
+			byte[] target = new byte[100];
+			while (reader.nextLine(target) > 0) {
+			}
+			fail("Missing exception");
+		} catch (IOException e) {
+			assertEquals("Test", e.getCause().getMessage());
+		}
+	}
+
+	protected static byte[] readLines(BufferedLineReader reader, int maxLineSize, boolean skip) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] target = new byte[maxLineSize];
+		int i = 0;
+		int size;
+		// Skips every fourth line if requested.
+		while ((size = (skip && i++ % 4 == 2 ? reader.skipLine() : reader.nextLine(target))) > 0) {
+			if (skip && i % 4 == 3) {
+				out.write('#');
+				out.write(size);
+				out.write('\n');
+			} else {
+				out.write(target, 0, size);
+			}
+		}
+		reader.close();
+		return out.toByteArray();
+	}
+
+	// The former byte by byte implementation of BufferedLineReader without read-ahead.
+	protected static class ScalarLineReader {
+		private final InputStream stream;
+		private final byte[] buffer;
+		private int pos;
+		private int bufferFill;
+
+		public ScalarLineReader(InputStream stream, int bufferSize) {
+			this.stream = stream;
+			buffer = new byte[bufferSize];
+			pos = bufferSize;
+		}
+
+		public int skipLine() throws IOException {
+			int size = 0;
+			while (bufferFill != -1) {
+				if (pos < bufferFill) {
+					byte c = -1;
+					for (; pos < bufferFill && c != '\n'; pos++) {
+						c = buffer[pos];
+						if (c != 0) {
+							size++;
+						}
+					}
+					if (c == '\n') {
+						return size;
+					}
+				}
+				bufferFill = stream.read(buffer);
+				pos = 0;
+			}
+			return size;
+		}
+
+		public int nextLine(byte[] target, int startPos) throws IOException {
+			int size = startPos;
+			while (bufferFill != -1) {
+				if (pos < bufferFill) {
+					byte c = -1;
+					for (; size < target.length && pos < bufferFill && c != '\n'; pos++) {
+						target[size] = c = buffer[pos];
+						if (c != 0) {
+							size++;
+						}
+					}
+					if (c == '\n') {
+						return size;
+					}
+					if (size == target.length) {
+						return size + 1;
+					}
+				}
+				bufferFill = stream.read(buffer);
+				pos = 0;
+			}
+			return size;
+		}
+	}
+
+	protected static byte[] createFastq(int reads) {
+		Random r = new Random(42);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (int i = 0; i < reads; i++) {
+			int len = 50 + r.nextInt(200);
+			out.writeBytes(("@read" + i + "\n").getBytes());
+			for (int j = 0; j < len; j++) {
+				out.write(r.nextInt(100) == 0 ? 0 : "ACGT".charAt(r.nextInt(4)));
+			}
+			out.writeBytes("\n+\n".getBytes());
+			for (int j = 0; j < len; j++) {
+				out.write('!' + r.nextInt(40));
+			}
+			out.write('\n');
+		}
+		return out.toByteArray();
+	}
+}
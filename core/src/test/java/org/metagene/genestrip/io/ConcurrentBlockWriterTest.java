@@ -0,0 +1,179 @@
+/*
+ * 
+ * “Commons Clause” License Condition v1.0
+ * 
+ * The Software is provided to you by the Licensor under the License, 
+ * as defined below, subject to the following condition.
+ * 
+ * Without limiting other conditions in the License, the grant of rights under the License 
+ * will not include, and the License does not grant to you, the right to Sell the Software.
+ * 
+ * For purposes of the foregoing, “Sell” means practicing any or all of the rights granted 
+ * to you under the License to provide to third parties, for a fee or other consideration 
+ * (including without limitation fees for hosting or consulting/ support services related to 
+ * the Software), a product or service whose value derives, entirely or substantially, from the 
+ * functionality of the Software. Any license notice or attribution required by the License 
+ * must also include this Commons Clause License Condition notice.
+ * 
+ * Software: genestrip
+ * 
+ * License: Apache 2.0
+ * 
+ * Licensor: Daniel Pfeifer (daniel.pfeifer@progotec.de)
+ * 
+ */
+package org.metagene.genestrip.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class ConcurrentBlockWriterTest {
+	@Test
+	public void testOrdered() throws IOException, InterruptedException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (ConcurrentBlockWriter writer = new ConcurrentBlockWriter(out, 4, 64, true)) {
+			// Two sequences as for two files.
+			for (int j = 0; j < 2; j++) {
+				writeRecords(writer, 4, 10000, 0);
+				writer.endSequence();
+			}
+		}
+		String expected = expectedLines(10000);
+		assertEquals(expected + expected, out.toString(StandardCharsets.US_ASCII));
+	}
+
+	@Test
+	public void testOrderedWithGaps() throws IOException, InterruptedException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (ConcurrentBlockWriter writer = new ConcurrentBlockWriter(out, 3, 64, true)) {
+			// Sequence numbers as from parallel parsing: not dense, but increasing per slot.
+			writeRecords(writer, 3, 5000, 1L << 32);
+		}
+		assertEquals(expectedLines(5000), out.toString(StandardCharsets.US_ASCII));
+	}
+
+	@Test
+	public void testOrderedChunks() throws IOException, InterruptedException {
+		int threads = 3;
+		int chunks = 300;
+		// The records of each chunk have dense numbers starting at chunk << 32, as from parallel parsing.
+		int[] chunkSizes = new int[chunks];
+		Random random = new Random(42);
+		StringBuilder expected = new StringBuilder();
+		for (int c = 0; c < chunks; c++) {
+			chunkSizes[c] = 1 + random.nextInt(50);
+			for (int i = 0; i < chunkSizes[c]; i++) {
+				if (i % 3 != 0) {
+					expected.append(line(c * 1000 + i));
+				}
+			}
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (ConcurrentBlockWriter writer = new ConcurrentBlockWriter(out, threads, 64, true)) {
+			List<Thread> list = new ArrayList<>();
+			for (int t = 0; t < threads; t++) {
+				int index = t;
+				Thread thread = new Thread(() -> {
+					ConcurrentBlockWriter.Slot slot = writer.getSlot(index);
+					try {
+						for (int c = index; c < chunks; c += threads) {
+							long seqNo = ((long) c) << 32;
+							for (int i = 0; i < chunkSizes[c]; i++) {
+								slot.startRecord(seqNo++);
+								if (i % 3 != 0) {
+									slot.write(line(c * 1000 + i).getBytes(StandardCharsets.US_ASCII));
+								}
+								slot.endRecord();
+							}
+							slot.endChunk(seqNo, ((long) c + 1) << 32);
+						}
+					} catch (IOException e) {
+						throw new RuntimeException(e);
+					}
+				});
+				list.add(thread);
+				thread.start();
+			}
+			for (Thread thread : list) {
+				thread.join();
+			}
+			// Without the ends of the chunks, the writer would be stuck after chunk 0 until the end.
+			// (Only the last blocks of the slots are still held back.)
+			for (int i = 0; i < 100 && out.size() < expected.length() / 2; i++) {
+				Thread.sleep(50);
+			}
+			assertTrue(out.size() >= expected.length() / 2);
+		}
+		assertEquals(expected.toString(), out.toString(StandardCharsets.US_ASCII));
+	}
+
+	@Test
+	public void testUnordered() throws IOException, InterruptedException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (ConcurrentBlockWriter writer = new ConcurrentBlockWriter(out, 4, 64, false)) {
+			writeRecords(writer, 4, 10000, 0);
+		}
+		// All lines must come complete, but in any order.
+		String[] lines = out.toString(StandardCharsets.US_ASCII).split("\n");
+		String[] expected = expectedLines(10000).split("\n");
+		Arrays.sort(lines);
+		Arrays.sort(expected);
+		assertEquals(Arrays.asList(expected), Arrays.asList(lines));
+	}
+
+	// Thread t writes the records t, t + threads, t + 2 * threads... Every third record is empty.
+	private void writeRecords(ConcurrentBlockWriter writer, int threads, int records, long gap)
+			throws InterruptedException, IOException {
+		List<Thread> list = new ArrayList<>();
+		IOException[] error = new IOException[1];
+		for (int t = 0; t < threads; t++) {
+			int index = t;
+			Thread thread = new Thread(() -> {
+				ConcurrentBlockWriter.Slot slot = writer.getSlot(index);
+				try {
+					for (int i = index; i < records; i += threads) {
+						slot.startRecord(i * gap + i);
+						if (i % 3 != 0) {
+							slot.write(line(i).getBytes(StandardCharsets.US_ASCII));
+						}
+						slot.endRecord();
+					}
+				} catch (IOException e) {
+					error[0] = e;
+				}
+			});
+			list.add(thread);
+			thread.start();
+		}
+		for (Thread thread : list) {
+			thread.join();
+		}
+		if (error[0] != null) {
+			throw error[0];
+		}
+	}
+
+	private String expectedLines(int records) {
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < records; i++) {
+			if (i % 3 != 0) {
+				builder.append(line(i));
+			}
+		}
+		return builder.toString();
+	}
+
+	private String line(int i) {
+		return "read" + i + "\t" + (i * 7919 % 1000) + "\n";
+	}
+}
@@ -0,0 +1,187 @@
+/*
+ * 
+ * “Commons Clause” License Condition v1.0
+ * 
+ * The Software is provided to you by the Licensor under the License, 
+ * as defined below, subject to the following condition.
+ * 
+ * Without limiting other conditions in the License, the grant of rights under the License 
+ * will not include, and the License does not grant to you, the right to Sell the Software.
+ * 
+ * For purposes of the foregoing, “Sell” means practicing any or all of the rights granted 
+ * to you under the License to provide to third parties, for a fee or other consideration 
+ * (including without limitation fees for hosting or consulting/ support services related to 
+ * the Software), a product or service whose value derives, entirely or substantially, from the 
+ * functionality of the Software. Any license notice or attribution required by the License 
+ * must also include this Commons Clause License Condition notice.
+ * 
+ * Software: genestrip
+ * 
+ * License: Apache 2.0
+ * 
+ * Licensor: Daniel Pfeifer (daniel.pfeifer@progotec.de)
+ * 
+ */
+package org.metagene.genestrip.io;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Test;
+
+public class ParallelGZIPInputStreamTest {
+	@Test
+	public void testSingleMemberGZIP() throws IOException {
+		byte[] data = createData(1000000);
+		for (int threads : new int[] { 1, 4 }) {
+			assertArrayEquals(data, readAll(new ParallelGZIPInputStream(
+					new ByteArrayInputStream(gzip(data, 0, data.length)), 4096, threads)));
+		}
+	}
+
+	@Test
+	public void testMultiMemberGZIP() throws IOException {
+		byte[] data = createData(300000);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write(gzip(data, 0, 100000));
+		out.write(gzip(data, 100000, 200000));
+		assertArrayEquals(data, readAll(new ParallelGZIPInputStream(
+				new ByteArrayInputStream(out.toByteArray()), 4096, 4)));
+	}
+
+	@Test
+	public void testBGZF() throws IOException {
+		byte[] data = createData(1000000);
+		byte[] bgzf = bgzf(data);
+		for (int threads : new int[] { 1, 2, 8 }) {
+			assertArrayEquals(data, readAll(new ParallelGZIPInputStream(new ByteArrayInputStream(bgzf), 4096, threads)));
+		}
+		// Must match what a plain GZIP stream makes of it.
+		assertArrayEquals(data, readAll(StreamProvider.createGZIPInputStream(new ByteArrayInputStream(bgzf))));
+	}
+
+	@Test
+	public void testBGZFWithAppendedGZIP() throws IOException {
+		byte[] data = createData(500000);
+		byte[] first = new byte[300000];
+		System.arraycopy(data, 0, first, 0, first.length);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write(bgzf(first));
+		out.write(gzip(data, 300000, 100000));
+		// Another BGZF part after the plain member, as well as trailing bytes, are read like by GZIPInputStream.
+		byte[] last = new byte[100000];
+		System.arraycopy(data, 400000, last, 0, last.length);
+		out.write(bgzf(last));
+		out.write(new byte[] { 0, 0, 0 });
+		byte[] compressed = out.toByteArray();
+		for (int threads : new int[] { 1, 4 }) {
+			assertArrayEquals(data, readAll(new ParallelGZIPInputStream(new ByteArrayInputStream(compressed), 4096, threads)));
+		}
+		assertArrayEquals(data, readAll(StreamProvider.createGZIPInputStream(new ByteArrayInputStream(compressed))));
+	}
+
+	@Test
+	public void testCorruptBGZF() throws IOException {
+		byte[] data = createData(200000);
+		byte[] bgzf = bgzf(data);
+		// Flip a bit in the CRC of the first block.
+		int blockSize = (bgzf[16] & 0xff) + ((bgzf[17] & 0xff) << 8) + 1;
+		bgzf[blockSize - 8] ^= 1;
+		try (InputStream in = new ParallelGZIPInputStream(new ByteArrayInputStream(bgzf), 4096, 4)) {
+			readAll(in);
+			fail("CRC mismatch not detected");
+		} catch (IOException e) {
+			// Expected.
+		}
+	}
+
+	@Test
+	public void testCloseBeforeEnd() throws IOException {
+		byte[] data = createData(2000000);
+		for (byte[] compressed : new byte[][] { gzip(data, 0, data.length), bgzf(data) }) {
+			InputStream in = new ParallelGZIPInputStream(new ByteArrayInputStream(compressed), 4096, 4);
+			byte[] head = new byte[1000];
+			assertEquals(1000, in.readNBytes(head, 0, head.length));
+			in.close();
+			try {
+				in.read();
+				fail("Read after close");
+			} catch (IOException e) {
+				// Expected.
+			}
+		}
+	}
+
+	protected static byte[] readAll(InputStream in) throws IOException {
+		try (InputStream is = in) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[777];
+			int n;
+			while ((n = is.read(buffer)) != -1) {
+				out.write(buffer, 0, n);
+			}
+			return out.toByteArray();
+		}
+	}
+
+	protected static byte[] createData(int size) {
+		Random r = new Random(42);
+		byte[] data = new byte[size];
+		for (int i = 0; i < size; i++) {
+			data[i] = (byte) "ACGT\n".charAt(r.nextInt(5));
+		}
+		return data;
+	}
+
+	protected static byte[] gzip(byte[] data, int off, int len) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+			gzip.write(data, off, len);
+		}
+		return out.toByteArray();
+	}
+
+	// Writes BGZF blocks of at most 64KB of input plus the empty end-of-file block like bgzip does.
+	protected static byte[] bgzf(byte[] data) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (int off = 0; off < data.length; off += 65280) {
+			writeBGZFBlock(out, data, off, Math.min(65280, data.length - off));
+		}
+		writeBGZFBlock(out, data, 0, 0);
+		return out.toByteArray();
+	}
+
+	private static void writeBGZFBlock(ByteArrayOutputStream out, byte[] data, int off, int len) {
+		Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		deflater.setInput(data, off, len);
+		deflater.finish();
+		byte[] buffer = new byte[65536];
+		int clen = deflater.deflate(buffer);
+		deflater.end();
+		CRC32 crc = new CRC32();
+		crc.update(data, off, len);
+		int blockSize = 18 + clen + 8;
+		out.write(new byte[] { 31, (byte) 139, 8, 4, 0, 0, 0, 0, 0, (byte) 255, 6, 0, 'B', 'C', 2, 0,
+				(byte) (blockSize - 1), (byte) ((blockSize - 1) >> 8) }, 0, 18);
+		out.write(buffer, 0, clen);
+		writeInt(out, (int) crc.getValue());
+		writeInt(out, len);
+	}
+
+	private static void writeInt(ByteArrayOutputStream out, int v) {
+		out.write(v);
+		out.write(v >> 8);
+		out.write(v >> 16);
+		out.write(v >> 24);
+	}
+}
@@ -0,0 +1,101 @@
+/*
+ * 
+ * “Commons Clause” License Condition v1.0
+ * 
+ * The Software is provided to you by the Licensor under the License, 
+ * as defined below, subject to the following condition.
+ * 
+ * Without limiting other conditions in the License, the grant of rights under the License 
+ * will not include, and the License does not grant to you, the right to Sell the Software.
+ * 
+ * For purposes of the foregoing, “Sell” means practicing any or all of the rights granted 
+ * to you under the License to provide to third parties, for a fee or other consideration 
+ * (including without limitation fees for hosting or consulting/ support services related to 
+ * the Software), a product or service whose value derives, entirely or substantially, from the 
+ * functionality of the Software. Any license notice or attribution required by the License 
+ * must also include this Commons Clause License Condition notice.
+ * 
+ * Software: genestrip
+ * 
+ * License: Apache 2.0
+ * 
+ * Licensor: Daniel Pfeifer (daniel.pfeifer@progotec.de)
+ * 
+ */
+package org.metagene.genestrip.io;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+import static org.metagene.genestrip.io.ParallelGZIPInputStreamTest.createData;
+import static org.metagene.genestrip.io.ParallelGZIPInputStreamTest.readAll;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Test;
+
+public class ParallelGZIPOutputStreamTest {
+	@Test
+	public void testRoundTrip() throws IOException {
+		byte[] data = createData(1000000);
+		for (int threads : new int[] { 1, 4 }) {
+			byte[] compressed = parallelGZIP(data, threads, -1);
+			// Any GZIP reader must be able to inflate it ...
+			assertArrayEquals(data, readAll(new GZIPInputStream(new ByteArrayInputStream(compressed))));
+			// ... and it must be BGZF, so it gets inflated in parallel, too.
+			assertArrayEquals(data, readAll(new ParallelGZIPInputStream(new ByteArrayInputStream(compressed), 4096, 4)));
+		}
+	}
+
+	@Test
+	public void testLevels() throws IOException {
+		byte[] data = createData(300000);
+		byte[] stored = parallelGZIP(data, 2, 0);
+		byte[] best = parallelGZIP(data, 2, 9);
+		assertTrue(stored.length > data.length);
+		assertTrue(best.length < data.length / 2);
+		assertArrayEquals(data, readAll(new GZIPInputStream(new ByteArrayInputStream(stored))));
+		assertArrayEquals(data, readAll(new GZIPInputStream(new ByteArrayInputStream(best))));
+	}
+
+	@Test
+	public void testIncompressible() throws IOException {
+		byte[] data = new byte[500000];
+		new Random(42).nextBytes(data);
+		assertArrayEquals(data, readAll(new GZIPInputStream(new ByteArrayInputStream(parallelGZIP(data, 4, 9)))));
+	}
+
+	@Test
+	public void testSmallWritesAndFlush() throws IOException {
+		byte[] data = createData(200000);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (OutputStream gzip = new ParallelGZIPOutputStream(out, 3, -1)) {
+			for (int i = 0; i < data.length; i++) {
+				gzip.write(data[i]);
+				if (i % 50000 == 0) {
+					gzip.flush();
+					// Everything so far must be readable after a flush.
+					byte[] part = readAll(new GZIPInputStream(new ByteArrayInputStream(out.toByteArray())));
+					assertArrayEquals(Arrays.copyOf(data, i + 1), part);
+				}
+			}
+		}
+		assertArrayEquals(data, readAll(new GZIPInputStream(new ByteArrayInputStream(out.toByteArray()))));
+	}
+
+	protected static byte[] parallelGZIP(byte[] data, int threads, int level) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (OutputStream gzip = new ParallelGZIPOutputStream(out, threads, level)) {
+			// Odd chunks to cross block boundaries.
+			for (int off = 0; off < data.length; off += 33333) {
+				gzip.write(data, off, Math.min(33333, data.length - off));
+			}
+		}
+		return out.toByteArray();
+	}
+}
@@ -0,0 +1,250 @@
+/*
+ * 
+ * “Commons Clause” License Condition v1.0
+ * 
+ * The Software is provided to you by the Licensor under the License, 
+ * as defined below, subject to the following condition.
+ * 
+ * Without limiting other conditions in the License, the grant of rights under the License 
+ * will not include, and the License does not grant to you, the right to Sell the Software.
+ * 
+ * For purposes of the foregoing, “Sell” means practicing any or all of the rights granted 
+ * to you under the License to provide to third parties, for a fee or other consideration 
+ * (including without limitation fees for hosting or consulting/ support services related to 
+ * the Software), a product or service whose value derives, entirely or substantially, from the 
+ * functionality of the Software. Any license notice or attribution required by the License 
+ * must also include this Commons Clause License Condition notice.
+ * 
+ * Software: genestrip
+ * 
+ * License: Apache 2.0
+ * 
+ * Licensor: Daniel Pfeifer (daniel.pfeifer@progotec.de)
+ * 
+ */
+package org.metagene.genestrip.match;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+import org.metagene.genestrip.store.KMerSortedArray;
+import org.metagene.genestrip.store.KMerStore;
+import org.metagene.genestrip.store.RadixKMerStore;
+import org.metagene.genestrip.util.CGAT;
+
+/**
+ * Benchmarks the per-read k-mer lookups of {@link FastqKMerMatcher#matchRead}: one
+ * {@link KMerStore#getLong} call per k-mer (as before) against gathering all canonical k-mers of a
+ * read and resolving them with a single {@link KMerStore#getLongBatch} call (as now), for both
+ * {@link KMerSortedArray} and {@link RadixKMerStore}.
+ * <p>
+ * Reads are sampled from random reference sequences whose k-mers populate the stores, with a
+ * small per-base mutation rate, so each read mixes hits and misses like a real sample.
+ */
+public class BatchedLookupBenchmarkTest {
+    private static final int K = 31;
+    private static final String[] TAXIDS = {"1", "2", "3"};
+    private static final int RADIX_BITS = RadixKMerStore.DEFAULT_RADIX_BITS;
+    private static final int READ_LENGTH = 150;
+    private static final double MUTATION_RATE = 0.01;
+
+    // Total number of reference bases (~ k-mers) stored. Override with
+    // -Dgenestrip.bench.batchedLookupKmers=<n>.
+    private static final int BENCH_KMERS = Integer.getInteger("genestrip.bench.batchedLookupKmers", 10_000_000);
+    private static final int READS_PER_ROUND = 100_000;
+
+    // Reference sequence and stores built from all of its k-mers.
+    private static final class Setup {
+        final byte[] reference;
+        final KMerSortedArray<String> sorted;
+        final RadixKMerStore<String> radix;
+
+        Setup(byte[] reference, KMerSortedArray<String> sorted, RadixKMerStore<String> radix) {
+            this.reference = reference;
+            this.sorted = sorted;
+            this.radix = radix;
+        }
+    }
+
+    private static Setup buildSetup(int nKmers, Random rng) {
+        byte[] reference = new byte[nKmers + K - 1];
+        for (int i = 0; i < reference.length; i++) {
+            reference[i] = CGAT.DECODE_TABLE[rng.nextInt(4)];
+        }
+        KMerSortedArray<String> sorted = new KMerSortedArray<>(K, 0.001, 0.001, Arrays.asList(TAXIDS), false, true);
+        sorted.initSize(nKmers);
+        for (int i = 0; i < nKmers; i++) {
+            long kmer = CGAT.kMerToLong(reference, i, K, null);
+            if (kmer != -1) {
+                // Consecutive regions of the reference belong to the same tax id, as for genomes.
+                sorted.putLong(kmer, TAXIDS[(int) (((long) i) * TAXIDS.length / nKmers)]);
+            }
+        }
+        sorted.optimize();
+
+        int[] bucketSizes = new int[1 << RADIX_BITS];
+        for (long pos = 0; pos < sorted.getEntries(); pos++) {
+            bucketSizes[RadixKMerStore.radixOf(sorted.getKMerAt(pos), RADIX_BITS)]++;
+        }
+        RadixKMerStore<String> radix = new RadixKMerStore<>(K, RADIX_BITS, bucketSizes, 0.001, 0.001,
+                Arrays.asList(TAXIDS), true);
+        radix.setUseFilter(false);
+        for (long pos = 0; pos < sorted.getEntries(); pos++) {
+            radix.putLong(sorted.getKMerAt(pos), sorted.getValueForIndex(sorted.indexAtPosition(pos)));
+        }
+        radix.setUseFilter(true);
+        radix.optimize();
+
+        return new Setup(reference, sorted, radix);
+    }
+
+    private static byte[][] sampleReads(byte[] reference, int n, Random rng) {
+        byte[][] reads = new byte[n][];
+        for (int i = 0; i < n; i++) {
+            int start = rng.nextInt(reference.length - READ_LENGTH);
+            byte[] read = Arrays.copyOfRange(reference, start, start + READ_LENGTH);
+            for (int j = 0; j < READ_LENGTH; j++) {
+                if (rng.nextDouble() < MUTATION_RATE) {
+                    read[j] = CGAT.DECODE_TABLE[rng.nextInt(4)];
+                }
+            }
+            reads[i] = read;
+        }
+        return reads;
+    }
+
+    // Gathers the canonical k-mers of a read the way matchRead() does and returns their number.
+    private static int canonicalKMers(byte[] read, long[] kmers) {
+        int n = 0;
+        int max = read.length - K + 1;
+        for (int i = 0; i < max; i++) {
+            long kmer = CGAT.kMerToLong(read, i, K, null);
+            if (kmer != -1) {
+                kmers[n++] = kmer;
+            }
+        }
+        return n;
+    }
+
+    // Returns a hit count so the JIT cannot drop the lookups.
+    private static long matchSingle(KMerStore<String> store, long[][] readKMers, int[] nKMers) {
+        long[] posStore = new long[1];
+        long hits = 0;
+        for (int r = 0; r < readKMers.length; r++) {
+            long[] kmers = readKMers[r];
+            for (int i = 0; i < nKMers[r]; i++) {
+                if (store.getLong(kmers[i], posStore) != null) {
+                    hits++;
+                }
+            }
+        }
+        return hits;
+    }
+
+    private static long matchBatched(KMerStore<String> store, long[][] readKMers, int[] nKMers) {
+        String[] values = new String[READ_LENGTH];
+        long[] positions = new long[READ_LENGTH];
+        long hits = 0;
+        for (int r = 0; r < readKMers.length; r++) {
+            store.getLongBatch(readKMers[r], nKMers[r], values, positions);
+            for (int i = 0; i < nKMers[r]; i++) {
+                if (values[i] != null) {
+                    hits++;
+                }
+            }
+        }
+        return hits;
+    }
+
+    /**
+     * Verifies that the batched lookup returns the same values and positions as the single
+     * lookups for both stores.
+     */
+    @Test
+    public void testBatchedIdenticalToSingle() {
+        Random rng = new Random(4711L);
+        Setup s = buildSetup(200_000, rng);
+        byte[][] reads = sampleReads(s.reference, 10_000, rng);
+        long[] kmers = new long[READ_LENGTH];
+        String[] values = new String[READ_LENGTH];
+        long[] positions = new long[READ_LENGTH];
+        long[] posStore = new long[1];
+        for (KMerStore<String> store : Arrays.<KMerStore<String>>asList(s.sorted, s.radix)) {
+            for (byte[] read : reads) {
+                int n = canonicalKMers(read, kmers);
+                store.getLongBatch(kmers, n, values, positions);
+                for (int i = 0; i < n; i++) {
+                    String expected = store.getLong(kmers[i], posStore);
+                    assertEquals(expected, values[i]);
+                    assertEquals(expected == null ? -1 : posStore[0], positions[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Times reads/s of per-k-mer lookups against batched lookups per read.
+     */
+    @Test
+    public void benchmarkBatchedVsSingle() {
+        final int WARMUP_ITERS = 3;
+        final int BENCH_ROUNDS = 7;
+
+        Random rng = new Random(2024L);
+        Setup s = buildSetup(BENCH_KMERS, rng);
+        byte[][] reads = sampleReads(s.reference, READS_PER_ROUND, rng);
+        long[][] readKMers = new long[reads.length][READ_LENGTH];
+        int[] nKMers = new int[reads.length];
+        for (int r = 0; r < reads.length; r++) {
+            nKMers[r] = canonicalKMers(reads[r], readKMers[r]);
+        }
+
+        System.out.printf("%n=== Per-read k-mer lookups: single vs batched (k=%d, %,d stored k-mers) ===%n",
+                K, s.sorted.getEntries());
+        System.out.printf("  Reads per round: %,d x %d bp, mutation rate %.2f%n", READS_PER_ROUND, READ_LENGTH,
+                MUTATION_RATE);
+        for (KMerStore<String> store : Arrays.<KMerStore<String>>asList(s.sorted, s.radix)) {
+            for (int w = 0; w < WARMUP_ITERS; w++) {
+                matchSingle(store, readKMers, nKMers);
+                matchBatched(store, readKMers, nKMers);
+            }
+            long[] singleNs = new long[BENCH_ROUNDS];
+            long[] batchedNs = new long[BENCH_ROUNDS];
+            for (int r = 0; r < BENCH_ROUNDS; r++) {
+                long t0 = System.nanoTime();
+                long singleHits = matchSingle(store, readKMers, nKMers);
+                singleNs[r] = System.nanoTime() - t0;
+                long t1 = System.nanoTime();
+                long batchedHits = matchBatched(store, readKMers, nKMers);
+                batchedNs[r] = System.nanoTime() - t1;
+                assertEquals(singleHits, batchedHits);
+            }
+            double singleMs = trimmedMeanMs(singleNs);
+            double batchedMs = trimmedMeanMs(batchedNs);
+            double speedup = singleMs / batchedMs;
+            System.out.printf("  %s:%n", store.getClass().getSimpleName());
+            System.out.printf("    single : %7.1f ms  (%,.0f reads/s)%n", singleMs, READS_PER_ROUND * 1000 / singleMs);
+            System.out.printf("    batched: %7.1f ms  (%,.0f reads/s)  %.3fx%n", batchedMs,
+                    READS_PER_ROUND * 1000 / batchedMs, speedup);
+
+            // Sanity bound only — the gain depends on the store size relative to the caches.
+            assertTrue("Batched lookup speedup out of plausible range: " + speedup, speedup >= 0.1 && speedup <= 10.0);
+        }
+    }
+
+    /** Mean of the timings in ms after discarding the fastest and slowest round. */
+    private static double trimmedMeanMs(long[] ns) {
+        long[] s = ns.clone();
+        Arrays.sort(s);
+        long sum = 0;
+        int effective = s.length - 2;
+        for (int r = 1; r <= effective; r++) {
+            sum += s[r];
+        }
+        return sum / (1_000_000.0 * effective);
+    }
+}
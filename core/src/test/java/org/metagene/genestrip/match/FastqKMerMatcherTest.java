@@ -431,7 +431,7 @@ public class FastqKMerMatcherTest {
 		myEntry.usedPaths = 0;
 		myEntry.classNode = null;
 		for (int i = 0; i < myEntry.counts.length; i++) {
-			myEntry.readTaxIdNode[i] = null;
+			myEntry.readTaxIds[i] = -1;
 			myEntry.counts[i] = 0;
 		}
 	}
@@ -459,6 +459,8 @@ public class FastqKMerMatcherTest {
 
 		@Override
 		public CountsPerTaxid getStats(String taxid) {
+			// Statistics are accumulated per consumer, so merge them first (as runMatcher() does).
+			mergeStats();
 			return statsIndex[orgKmerStore.getIndexForValue(taxid)];
 		}
 	}
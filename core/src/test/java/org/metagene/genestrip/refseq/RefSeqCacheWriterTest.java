@@ -0,0 +1,153 @@
+/*
+ * 
+ * “Commons Clause” License Condition v1.0
+ * 
+ * The Software is provided to you by the Licensor under the License, 
+ * as defined below, subject to the following condition.
+ * 
+ * Without limiting other conditions in the License, the grant of rights under the License 
+ * will not include, and the License does not grant to you, the right to Sell the Software.
+ * 
+ * For purposes of the foregoing, “Sell” means practicing any or all of the rights granted 
+ * to you under the License to provide to third parties, for a fee or other consideration 
+ * (including without limitation fees for hosting or consulting/ support services related to 
+ * the Software), a product or service whose value derives, entirely or substantially, from the 
+ * functionality of the Software. Any license notice or attribution required by the License 
+ * must also include this Commons Clause License Condition notice.
+ * 
+ * Software: genestrip
+ * 
+ * License: Apache 2.0
+ * 
+ * Licensor: Daniel Pfeifer (daniel.pfeifer@progotec.de)
+ * 
+ */
+package org.metagene.genestrip.refseq;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.metagene.genestrip.tax.TaxTree;
+import org.metagene.genestrip.tax.TaxTree.TaxIdNode;
+
+public class RefSeqCacheWriterTest {
+	private static final int BUFFER_SIZE = 4096;
+
+	@Test
+	public void testReplayMatchesFasta() throws IOException {
+		File dir = Files.createTempDirectory("refseqcache").toFile();
+		dir.deleteOnExit();
+		TaxTree tree = buildTree(dir);
+		TaxIdNode node = tree.getNodeByTaxId("2");
+
+		File fasta = new File(dir, "test.fna");
+		fasta.deleteOnExit();
+		Files.write(fasta.toPath(), createFasta(new Random(42)).getBytes(StandardCharsets.US_ASCII));
+		File cache = new File(dir, "test.2bit");
+		cache.deleteOnExit();
+
+		assertNull(RefSeqCacheWriter.readFingerprint(cache));
+		RefSeqCacheWriter writer = new RefSeqCacheWriter(BUFFER_SIZE, Collections.emptySet(), null, false, true);
+		writer.ignoreAccessionMap(node);
+		writer.convert(fasta, cache, "fingerprint");
+		assertTrue(cache.length() < fasta.length() / 3);
+		assertEquals("fingerprint", RefSeqCacheWriter.readFingerprint(cache));
+
+		// A k-mer limit per tax id is checked per data line and so is affected by the line width on replay.
+		for (long maxKmers : new long[] { Long.MAX_VALUE, 100000 }) {
+			RecordingReader fromFasta = new RecordingReader(maxKmers);
+			fromFasta.ignoreAccessionMap(node);
+			fromFasta.readFasta(fasta);
+
+			RecordingReader fromCache = new RecordingReader(maxKmers);
+			fromCache.readCache(cache, tree);
+
+			assertTrue(fromFasta.kmers.size() > 1000);
+			assertEquals(fromFasta.kmers, fromCache.kmers);
+			assertEquals(fromFasta.regions, fromCache.regions);
+			assertEquals(fromFasta.dustCounter, fromCache.dustCounter);
+			assertEquals(fasta, fromCache.file);
+		}
+	}
+
+	private static String createFasta(Random random) {
+		StringBuilder builder = new StringBuilder();
+		String bases = "CGATcgat";
+		int[] regionSizes = { 150000, 10, 70000 };
+		for (int r = 0; r < regionSizes.length; r++) {
+			builder.append(">NC_00000").append(r).append(".1 Test region\n");
+			for (int i = 0; i < regionSizes[r]; i++) {
+				if (random.nextInt(1000) == 0) {
+					// Runs of non CGAT bases.
+					int n = 1 + random.nextInt(100);
+					for (int j = 0; j < n; j++) {
+						builder.append('N');
+					}
+					i += n;
+				} else if (random.nextInt(200) == 0) {
+					// Low complexity runs.
+					for (int j = 0; j < 20; j++) {
+						builder.append('A');
+					}
+					i += 20;
+				}
+				builder.append(bases.charAt(random.nextInt(bases.length())));
+				if (builder.length() % 61 == 60) {
+					builder.append('\n');
+				}
+			}
+			builder.append('\n');
+		}
+		return builder.toString();
+	}
+
+	private static TaxTree buildTree(File dir) throws IOException {
+		int[][] edges = { { 1, 1 }, { 2, 1 } };
+		StringBuilder nodes = new StringBuilder();
+		StringBuilder names = new StringBuilder();
+		for (int[] e : edges) {
+			nodes.append(e[0]).append("\t|\t").append(e[1]).append("\t|\tno rank\t|\t\t|\n");
+			names.append(e[0]).append("\t|\t").append(e[0]).append("\t|\t\t|\tscientific name\t|\n");
+		}
+		File nodesFile = new File(dir, TaxTree.NODES_DMP);
+		File namesFile = new File(dir, TaxTree.NAMES_DMP);
+		nodesFile.deleteOnExit();
+		namesFile.deleteOnExit();
+		Files.write(nodesFile.toPath(), nodes.toString().getBytes(StandardCharsets.UTF_8));
+		Files.write(namesFile.toPath(), names.toString().getBytes(StandardCharsets.UTF_8));
+		return new TaxTree(dir, false);
+	}
+
+	private static class RecordingReader extends AbstractStoreFastaReader {
+		private final List<Long> kmers = new ArrayList<>();
+		private final List<String> regions = new ArrayList<>();
+
+		public RecordingReader(long maxKmersPerTaxId) {
+			super(BUFFER_SIZE, Collections.emptySet(), null, 15, Integer.MAX_VALUE, null, maxKmersPerTaxId, 20, 2,
+					false, new StringLong2DigitTrie(), true);
+		}
+
+		@Override
+		protected void infoLine() {
+			super.infoLine();
+			regions.add(new String(target, 0, size) + node.getTaxId());
+		}
+
+		@Override
+		protected boolean handleStore() {
+			kmers.add(byteRingBuffer.getStandardKMer());
+			return true;
+		}
+	}
+}
@@ -192,6 +192,143 @@ public abstract class AbstractKMerStoreTest extends TestCase {
 		}
 	}
 
+	@Test
+	public void testGetLongBatch() {
+		Map<Long, Integer> kmerMap = new LinkedHashMap<Long, Integer>();
+		KMerStore<Integer> store = buildStore(testSize, null, kmerMap);
+
+		// Mix stored k-mers with random (mostly absent) ones, in batches of read-like size.
+		int batchSize = 120;
+		long[] batch = new long[batchSize];
+		Integer[] values = new Integer[batchSize];
+		int[] indexes = new int[batchSize];
+		long[] positions = new long[batchSize];
+		long[] indexPositions = new long[batchSize];
+		long[] posStore = new long[1];
+		int n = 0;
+		for (long kmer : kmerMap.keySet()) {
+			batch[n++] = kmer;
+			batch[n++] = random.nextLong() & ((1L << (2 * k)) - 1);
+			if (n == batchSize) {
+				store.getLongBatch(batch, n, values, positions);
+				store.getIndexBatch(batch, n, indexes, indexPositions);
+				for (int i = 0; i < n; i++) {
+					Integer expected = store.getLong(batch[i], posStore);
+					assertEquals(expected, values[i]);
+					assertEquals(expected == null ? -1 : posStore[0], positions[i]);
+					assertEquals(expected == null ? -1 : store.getIndexForValue(expected), indexes[i]);
+					assertEquals(positions[i], indexPositions[i]);
+				}
+				n = 0;
+			}
+		}
+		// Without positions and for a partial batch.
+		store.getLongBatch(batch, n, values, null);
+		store.getIndexBatch(batch, n, indexes, null);
+		for (int i = 0; i < n; i++) {
+			assertEquals(store.getLong(batch[i], null), values[i]);
+			assertEquals(values[i] == null ? -1 : store.getIndexForValue(values[i]), indexes[i]);
+		}
+	}
+
+	@Test
+	public void testParallelOptimize() {
+		Map<Long, Integer> kmerMap = new LinkedHashMap<Long, Integer>();
+		generate(testSize, null, kmerMap);
+		long[] kmers = kmerArray(kmerMap);
+		KMerStore<Integer> serial = createKMerStore(Integer.class, k, kmers);
+		fill(serial, kmerMap);
+		serial.optimize(1);
+		KMerStore<Integer> parallel = createKMerStore(Integer.class, k, kmers);
+		fill(parallel, kmerMap);
+		parallel.optimize(4);
+
+		// Same order, value indexes and storage positions as the single-threaded optimization.
+		final List<long[]> serialEntries = new ArrayList<long[]>();
+		serial.visit(new IndexedKMerStoreVisitor<Integer>() {
+			@Override
+			public void nextValue(KMerStore<Integer> store, long kmer, int index, long pos) {
+				serialEntries.add(new long[] { kmer, index, pos });
+			}
+		});
+		final int[] counter = new int[1];
+		parallel.visit(new IndexedKMerStoreVisitor<Integer>() {
+			@Override
+			public void nextValue(KMerStore<Integer> store, long kmer, int index, long pos) {
+				long[] expected = serialEntries.get(counter[0]++);
+				assertEquals(expected[0], kmer);
+				assertEquals(expected[1], index);
+				assertEquals(expected[2], pos);
+			}
+		});
+		assertEquals(serialEntries.size(), counter[0]);
+		checkVisitation(parallel, kmerMap);
+	}
+
+	@Test
+	public void testConcurrentFill() throws InterruptedException {
+		Map<Long, Integer> kmerMap = new LinkedHashMap<Long, Integer>();
+		// Kept small so that the fill-time filter practically never drops a k-mer as a false positive,
+		// which could happen for other k-mers depending on the order of the puts.
+		generate(testSize / 50, null, kmerMap);
+		long[] kmers = kmerArray(kmerMap);
+		int[] values = new int[kmers.length];
+		int j = 0;
+		for (int v : kmerMap.values()) {
+			values[j++] = v;
+		}
+		KMerStore<Integer> serial = createKMerStore(Integer.class, k, kmers);
+		fill(serial, kmerMap);
+
+		// Every thread puts all k-mers, starting at different offsets, so the same k-mers get put
+		// concurrently. Just one put per k-mer must succeed.
+		KMerStore<Integer> parallel = createKMerStore(Integer.class, k, kmers);
+		Thread[] threads = new Thread[4];
+		int[] successes = new int[threads.length];
+		for (int t = 0; t < threads.length; t++) {
+			int index = t;
+			threads[t] = new Thread(() -> {
+				int offset = index * kmers.length / threads.length;
+				for (int i = 0; i < kmers.length; i++) {
+					int p = (i + offset) % kmers.length;
+					if (parallel.putLong(kmers[p], values[p])) {
+						successes[index]++;
+					}
+				}
+			});
+			threads[t].start();
+		}
+		for (Thread t : threads) {
+			t.join();
+		}
+		int sum = 0;
+		for (int s : successes) {
+			sum += s;
+		}
+		assertEquals(serial.getEntries(), sum);
+		assertEquals(serial.getEntries(), parallel.getEntries());
+		assertEquals(serial.getNValues(), parallel.getNValues());
+		assertFalse(parallel.putLong(kmers[0], values[0]));
+
+		serial.optimize();
+		parallel.optimize();
+		checkVisitation(serial, kmerMap);
+		checkVisitation(parallel, kmerMap);
+	}
+
+	@Test
+	public void testPutNullValue() {
+		long[] kmers = { 42 };
+		KMerStore<Integer> store = createKMerStore(Integer.class, k, kmers);
+		try {
+			store.putLong(kmers[0], null);
+			fail("null must not be accepted as a value");
+		} catch (NullPointerException expected) {
+			// ok
+		}
+		assertEquals(0, store.getEntries());
+	}
+
 	// --- Shared verification helpers ------------------------------------------
 
 	protected void checkStoreContent(KMerStore<Integer> store, Map<List<Byte>, Integer> controlMap) {
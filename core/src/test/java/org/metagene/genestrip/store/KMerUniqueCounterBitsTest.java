@@ -0,0 +1,126 @@
+/*
+ * 
+ * “Commons Clause” License Condition v1.0
+ * 
+ * The Software is provided to you by the Licensor under the License, 
+ * as defined below, subject to the following condition.
+ * 
+ * Without limiting other conditions in the License, the grant of rights under the License 
+ * will not include, and the License does not grant to you, the right to Sell the Software.
+ * 
+ * For purposes of the foregoing, “Sell” means practicing any or all of the rights granted 
+ * to you under the License to provide to third parties, for a fee or other consideration 
+ * (including without limitation fees for hosting or consulting/ support services related to 
+ * the Software), a product or service whose value derives, entirely or substantially, from the 
+ * functionality of the Software. Any license notice or attribution required by the License 
+ * must also include this Commons Clause License Condition notice.
+ * 
+ * Software: genestrip
+ * 
+ * License: Apache 2.0
+ * 
+ * Licensor: Daniel Pfeifer (daniel.pfeifer@progotec.de)
+ * 
+ */
+package org.metagene.genestrip.store;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.objects.Object2LongMap;
+import junit.framework.TestCase;
+
+public class KMerUniqueCounterBitsTest extends TestCase {
+	private static final String[] TAXIDS = { "1", "2", "3" };
+	private static final int K = 31;
+	private static final int ENTRIES = 100000;
+
+	private KMerSortedArray<String> createStore() {
+		Random random = new Random(42);
+		KMerSortedArray<String> store = new KMerSortedArray<String>(K, 0.0001, 0.0001, Arrays.asList(TAXIDS), false,
+				true);
+		store.initSize(ENTRIES);
+		while (store.getEntries() < ENTRIES) {
+			store.putLong(random.nextLong() & ((1L << (2 * K)) - 1), TAXIDS[random.nextInt(TAXIDS.length)]);
+		}
+		store.optimize();
+		return store;
+	}
+
+	@Test
+	public void testLockFreeEqualsLocked() throws InterruptedException {
+		KMerSortedArray<String> store = createStore();
+		KMerUniqueCounterBits locked = new KMerUniqueCounterBits(store, true, false);
+		KMerUniqueCounterBits lockFree = new KMerUniqueCounterBits(store, true, true);
+		assertTrue(lockFree.isLockFree());
+		assertFalse(locked.isLockFree());
+
+		fillConcurrently(locked, 8);
+		fillConcurrently(lockFree, 8);
+
+		Object2LongMap<String> expected = locked.getUniqueKmerCounts();
+		Object2LongMap<String> actual = lockFree.getUniqueKmerCounts();
+		for (String taxid : TAXIDS) {
+			assertEquals(expected.getLong(taxid), actual.getLong(taxid));
+			assertEquals(locked.getUniqueKmerCount(taxid), lockFree.getUniqueKmerCount(taxid));
+			short[] expectedCounts = new short[10];
+			short[] actualCounts = new short[10];
+			locked.getMaxCounts(taxid, expectedCounts);
+			lockFree.getMaxCounts(taxid, actualCounts);
+			assertTrue(Arrays.equals(expectedCounts, actualCounts));
+		}
+	}
+
+	@Test
+	public void testCountsByIndex() throws InterruptedException {
+		KMerSortedArray<String> store = createStore();
+		KMerUniqueCounterBits counter = new KMerUniqueCounterBits(store, true);
+		fillConcurrently(counter, 2);
+
+		long[] uniqueByIndex = counter.getUniqueKmerCountsByIndex();
+		Int2ObjectMap<short[]> maxByIndex = counter.getMaxCountsCountsByIndex(10);
+		Map<String, short[]> max = counter.getMaxCountsCounts(10);
+		for (String taxid : TAXIDS) {
+			int index = store.getIndexForValue(taxid);
+			assertEquals(counter.getUniqueKmerCount(taxid), uniqueByIndex[index]);
+			assertTrue(Arrays.equals(max.get(taxid), maxByIndex.get(index)));
+		}
+		assertTrue(Arrays.equals(max.get(null), maxByIndex.get(-1)));
+	}
+
+	@Test
+	public void testLockFreeSaturates() {
+		KMerSortedArray<String> store = createStore();
+		KMerUniqueCounterBits lockFree = new KMerUniqueCounterBits(store, true, true);
+		for (int i = 0; i < Short.MAX_VALUE + 100; i++) {
+			lockFree.putInlined(0);
+		}
+		short[] counts = new short[1];
+		lockFree.getMaxCounts(store.getValueForIndex(store.indexAtPosition(0)), counts);
+		assertEquals(Short.MAX_VALUE, counts[0]);
+	}
+
+	// Every thread marks every third position (with a thread-dependent offset) several times,
+	// so the threads contend on the same words and counters.
+	private void fillConcurrently(KMerUniqueCounterBits counter, int threads) throws InterruptedException {
+		Thread[] ts = new Thread[threads];
+		for (int t = 0; t < threads; t++) {
+			final int offset = t % 3;
+			ts[t] = new Thread(() -> {
+				for (int r = 0; r < 5; r++) {
+					for (long pos = offset; pos < ENTRIES; pos += 3) {
+						counter.putInlined(pos);
+					}
+				}
+			});
+			ts[t].start();
+		}
+		for (Thread t : ts) {
+			t.join();
+		}
+	}
+}
@@ -0,0 +1,217 @@
+/*
+ * 
+ * “Commons Clause” License Condition v1.0
+ * 
+ * The Software is provided to you by the Licensor under the License, 
+ * as defined below, subject to the following condition.
+ * 
+ * Without limiting other conditions in the License, the grant of rights under the License 
+ * will not include, and the License does not grant to you, the right to Sell the Software.
+ * 
+ * For purposes of the foregoing, “Sell” means practicing any or all of the rights granted 
+ * to you under the License to provide to third parties, for a fee or other consideration 
+ * (including without limitation fees for hosting or consulting/ support services related to 
+ * the Software), a product or service whose value derives, entirely or substantially, from the 
+ * functionality of the Software. Any license notice or attribution required by the License 
+ * must also include this Commons Clause License Condition notice.
+ * 
+ * Software: genestrip
+ * 
+ * License: Apache 2.0
+ * 
+ * Licensor: Daniel Pfeifer (daniel.pfeifer@progotec.de)
+ * 
+ */
+package org.metagene.genestrip.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+
+import org.junit.Test;
+import org.metagene.genestrip.GSProject;
+import org.metagene.genestrip.bloom.BlockedKMerBloomFilter;
+import org.metagene.genestrip.bloom.MappedBlockedKMerBloomFilter;
+import org.metagene.genestrip.tax.SmallTaxTree;
+import org.metagene.genestrip.tax.SmallTaxTree.SmallTaxIdNode;
+import org.metagene.genestrip.tax.TaxTree;
+import org.metagene.genestrip.util.CGAT;
+
+import junit.framework.TestCase;
+
+/**
+ * Round-trips databases through the {@link MappedDatabaseFormat} and checks that the mapped stores
+ * answer lookups, report storage positions and visit entries exactly like the heap-based stores
+ * they were written from.
+ */
+public class MappedDatabaseFormatTest extends TestCase {
+	private static final String[] IDS = { "1", "2", "3", "4", "5", "6", "7" };
+	private static final int K = 31;
+	private static final int SIZE = 100000;
+
+	private final Random random = new Random(42);
+
+	@Test
+	public void testSortedArray() throws IOException, ClassNotFoundException {
+		Map<Long, String> kmerMap = generate(SIZE);
+		KMerSortedArray<String> store = new KMerSortedArray<>(K, 0.000001, BlockedKMerBloomFilter.DEFAULT_FPP, null, false, true);
+		store.initSize(kmerMap.size());
+		fill(store, kmerMap);
+		checkRoundTrip(store, kmerMap, MappedKMerSortedArray.class);
+	}
+
+	@Test
+	public void testOffHeapSortedArray() throws IOException, ClassNotFoundException {
+		Map<Long, String> kmerMap = generate(SIZE);
+		OffHeapKMerSortedArray<String> store = new OffHeapKMerSortedArray<>(K, 0.000001, BlockedKMerBloomFilter.DEFAULT_FPP, null, true);
+		store.initSize(kmerMap.size());
+		fill(store, kmerMap);
+		checkRoundTrip(store, kmerMap, MappedKMerSortedArray.class);
+	}
+
+	@Test
+	public void testRadixStore() throws IOException, ClassNotFoundException {
+		Map<Long, String> kmerMap = generate(SIZE);
+		int radixBits = RadixKMerStore.DEFAULT_RADIX_BITS;
+		int[] bucketSizes = new int[1 << radixBits];
+		for (long kmer : kmerMap.keySet()) {
+			bucketSizes[RadixKMerStore.radixOf(kmer, radixBits)]++;
+		}
+		RadixKMerStore<String> store = new RadixKMerStore<>(K, radixBits, bucketSizes, 0.000001, BlockedKMerBloomFilter.DEFAULT_FPP, null, true);
+		fill(store, kmerMap);
+		checkRoundTrip(store, kmerMap, MappedRadixKMerStore.class);
+	}
+
+	@Test
+	public void testZipIsNotMapped() throws IOException {
+		File file = File.createTempFile("zipdb", ".zip");
+		file.deleteOnExit();
+		KMerSortedArray<String> store = new KMerSortedArray<>(K, 0.000001, BlockedKMerBloomFilter.DEFAULT_FPP, null, false, true);
+		store.initSize(1);
+		store.optimize();
+		new Database(store, buildSmallTree(), null).save(file);
+		assertFalse(Database.isMappedFormat(file));
+	}
+
+	private void checkRoundTrip(KMerStore<String> store, Map<Long, String> kmerMap, Class<?> mappedClass)
+			throws IOException, ClassNotFoundException {
+		store.optimize();
+		Database database = new Database(store, buildSmallTree(), new Properties());
+		database.initStoreIndices();
+
+		File file = File.createTempFile("mappeddb", ".zip");
+		file.deleteOnExit();
+		database.saveMapped(file);
+		assertTrue(Database.isMappedFormat(file));
+
+		Properties configInfo = Database.loadConfigInfo(file);
+		assertNotNull(configInfo.getProperty(GSProject.DB_MD5));
+
+		Database loaded = Database.load(file, true);
+		KMerStore<String> mapped = loaded.getKmerStore();
+		assertTrue(mappedClass.isInstance(mapped));
+		assertTrue(((TunableKMerStore<String>) mapped).getFilter() instanceof MappedBlockedKMerBloomFilter);
+		assertEquals(store.getEntries(), mapped.getEntries());
+		assertEquals(store.getNValues(), mapped.getNValues());
+		assertNotNull(loaded.getTaxTree().getNodeByTaxId("6"));
+
+		long[] pos = new long[1];
+		long[] mappedPos = new long[1];
+		for (Map.Entry<Long, String> e : kmerMap.entrySet()) {
+			assertEquals(e.getValue(), store.getLong(e.getKey(), pos));
+			assertEquals(e.getValue(), mapped.getLong(e.getKey(), mappedPos));
+			assertEquals(pos[0], mappedPos[0]);
+		}
+		for (int i = 0; i < SIZE; i++) {
+			long kmer = randomKMer();
+			assertEquals(store.getLong(kmer, null), mapped.getLong(kmer, null));
+		}
+
+		// Batched lookups, mixing stored and random (mostly absent) k-mers.
+		int batchSize = 120;
+		long[] batch = new long[batchSize];
+		String[] values = new String[batchSize];
+		int[] indexes = new int[batchSize];
+		long[] positions = new long[batchSize];
+		long[] indexPositions = new long[batchSize];
+		int n = 0;
+		for (long kmer : kmerMap.keySet()) {
+			batch[n++] = kmer;
+			batch[n++] = randomKMer();
+			if (n == batchSize) {
+				mapped.getLongBatch(batch, n, values, positions);
+				mapped.getIndexBatch(batch, n, indexes, indexPositions);
+				for (int i = 0; i < n; i++) {
+					String expected = store.getLong(batch[i], pos);
+					assertEquals(expected, values[i]);
+					assertEquals(expected == null ? -1 : pos[0], positions[i]);
+					assertEquals(expected == null ? -1 : mapped.getIndexForValue(expected), indexes[i]);
+					assertEquals(positions[i], indexPositions[i]);
+				}
+				n = 0;
+			}
+		}
+
+		Map<Long, String> remaining = new LinkedHashMap<>(kmerMap);
+		mapped.visit((s, kmer, index, p) -> assertEquals(remaining.remove(kmer), s.getValueForIndex(index)));
+		assertTrue(remaining.isEmpty());
+
+		KMerStore<SmallTaxIdNode> converted = loaded.convertKMerStore();
+		for (Map.Entry<Long, String> e : kmerMap.entrySet()) {
+			assertEquals(e.getValue(), converted.getLong(e.getKey(), null).getTaxId());
+		}
+
+		try {
+			mapped.putLong(randomKMer(), IDS[0]);
+			fail("a mapped store must be read-only");
+		} catch (UnsupportedOperationException expected) {
+			// ok
+		}
+	}
+
+	private Map<Long, String> generate(int n) {
+		Map<Long, String> kmerMap = new LinkedHashMap<>();
+		while (kmerMap.size() < n) {
+			kmerMap.put(randomKMer(), IDS[random.nextInt(IDS.length)]);
+		}
+		return kmerMap;
+	}
+
+	private long randomKMer() {
+		byte[] read = new byte[K];
+		for (int j = 0; j < K; j++) {
+			read[j] = CGAT.DECODE_TABLE[random.nextInt(4)];
+		}
+		return CGAT.kMerToLong(read, 0, K, null);
+	}
+
+	private static void fill(KMerStore<String> store, Map<Long, String> kmerMap) {
+		for (Map.Entry<Long, String> e : kmerMap.entrySet()) {
+			assertTrue(store.putLong(e.getKey(), e.getValue()));
+		}
+	}
+
+	private static SmallTaxTree buildSmallTree() throws IOException {
+		File dir = Files.createTempDirectory("mappeddbtaxtree").toFile();
+		dir.deleteOnExit();
+		int[][] edges = { { 1, 1 }, { 2, 1 }, { 3, 2 }, { 4, 2 }, { 5, 3 }, { 6, 5 }, { 7, 1 } };
+		StringBuilder nodes = new StringBuilder();
+		StringBuilder names = new StringBuilder();
+		for (int[] e : edges) {
+			nodes.append(e[0]).append("\t|\t").append(e[1]).append("\t|\tno rank\t|\t\t|\n");
+			names.append(e[0]).append("\t|\t").append(e[0]).append("\t|\t\t|\tscientific name\t|\n");
+		}
+		Files.write(new File(dir, TaxTree.NODES_DMP).toPath(), nodes.toString().getBytes(StandardCharsets.UTF_8));
+		Files.write(new File(dir, TaxTree.NAMES_DMP).toPath(), names.toString().getBytes(StandardCharsets.UTF_8));
+		TaxTree full = new TaxTree(dir, false);
+		for (String id : IDS) {
+			full.getNodeByTaxId(id).markRequired();
+		}
+		return full.toSmallTaxTree();
+	}
+}
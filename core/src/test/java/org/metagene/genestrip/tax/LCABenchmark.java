@@ -5,6 +5,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
 
+import org.metagene.genestrip.tax.SmallTaxTree.SmallTaxIdNode;
 import org.metagene.genestrip.tax.TaxTree.TaxIdNode;
 
 /**
@@ -51,6 +52,138 @@ public class LCABenchmark {
 		// dominates the real update (a k-mer stored at genus level found in a species of that genus).
 		runWorkload("random  ", tree, nodes, randomPairs(rnd, n, pairs, false));
 		runWorkload("close   ", tree, nodes, randomPairs(rnd, n, pairs, true));
+
+		// The same for the SmallTaxTree used in matching: walking parent links (as before) versus the
+		// interval labels for isAncestorOf() and the sparse table for getLowestCommonAncestor().
+		for (TaxIdNode node : nodes) {
+			node.markRequired();
+		}
+		SmallTaxTree smallTree = tree.toSmallTaxTree();
+		List<SmallTaxIdNode> smallNodes = new ArrayList<>();
+		for (SmallTaxIdNode node : smallTree) {
+			smallNodes.add(node);
+		}
+		for (int i = 0; i < 2_000_000; i++) {
+			SmallTaxIdNode a = smallNodes.get(rnd.nextInt(n));
+			SmallTaxIdNode b = rnd.nextInt(8) == 0 ? a : smallNodes.get(rnd.nextInt(n));
+			if (walkLCA(a, a.getLevel(), b, b.getLevel()) != smallTree.getLowestCommonAncestor(a, b)) {
+				throw new AssertionError("Small LCA mismatch for " + a.getTaxId() + " / " + b.getTaxId());
+			}
+			if (walkIsAncestorOf(a, b) != smallTree.isAncestorOf(a, b)
+					|| walkIsAncestorOf(b, a) != smallTree.isAncestorOf(b, a)) {
+				throw new AssertionError("Small isAncestorOf mismatch for " + a.getTaxId() + " / " + b.getTaxId());
+			}
+		}
+		System.out.println("correctness OK: small tree LCA and isAncestorOf match parent walks over 2,000,000 pairs");
+		runSmallWorkload("random  ", smallTree, smallNodes, randomPairs(rnd, n, pairs, false), false);
+		runSmallWorkload("close   ", smallTree, smallNodes, randomPairs(rnd, n, pairs, true), true);
+	}
+
+	private static void runSmallWorkload(String label, SmallTaxTree tree, List<SmallTaxIdNode> nodes, int[][] idx,
+			boolean close) {
+		int[] ia = idx[0];
+		int[] ib = idx[1];
+		SmallTaxIdNode[] a = new SmallTaxIdNode[ia.length];
+		SmallTaxIdNode[] b = new SmallTaxIdNode[ia.length];
+		// Depths are precomputed as the former implementation had them cached in the nodes.
+		int[] da = new int[ia.length];
+		int[] db = new int[ia.length];
+		Random rnd = new Random(99);
+		for (int i = 0; i < ia.length; i++) {
+			a[i] = nodes.get(ia[i]);
+			if (close) {
+				SmallTaxIdNode up = a[i];
+				int steps = rnd.nextInt(4);
+				for (int s = 0; s < steps && up.getParent() != null; s++) {
+					up = up.getParent();
+				}
+				b[i] = up;
+			} else {
+				b[i] = nodes.get(ib[i]);
+			}
+			da[i] = a[i].getLevel();
+			db[i] = b[i].getLevel();
+		}
+		long[] ns = new long[4];
+		int reps = 4;
+		for (int r = 0; r < reps; r++) {
+			// The first round is warm-up.
+			long[] t = timeSmall(tree, a, da, b, db);
+			for (int i = 0; r > 0 && i < ns.length; i++) {
+				ns[i] += t[i];
+			}
+		}
+		double per = (double) (reps - 1) * a.length;
+		System.out.printf("%n[%s small] LCA walk: %6.1f ns   LCA table: %6.1f ns   speedup %.2fx%n", label,
+				ns[0] / per, ns[1] / per, (double) ns[0] / ns[1]);
+		System.out.printf("[%s small] isAncestorOf walk: %6.1f ns   intervals: %6.1f ns   speedup %.2fx%n", label,
+				ns[2] / per, ns[3] / per, (double) ns[2] / ns[3]);
+	}
+
+	private static long[] timeSmall(SmallTaxTree tree, SmallTaxIdNode[] a, int[] da, SmallTaxIdNode[] b, int[] db) {
+		long[] res = new long[4];
+		long acc = 0;
+		long t0 = System.nanoTime();
+		for (int i = 0; i < a.length; i++) {
+			if (walkLCA(a[i], da[i], b[i], db[i]) != null) {
+				acc++;
+			}
+		}
+		long t1 = System.nanoTime();
+		for (int i = 0; i < a.length; i++) {
+			if (tree.getLowestCommonAncestor(a[i], b[i]) != null) {
+				acc++;
+			}
+		}
+		long t2 = System.nanoTime();
+		for (int i = 0; i < a.length; i++) {
+			if (walkIsAncestorOf(a[i], b[i])) {
+				acc++;
+			}
+		}
+		long t3 = System.nanoTime();
+		for (int i = 0; i < a.length; i++) {
+			if (tree.isAncestorOf(a[i], b[i])) {
+				acc++;
+			}
+		}
+		long t4 = System.nanoTime();
+		if (acc == Long.MIN_VALUE) {
+			System.out.println(acc);
+		}
+		res[0] = t1 - t0;
+		res[1] = t2 - t1;
+		res[2] = t3 - t2;
+		res[3] = t4 - t3;
+		return res;
+	}
+
+	// The former SmallTaxTree.getLowestCommonAncestor(): align the depths, then walk up in lock-step.
+	private static SmallTaxIdNode walkLCA(SmallTaxIdNode a, int da, SmallTaxIdNode b, int db) {
+		if (a == b) {
+			return a;
+		}
+		for (; da > db; da--) {
+			a = a.getParent();
+		}
+		for (; db > da; db--) {
+			b = b.getParent();
+		}
+		while (a != b) {
+			a = a.getParent();
+			b = b.getParent();
+		}
+		return a;
+	}
+
+	// The former SmallTaxTree.isAncestorOf().
+	private static boolean walkIsAncestorOf(SmallTaxIdNode node, SmallTaxIdNode ancestor) {
+		for (; node != null; node = node.getParent()) {
+			if (node == ancestor) {
+				return true;
+			}
+		}
+		return false;
 	}
 
 	private static int[][] randomPairs(Random rnd, int n, int pairs, boolean close) {
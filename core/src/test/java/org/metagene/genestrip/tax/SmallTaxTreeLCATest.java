@@ -25,6 +25,7 @@
 package org.metagene.genestrip.tax;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 
@@ -44,7 +45,8 @@ import org.metagene.genestrip.tax.TaxTree.TaxIdNode;
 /**
  * Tests the depth-based {@link SmallTaxTree#getLowestCommonAncestor} (optimization 5b ported to the
  * compact tree), including a serialization round-trip that verifies the transient {@code depth} is
- * re-initialized on load (so the on-disk format is unchanged and old databases keep working).
+ * re-initialized on load (so the on-disk format is unchanged and old databases keep working). Also
+ * covers the per-thread vote counts along the same tree.
  *
  * Tree (same shape as {@link TaxTreeLCATest}):
  * <pre>
@@ -126,6 +128,62 @@ public class SmallTaxTreeLCATest {
 		}
 	}
 
+	@Test
+	public void testIsAncestorOf() throws Exception {
+		for (SmallTaxTree t : new SmallTaxTree[] { buildSmallTree(), roundTrip(buildSmallTree()) }) {
+			for (String x : IDS) {
+				for (String y : IDS) {
+					SmallTaxIdNode lca = bruteForceLCA(node(t, x), node(t, y));
+					assertEquals(x + " ancestor of " + y, lca == node(t, x), t.isAncestorOf(node(t, y), node(t, x)));
+					// The same via node indexes.
+					int xi = node(t, x).getNodeIndex();
+					int yi = node(t, y).getNodeIndex();
+					assertEquals(lca == node(t, x), t.isAncestorOf(yi, xi));
+					assertEquals(lca, t.getNodeByIndex(t.getLowestCommonAncestor(xi, yi)));
+					assertEquals(node(t, y).getParent() == null ? -1 : node(t, y).getParent().getNodeIndex(),
+							t.getParentIndex(yi));
+				}
+			}
+			assertFalse(t.isAncestorOf(null, node(t, "1")));
+			assertFalse(t.isAncestorOf(node(t, "1"), null));
+			assertFalse(t.isAncestorOf(-1, 0));
+			assertEquals(-1, t.getLowestCommonAncestor(-1, 0));
+		}
+	}
+
+	@Test
+	public void testVoteCounts() throws Exception {
+		SmallTaxTree t = roundTrip(buildSmallTree());
+		t.initCountSize(2);
+		Object owner = new Object();
+		t.resetCounts(owner);
+		assertEquals(0, t.sumCounts(node(t, "6"), 0, 0));
+		// Read 0 on thread 0.
+		t.incCount(node(t, "6"), 0, 0);
+		t.incCount(node(t, "6"), 0, 0);
+		t.incCount(node(t, "3"), 0, 0);
+		t.incCount(node(t, "7"), 0, 0);
+		// Read 5 on thread 1 must not interfere.
+		t.incCount(node(t, "6"), 1, 5);
+		assertEquals(3, t.sumCounts(node(t, "6"), 0, 0));
+		assertEquals(1, t.sumCounts(node(t, "3"), 0, 0));
+		assertEquals(0, t.sumCounts(node(t, "4"), 0, 0));
+		assertEquals(1, t.sumCounts(node(t, "7"), 0, 0));
+		assertEquals(1, t.sumCounts(node(t, "6"), 1, 5));
+		assertSame(node(t, "3"), t.lowestNodeWhereSumAboveThreshold(node(t, "6"), 0, 0, 3));
+		assertNull(t.lowestNodeWhereSumAboveThreshold(node(t, "6"), 0, 0, 4));
+		// Counts of the previous read are gone with the next read of the same thread.
+		t.incCount(node(t, "5"), 0, 1);
+		assertEquals(1, t.sumCounts(node(t, "6"), 0, 1));
+		assertEquals(0, t.sumCounts(node(t, "6"), 0, 0));
+		// And with a reset (for the next file), even if read numbers start over.
+		t.resetCounts(owner);
+		t.incCount(node(t, "7"), 0, 1);
+		assertEquals(0, t.sumCounts(node(t, "6"), 0, 1));
+		assertEquals(0, t.sumCounts(node(t, "6"), 1, 5));
+		t.releaseOwner();
+	}
+
 	private static SmallTaxIdNode bruteForceLCA(SmallTaxIdNode a, SmallTaxIdNode b) {
 		for (SmallTaxIdNode x = a; x != null; x = x.getParent()) {
 			for (SmallTaxIdNode y = b; y != null; y = y.getParent()) {
@@ -0,0 +1,109 @@
+/*
+ * 
+ * “Commons Clause” License Condition v1.0
+ * 
+ * The Software is provided to you by the Licensor under the License, 
+ * as defined below, subject to the following condition.
+ * 
+ * Without limiting other conditions in the License, the grant of rights under the License 
+ * will not include, and the License does not grant to you, the right to Sell the Software.
+ * 
+ * For purposes of the foregoing, “Sell” means practicing any or all of the rights granted 
+ * to you under the License to provide to third parties, for a fee or other consideration 
+ * (including without limitation fees for hosting or consulting/ support services related to 
+ * the Software), a product or service whose value derives, entirely or substantially, from the 
+ * functionality of the Software. Any license notice or attribution required by the License 
+ * must also include this Commons Clause License Condition notice.
+ * 
+ * Software: genestrip
+ * 
+ * License: Apache 2.0
+ * 
+ * Licensor: Daniel Pfeifer (daniel.pfeifer@progotec.de)
+ * 
+ */
+package org.metagene.genestrip.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntFunction;
+
+import org.junit.Test;
+
+/**
+ * Stress benchmark comparing the handoff throughput of {@link SimpleBlockingQueue} and
+ * {@link RingBlockingQueue} in the configuration of the FASTQ reader: one producer feeding 1, 8, 32 and
+ * 64 consumers through a queue of the default {@code threadQueueSize}. Consumers do a little dummy work
+ * per element, roughly like a (very fast) matcher.
+ */
+public class BlockingQueueBenchmarkTest {
+    private static final int[] CONSUMERS = {1, 8, 32, 64};
+    private static final int QUEUE_SIZE = 1000;
+    // Override with -Dgenestrip.bench.queueItems=<n>.
+    private static final int ITEMS = Integer.getInteger("genestrip.bench.queueItems", 2_000_000);
+    private static final int ROUNDS = 3;
+
+    // Keeps the dummy work from being optimized away.
+    private static volatile long sink;
+
+    @Test
+    public void benchmarkQueues() throws InterruptedException {
+        System.out.printf("%n=== Producer -> consumers handoff: %,d items, queue size %d ===%n", ITEMS, QUEUE_SIZE);
+        for (int consumers : CONSUMERS) {
+            double simple = run("SimpleBlockingQueue", SimpleBlockingQueue::new, consumers);
+            double ring = run("RingBlockingQueue", RingBlockingQueue::new, consumers);
+            System.out.printf("  %2d consumers: SimpleBlockingQueue %6.2f M items/s, RingBlockingQueue %6.2f M items/s (%.2fx)%n",
+                    consumers, simple, ring, ring / simple);
+        }
+    }
+
+    // Returns the best throughput in million items per second over the rounds.
+    private double run(String name, IntFunction<BlockingQueue<Integer>> factory, int consumers)
+            throws InterruptedException {
+        double best = 0;
+        for (int r = 0; r < ROUNDS; r++) {
+            BlockingQueue<Integer> queue = factory.apply(QUEUE_SIZE);
+            AtomicLong taken = new AtomicLong();
+            Thread[] threads = new Thread[consumers];
+            for (int c = 0; c < consumers; c++) {
+                threads[c] = new Thread(() -> {
+                    long local = 0;
+                    long dummy = 0;
+                    try {
+                        while (true) {
+                            int v = queue.take();
+                            if (v < 0) {
+                                break;
+                            }
+                            for (int i = 0; i < 50; i++) {
+                                dummy += v * 31 + i;
+                            }
+                            local++;
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    sink += dummy;
+                    taken.addAndGet(local);
+                }, name + "-consumer-" + c);
+                threads[c].start();
+            }
+            long start = System.nanoTime();
+            for (int i = 0; i < ITEMS; i++) {
+                queue.put(i);
+            }
+            for (int c = 0; c < consumers; c++) {
+                queue.put(-1);
+            }
+            for (Thread t : threads) {
+                t.join();
+            }
+            long ns = System.nanoTime() - start;
+            assertEquals(ITEMS, taken.get());
+            best = Math.max(best, ITEMS * 1000.0 / ns);
+        }
+        return best;
+    }
+}
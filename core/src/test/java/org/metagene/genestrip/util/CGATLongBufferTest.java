@@ -144,6 +144,31 @@ public class CGATLongBufferTest extends TestCase {
 		}
 	}
 
+	@Test
+	public void testViaNaiveDustLowComplexity() {
+		CGATRingBuffer buffer = new CGATRingBuffer(k, 500);
+		Random random = new Random(10);
+
+		byte[] last = new byte[3];
+		for (int j = 0; j < 100; j++) {
+			buffer.putForTest((byte) 'N');
+			assertEquals(0, buffer.getDustValue());
+			for (int h = 0; h < 10000; h++) {
+				// Mostly repeat the base one, two or three positions back to produce long runs.
+				int r = random.nextInt(8);
+				byte c = r < 3 && h >= 3 ? last[r] : CGAT.DECODE_TABLE[random.nextInt(4)];
+				last[2] = last[1];
+				last[1] = last[0];
+				last[0] = c;
+				buffer.putForTest(c);
+
+				if (buffer.isFilled()) {
+					assertEquals(naiveDust(buffer), buffer.getDustValue());
+				}
+			}
+		}
+	}
+
 	@Test
 	public void testGetKMer() {
 		CGATLongBuffer longBuffer = new CGATLongBuffer(31, 25);
@@ -104,6 +104,40 @@ public class DustTest extends TestCase {
     }
 
 
+    public void testThroughput() {
+        int n = 100000000;
+        byte[] random = new byte[n];
+        byte[] lowComplexity = new byte[n];
+        Random r = new Random(10);
+        for (int i = 0; i < n; i++) {
+            random[i] = CGAT.DECODE_TABLE[r.nextInt(4)];
+            // Short tandem repeats with random mutations.
+            lowComplexity[i] = i >= 3 && r.nextInt(8) != 0 ? lowComplexity[i - 3] : random[i];
+        }
+        for (int round = 0; round < 3; round++) {
+            System.out.println("Round " + round + ":");
+            benchmark("random, no dust", new CGATLongBuffer(k, -1), random);
+            benchmark("random, dust", new CGATLongBuffer(k, 500), random);
+            benchmark("low complexity, no dust", new CGATLongBuffer(k, -1), lowComplexity);
+            benchmark("low complexity, dust", new CGATLongBuffer(k, 500), lowComplexity);
+        }
+    }
+
+    private void benchmark(String name, CGATLongBuffer buffer, byte[] bases) {
+        long start = System.nanoTime();
+        long sum = 0;
+        int dust = 0;
+        for (int i = 0; i < bases.length; i++) {
+            sum += buffer.put(bases[i]);
+            if (buffer.isDust()) {
+                dust++;
+            }
+        }
+        long time = System.nanoTime() - start;
+        System.out.println(name + ": " + (bases.length * 1000L / time) + " M bases/s, dust k-mers: " + dust
+                + " (" + sum + ")");
+    }
+
     /*
     public void testDustValue() {
         CGATRingBuffer buffer = new CGATRingBuffer(k, 500);
@@ -0,0 +1,218 @@
+/*
+ * 
+ * “Commons Clause” License Condition v1.0
+ * 
+ * The Software is provided to you by the Licensor under the License, 
+ * as defined below, subject to the following condition.
+ * 
+ * Without limiting other conditions in the License, the grant of rights under the License 
+ * will not include, and the License does not grant to you, the right to Sell the Software.
+ * 
+ * For purposes of the foregoing, “Sell” means practicing any or all of the rights granted 
+ * to you under the License to provide to third parties, for a fee or other consideration 
+ * (including without limitation fees for hosting or consulting/ support services related to 
+ * the Software), a product or service whose value derives, entirely or substantially, from the 
+ * functionality of the Software. Any license notice or attribution required by the License 
+ * must also include this Commons Clause License Condition notice.
+ * 
+ * Software: genestrip
+ * 
+ * License: Apache 2.0
+ * 
+ * Licensor: Daniel Pfeifer (daniel.pfeifer@progotec.de)
+ * 
+ */
+package org.metagene.genestrip.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.LongSupplier;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+public class MetricsTest {
+    @Test
+    public void testCounterSlots() throws InterruptedException {
+        Metrics metrics = new Metrics();
+        Metrics.Counter counter = metrics.counter("test");
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            int slot = i;
+            threads[i] = new Thread(() -> {
+                for (int j = 0; j < 100000; j++) {
+                    counter.add(slot, 2);
+                    counter.add(1);
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertEquals(threads.length * 300000L, counter.get());
+        for (int i = 0; i < threads.length; i++) {
+            assertEquals(200000L, counter.get(i));
+        }
+        assertEquals(0L, counter.get(threads.length));
+        assertTrue(counter == metrics.counter("test"));
+
+        metrics.reset();
+        assertEquals(0L, counter.get());
+    }
+
+    @Test
+    public void testThreadSlots() throws InterruptedException {
+        Metrics metrics = new Metrics();
+        Metrics.Counter counter = metrics.counter("test");
+        // More threads than slots, so some of them share a slot.
+        Thread[] threads = new Thread[Metrics.SLOTS + 8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                for (int j = 0; j < 10000; j++) {
+                    counter.addToThreadSlot(3);
+                }
+            });
+        }
+        // Concurrent plain updates of the index slots must not interfere with the thread slots.
+        Thread[] indexThreads = new Thread[4];
+        for (int i = 0; i < indexThreads.length; i++) {
+            int slot = i;
+            indexThreads[i] = new Thread(() -> {
+                for (int j = 0; j < 100000; j++) {
+                    counter.add(slot, 1);
+                }
+            });
+        }
+        for (Thread t : threads) {
+            t.start();
+        }
+        for (Thread t : indexThreads) {
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        for (Thread t : indexThreads) {
+            t.join();
+        }
+        assertEquals(threads.length * 30000L + indexThreads.length * 100000L, counter.get());
+        for (int i = 0; i < indexThreads.length; i++) {
+            assertEquals(100000L, counter.get(i));
+        }
+    }
+
+    @Test
+    public void testGauges() {
+        Metrics metrics = new Metrics();
+        metrics.counter("b").add(0, 5);
+        LongSupplier gauge = () -> 42;
+        metrics.gauge("a", gauge);
+        Map<String, Long> snapshot = metrics.snapshot();
+        assertEquals(Long.valueOf(42), snapshot.get("a"));
+        assertEquals(Long.valueOf(5), snapshot.get("b"));
+
+        // Only the registered gauge itself is removed.
+        metrics.removeGauge("a", () -> 42);
+        assertTrue(metrics.snapshot().containsKey("a"));
+        metrics.removeGauge("a", gauge);
+        assertFalse(metrics.snapshot().containsKey("a"));
+    }
+
+    @Test
+    public void testQueueWaitCounters() throws InterruptedException {
+        Metrics metrics = new Metrics();
+        Metrics.Counter putWait = metrics.counter(Metrics.QUEUE_PUT_WAIT_NANOS);
+        Metrics.Counter takeWait = metrics.counter(Metrics.QUEUE_TAKE_WAIT_NANOS);
+        SimpleBlockingQueue<String> simple = new SimpleBlockingQueue<>(1);
+        simple.setWaitCounters(putWait, takeWait);
+        RingBlockingQueue<String> ring = new RingBlockingQueue<>(1);
+        ring.setWaitCounters(putWait, takeWait);
+
+        for (BlockingQueue<String> q : List.of(simple, ring)) {
+            metrics.reset();
+            // No waiting, no time.
+            q.put("a");
+            q.take();
+            assertEquals(0L, putWait.get());
+            assertEquals(0L, takeWait.get());
+
+            Thread consumer = new Thread(() -> {
+                try {
+                    q.take();
+                    Thread.sleep(50);
+                    q.take();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            consumer.start();
+            Thread.sleep(50);
+            q.put("b");
+            q.put("c");
+            q.put("d");
+            consumer.join();
+            assertTrue(takeWait.get() > 0);
+            assertTrue(putWait.get() > 0);
+        }
+    }
+
+    @Test
+    public void testDump() throws IOException, InterruptedException {
+        Metrics metrics = new Metrics();
+        metrics.counter(Metrics.READS).add(3, 7);
+        metrics.gauge(Metrics.QUEUE_SIZE, () -> 11);
+
+        File csv = File.createTempFile("metrics", ".csv");
+        csv.delete();
+        metrics.startDump(csv, 10);
+        Thread.sleep(50);
+        metrics.stopDump();
+        List<String> lines = Files.readAllLines(csv.toPath());
+        assertEquals("time,metric,slot,value,perSecond", lines.get(0));
+        assertTrue(lines.stream().anyMatch(l -> l.matches("\\d+,reads,all,7,\\d+")));
+        assertTrue(lines.stream().anyMatch(l -> l.matches("\\d+,reads,3,7,\\d+")));
+        assertTrue(lines.stream().anyMatch(l -> l.matches("\\d+,queueSize,all,11,\\d+")));
+        csv.delete();
+
+        File json = File.createTempFile("metrics", ".json");
+        metrics.startDump(json, 10);
+        metrics.stopDump();
+        lines = Files.readAllLines(json.toPath());
+        assertTrue(lines.size() >= 1);
+        for (String line : lines) {
+            assertTrue(line, line.matches("\\{\"time\":\\d+,\"metrics\":\\{.*\\}\\}"));
+        }
+        assertTrue(lines.get(0).contains("\"reads\":{\"value\":7,\"perSecond\":0,\"slots\":{\"3\":7}}"));
+        json.delete();
+    }
+
+    @Test
+    public void testMBean() throws Exception {
+        Metrics metrics = Metrics.getDefault();
+        metrics.counter("mbeanTest").add(0, 3);
+        metrics.registerMBean();
+        try {
+            // Registering twice is fine.
+            metrics.registerMBean();
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(Metrics.OBJECT_NAME);
+            assertEquals(3L, server.getAttribute(name, "mbeanTest"));
+            assertTrue(server.getAttribute(name, "mbeanTestPerSecond") instanceof Double);
+        } finally {
+            metrics.unregisterMBean();
+        }
+        assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(new ObjectName(Metrics.OBJECT_NAME)));
+    }
+}
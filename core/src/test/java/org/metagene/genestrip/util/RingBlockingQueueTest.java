@@ -0,0 +1,160 @@
+/*
+ * 
+ * “Commons Clause” License Condition v1.0
+ * 
+ * The Software is provided to you by the Licensor under the License, 
+ * as defined below, subject to the following condition.
+ * 
+ * Without limiting other conditions in the License, the grant of rights under the License 
+ * will not include, and the License does not grant to you, the right to Sell the Software.
+ * 
+ * For purposes of the foregoing, “Sell” means practicing any or all of the rights granted 
+ * to you under the License to provide to third parties, for a fee or other consideration 
+ * (including without limitation fees for hosting or consulting/ support services related to 
+ * the Software), a product or service whose value derives, entirely or substantially, from the 
+ * functionality of the Software. Any license notice or attribution required by the License 
+ * must also include this Commons Clause License Condition notice.
+ * 
+ * Software: genestrip
+ * 
+ * License: Apache 2.0
+ * 
+ * Licensor: Daniel Pfeifer (daniel.pfeifer@progotec.de)
+ * 
+ */
+package org.metagene.genestrip.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class RingBlockingQueueTest {
+
+    // --- size() / isEmpty() / remainingCapacity() ---------------------------------
+
+    @Test
+    public void testSizeAndRemainingCapacity() throws InterruptedException {
+        int capacity = 5; // Not a power of two: the ring is larger, but the capacity must still hold.
+        RingBlockingQueue<Integer> q = new RingBlockingQueue<>(capacity);
+        assertTrue(q.isEmpty());
+        assertEquals(capacity, q.remainingCapacity());
+        for (int i = 0; i < capacity; i++) {
+            assertTrue(q.offer(i));
+        }
+        assertFalse("Queue must be full at its capacity", q.offer(99));
+        assertEquals(capacity, q.size());
+        assertEquals(0, q.remainingCapacity());
+        q.take();
+        assertEquals(capacity - 1, q.size());
+    }
+
+    @Test
+    public void testPollOnEmptyQueue() {
+        assertNull(new RingBlockingQueue<String>(4).poll());
+    }
+
+    // --- FIFO ordering / wrap-around -----------------------------------------------
+
+    @Test
+    public void testFifoOrderWithWrapAround() throws InterruptedException {
+        RingBlockingQueue<Integer> q = new RingBlockingQueue<>(4);
+        for (int round = 0; round < 10; round++) {
+            for (int i = 0; i < 4; i++) q.put(round * 10 + i);
+            for (int i = 0; i < 4; i++) assertEquals(Integer.valueOf(round * 10 + i), q.take());
+        }
+        assertTrue(q.isEmpty());
+    }
+
+    // --- Multi-threaded producers / consumers --------------------------------------
+
+    @Test
+    public void testMultiProducerMultiConsumer() throws InterruptedException {
+        final int producers = 4;
+        final int consumers = 8;
+        final int perProducer = 100000;
+        RingBlockingQueue<Long> q = new RingBlockingQueue<>(64);
+        AtomicLong sum = new AtomicLong();
+        AtomicLong count = new AtomicLong();
+        long total = (long) producers * perProducer;
+
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            final long base = (long) p * perProducer;
+            threads.add(new Thread(() -> {
+                for (long i = 0; i < perProducer; i++) {
+                    try { q.put(base + i); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+                }
+            }));
+        }
+        for (int c = 0; c < consumers; c++) {
+            threads.add(new Thread(() -> {
+                try {
+                    while (true) {
+                        long v = q.take();
+                        if (v < 0) {
+                            return;
+                        }
+                        sum.addAndGet(v);
+                        count.incrementAndGet();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }));
+        }
+        for (Thread t : threads) t.start();
+        for (int p = 0; p < producers; p++) threads.get(p).join(20000);
+        for (int c = 0; c < consumers; c++) q.put(-1L);
+        for (Thread t : threads) t.join(20000);
+
+        assertEquals("Every item must be taken exactly once", total, count.get());
+        assertEquals(total * (total - 1) / 2, sum.get());
+    }
+
+    // --- Blocking behaviour --------------------------------------------------------
+
+    @Test
+    public void testPutBlocksWhenFull() throws InterruptedException {
+        RingBlockingQueue<Integer> q = new RingBlockingQueue<>(2);
+        q.put(1);
+        q.put(2);
+
+        boolean[] unblocked = {false};
+        Thread producer = new Thread(() -> {
+            try { q.put(3); unblocked[0] = true; }
+            catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+        });
+        producer.start();
+        Thread.sleep(100);
+        assertFalse("Producer should still be blocked", unblocked[0]);
+        q.take();
+        producer.join(2000);
+        assertTrue("Producer must have continued after take()", unblocked[0]);
+    }
+
+    @Test
+    public void testTakeIsInterruptible() throws InterruptedException {
+        RingBlockingQueue<String> q = new RingBlockingQueue<>(2);
+        boolean[] interrupted = {false};
+        Thread consumer = new Thread(() -> {
+            try { q.take(); } catch (InterruptedException e) { interrupted[0] = true; }
+        });
+        consumer.start();
+        Thread.sleep(100);
+        consumer.interrupt();
+        consumer.join(2000);
+        assertTrue("take() must throw InterruptedException on interrupt", interrupted[0]);
+    }
+
+    // --- Unsupported operations ----------------------------------------------------
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testAddThrows() { new RingBlockingQueue<>(2).add("x"); }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testClearThrows() { new RingBlockingQueue<>(2).clear(); }
+}
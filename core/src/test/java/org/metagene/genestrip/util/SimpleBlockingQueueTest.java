@@ -164,14 +164,23 @@ public class SimpleBlockingQueueTest {
         assertTrue("Producer must have continued after take()", unblocked[0]);
     }
 
+    @Test
+    public void testOfferFailsWhenFull() throws InterruptedException {
+        SimpleBlockingQueue<Integer> q = new SimpleBlockingQueue<>(2);
+        assertTrue(q.offer(1));
+        assertTrue(q.offer(2));
+        assertFalse("Offer must not block on a full queue", q.offer(3));
+        assertEquals(Integer.valueOf(1), q.take());
+        assertTrue(q.offer(3));
+        assertEquals(Integer.valueOf(2), q.take());
+        assertEquals(Integer.valueOf(3), q.take());
+    }
+
     // --- Unsupported operations ----------------------------------------------
 
     @Test(expected = UnsupportedOperationException.class)
     public void testAddThrows() { new SimpleBlockingQueue<>(2).add("x"); }
 
-    @Test(expected = UnsupportedOperationException.class)
-    public void testOfferThrows() { new SimpleBlockingQueue<>(2).offer("x"); }
-
     @Test(expected = UnsupportedOperationException.class)
     public void testRemoveThrows() { new SimpleBlockingQueue<>(2).remove("x"); }
 
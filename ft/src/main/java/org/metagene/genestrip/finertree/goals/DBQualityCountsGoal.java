@@ -24,6 +24,8 @@
  */
 package org.metagene.genestrip.finertree.goals;
 
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
 import it.unimi.dsi.fastutil.objects.Object2LongMap;
 import org.metagene.genestrip.ExecutionContext;
 import org.metagene.genestrip.GSConfigKey;
@@ -67,7 +69,8 @@ public class DBQualityCountsGoal<P extends FTProject> extends FastaReaderGoal<Ma
     private SmallTaxTree tree;
     private KMerStore<SmallTaxTree.SmallTaxIdNode> kMerSortedArray;
     private XORKMerIndexBloomFilter filter;
-    private Map<String, Counts> map;
+    // Keyed by the node index of the leaf node in the tree. Tax id strings only come in for the result.
+    private Int2ObjectMap<Counts> map;
 
     /**
      * Creates the goal, depending on the accession map and the loaded database in addition to the
@@ -104,7 +107,7 @@ public class DBQualityCountsGoal<P extends FTProject> extends FastaReaderGoal<Ma
     @Override
     protected void doMakeThis() {
         try {
-            map = new HashMap<>();
+            map = new Int2ObjectOpenHashMap<>();
             tree = storeGoal.get().getTaxTree();
             Object2LongMap<String> stats = storeGoal.get().getStats();
             // Estimate the filter size by summing up from species to root for each species in the DB.
@@ -136,32 +139,26 @@ public class DBQualityCountsGoal<P extends FTProject> extends FastaReaderGoal<Ma
             }
             // Count tp plus fp
             // Add k-mers from species upwards for each species:
-            for (String taxid : map.keySet()) {
-                Counts counts = map.get(taxid);
-                SmallTaxTree.SmallTaxIdNode node = tree.getNodeByTaxId(taxid);
-                if (node != null) {
-                    counts.tpPlusFp += getPathSum(node, stats);
-                } else if (getLogger().isWarnEnabled()) {
-                    getLogger().warn("Missing node for taxid " + taxid + ".");
-                }
+            for (Int2ObjectMap.Entry<Counts> entry : map.int2ObjectEntrySet()) {
+                entry.getValue().tpPlusFp += getPathSum(tree.getNodeByIndex(entry.getIntKey()), stats);
             }
 
             // We need a separate map for averaging so that aggregations do not get mixed up e.g. between genus and species.
-            Map<String, Counts> aggMap = new HashMap<>();
+            Int2ObjectMap<Counts> aggMap = new Int2ObjectOpenHashMap<>();
             List<Rank> aggRanks = Arrays.asList(Rank.CELLULAR_ROOT, Rank.ACELLULAR_ROOT, Rank.SPECIES, Rank.GENUS);
             iterator = tree.iterator();
             while (iterator.hasNext()) {
                 SmallTaxTree.SmallTaxIdNode node = iterator.next();
-                Counts counts = map.get(node.getTaxId());
+                Counts counts = map.get(node.getNodeIndex());
                 if (counts != null) {
                     for (Rank rank : aggRanks) {
                         SmallTaxTree.SmallTaxIdNode rankedNode = toRankedNode(node, rank);
                         // No aggregation for node who are already contained in map.
-                        if (rankedNode != null && !map.containsKey(rankedNode.getTaxId())) {
-                            Counts c = aggMap.get(rankedNode.getTaxId());
+                        if (rankedNode != null && !map.containsKey(rankedNode.getNodeIndex())) {
+                            Counts c = aggMap.get(rankedNode.getNodeIndex());
                             if (c == null) {
                                 c = new Counts();
-                                aggMap.put(rankedNode.getTaxId(), c);
+                                aggMap.put(rankedNode.getNodeIndex(), c);
                             }
                             // Leads to a weighted average:
                             // Node weight is proportional to positives of each aggregated node
@@ -171,7 +168,12 @@ public class DBQualityCountsGoal<P extends FTProject> extends FastaReaderGoal<Ma
                 }
             }
             map.putAll(aggMap);
-            set(map);
+            Map<String, Counts> res = new HashMap<>();
+            for (Int2ObjectMap.Entry<Counts> entry : map.int2ObjectEntrySet()) {
+                res.put(tree.getNodeByIndex(entry.getIntKey()).getTaxId(), entry.getValue());
+            }
+            map = null;
+            set(res);
         } catch (IOException e) {
             throw new RuntimeException(e);
         } finally {
@@ -261,19 +263,15 @@ public class DBQualityCountsGoal<P extends FTProject> extends FastaReaderGoal<Ma
                             // Checks whether it's a duplicate under that taxid.
                             if (!filter.containsLongInt(kmer, index)) {
                                 filter.putLongInt(kmer, index);
-                                Counts counts = map.get(leafNode.getTaxId());
+                                Counts counts = map.get(leafNode.getNodeIndex());
                                 if (counts == null) {
                                     counts = new Counts();
-                                    map.put(leafNode.getTaxId(), counts);
+                                    map.put(leafNode.getNodeIndex(), counts);
                                 }
                                 counts.tpPlusFn++;
                                 // Is the stored node on path of the file's node?
-                                // Moving up from the file node to the potentially higher ranked stored node.
-                                SmallTaxTree.SmallTaxIdNode pathNode = leafNode;
-                                while (pathNode != null && pathNode != storedNode) {
-                                    pathNode = pathNode.getParent();
-                                }
-                                if (pathNode == storedNode) {
+                                // (The interval labels of the tree make this two compares.)
+                                if (tree.isAncestorOf(leafNode, storedNode)) {
                                     // Stored node on path from file node: True positive
                                     counts.tp++;
                                 }